@@ -0,0 +1,25 @@
+package benchmark;
+
+/**
+ * One measured operation. The runner calls {@link #run(int)} with a batch size
+ * and divides the elapsed time by it.
+ */
+public interface Benchmark {
+
+    /**
+     * @return unique name, used as key in the baseline file.
+     */
+    String getName();
+
+    /**
+     * Runs the operation the given number of times.
+     * 
+     * @param operations
+     *            how many times to run the operation
+     * @return a value computed from the results, so that the JIT can not
+     *         remove the work
+     * @throws Exception
+     *             if the operation failed
+     */
+    long run(int operations) throws Exception;
+}
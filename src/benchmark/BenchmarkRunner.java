@@ -0,0 +1,204 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Small benchmark harness: warms up every benchmark, measures its throughput
+ * in several timed iterations and compares the result to a saved baseline.
+ * Results that are slower than the baseline by more than
+ * {@link #REGRESSION_THRESHOLD} are reported as regressions.
+ */
+public class BenchmarkRunner {
+
+    private static final double REGRESSION_THRESHOLD = 0.10;
+
+    private int warmupIterations = 3;
+    private int measurementIterations = 5;
+    private long iterationNanos = 1_000_000_000L;
+    private Path baselineFile = Paths.get("benchmarks", "baseline.properties");
+    private boolean saveBaseline;
+    private Pattern filter = Pattern.compile(".*");
+
+    /** keeps the benchmark results alive */
+    static volatile long sink;
+
+    /** the results go here, the logging of the measured code is discarded */
+    private final PrintStream console = System.out;
+
+    /**
+     * Entry point.
+     * 
+     * @param args
+     *            options --warmup=N, --iterations=N, --time-ms=N,
+     *            --baseline=path, --filter=regex and --save to overwrite the
+     *            baseline with this run
+     * @throws IOException
+     *             if the baseline can not be read or written.
+     */
+    public static void main(String[] args) throws Exception {
+
+        BenchmarkRunner runner = new BenchmarkRunner();
+        for (String arg : args) {
+            runner.setOption(arg);
+        }
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        runner.runAll(Benchmarks.all());
+    }
+
+    private void setOption(String arg) {
+
+        if ("--save".equals(arg)) {
+            saveBaseline = true;
+            return;
+        }
+        int separator = arg.indexOf('=');
+        if (!arg.startsWith("--") || separator < 0) {
+            throw new IllegalArgumentException("Invalid option: " + arg);
+        }
+        String value = arg.substring(separator + 1);
+        switch (arg.substring(2, separator)) {
+        case "warmup":
+            warmupIterations = Integer.parseInt(value);
+            break;
+        case "iterations":
+            measurementIterations = Integer.parseInt(value);
+            break;
+        case "time-ms":
+            iterationNanos = Long.parseLong(value) * 1_000_000L;
+            break;
+        case "baseline":
+            baselineFile = Paths.get(value);
+            break;
+        case "filter":
+            filter = Pattern.compile(value);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+    }
+
+    private void runAll(List<Benchmark> benchmarks) throws Exception {
+
+        Properties baseline = loadBaseline();
+        Map<String, Double> results = new LinkedHashMap<>();
+        List<String> regressions = new ArrayList<>();
+        console.printf("%-45s %16s %10s %12s%n", "Benchmark", "ops/s", "error %", "vs baseline");
+        for (Benchmark benchmark : benchmarks) {
+            if (!filter.matcher(benchmark.getName()).find()) {
+                continue;
+            }
+            double[] measured = measure(benchmark);
+            double mean = mean(measured);
+            double errorPercent = mean == 0 ? 0 : 100 * standardDeviation(measured, mean) / mean;
+            results.put(benchmark.getName(), mean);
+
+            String comparison = "";
+            String saved = baseline.getProperty(benchmark.getName());
+            if (saved != null) {
+                double change = mean / Double.parseDouble(saved) - 1;
+                comparison = String.format("%+.1f%%", 100 * change);
+                if (change < -REGRESSION_THRESHOLD) {
+                    comparison += " REGRESSION";
+                    regressions.add(benchmark.getName());
+                }
+            }
+            console.printf("%-45s %16.1f %10.1f %12s%n", benchmark.getName(), mean, errorPercent, comparison);
+        }
+        if (!regressions.isEmpty()) {
+            console.println("Regressions: " + regressions);
+        }
+        if (saveBaseline) {
+            for (Map.Entry<String, Double> result : results.entrySet()) {
+                baseline.setProperty(result.getKey(), String.format("%.1f", result.getValue()));
+            }
+            storeBaseline(baseline);
+            console.println("Baseline saved to " + baselineFile);
+        }
+    }
+
+    /**
+     * Finds a batch size that takes about one iteration, runs the warmup
+     * iterations and returns the throughput of each measurement iteration.
+     */
+    private double[] measure(Benchmark benchmark) throws Exception {
+
+        // the first call pays for the lazy initialization, it is not measured
+        timeBatch(benchmark, 1);
+        int batch = 1;
+        long elapsed;
+        while ((elapsed = timeBatch(benchmark, batch)) < iterationNanos / 10 && batch < (1 << 30)) {
+            batch *= 2;
+        }
+        batch = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) batch * iterationNanos / Math.max(1, elapsed)));
+        for (int i = 0; i < warmupIterations; i++) {
+            timeBatch(benchmark, batch);
+        }
+        double[] throughput = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            throughput[i] = batch * 1e9 / timeBatch(benchmark, batch);
+        }
+        return throughput;
+    }
+
+    private static long timeBatch(Benchmark benchmark, int batch) throws Exception {
+
+        long start = System.nanoTime();
+        sink += benchmark.run(batch);
+        return System.nanoTime() - start;
+    }
+
+    private static double mean(double[] values) {
+
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double standardDeviation(double[] values, double mean) {
+
+        double sum = 0;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return values.length > 1 ? Math.sqrt(sum / (values.length - 1)) : 0;
+    }
+
+    private Properties loadBaseline() throws IOException {
+
+        Properties baseline = new Properties();
+        if (Files.exists(baselineFile)) {
+            try (Reader reader = Files.newBufferedReader(baselineFile, StandardCharsets.UTF_8)) {
+                baseline.load(reader);
+            }
+        }
+        return baseline;
+    }
+
+    private void storeBaseline(Properties baseline) throws IOException {
+
+        if (baselineFile.getParent() != null) {
+            Files.createDirectories(baselineFile.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(baselineFile, StandardCharsets.UTF_8)) {
+            baseline.store(writer, "ops/s per benchmark. " + System.getProperty("java.vm.name") + " "
+                    + System.getProperty("java.version") + ", " + Runtime.getRuntime().availableProcessors()
+                    + " cores");
+        }
+    }
+}
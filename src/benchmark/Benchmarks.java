@@ -0,0 +1,396 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bot.GuessStrategy;
+import game.Code;
+import game.ScoreTable;
+import game.Variant;
+import player.FreePlayers;
+import player.Player;
+import player.PlayersHolder;
+import thread.TaskExecutor;
+
+/**
+ * The benchmarks of the hot paths: scoring, input validation, listing the
+ * friend room and pairing in the random room.
+ */
+public final class Benchmarks {
+
+    private static final int SAMPLES = 1 << 12;
+    private static final int SAMPLE_MASK = SAMPLES - 1;
+    /** streams shared by the players that never read or write */
+    private static final PrintWriter IDLE_WRITER = new PrintWriter(Writer.nullWriter());
+    private static final BufferedReader IDLE_READER = new BufferedReader(new StringReader(""));
+
+    private Benchmarks() {
+    }
+
+    /**
+     * @return all benchmarks in the order they are run.
+     */
+    public static List<Benchmark> all() {
+
+        List<Benchmark> benchmarks = new ArrayList<>();
+        Random random = new Random(42);
+        int[] guesses = new int[SAMPLES];
+        int[] secrets = new int[SAMPLES];
+        String[] guessTexts = new String[SAMPLES];
+        String[] secretTexts = new String[SAMPLES];
+        String[] lines = new String[SAMPLES];
+        Variant hex = Variant.of(8, true, false);
+        long[] hexGuesses = new long[SAMPLES];
+        long[] hexSecrets = new long[SAMPLES];
+        int[] hexSecretDigits = new int[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            guesses[i] = Code.fromIndex(random.nextInt(Code.COUNT));
+            secrets[i] = Code.fromIndex(random.nextInt(Code.COUNT));
+            guessTexts[i] = Code.toString(guesses[i]);
+            secretTexts[i] = Code.toString(secrets[i]);
+            // mostly valid input as typed in a terminal, some of it invalid
+            lines[i] = i % 8 == 0 ? "12a4" : i % 8 == 1 ? "1123" : " " + guessTexts[i] + "\r";
+            hexGuesses[i] = hex.random(random);
+            hexSecrets[i] = hex.random(random);
+            hexSecretDigits[i] = hex.secretDigits(hexSecrets[i]);
+        }
+
+        benchmarks.add(operation("scoring.legacyNestedLoops", i -> {
+            String guess = guessTexts[i & SAMPLE_MASK];
+            String secret = secretTexts[i & SAMPLE_MASK];
+            return legacyCows(guess, secret) + legacyBulls(guess, secret);
+        }));
+        benchmarks.add(operation("scoring.table", i -> ScoreTable.score(guesses[i & SAMPLE_MASK],
+                secrets[i & SAMPLE_MASK])));
+        benchmarks.add(operation("scoring.bitmask", i -> ScoreTable.computeScore(guesses[i & SAMPLE_MASK],
+                secrets[i & SAMPLE_MASK])));
+        benchmarks.add(operation("scoring.variant.8-hex", i -> hex.score(hexGuesses[i & SAMPLE_MASK],
+                hexSecrets[i & SAMPLE_MASK], hexSecretDigits[i & SAMPLE_MASK])));
+
+        benchmarks.add(operation("validation.legacyRegex", i -> legacyIsValid(lines[i & SAMPLE_MASK]) ? 1 : 0));
+        benchmarks.add(operation("validation.parse", i -> Code.parse(lines[i & SAMPLE_MASK])));
+        benchmarks.add(readNumber(lines));
+
+        for (int size : new int[] { 10, 1_000, 100_000 }) {
+            benchmarks.add(listFriendRoom(size));
+            benchmarks.add(pageFriendRoomWithChurn(size));
+        }
+        int cores = Math.max(2, Runtime.getRuntime().availableProcessors());
+        benchmarks.add(new RandomRoomPairing(cores, 1));
+        benchmarks.add(new RandomRoomPairing(cores, cores));
+        benchmarks.add(joinAndListShardedFriendRoom(cores, 1));
+        benchmarks.add(joinAndListShardedFriendRoom(cores, cores));
+        return benchmarks;
+    }
+
+    /**
+     * Operation on the i-th sample.
+     */
+    private interface IndexedOperation {
+        long apply(int i);
+    }
+
+    private static Benchmark operation(String name, IndexedOperation operation) {
+
+        return new Benchmark() {
+
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public long run(int operations) {
+
+                long result = 0;
+                for (int i = 0; i < operations; i++) {
+                    result += operation.apply(i);
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * {@link Player#readNumber(Variant)} on a reader that repeats the sample lines
+     * forever, the replies to invalid lines are discarded.
+     */
+    private static Benchmark readNumber(String[] lines) {
+
+        String text = String.join("\n", lines) + "\n";
+        Player player = new Player(new PrintWriter(Writer.nullWriter()),
+                new BufferedReader(new RepeatingReader(text)));
+        return new Benchmark() {
+
+            @Override
+            public String getName() {
+                return "validation.readFourDigits";
+            }
+
+            @Override
+            public long run(int operations) throws IOException {
+
+                long result = 0;
+                for (int i = 0; i < operations; i++) {
+                    result += player.readNumber(Variant.CLASSIC);
+                }
+                return result;
+            }
+        };
+    }
+
+    private static Benchmark listFriendRoom(int size) {
+
+        FreePlayers room = new FreePlayers();
+        for (int i = 0; i < size; i++) {
+            room.addPlayerToFriendRoom(namedPlayer("player" + i));
+        }
+        return new Benchmark() {
+
+            @Override
+            public String getName() {
+                return "lobby.printFreePlayersIndexes." + size;
+            }
+
+            @Override
+            public long run(int operations) {
+
+                long result = 0;
+                for (int i = 0; i < operations; i++) {
+                    result += room.printFreePlayersIndexes().length();
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * One operation is a player leaving the room, another one joining it and a
+     * viewer asking for the first page, so no cached page can be reused.
+     */
+    private static Benchmark pageFriendRoomWithChurn(int size) {
+
+        FreePlayers room = new FreePlayers();
+        for (int i = 0; i < size; i++) {
+            room.addPlayerToFriendRoom(namedPlayer("player" + i));
+        }
+        return new Benchmark() {
+
+            private int oldestIndex = 1;
+
+            @Override
+            public String getName() {
+                return "lobby.firstPageWithChurn." + size;
+            }
+
+            @Override
+            public long run(int operations) throws Exception {
+
+                long result = 0;
+                for (int i = 0; i < operations; i++) {
+                    room.removePlayer(oldestIndex++);
+                    room.addPlayerToFriendRoom(namedPlayer("player" + i));
+                    result += room.getPage(0, 20).getText().length();
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Several threads at the same time: one operation is a player joining
+     * the friend room, the first page being listed and the player leaving.
+     */
+    private static Benchmark joinAndListShardedFriendRoom(int threads, int shards) {
+
+        FreePlayers room = new FreePlayers(shards);
+        for (int i = 0; i < 1_000; i++) {
+            room.addPlayerToFriendRoom(namedPlayer("player" + i));
+        }
+        return new Benchmark() {
+
+            @Override
+            public String getName() {
+                return "lobby.joinListLeave." + threads + "threads." + shards + "shards";
+            }
+
+            @Override
+            public long run(int operations) throws InterruptedException {
+
+                AtomicInteger listed = new AtomicInteger();
+                Thread[] workers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    int count = operations / threads + (t < operations % threads ? 1 : 0);
+                    workers[t] = new Thread(() -> {
+                        for (int i = 0; i < count; i++) {
+                            Player player = namedPlayer("joining" + i);
+                            room.addPlayerToFriendRoom(player);
+                            listed.addAndGet(room.getPage(0, 20).getCount());
+                            room.removePlayer(player);
+                        }
+                    });
+                    workers[t].start();
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                return listed.get();
+            }
+        };
+    }
+
+    private static Player namedPlayer(String name) {
+
+        Player player = new Player(IDLE_WRITER, IDLE_READER);
+        player.setName(name);
+        return player;
+    }
+
+    /**
+     * Pairs in the random room: several threads add players with
+     * {@link PlayersHolder#addPlayerToRandomRoom(Player)} at the same time, one
+     * operation is one pair that has been given a game. The games are only
+     * counted, not played.
+     */
+    private static class RandomRoomPairing implements Benchmark, TaskExecutor {
+
+        private final int producers;
+        private final int shards;
+        private final AtomicInteger startedGames = new AtomicInteger();
+        private final PlayersHolder holder;
+
+        RandomRoomPairing(int producers, int shards) {
+            this.producers = producers;
+            this.shards = shards;
+            holder = new PlayersHolder(this, GuessStrategy.byName("random"), false, shards);
+        }
+
+        @Override
+        public String getName() {
+            return "matchmaking.randomRoomPairing." + producers + "threads." + shards + "shards";
+        }
+
+        @Override
+        public long run(int operations) throws InterruptedException {
+
+            int expectedGames = startedGames.get() + operations;
+            int playersPerProducer = 2 * operations / producers;
+            Thread[] threads = new Thread[producers];
+            for (int t = 0; t < producers; t++) {
+                int count = t == 0 ? 2 * operations - playersPerProducer * (producers - 1) : playersPerProducer;
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < count; i++) {
+                        holder.addPlayerToRandomRoom(namedPlayer("random"));
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            while (startedGames.get() < expectedGames) {
+                Thread.yield();
+            }
+            return startedGames.get();
+        }
+
+        @Override
+        public void startSession(Runnable session) {
+        }
+
+        @Override
+        public void startGame(Runnable game) {
+            startedGames.incrementAndGet();
+        }
+
+        @Override
+        public void startService(Runnable service) {
+
+            Thread serviceThread = new Thread(service, "benchmark-matchmaker");
+            serviceThread.setDaemon(true);
+            serviceThread.start();
+        }
+
+        @Override
+        public int getLiveSessions() {
+            return 0;
+        }
+
+        @Override
+        public int getLiveGames() {
+            return 0;
+        }
+    }
+
+    /**
+     * Reader that returns the same text again and again.
+     */
+    private static class RepeatingReader extends Reader {
+
+        private final String text;
+        private int position;
+
+        RepeatingReader(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+
+            int count = Math.min(len, text.length() - position);
+            text.getChars(position, position + count, cbuf, off);
+            position = (position + count) % text.length();
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // The scoring and validation as they were before the packed numbers, kept
+    // as reference.
+
+    private static int legacyBulls(String number, String guess) {
+
+        int result = 0;
+        for (int i = 0; i < number.length(); i++) {
+            for (int j = 0; j < guess.length(); j++) {
+                if (guess.charAt(j) == number.charAt(i) && i == j) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int legacyCows(String number, String guess) {
+
+        int result = 0;
+        for (int i = 0; i < number.length(); i++) {
+            for (int j = 0; j < guess.length(); j++) {
+                if (guess.charAt(j) == number.charAt(i) && i != j) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean legacyIsValid(String line) {
+
+        String result = line.replaceAll("[^\\w]", "");
+        if ((result = result.trim()).matches("^\\d{4}$")) {
+            return result.chars().mapToObj(code -> (char) code).distinct().count() == 4;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,113 @@
+package bot;
+
+import game.Code;
+import game.ScoreTable;
+
+/**
+ * The numbers that can still be the secret of the opponent, kept as a bitset
+ * of {@link Code#COUNT} bits, one per number index.
+ */
+public class CandidateSet {
+
+    private static final int WORDS = (Code.COUNT + Long.SIZE - 1) / Long.SIZE;
+
+    private final long[] words = new long[WORDS];
+    private int size;
+
+    /**
+     * Makes a set that contains all valid numbers.
+     */
+    public CandidateSet() {
+        reset();
+    }
+
+    /**
+     * Puts all valid numbers back in the set.
+     */
+    public void reset() {
+
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = -1L;
+        }
+        words[WORDS - 1] = -1L >>> (WORDS * Long.SIZE - Code.COUNT);
+        size = Code.COUNT;
+    }
+
+    /**
+     * Removes the numbers that would not give this score to this guess.
+     * 
+     * @param guessIndex
+     *            index of the guessed number
+     * @param score
+     *            packed score of the guess, see {@link ScoreTable}
+     */
+    public void prune(int guessIndex, int score) {
+
+        int remaining = 0;
+        for (int word = 0; word < WORDS; word++) {
+            long bits = words[word];
+            long kept = bits;
+            while (bits != 0) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (ScoreTable.scoreOfIndexes(guessIndex, word * Long.SIZE + bit) != score) {
+                    kept &= ~(1L << bit);
+                }
+            }
+            words[word] = kept;
+            remaining += Long.bitCount(kept);
+        }
+        size = remaining;
+    }
+
+    /**
+     * @return number of candidates in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the number with this index is a candidate.
+     */
+    public boolean contains(int index) {
+        return (words[index / Long.SIZE] & (1L << index)) != 0;
+    }
+
+    /**
+     * @return the index of the candidate at this position, counting from 0 in
+     *         increasing index order.
+     */
+    public int get(int position) {
+
+        for (int word = 0; word < WORDS; word++) {
+            int count = Long.bitCount(words[word]);
+            if (position < count) {
+                long bits = words[word];
+                for (int i = 0; i < position; i++) {
+                    bits &= bits - 1;
+                }
+                return word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+            }
+            position -= count;
+        }
+        throw new IndexOutOfBoundsException("No candidate at " + position);
+    }
+
+    /**
+     * @return the indexes of all candidates in increasing order.
+     */
+    public int[] toIndexes() {
+
+        int[] indexes = new int[size];
+        int position = 0;
+        for (int word = 0; word < WORDS; word++) {
+            long bits = words[word];
+            while (bits != 0) {
+                indexes[position++] = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,90 @@
+package bot;
+
+import java.util.Random;
+
+import game.Variant;
+import player.Player;
+
+/**
+ * Computer opponent. Plays a random secret number and guesses with a
+ * {@link Solver}. Has no connection, everything written to it is ignored and
+ * it never asks for a new game.
+ */
+public class ComputerPlayer extends Player {
+
+    private static final String COMPUTER_NAME = "Computer";
+
+    private final Solver solver;
+    private final Random random;
+
+    /**
+     * Uses a random of its own: the player is made on one thread and plays on
+     * the thread of its game.
+     *
+     * @param strategy
+     *            strategy of the guesses
+     */
+    public ComputerPlayer(GuessStrategy strategy) {
+        this(strategy, new Random());
+    }
+
+    /**
+     * @param strategy
+     *            strategy of the guesses
+     * @param random
+     *            source of the secret number and of the guesses
+     */
+    public ComputerPlayer(GuessStrategy strategy, Random random) {
+        this.random = random;
+        this.solver = new Solver(strategy, random);
+        setName(COMPUTER_NAME);
+    }
+
+    @Override
+    public String askForName() {
+        return getName();
+    }
+
+    @Override
+    public long readStartingNumber(Variant variant) {
+
+        solver.reset(variant);
+        return variant.random(random);
+    }
+
+    @Override
+    public long readGuess(Variant variant) {
+        return solver.nextGuess();
+    }
+
+    @Override
+    public void onGuessScored(long guess, int score) {
+        solver.onScore(guess, score);
+    }
+
+    @Override
+    public boolean isRated() {
+        return false;
+    }
+
+    @Override
+    public String readLineFromPlayer() {
+        // the only question the computer is asked is for another game
+        return "no";
+    }
+
+    @Override
+    public void closeStreams() {
+        // no streams
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj;
+    }
+}
@@ -0,0 +1,251 @@
+package bot;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import game.Code;
+import game.ScoreTable;
+import game.Variant;
+
+/**
+ * Finds a number that agrees with all scores so far, for the variants whose
+ * numbers are too many to be kept in a {@link CandidateSet}: 16^10 of them
+ * for the largest. The numbers are never listed. They are built one digit at
+ * a time in a random order, depth first, and a prefix is dropped as soon as
+ * some guess gets more bulls or common digits from it than its score has, or
+ * can no longer get as many from the digits left. The first number built to
+ * the end agrees with every score.
+ *
+ * The search runs on the thread of the game, a worker shared by many games
+ * with the event driven sessions, so it looks at no more than
+ * {@link #STEPS_PER_GUESS} prefixes per guess and goes on from where it
+ * stopped at the next one. New scores only drop more numbers, so nothing
+ * left behind can be the secret and the search never starts over within a
+ * game. When it stops short, the guess is the prefix it stands at, which
+ * agrees with the scores as far as it goes, completed with the first digits
+ * allowed.
+ */
+class ConsistentSearch {
+
+    /** prefixes looked at for one guess, a few milliseconds for the largest variants */
+    static final int STEPS_PER_GUESS = 20_000;
+
+    private final Variant variant;
+    private final int length;
+    private long[] guesses = new long[16];
+    /** how often every digit is in the guess, four bits per digit */
+    private long[] guessCounts = new long[16];
+    private int[] bulls = new int[16];
+    /** bulls and cows together: the digits the guess has in common with the secret */
+    private int[] common = new int[16];
+    private int guessCount;
+
+    // the state of the search, kept from one guess to the next
+    private int[] prefixBulls = new int[16];
+    private int[] prefixCommon = new int[16];
+    /** digits tried at every position, in a random order */
+    private final int[][] order;
+    /** index in the order of the next digit to try at every position */
+    private final int[] next;
+    /** digit placed at every position of the prefix */
+    private final int[] placed;
+    private int depth;
+    private long prefix;
+    private int usedDigits;
+    private long prefixCounts;
+    private boolean started;
+
+    /**
+     * @param variant
+     *            the rules of the numbers
+     */
+    ConsistentSearch(Variant variant) {
+        this.variant = variant;
+        this.length = variant.getLength();
+        this.order = new int[length][variant.getBase()];
+        this.next = new int[length];
+        this.placed = new int[length];
+    }
+
+    /**
+     * @param guess
+     *            packed guess
+     * @param score
+     *            its packed score, see {@link ScoreTable}
+     */
+    void add(long guess, int score) {
+
+        if (guessCount == guesses.length) {
+            int capacity = guessCount * 2;
+            guesses = Arrays.copyOf(guesses, capacity);
+            guessCounts = Arrays.copyOf(guessCounts, capacity);
+            bulls = Arrays.copyOf(bulls, capacity);
+            common = Arrays.copyOf(common, capacity);
+            prefixBulls = Arrays.copyOf(prefixBulls, capacity);
+            prefixCommon = Arrays.copyOf(prefixCommon, capacity);
+        }
+        guesses[guessCount] = guess;
+        guessCounts[guessCount] = digitCounts(guess);
+        bulls[guessCount] = ScoreTable.bulls(score);
+        common[guessCount] = ScoreTable.bulls(score) + ScoreTable.cows(score);
+        // what the guess gets from the prefix the search stands at
+        int prefixBull = 0;
+        long counts = 0;
+        int prefixCommonDigits = 0;
+        for (int position = 0; position < depth; position++) {
+            int digit = placed[position];
+            if (variant.digitAt(guess, position) == digit) {
+                prefixBull++;
+            }
+            if (((guessCounts[guessCount] >>> (4 * digit)) & 0xF) > ((counts >>> (4 * digit)) & 0xF)) {
+                prefixCommonDigits++;
+            }
+            counts += 1L << (4 * digit);
+        }
+        prefixBulls[guessCount] = prefixBull;
+        prefixCommon[guessCount] = prefixCommonDigits;
+        guessCount++;
+    }
+
+    /**
+     * @param random
+     *            the order in which the digits are tried, drawn at the first
+     *            search of a game
+     * @return a number that agrees with all scores, or if none was found in
+     *         {@link #STEPS_PER_GUESS}, the best the search has so far;
+     *         {@link Code#INVALID} if no number agrees.
+     */
+    long find(Random random) {
+
+        if (!started) {
+            for (int[] digits : order) {
+                for (int i = 0; i < digits.length; i++) {
+                    int other = random.nextInt(i + 1);
+                    digits[i] = digits[other];
+                    digits[other] = i;
+                }
+            }
+            started = true;
+        }
+        int steps = 0;
+        while (true) {
+            if (depth == length) {
+                long found = prefix;
+                // the next search goes on after this number
+                pop();
+                return found;
+            }
+            if (next[depth] == order[depth].length) {
+                if (depth == 0) {
+                    return Code.INVALID;
+                }
+                next[depth] = 0;
+                pop();
+                continue;
+            }
+            int digit = order[depth][next[depth]];
+            if (!variant.allowsRepeats() && (usedDigits & (1 << digit)) != 0) {
+                next[depth]++;
+                continue;
+            }
+            if (++steps > STEPS_PER_GUESS) {
+                return complete();
+            }
+            next[depth]++;
+            if (place(depth, digit, length - depth - 1)) {
+                placed[depth] = digit;
+                prefix = prefix << 4 | digit;
+                usedDigits |= 1 << digit;
+                depth++;
+            } else {
+                unplace(depth, digit);
+            }
+        }
+    }
+
+    void reset() {
+
+        guessCount = 0;
+        Arrays.fill(next, 0);
+        depth = 0;
+        prefix = 0;
+        usedDigits = 0;
+        prefixCounts = 0;
+        started = false;
+    }
+
+    /** Takes the last digit off the prefix. */
+    private void pop() {
+
+        depth--;
+        int digit = placed[depth];
+        prefix >>>= 4;
+        usedDigits &= ~(1 << digit);
+        unplace(depth, digit);
+    }
+
+    /** @return the prefix completed with the first digits allowed */
+    private long complete() {
+
+        long guess = prefix;
+        int used = usedDigits;
+        for (int position = depth; position < length; position++) {
+            for (int digit : order[position]) {
+                if (variant.allowsRepeats() || (used & (1 << digit)) == 0) {
+                    guess = guess << 4 | digit;
+                    used |= 1 << digit;
+                    break;
+                }
+            }
+        }
+        return guess;
+    }
+
+    /**
+     * Adds the digit to the prefix and tells whether every guess can still
+     * get its score.
+     */
+    private boolean place(int position, int digit, int left) {
+
+        // how often the digit is in the prefix before this one
+        int before = (int) (prefixCounts >>> (4 * digit)) & 0xF;
+        prefixCounts += 1L << (4 * digit);
+        boolean possible = true;
+        for (int i = 0; i < guessCount; i++) {
+            if (variant.digitAt(guesses[i], position) == digit) {
+                prefixBulls[i]++;
+            }
+            if (((guessCounts[i] >>> (4 * digit)) & 0xF) > before) {
+                prefixCommon[i]++;
+            }
+            if (prefixBulls[i] > bulls[i] || prefixBulls[i] + left < bulls[i] || prefixCommon[i] > common[i]
+                    || prefixCommon[i] + left < common[i]) {
+                possible = false;
+            }
+        }
+        return possible;
+    }
+
+    private void unplace(int position, int digit) {
+
+        prefixCounts -= 1L << (4 * digit);
+        int before = (int) (prefixCounts >>> (4 * digit)) & 0xF;
+        for (int i = 0; i < guessCount; i++) {
+            if (variant.digitAt(guesses[i], position) == digit) {
+                prefixBulls[i]--;
+            }
+            if (((guessCounts[i] >>> (4 * digit)) & 0xF) > before) {
+                prefixCommon[i]--;
+            }
+        }
+    }
+
+    private long digitCounts(long packed) {
+
+        long counts = 0;
+        for (int position = 0; position < length; position++) {
+            counts += 1L << (4 * variant.digitAt(packed, position));
+        }
+        return counts;
+    }
+}
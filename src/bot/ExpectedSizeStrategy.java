@@ -0,0 +1,25 @@
+package bot;
+
+/**
+ * Picks the guess with the smallest expected number of candidates left after
+ * it, minimizing the average case. The expected size is the sum of the squared
+ * group sizes divided by the number of candidates, the division is the same
+ * for every guess and is left out.
+ */
+public class ExpectedSizeStrategy extends PartitionStrategy {
+
+    @Override
+    protected long cost(int[] partition) {
+
+        long sumOfSquares = 0;
+        for (int size : partition) {
+            sumOfSquares += (long) size * size;
+        }
+        return sumOfSquares;
+    }
+
+    @Override
+    public String toString() {
+        return "expected";
+    }
+}
@@ -0,0 +1,41 @@
+package bot;
+
+import java.util.Random;
+
+/**
+ * Picks the next guess of a {@link Solver} from its remaining candidates.
+ */
+public interface GuessStrategy {
+
+    /**
+     * @param candidates
+     *            the numbers that can still be the secret, never empty
+     * @param random
+     *            source of randomness for the pick
+     * @return index of the number to guess, see {@link game.Code#index(int)}
+     */
+    int nextGuess(CandidateSet candidates, Random random);
+
+    /**
+     * Finds the strategy with the given name: random, minimax or expected.
+     * 
+     * @param name
+     *            the name of the strategy
+     * @return the strategy
+     * @throws IllegalArgumentException
+     *             if there is no strategy with this name.
+     */
+    static GuessStrategy byName(String name) {
+
+        switch (name) {
+        case "random":
+            return new RandomConsistentStrategy();
+        case "minimax":
+            return new MinimaxStrategy();
+        case "expected":
+            return new ExpectedSizeStrategy();
+        default:
+            throw new IllegalArgumentException("Unknown guess strategy: " + name);
+        }
+    }
+}
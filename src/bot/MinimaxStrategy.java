@@ -0,0 +1,23 @@
+package bot;
+
+/**
+ * Picks the guess whose largest group of candidates with equal score is the
+ * smallest, minimizing the worst case.
+ */
+public class MinimaxStrategy extends PartitionStrategy {
+
+    @Override
+    protected long cost(int[] partition) {
+
+        int largest = 0;
+        for (int size : partition) {
+            largest = Math.max(largest, size);
+        }
+        return largest;
+    }
+
+    @Override
+    public String toString() {
+        return "minimax";
+    }
+}
@@ -0,0 +1,55 @@
+package bot;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import game.ScoreTable;
+
+/**
+ * Base of the strategies that look how each possible guess splits the
+ * candidates by score and pick the guess with the lowest cost of the split.
+ * Only candidates are tried as guesses and when there are many candidates
+ * only a random sample of them, so that the work per guess stays within
+ * {@link #MAX_SCORE_LOOKUPS} table lookups, well under a millisecond.
+ */
+public abstract class PartitionStrategy implements GuessStrategy {
+
+    private static final int MAX_SCORE_LOOKUPS = 200_000;
+    private static final int SCORE_VALUES = ScoreTable.pack(4, 0) + 1;
+
+    @Override
+    public int nextGuess(CandidateSet candidates, Random random) {
+
+        int[] secrets = candidates.toIndexes();
+        if (secrets.length <= 2) {
+            return secrets[0];
+        }
+        int guessesToTry = Math.max(1, Math.min(secrets.length, MAX_SCORE_LOOKUPS / secrets.length));
+        int stride = secrets.length / guessesToTry;
+        int offset = random.nextInt(secrets.length);
+        int[] partition = new int[SCORE_VALUES];
+
+        int bestGuess = secrets[offset];
+        long bestCost = Long.MAX_VALUE;
+        for (int i = 0; i < guessesToTry; i++) {
+            int guess = secrets[(offset + i * stride) % secrets.length];
+            for (int secret : secrets) {
+                partition[ScoreTable.scoreOfIndexes(guess, secret)]++;
+            }
+            long cost = cost(partition);
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestGuess = guess;
+            }
+            Arrays.fill(partition, 0);
+        }
+        return bestGuess;
+    }
+
+    /**
+     * @param partition
+     *            number of candidates for every packed score
+     * @return the cost of the split, lower is better.
+     */
+    protected abstract long cost(int[] partition);
+}
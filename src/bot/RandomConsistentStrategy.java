@@ -0,0 +1,20 @@
+package bot;
+
+import java.util.Random;
+
+/**
+ * Guesses a random number that is still a candidate. The fastest strategy,
+ * needs about six guesses on average.
+ */
+public class RandomConsistentStrategy implements GuessStrategy {
+
+    @Override
+    public int nextGuess(CandidateSet candidates, Random random) {
+        return candidates.get(random.nextInt(candidates.size()));
+    }
+
+    @Override
+    public String toString() {
+        return "random";
+    }
+}
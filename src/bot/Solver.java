@@ -0,0 +1,111 @@
+package bot;
+
+import java.util.Random;
+
+import game.Code;
+import game.ScoreTable;
+import game.Variant;
+
+/**
+ * Guesses the secret number of an opponent. For the classic numbers it keeps
+ * the candidates that agree with all scores so far and lets a
+ * {@link GuessStrategy} pick the next guess among them. The numbers of the
+ * other variants are too many to be kept, a {@link ConsistentSearch} builds a
+ * guess that agrees with all scores instead.
+ */
+public class Solver {
+
+    private final CandidateSet candidates = new CandidateSet();
+    private final GuessStrategy strategy;
+    private final Random random;
+    private Variant variant = Variant.CLASSIC;
+    /** the search of the current variant, null for the classic one */
+    private ConsistentSearch search;
+    private boolean firstGuess = true;
+
+    /**
+     * @param strategy
+     *            picks the guesses of the classic variant
+     * @param random
+     *            source of randomness for the strategy
+     */
+    public Solver(GuessStrategy strategy, Random random) {
+        this.strategy = strategy;
+        this.random = random;
+    }
+
+    /**
+     * @return the next guess, packed, see {@link Variant}.
+     */
+    public long nextGuess() {
+
+        if (firstGuess) {
+            // all first guesses are equally good
+            return variant.random(random);
+        }
+        if (search != null) {
+            long guess = search.find(random);
+            if (guess == Code.INVALID) {
+                throw new IllegalStateException("No number agrees with the scores");
+            }
+            return guess;
+        }
+        if (candidates.size() == 0) {
+            throw new IllegalStateException("No number agrees with the scores");
+        }
+        return Code.fromIndex(strategy.nextGuess(candidates, random));
+    }
+
+    /**
+     * Removes the candidates that do not agree with the score of a guess.
+     *
+     * @param guess
+     *            packed guess
+     * @param score
+     *            packed score, see {@link ScoreTable}
+     */
+    public void onScore(long guess, int score) {
+
+        firstGuess = false;
+        if (search != null) {
+            search.add(guess, score);
+        } else {
+            candidates.prune(Code.index((int) guess), score);
+        }
+    }
+
+    /**
+     * @return number of numbers that can still be the secret, -1 if they are
+     *         not counted, for the variants other than the classic one.
+     */
+    public int getCandidatesCount() {
+        return search == null ? candidates.size() : -1;
+    }
+
+    /**
+     * Forgets all scores, to start guessing a new secret.
+     */
+    public void reset() {
+        reset(variant);
+    }
+
+    /**
+     * Forgets all scores, to start guessing a new secret of a variant.
+     *
+     * @param variant
+     *            the rules of the numbers of the game
+     */
+    public void reset(Variant variant) {
+
+        firstGuess = true;
+        if (variant == Variant.CLASSIC) {
+            search = null;
+            candidates.reset();
+        } else if (variant != this.variant || search == null) {
+            search = new ConsistentSearch(variant);
+        } else {
+            search.reset();
+        }
+        this.variant = variant;
+    }
+}
@@ -0,0 +1,188 @@
+package cluster;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A message between two nodes of the cluster: its type, the node that sent
+ * it, the player it is about and a few text fields. The player is given by
+ * the id his own node has given him, see {@link ClusterNode}.
+ */
+public class ClusterMessage {
+
+    /**
+     * What the message asks or tells.
+     */
+    public enum Type {
+        /** a node has started, the others send it their friend rooms */
+        HELLO,
+        /** a player has joined the friend room of the sender: index, name */
+        FRIEND_JOINED,
+        /** a player has left the friend room of the sender: index */
+        FRIEND_LEFT,
+        /** the player of the receiver has been picked from the friend room of the sender */
+        FRIEND_TAKEN,
+        /** to the directory: the player waits in the random room of the sender */
+        RANDOM_WAITING,
+        /** to the directory: the player does not wait any more */
+        RANDOM_LEFT,
+        /** from the directory: pair the waiting player with the one of another node: node, id */
+        MATCH,
+        /** to the directory: the pair is made or given up: node, id of the other player */
+        MATCH_DONE,
+        /** to the directory: the waiting player is gone, pair the other one again: node, id */
+        MATCH_FAILED,
+        /** asks the node of the player to lend him for a game on the sender */
+        LEND,
+        /** the player is lent to the receiver: name */
+        LENT,
+        /** the player can not be lent, he is paired or gone */
+        REFUSED,
+        /** messages for the player, see {@link RelayCodec} */
+        OUTPUT,
+        /** asks for the next answer of the player: the variant id if it is a number */
+        READ,
+        /** ends the read of the player that is in progress */
+        CANCEL_READ,
+        /** an answer of the player: the line */
+        INPUT,
+        /** the read of the player has been cancelled */
+        CANCELLED,
+        /** the player has disconnected */
+        DISCONNECTED,
+        /** the borrower has closed the player */
+        CLOSE,
+        /** the borrower gives the player back, his session goes on at home */
+        RETURN,
+        /** keeps the connection between two nodes alive, see {@link ClusterTransport} */
+        PING
+    }
+
+    private static final Type[] TYPES = Type.values();
+    private static final String[] NO_FIELDS = new String[0];
+
+    private final Type type;
+    private final String sender;
+    private final long player;
+    private final String[] fields;
+
+    /**
+     * @param type
+     *            what the message asks or tells
+     * @param sender
+     *            name of the node that sends it
+     * @param player
+     *            id of the player it is about, 0 for none
+     * @param fields
+     *            the text fields of the type, null fields are allowed
+     */
+    public ClusterMessage(Type type, String sender, long player, String... fields) {
+        this.type = type;
+        this.sender = sender;
+        this.player = player;
+        this.fields = fields == null ? NO_FIELDS : fields;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public long getPlayer() {
+        return player;
+    }
+
+    /**
+     * @param position
+     *            position of the field
+     * @return the field, null if there is no such field
+     */
+    public String getField(int position) {
+        return position < fields.length ? fields[position] : null;
+    }
+
+    /**
+     * @return all fields, the array must not be changed
+     */
+    String[] getFields() {
+        return fields;
+    }
+
+    /**
+     * Writes the message to a stream between nodes, see
+     * {@link #readFrom(DataInputStream, String)}. The sender is not written,
+     * the receiver knows it from the connection.
+     *
+     * @param output
+     *            the stream
+     * @throws IOException
+     *             if writing failed.
+     */
+    public void writeTo(DataOutputStream output) throws IOException {
+
+        output.writeByte(type.ordinal());
+        output.writeLong(player);
+        output.writeShort(fields.length);
+        for (String field : fields) {
+            writeText(output, field);
+        }
+    }
+
+    /**
+     * @param input
+     *            a stream between nodes
+     * @param sender
+     *            name of the node that has opened the stream, as it has
+     *            proved it
+     * @return the next message of the stream
+     * @throws java.io.EOFException
+     *             if the stream has ended
+     * @throws IOException
+     *             if reading failed or the message is not valid.
+     */
+    public static ClusterMessage readFrom(DataInputStream input, String sender) throws IOException {
+
+        int ordinal = input.readUnsignedByte();
+        if (ordinal >= TYPES.length) {
+            throw new IOException("Unknown cluster message " + ordinal);
+        }
+        long player = input.readLong();
+        String[] fields = new String[input.readUnsignedShort()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = readText(input);
+        }
+        return new ClusterMessage(TYPES[ordinal], sender, player, fields);
+    }
+
+    private static void writeText(DataOutputStream output, String text) throws IOException {
+
+        if (text == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readText(DataInputStream input) throws IOException {
+
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return type + " from " + sender + " about " + player;
+    }
+}
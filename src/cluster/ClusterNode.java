@@ -0,0 +1,712 @@
+package cluster;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cluster.ClusterMessage.Type;
+import game.Code;
+import game.Variant;
+import metrics.Counter;
+import metrics.Metrics;
+import player.ClusterLink;
+import player.Player;
+import player.PlayersHolder;
+import protocol.Codec;
+import thread.TaskExecutor;
+import thread.Timeouts;
+
+/**
+ * One server of a cluster whose nodes share the random room and the friend
+ * room, so a player can be paired with or invite a player of another node.
+ *
+ * The friend rooms are copied to every node: a node tells the others who
+ * joins and leaves its room, and lists their players as {@link RemotePlayer}s
+ * under the indexes their nodes gave them. An invitation to such a player is
+ * relayed to his node, and when he accepts, his node lends him to the node
+ * of the inviter.
+ *
+ * The random room of the cluster is kept by the first node, see
+ * {@link MatchDirectory}. The nodes pair their own players first and tell it
+ * only about the players left waiting. When it pairs two players of
+ * different nodes, the node of the one who waited longer takes him out of
+ * its room and asks the node of the other to lend him. The time this takes,
+ * from the pair made by the directory to the game started, is the pairing
+ * latency of the cluster, see {@link Metrics#CLUSTER_PAIRING_LATENCY}.
+ *
+ * A game is hosted by the node that started it. The messages for a lent
+ * player and his answers are relayed between the two nodes, see
+ * {@link RelayCodec}; his connection stays on his own node, which reads it
+ * only when the host asks for an answer. When the game is over and he does
+ * not want a rematch, he goes back to his node, see
+ * {@link ClusterSessionDriver}.
+ *
+ * When a node is down, or has started again, the others forget its players:
+ * the games hosted for them end as if they had left, and the players lent to
+ * it go on with their sessions at home.
+ */
+public class ClusterNode implements ClusterLink, ClusterTransport.Receiver {
+
+    private static final Counter REMOTE_PAIRS = Metrics.REGISTRY.counter("cluster.remotePairs");
+    private static final Counter REMOTE_INVITES = Metrics.REGISTRY.counter("cluster.remoteInvites");
+    private static final Counter RELAYED_READS = Metrics.REGISTRY.counter("cluster.relayedReads");
+
+    private final String name;
+    private final List<String> members;
+    private final String directoryNode;
+    private final ClusterTransport transport;
+    private final PlayersHolder holder;
+    private final Timeouts timeouts;
+    /** the random room of the cluster, only on its first node */
+    private final MatchDirectory directory;
+    /** starts from the clock, so a node started again does not reuse the ids the others knew */
+    private final AtomicLong lastExportId = new AtomicLong(System.currentTimeMillis() << 16);
+    /** the players of this node known to the other nodes, by id */
+    private final Map<Long, Export> exports = new ConcurrentHashMap<>();
+    private final Map<Player, Export> exportsByPlayer = Collections.synchronizedMap(new IdentityHashMap<>());
+    /** the players of the other nodes known here, by node and id */
+    private final Map<String, RemotePlayer> remotePlayers = new ConcurrentHashMap<>();
+    /** players of this node taken out of the random room for a pair, by the other player */
+    private final Map<String, PendingMatch> pendingMatches = new ConcurrentHashMap<>();
+    private TaskExecutor executor;
+
+    /**
+     * @param name
+     *            name of this node
+     * @param members
+     *            names of all nodes of the cluster, this one included, in the
+     *            same order on every node. The first one keeps the random
+     *            room of the cluster.
+     * @param transport
+     *            carries the messages to the other nodes
+     * @param holder
+     *            the rooms of this node
+     * @param timeouts
+     *            how long the players of the other nodes have for their
+     *            answers to this one
+     * @throws IllegalArgumentException
+     *             if the node is not one of the members.
+     */
+    public ClusterNode(String name, List<String> members, ClusterTransport transport, PlayersHolder holder,
+            Timeouts timeouts) {
+
+        if (!members.contains(name)) {
+            throw new IllegalArgumentException("Node " + name + " is not a member of " + members);
+        }
+        this.name = name;
+        this.members = members;
+        this.directoryNode = members.get(0);
+        this.transport = transport;
+        this.holder = holder;
+        this.timeouts = timeouts;
+        this.directory = name.equals(directoryNode) ? new MatchDirectory() : null;
+        Metrics.REGISTRY.gauge("cluster.exportedPlayers", () -> exports.size());
+        Metrics.REGISTRY.gauge("cluster.remotePlayers", () -> remotePlayers.size());
+        if (directory != null) {
+            Metrics.REGISTRY.gauge("cluster.directoryWaiting", () -> directory.getWaitingCount());
+        }
+    }
+
+    /**
+     * Joins the cluster: the rooms of the holder start to be shared and the
+     * other nodes are asked for their friend rooms. Must be called before the
+     * node accepts players.
+     *
+     * @param executor
+     *            runs the threads of the transport and the relayed reads
+     * @throws IOException
+     *             if the transport can not be started.
+     */
+    public void start(TaskExecutor executor) throws IOException {
+
+        this.executor = executor;
+        holder.joinCluster(this, members.indexOf(name), members.size());
+        holder.setSessionDriver(new ClusterSessionDriver(holder.getSessionDriver(), this));
+        transport.start(name, this, executor);
+        broadcast(Type.HELLO, 0);
+        System.out.println("Node " + name + " has joined the cluster " + members);
+    }
+
+    /**
+     * Stops talking to the other nodes.
+     */
+    public void stop() {
+        transport.close();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void send(String node, Type type, long player, String... fields) {
+        transport.send(node, new ClusterMessage(type, name, player, fields));
+    }
+
+    private void broadcast(Type type, long player, String... fields) {
+
+        for (String member : members) {
+            if (!member.equals(name)) {
+                send(member, type, player, fields);
+            }
+        }
+    }
+
+    private static String key(String node, long player) {
+        return MatchDirectory.Waiting.key(node, player);
+    }
+
+    @Override
+    public void friendRoomJoined(int index, Player player) {
+
+        Export export = export(player);
+        export.friendIndex = index;
+        broadcast(Type.FRIEND_JOINED, export.id, Integer.toString(index), player.getName());
+    }
+
+    @Override
+    public void friendRoomLeft(Player player) {
+
+        Export export = exportsByPlayer.get(player);
+        if (export != null && export.friendIndex != 0) {
+            int index = export.friendIndex;
+            export.friendIndex = 0;
+            broadcast(Type.FRIEND_LEFT, export.id, Integer.toString(index));
+            release(export);
+        } else if (player instanceof RemotePlayer) {
+            // picked here from the room of his node
+            RemotePlayer remote = (RemotePlayer) player;
+            REMOTE_INVITES.increment();
+            send(remote.getNode(), Type.FRIEND_TAKEN, remote.getRemoteId());
+        }
+    }
+
+    @Override
+    public void randomRoomWaiting(Player player) {
+
+        Export export = export(player);
+        export.randomWaiting = true;
+        send(directoryNode, Type.RANDOM_WAITING, export.id);
+    }
+
+    @Override
+    public void randomRoomLeft(Player player) {
+
+        Export export = exportsByPlayer.get(player);
+        if (export == null || !export.randomWaiting) {
+            return;
+        }
+        export.randomWaiting = false;
+        send(directoryNode, Type.RANDOM_LEFT, export.id);
+        release(export);
+    }
+
+    @Override
+    public void received(ClusterMessage message) {
+
+        String from = message.getSender();
+        long player = message.getPlayer();
+        switch (message.getType()) {
+        case HELLO:
+            forgetNode(from);
+            sendFriendRoom(from);
+            if (from.equals(directoryNode)) {
+                sendRandomRoom();
+            }
+            break;
+        case FRIEND_JOINED:
+            remoteFriendJoined(from, player, Integer.parseInt(message.getField(0)), message.getField(1));
+            break;
+        case FRIEND_LEFT:
+            remoteFriendLeft(from, player);
+            break;
+        case FRIEND_TAKEN:
+            friendTaken(from, player);
+            break;
+        case RANDOM_WAITING:
+            if (directory != null) {
+                pairAcrossNodes(from, player);
+            }
+            break;
+        case RANDOM_LEFT:
+            if (directory != null) {
+                directory.withdraw(from, player);
+            }
+            break;
+        case MATCH:
+            hostMatch(player, message.getField(0), Long.parseLong(message.getField(1)));
+            break;
+        case MATCH_DONE:
+            if (directory != null) {
+                directory.paired(message.getField(0), Long.parseLong(message.getField(1)));
+            }
+            break;
+        case MATCH_FAILED:
+            if (directory != null) {
+                String node = message.getField(0);
+                long paired = Long.parseLong(message.getField(1));
+                MatchDirectory.Waiting host = directory.hostGone(node, paired);
+                if (host != null) {
+                    sendMatch(host, node, paired);
+                }
+            }
+            break;
+        case LEND:
+            lendForMatch(from, player);
+            break;
+        case LENT:
+            matchLent(from, player, message.getField(0));
+            break;
+        case REFUSED:
+            matchRefused(from, player);
+            break;
+        case OUTPUT:
+            Export output = exports.get(player);
+            if (output != null) {
+                RelayCodec.replay(message.getFields(), output.player);
+            }
+            break;
+        case READ:
+            relayRead(from, player, message.getField(0));
+            break;
+        case CANCEL_READ:
+            Export reading = exports.get(player);
+            if (reading != null) {
+                reading.player.getCodec().cancelRead();
+            }
+            break;
+        case INPUT:
+            RemotePlayer answering = remotePlayers.get(key(from, player));
+            if (answering != null) {
+                answering.getRelay().lineArrived(message.getField(0));
+            }
+            break;
+        case CANCELLED:
+            RemotePlayer cancelled = remotePlayers.get(key(from, player));
+            if (cancelled != null) {
+                cancelled.getRelay().readCancelled();
+            }
+            break;
+        case DISCONNECTED:
+            RemotePlayer gone = remotePlayers.remove(key(from, player));
+            if (gone != null) {
+                gone.getRelay().ended();
+            }
+            break;
+        case CLOSE:
+            Export closed = exports.get(player);
+            if (closed != null) {
+                unexport(closed);
+                closed.player.closeStreams();
+            }
+            break;
+        case RETURN:
+            Export returned = exports.get(player);
+            if (returned != null) {
+                unexport(returned);
+                returned.player.setDisconnectHandler(null);
+                holder.getSessionDriver().startSession(returned.player);
+            }
+            break;
+        default:
+            System.err.println("Unexpected cluster message " + message);
+        }
+    }
+
+    @Override
+    public void peerDown(String node) {
+
+        System.err.println("Cluster node " + node + " is down, its players are dropped on " + name);
+        forgetNode(node);
+    }
+
+    /**
+     * Ends the relays of the players of a node and the pairs made with them,
+     * and brings back the players lent to it.
+     */
+    private void forgetNode(String node) {
+
+        for (RemotePlayer remote : remotePlayers.values()) {
+            if (remote.getNode().equals(node) && remotePlayers.remove(key(node, remote.getRemoteId()), remote)) {
+                remote.getRelay().ended();
+            }
+        }
+        for (PendingMatch match : pendingMatches.values()) {
+            if (match.guestNode.equals(node)) {
+                matchRefused(node, match.guestId);
+            }
+        }
+        for (Export export : exports.values()) {
+            if (node.equals(export.borrower)) {
+                bringHome(export);
+            }
+        }
+        if (directory != null) {
+            for (MatchDirectory.Waiting orphan : directory.nodeGone(node)) {
+                pairAcrossNodes(orphan.node, orphan.player);
+            }
+        }
+    }
+
+    /**
+     * The node a player of this node is lent to is down, his game there is
+     * lost and his session goes on here. A relayed read in progress is
+     * cancelled first, which closes a connection that can only be read
+     * blocking.
+     */
+    private void bringHome(Export export) {
+
+        if (!unexport(export)) {
+            return;
+        }
+        Player player = export.player;
+        System.out.println(player.getName() + " is back from node " + export.borrower + ", which is down");
+        player.setDisconnectHandler(null);
+        if (export.reading) {
+            player.getCodec().cancelRead();
+        }
+        executor.startService(() -> {
+            synchronized (export.readLock) {
+                if (!player.isDisconnected()) {
+                    player.write("The server of your opponent has stopped, the game is over.");
+                }
+                holder.getSessionDriver().startSession(player);
+            }
+        });
+    }
+
+    /**
+     * Tells the directory again about the players waiting in the random room
+     * of this node, after it has started again.
+     */
+    private void sendRandomRoom() {
+
+        for (Export export : exports.values()) {
+            if (export.randomWaiting) {
+                send(directoryNode, Type.RANDOM_WAITING, export.id);
+            }
+        }
+    }
+
+    /**
+     * Lists the friend room of this node to a node that has just started.
+     */
+    private void sendFriendRoom(String node) {
+
+        for (Export export : exports.values()) {
+            int index = export.friendIndex;
+            if (index != 0) {
+                send(node, Type.FRIEND_JOINED, export.id, Integer.toString(index), export.player.getName());
+            }
+        }
+    }
+
+    private void remoteFriendJoined(String node, long id, int index, String playerName) {
+
+        RemotePlayer remote = newRemotePlayer(node, id, playerName);
+        RemotePlayer previous = remotePlayers.put(key(node, id), remote);
+        if (previous != null) {
+            holder.removeRemoteFromFriendRoom(previous);
+        }
+        remote.setDisconnectHandler(() -> holder.removeRemoteFromFriendRoom(remote));
+        if (!holder.addRemoteToFriendRoom(index, remote)) {
+            remotePlayers.remove(key(node, id), remote);
+        }
+    }
+
+    private void remoteFriendLeft(String node, long id) {
+
+        RemotePlayer remote = remotePlayers.get(key(node, id));
+        // a player picked here meanwhile is not in the room any more
+        if (remote != null && holder.removeRemoteFromFriendRoom(remote)) {
+            remotePlayers.remove(key(node, id), remote);
+        }
+    }
+
+    private RemotePlayer newRemotePlayer(String node, long id, String playerName) {
+
+        RemotePlayer remote = new RemotePlayer(this, node, id, playerName);
+        remote.setTimeouts(timeouts);
+        return remote;
+    }
+
+    /**
+     * A player of this node has accepted the invitation of a player of
+     * another node, who has taken him out of the friend room there.
+     */
+    private void friendTaken(String borrower, long id) {
+
+        Export export = exports.get(id);
+        if (export == null) {
+            send(borrower, Type.DISCONNECTED, id);
+            return;
+        }
+        export.borrower = borrower;
+        if (!holder.takeFromFriendRoom(export.player)) {
+            // picked by somebody else at the same time
+            export.borrower = null;
+            release(export);
+            send(borrower, Type.DISCONNECTED, id);
+            return;
+        }
+        lend(export, borrower);
+    }
+
+    /**
+     * The directory pairs a player left waiting on his node with one of
+     * another node, if there is one.
+     */
+    private void pairAcrossNodes(String node, long id) {
+
+        MatchDirectory.Waiting host = directory.offer(node, id);
+        if (host != null) {
+            sendMatch(host, node, id);
+        }
+    }
+
+    private void sendMatch(MatchDirectory.Waiting host, String node, long id) {
+        send(host.node, Type.MATCH, host.player, node, Long.toString(id));
+    }
+
+    /**
+     * The directory has paired a player waiting here with a player of another
+     * node. He is taken out of the random room and the other node is asked to
+     * lend its player.
+     */
+    private void hostMatch(long id, String guestNode, long guestId) {
+
+        Export export = exports.get(id);
+        if (export == null || !export.randomWaiting || !holder.takeFromRandomRoom(export.player)) {
+            send(directoryNode, Type.MATCH_FAILED, 0, guestNode, Long.toString(guestId));
+            return;
+        }
+        export.randomWaiting = false;
+        pendingMatches.put(key(guestNode, guestId), new PendingMatch(export, guestNode, guestId, System.nanoTime()));
+        send(guestNode, Type.LEND, guestId);
+    }
+
+    /**
+     * Another node hosts a game for a player waiting here, if he still waits.
+     */
+    private void lendForMatch(String host, long id) {
+
+        Export export = exports.get(id);
+        if (export == null || !export.randomWaiting || !holder.takeFromRandomRoom(export.player)) {
+            send(host, Type.REFUSED, id);
+            return;
+        }
+        export.randomWaiting = false;
+        Metrics.RANDOM_ROOM_WAIT.recordSince(export.player.getWaitingSince());
+        lend(export, host);
+        send(host, Type.LENT, id, export.player.getName());
+    }
+
+    private void matchLent(String guestNode, long guestId, String guestName) {
+
+        PendingMatch match = pendingMatches.remove(key(guestNode, guestId));
+        if (match == null) {
+            send(guestNode, Type.CLOSE, guestId);
+            return;
+        }
+        RemotePlayer guest = newRemotePlayer(guestNode, guestId, guestName);
+        remotePlayers.put(key(guestNode, guestId), guest);
+        Metrics.CLUSTER_PAIRING_LATENCY.recordSince(match.started);
+        REMOTE_PAIRS.increment();
+        send(directoryNode, Type.MATCH_DONE, 0, guestNode, Long.toString(guestId));
+        release(match.export);
+        holder.startClusterGame(match.export.player, guest);
+    }
+
+    private void matchRefused(String guestNode, long guestId) {
+
+        PendingMatch match = pendingMatches.remove(key(guestNode, guestId));
+        if (match == null) {
+            return;
+        }
+        send(directoryNode, Type.MATCH_DONE, 0, guestNode, Long.toString(guestId));
+        release(match.export);
+        holder.returnToRandomRoom(match.export.player);
+    }
+
+    /**
+     * From now on the player is played by another node, which is told when he
+     * disconnects.
+     */
+    private void lend(Export export, String borrower) {
+
+        export.borrower = borrower;
+        Player player = export.player;
+        player.setDisconnectHandler(() -> lentPlayerGone(export));
+        if (player.isDisconnected()) {
+            lentPlayerGone(export);
+        }
+    }
+
+    private void lentPlayerGone(Export export) {
+
+        unexport(export);
+        send(export.borrower, Type.DISCONNECTED, export.id);
+    }
+
+    /**
+     * Reads the next answer of a player of this node for another node. The
+     * read blocks, so it runs on a thread of its own; the reads of one player
+     * are made one at a time.
+     */
+    private void relayRead(String reader, long id, String variantId) {
+
+        Export export = exports.get(id);
+        if (export == null) {
+            send(reader, Type.DISCONNECTED, id);
+            return;
+        }
+        RELAYED_READS.increment();
+        executor.startService(() -> {
+            synchronized (export.readLock) {
+                // set before the check, so a node seen down meanwhile cancels the read
+                export.reading = true;
+                if (exports.get(id) != export) {
+                    export.reading = false;
+                    return;
+                }
+                try {
+                    String line = readRelayed(export.player.getCodec(), variantId);
+                    if (line != null) {
+                        send(reader, Type.INPUT, id, line);
+                        return;
+                    }
+                } catch (InterruptedIOException e) {
+                    send(reader, Type.CANCELLED, id);
+                    return;
+                } catch (IOException e) {
+                    // gone like at the end of the stream
+                } finally {
+                    export.reading = false;
+                }
+                export.player.onDisconnected();
+                send(reader, Type.DISCONNECTED, id);
+            }
+        });
+    }
+
+    /**
+     * Reads a line, or a number of the variant with the protocol of the
+     * player, sent as text: empty if it is not a valid number.
+     */
+    private static String readRelayed(Codec codec, String variantId) throws IOException {
+
+        if (variantId == null) {
+            return codec.readLine();
+        }
+        Variant variant = Variant.fromId(Integer.parseInt(variantId));
+        long code = codec.readCode(variant);
+        return code == Code.INVALID ? "" : variant.toString(code);
+    }
+
+    /**
+     * @return the export of the player, made if he has none.
+     */
+    private Export export(Player player) {
+
+        synchronized (exportsByPlayer) {
+            Export export = exportsByPlayer.get(player);
+            if (export == null) {
+                export = new Export(lastExportId.incrementAndGet(), player);
+                exportsByPlayer.put(player, export);
+                exports.put(export.id, export);
+            }
+            return export;
+        }
+    }
+
+    /**
+     * Forgets the export of a player who is in none of the rooms and not lent.
+     */
+    private void release(Export export) {
+
+        if (export.friendIndex == 0 && !export.randomWaiting && export.borrower == null) {
+            unexport(export);
+        }
+    }
+
+    /**
+     * @return false if the player was not exported any more.
+     */
+    private boolean unexport(Export export) {
+
+        synchronized (exportsByPlayer) {
+            exportsByPlayer.remove(export.player, export);
+            return exports.remove(export.id, export);
+        }
+    }
+
+    /**
+     * Gives a player of another node back to his node, where his session goes
+     * on.
+     *
+     * @param remote
+     *            the player, his game here is over
+     */
+    void sendHome(RemotePlayer remote) {
+
+        remote.flush();
+        remote.getRelay().detach();
+        send(remote.getNode(), Type.RETURN, remote.getRemoteId());
+    }
+
+    /**
+     * Called when a relayed player is closed here, his messages are not
+     * expected any more.
+     */
+    void forget(String node, long player) {
+        remotePlayers.remove(key(node, player));
+    }
+
+    /**
+     * A player of this node as the other nodes know him.
+     */
+    private static class Export {
+
+        private final long id;
+        private final Player player;
+        /** serializes the reads made for other nodes */
+        private final Object readLock = new Object();
+        /** index in the friend room, 0 if he is not in it */
+        private volatile int friendIndex;
+        /** true if the directory knows him as waiting in the random room */
+        private volatile boolean randomWaiting;
+        /** the node he is lent to, null if he is not lent */
+        private volatile String borrower;
+        /** true while he is read for the node he is lent to */
+        private volatile boolean reading;
+
+        Export(long id, Player player) {
+            this.id = id;
+            this.player = player;
+        }
+    }
+
+    /**
+     * A player taken out of the random room here, waiting for the node of his
+     * opponent to lend him.
+     */
+    private static class PendingMatch {
+
+        private final Export export;
+        private final String guestNode;
+        private final long guestId;
+        /** when the pair came from the directory, see {@link System#nanoTime()} */
+        private final long started;
+
+        PendingMatch(Export export, String guestNode, long guestId, long started) {
+            this.export = export;
+            this.guestNode = guestNode;
+            this.guestId = guestId;
+            this.started = started;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package cluster;
+
+import game.BullCowGame;
+import game.Rematch;
+import player.Player;
+import thread.SessionDriver;
+
+/**
+ * {@link SessionDriver} of a cluster node. A player of another node whose
+ * game here is over goes back to his own node for the rest of his session,
+ * so no player is relayed through more than one node. Everything else is done
+ * by the driver of the node.
+ */
+public class ClusterSessionDriver implements SessionDriver {
+
+    private final SessionDriver driver;
+    private final ClusterNode cluster;
+
+    /**
+     * @param driver
+     *            runs the sessions and games of the node
+     * @param cluster
+     *            sends the players of the other nodes back
+     */
+    public ClusterSessionDriver(SessionDriver driver, ClusterNode cluster) {
+        this.driver = driver;
+        this.cluster = cluster;
+    }
+
+    @Override
+    public void startSession(Player player) {
+
+        if (player instanceof RemotePlayer) {
+            cluster.sendHome((RemotePlayer) player);
+            return;
+        }
+        driver.startSession(player);
+    }
+
+    @Override
+    public void startGame(BullCowGame game) {
+        driver.startGame(game);
+    }
+
+    @Override
+    public void askForRematch(Rematch rematch, int slot) {
+        driver.askForRematch(rematch, slot);
+    }
+
+    @Override
+    public int getLiveSessions() {
+        return driver.getLiveSessions();
+    }
+
+    @Override
+    public int getLiveGames() {
+        return driver.getLiveGames();
+    }
+}
@@ -0,0 +1,70 @@
+package cluster;
+
+import java.io.IOException;
+
+import thread.TaskExecutor;
+
+/**
+ * Carries the messages between the nodes of a cluster. The messages from one
+ * node to another arrive in the order they were sent. When messages to or
+ * from a node may have been lost, because it has stopped, can not be reached
+ * or does not keep up, the receiver is told that the node is down. The nodes
+ * recover from that the way they recover from players who leave.
+ */
+public interface ClusterTransport {
+
+    /**
+     * Takes the messages that arrive at a node.
+     */
+    interface Receiver {
+
+        /**
+         * Called on a thread of the transport, one message at a time per
+         * sending node. It must not block.
+         *
+         * @param message
+         *            the message
+         */
+        void received(ClusterMessage message);
+
+        /**
+         * Called on a thread of the transport when messages to or from the
+         * node may have been lost, so what is known of its players can not
+         * be trusted any more. Can be called more than once for the same
+         * failure. It must not block.
+         *
+         * @param node
+         *            name of the node
+         */
+        void peerDown(String node);
+    }
+
+    /**
+     * Starts receiving the messages of the node.
+     *
+     * @param node
+     *            name of this node
+     * @param receiver
+     *            takes the messages
+     * @param executor
+     *            runs the threads of the transport
+     * @throws IOException
+     *             if the node can not be reached by the others.
+     */
+    void start(String node, Receiver receiver, TaskExecutor executor) throws IOException;
+
+    /**
+     * Sends a message without waiting for it to be delivered.
+     *
+     * @param node
+     *            name of the receiving node
+     * @param message
+     *            the message
+     */
+    void send(String node, ClusterMessage message);
+
+    /**
+     * Stops sending and receiving.
+     */
+    void close();
+}
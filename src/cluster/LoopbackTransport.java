@@ -0,0 +1,93 @@
+package cluster;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import metrics.Counter;
+import metrics.Metrics;
+import thread.TaskExecutor;
+
+/**
+ * Transport between the nodes that run in the same JVM, so a whole cluster
+ * can be started and tested on one machine. Every node has an inbox that one
+ * thread delivers in order; sending only adds to the inbox of the receiver.
+ * A node that is closed adds a {@link ClusterMessage.Type#PING} to the inbox
+ * of every other node, which tells them after its last messages that it is
+ * down.
+ */
+public class LoopbackTransport implements ClusterTransport {
+
+    private static final Counter DROPPED = Metrics.REGISTRY.counter("cluster.messagesDropped");
+    /** the nodes started in this JVM, by name */
+    private static final Map<String, LoopbackTransport> NODES = new ConcurrentHashMap<>();
+    /** wakes up the delivering thread when the transport is closed */
+    private static final ClusterMessage CLOSED = new ClusterMessage(ClusterMessage.Type.CLOSE, null, 0);
+
+    private final BlockingQueue<ClusterMessage> inbox = new LinkedBlockingQueue<>();
+    private volatile String node;
+    private volatile Receiver receiver;
+
+    @Override
+    public void start(String node, Receiver receiver, TaskExecutor executor) throws IOException {
+
+        if (NODES.putIfAbsent(node, this) != null) {
+            throw new IOException("Node " + node + " is already running in this JVM");
+        }
+        this.node = node;
+        this.receiver = receiver;
+        executor.startService(this::deliver);
+    }
+
+    /**
+     * Hands the messages of the inbox to the receiver until the transport is
+     * closed.
+     */
+    private void deliver() {
+
+        while (true) {
+            ClusterMessage message;
+            try {
+                message = inbox.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (message == CLOSED) {
+                return;
+            }
+            try {
+                if (message.getType() == ClusterMessage.Type.PING) {
+                    receiver.peerDown(message.getSender());
+                    continue;
+                }
+                receiver.received(message);
+            } catch (RuntimeException e) {
+                System.err.println("Cluster message " + message + " failed on " + node + ": " + e);
+            }
+        }
+    }
+
+    @Override
+    public void send(String node, ClusterMessage message) {
+
+        LoopbackTransport target = NODES.get(node);
+        if (target == null) {
+            DROPPED.increment();
+            return;
+        }
+        target.inbox.add(message);
+    }
+
+    @Override
+    public void close() {
+
+        if (node != null && NODES.remove(node, this)) {
+            inbox.add(CLOSED);
+            for (LoopbackTransport other : NODES.values()) {
+                other.inbox.add(new ClusterMessage(ClusterMessage.Type.PING, node, 0));
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The random room of the whole cluster, kept by its first node. The nodes
+ * pair their own players first and tell the directory only about the players
+ * left waiting alone, so it sees about one player per node. A player is
+ * paired with the one that has waited longest on another node. The node of
+ * that one hosts the game, see {@link ClusterNode}.
+ *
+ * The directory can be behind the nodes: a player it pairs may have been
+ * paired at home meanwhile. The nodes then tell it which of the two players
+ * is still waiting and it pairs him again.
+ */
+class MatchDirectory {
+
+    /** players waiting, the longest waiting first, by node and id */
+    private final LinkedHashMap<String, Waiting> waiting = new LinkedHashMap<>();
+    /** pairs whose host has not confirmed them yet, by the paired player */
+    private final Map<String, Pair> pairing = new HashMap<>();
+
+    /**
+     * A player of one node who waits in the random room.
+     */
+    static class Waiting {
+
+        final String node;
+        final long player;
+
+        Waiting(String node, long player) {
+            this.node = node;
+            this.player = player;
+        }
+
+        String key() {
+            return key(node, player);
+        }
+
+        static String key(String node, long player) {
+            return node + '/' + player;
+        }
+    }
+
+    /**
+     * A player paired with the player of another node who hosts the game.
+     */
+    private static class Pair {
+
+        final Waiting player;
+        final Waiting host;
+
+        Pair(Waiting player, Waiting host) {
+            this.player = player;
+            this.host = host;
+        }
+    }
+
+    /**
+     * A player has been left waiting on his node.
+     *
+     * @param node
+     *            node of the player
+     * @param player
+     *            id of the player on his node
+     * @return the player of another node who has to host the game with him,
+     *         null if he has to wait.
+     */
+    synchronized Waiting offer(String node, long player) {
+
+        Waiting arriving = new Waiting(node, player);
+        String key = arriving.key();
+        if (waiting.containsKey(key) || pairing.containsKey(key)) {
+            return null;
+        }
+        for (Iterator<Waiting> players = waiting.values().iterator(); players.hasNext();) {
+            Waiting host = players.next();
+            if (!host.node.equals(node)) {
+                players.remove();
+                pairing.put(key, new Pair(arriving, host));
+                return host;
+            }
+        }
+        waiting.put(key, arriving);
+        return null;
+    }
+
+    /**
+     * The player does not wait any more.
+     *
+     * @param node
+     *            node of the player
+     * @param player
+     *            id of the player on his node
+     */
+    synchronized void withdraw(String node, long player) {
+
+        String key = Waiting.key(node, player);
+        if (waiting.remove(key) == null) {
+            pairing.remove(key);
+        }
+    }
+
+    /**
+     * The host has made the pair, or has given up on it because the paired
+     * player is gone.
+     *
+     * @param node
+     *            node of the paired player
+     * @param player
+     *            id of the paired player on his node
+     */
+    synchronized void paired(String node, long player) {
+        pairing.remove(Waiting.key(node, player));
+    }
+
+    /**
+     * The player chosen as the host is gone, the paired player waits again.
+     *
+     * @param node
+     *            node of the paired player
+     * @param player
+     *            id of the paired player on his node
+     * @return the new host of the paired player, null if he waits.
+     */
+    Waiting hostGone(String node, long player) {
+
+        synchronized (this) {
+            if (pairing.remove(Waiting.key(node, player)) == null) {
+                // he has left meanwhile
+                return null;
+            }
+        }
+        return offer(node, player);
+    }
+
+    /**
+     * A node is down: its players do not wait any more, and the players
+     * paired with one of them are taken out of their pairs.
+     *
+     * @param node
+     *            name of the node
+     * @return the players whose host was on the node, to be offered again.
+     */
+    synchronized List<Waiting> nodeGone(String node) {
+
+        waiting.values().removeIf(player -> player.node.equals(node));
+        List<Waiting> orphans = new ArrayList<>();
+        for (Iterator<Pair> pairs = pairing.values().iterator(); pairs.hasNext();) {
+            Pair pair = pairs.next();
+            if (pair.player.node.equals(node)) {
+                pairs.remove();
+            } else if (pair.host.node.equals(node)) {
+                pairs.remove();
+                orphans.add(pair.player);
+            }
+        }
+        return orphans;
+    }
+
+    /**
+     * @return number of the players waiting for a player of another node.
+     */
+    synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+}
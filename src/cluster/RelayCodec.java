@@ -0,0 +1,346 @@
+package cluster;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import game.Code;
+import game.Variant;
+import player.LobbyPage;
+import player.Player;
+import protocol.Codec;
+import protocol.Prompt;
+
+/**
+ * Codec of a player whose connection is on another node of the cluster. What
+ * is appended is sent to that node at the flush, in one message, and put on
+ * the connection of the player there with his own protocol. A read asks that
+ * node for the next answer of the player and waits for it.
+ *
+ * The node of the player answers every read once, with the line, with the end
+ * of the connection or with the news that the read was cancelled. A read that
+ * is cancelled here still waits for that answer before it asks again, so the
+ * node never reads the connection twice at the same time.
+ */
+class RelayCodec implements Codec {
+
+    private static final String TEXT = "text";
+    private static final String VARIANT = "variant";
+    private static final String PROMPT = "prompt";
+    private static final String SCORE = "score";
+    private static final String OPPONENT_GUESS = "opponent";
+    private static final String GAME_OVER = "over";
+    private static final String LOBBY = "lobby";
+
+    private final ClusterNode cluster;
+    private final String node;
+    private final long player;
+    private final List<String> appended = new ArrayList<>();
+    private final ArrayDeque<String> arrived = new ArrayDeque<>();
+    /** reads asked from the node of the player and not answered yet */
+    private int unanswered;
+    private boolean cancelled;
+    private boolean ended;
+    private volatile Runnable disconnectListener;
+
+    /**
+     * @param cluster
+     *            sends the messages
+     * @param node
+     *            the node the player is connected to
+     * @param player
+     *            id of the player on his node
+     */
+    RelayCodec(ClusterNode cluster, String node, long player) {
+        this.cluster = cluster;
+        this.node = node;
+        this.player = player;
+    }
+
+    @Override
+    public synchronized void appendText(String line) {
+
+        appended.add(TEXT);
+        appended.add(line);
+    }
+
+    @Override
+    public synchronized void appendPrompt(Prompt prompt, String text) {
+
+        appended.add(PROMPT);
+        appended.add(prompt.name());
+        appended.add(text);
+    }
+
+    @Override
+    public synchronized void appendVariant(Variant variant) {
+
+        appended.add(VARIANT);
+        appended.add(Integer.toString(variant.getId()));
+    }
+
+    @Override
+    public synchronized void appendScore(long guess, int score) {
+
+        appended.add(SCORE);
+        appended.add(Long.toString(guess));
+        appended.add(Integer.toString(score));
+    }
+
+    @Override
+    public synchronized void appendOpponentGuess(String opponentName, Variant variant, long guess, int score) {
+
+        appended.add(OPPONENT_GUESS);
+        appended.add(opponentName);
+        appended.add(Integer.toString(variant.getId()));
+        appended.add(Long.toString(guess));
+        appended.add(Integer.toString(score));
+    }
+
+    @Override
+    public synchronized void appendGameOver(boolean won, String winnerName) {
+
+        appended.add(GAME_OVER);
+        appended.add(Boolean.toString(won));
+        appended.add(winnerName);
+    }
+
+    @Override
+    public synchronized void appendLobby(LobbyPage page) {
+
+        appended.add(LOBBY);
+        appended.add(Long.toString(page.getVersion()));
+        appended.add(page.getText());
+        appended.add(Boolean.toString(page.hasMore()));
+        appended.add(Integer.toString(page.getPageSize()));
+        appended.add(Integer.toString(page.getCount()));
+        for (int i = 0; i < page.getCount(); i++) {
+            appended.add(Integer.toString(page.getIndex(i)));
+            appended.add(page.getName(i));
+        }
+    }
+
+    /**
+     * Sends what has been appended to the node of the player. The node counts
+     * what it puts on the connection, so 0 is returned here.
+     */
+    @Override
+    public int flush() {
+
+        String[] fields;
+        synchronized (this) {
+            if (appended.isEmpty()) {
+                return 0;
+            }
+            fields = appended.toArray(new String[0]);
+            appended.clear();
+        }
+        cluster.send(node, ClusterMessage.Type.OUTPUT, player, fields);
+        return 0;
+    }
+
+    /**
+     * Puts the messages sent by {@link #flush()} on the connection of the
+     * player, with his own codec.
+     *
+     * @param fields
+     *            the fields of the message
+     * @param target
+     *            the player on this node
+     */
+    static void replay(String[] fields, Player target) {
+
+        Codec codec = target.getCodec();
+        int position = 0;
+        while (position < fields.length) {
+            switch (fields[position++]) {
+            case TEXT:
+                codec.appendText(fields[position++]);
+                break;
+            case VARIANT:
+                codec.appendVariant(Variant.fromId(Integer.parseInt(fields[position++])));
+                break;
+            case PROMPT:
+                codec.appendPrompt(Prompt.valueOf(fields[position]), fields[position + 1]);
+                position += 2;
+                break;
+            case SCORE:
+                codec.appendScore(Long.parseLong(fields[position]), Integer.parseInt(fields[position + 1]));
+                position += 2;
+                break;
+            case OPPONENT_GUESS:
+                codec.appendOpponentGuess(fields[position], Variant.fromId(Integer.parseInt(fields[position + 1])),
+                        Long.parseLong(fields[position + 2]), Integer.parseInt(fields[position + 3]));
+                position += 4;
+                break;
+            case GAME_OVER:
+                codec.appendGameOver(Boolean.parseBoolean(fields[position]), fields[position + 1]);
+                position += 2;
+                break;
+            case LOBBY:
+                long version = Long.parseLong(fields[position]);
+                String text = fields[position + 1];
+                boolean hasMore = Boolean.parseBoolean(fields[position + 2]);
+                int pageSize = Integer.parseInt(fields[position + 3]);
+                int count = Integer.parseInt(fields[position + 4]);
+                position += 5;
+                int[] indexes = new int[count];
+                String[] names = new String[count];
+                for (int i = 0; i < count; i++) {
+                    indexes[i] = Integer.parseInt(fields[position++]);
+                    names[i] = fields[position++];
+                }
+                codec.appendLobby(new LobbyPage(version, text, indexes, names, count, hasMore, pageSize));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown relayed message " + fields[position - 1]);
+            }
+        }
+        target.flush();
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        return read(null);
+    }
+
+    /**
+     * Asks the node of the player for his next answer, unless an answer is
+     * there already, and waits for it.
+     *
+     * @param variant
+     *            the variant of the game if a number is read, the node of the
+     *            player then reads it with his own protocol and sends it as
+     *            text; null for a line
+     */
+    private synchronized String read(Variant variant) throws IOException {
+
+        try {
+            while (true) {
+                if (!arrived.isEmpty()) {
+                    return arrived.poll();
+                }
+                if (ended) {
+                    return null;
+                }
+                if (cancelled) {
+                    cancelled = false;
+                    throw new InterruptedIOException("Read of a remote player cancelled");
+                }
+                if (unanswered == 0) {
+                    unanswered++;
+                    if (variant == null) {
+                        cluster.send(node, ClusterMessage.Type.READ, player);
+                    } else {
+                        cluster.send(node, ClusterMessage.Type.READ, player, Integer.toString(variant.getId()));
+                    }
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a remote player");
+        }
+    }
+
+    @Override
+    public long readCode(Variant variant) throws IOException {
+
+        String line = read(variant);
+        if (line == null) {
+            throw new EOFException("Client disconnected");
+        }
+        return line.isEmpty() ? Code.INVALID : variant.parse(line);
+    }
+
+    /**
+     * Wakes up the read that waits here and asks the node of the player to
+     * cancel its read. The connection of the player stays open as far as
+     * this node knows; if his node has to close it, that comes as a
+     * disconnect.
+     */
+    @Override
+    public boolean cancelRead() {
+
+        synchronized (this) {
+            cancelled = true;
+            notifyAll();
+        }
+        cluster.send(node, ClusterMessage.Type.CANCEL_READ, player);
+        return true;
+    }
+
+    /**
+     * @param line
+     *            an answer of the player, read by his node
+     */
+    synchronized void lineArrived(String line) {
+
+        unanswered = Math.max(0, unanswered - 1);
+        arrived.add(line);
+        notifyAll();
+    }
+
+    /**
+     * The node of the player has cancelled a read.
+     */
+    synchronized void readCancelled() {
+
+        unanswered = Math.max(0, unanswered - 1);
+        notifyAll();
+    }
+
+    /**
+     * The player has disconnected from his node.
+     */
+    void ended() {
+
+        synchronized (this) {
+            ended = true;
+            notifyAll();
+        }
+        Runnable listener = disconnectListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * The player has gone back to his node, nothing is relayed any more.
+     */
+    void detach() {
+
+        synchronized (this) {
+            ended = true;
+            notifyAll();
+        }
+        cluster.forget(node, player);
+    }
+
+    @Override
+    public void setDisconnectListener(Runnable listener) {
+        disconnectListener = listener;
+    }
+
+    /**
+     * Tells the node of the player to close his connection, unless it has
+     * ended already.
+     */
+    @Override
+    public void close() {
+
+        boolean wasEnded;
+        synchronized (this) {
+            wasEnded = ended;
+            ended = true;
+            notifyAll();
+        }
+        if (!wasEnded) {
+            cluster.send(node, ClusterMessage.Type.CLOSE, player);
+        }
+        cluster.forget(node, player);
+    }
+}
@@ -0,0 +1,55 @@
+package cluster;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import player.Player;
+
+/**
+ * A player connected to another node of the cluster, as this node sees him:
+ * listed in the friend room, invited, or in a game hosted here. Everything
+ * sent to him and read from him goes through his node, see
+ * {@link RelayCodec}.
+ */
+public class RemotePlayer extends Player {
+
+    private final String node;
+    private final long remoteId;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    RemotePlayer(ClusterNode cluster, String node, long remoteId, String name) {
+        super(new RelayCodec(cluster, node, remoteId));
+        this.node = node;
+        this.remoteId = remoteId;
+        setName(name);
+    }
+
+    /**
+     * @return name of the node the player is connected to
+     */
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * @return id of the player on his node
+     */
+    public long getRemoteId() {
+        return remoteId;
+    }
+
+    RelayCodec getRelay() {
+        return (RelayCodec) getCodec();
+    }
+
+    /**
+     * Closes the player on his node. His connection is counted there, not
+     * here.
+     */
+    @Override
+    public void closeStreams() {
+
+        if (closed.compareAndSet(false, true)) {
+            getCodec().close();
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import metrics.Counter;
+import metrics.Metrics;
+import thread.TaskExecutor;
+
+/**
+ * Transport between nodes on different machines. Every node listens on its
+ * own address and keeps one outgoing connection per node it sends to. The
+ * messages of a connection are written by one thread from a queue and
+ * flushed when the queue is empty, so a burst of messages costs few writes.
+ * An idle connection sends a {@link ClusterMessage.Type#PING} now and then,
+ * so a node that hears nothing from another for a while takes it as down.
+ * So does it when a connection breaks, with the messages queued for it, or
+ * when too many messages wait for the other node. A broken connection is
+ * opened again.
+ *
+ * A node listens only on the address it has among the members and accepts
+ * only connections from the addresses of the members, its own included. The
+ * node that connects proves its name with the secret shared by the cluster:
+ * it answers a random challenge of the accepting node with an HMAC of the
+ * challenge and both names. The messages of the connection are then taken as
+ * sent by that node, whatever they say. The messages themselves are not
+ * encrypted.
+ */
+public class TcpTransport implements ClusterTransport {
+
+    private static final Counter DROPPED = Metrics.REGISTRY.counter("cluster.messagesDropped");
+    private static final int MAX_QUEUED = 100_000;
+    private static final long RECONNECT_MILLIS = 500;
+    private static final long HEARTBEAT_MILLIS = 1000;
+    private static final int PEER_TIMEOUT_MILLIS = 5000;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+    private static final int CHALLENGE_LENGTH = 32;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final SecureRandom RANDOM = new SecureRandom();
+    /** wakes up the writing threads when the transport is closed */
+    private static final ClusterMessage CLOSED = new ClusterMessage(ClusterMessage.Type.CLOSE, null, 0);
+    private static final ClusterMessage PING = new ClusterMessage(ClusterMessage.Type.PING, null, 0);
+
+    private final Map<String, InetSocketAddress> members;
+    private final SecretKeySpec secret;
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+    private String node;
+    private ServerSocket serverSocket;
+    private Receiver receiver;
+    private TaskExecutor executor;
+
+    /**
+     * @param members
+     *            address of every node of the cluster, this one included
+     * @param secret
+     *            the secret shared by the nodes of the cluster, not empty
+     */
+    public TcpTransport(Map<String, InetSocketAddress> members, byte[] secret) {
+        this.members = members;
+        this.secret = new SecretKeySpec(secret, MAC_ALGORITHM);
+    }
+
+    /**
+     * @param address
+     *            address of a node in the form host:port
+     * @return the address
+     * @throws IllegalArgumentException
+     *             if the address has no port.
+     */
+    public static InetSocketAddress addressOf(String address) {
+
+        int separator = address.lastIndexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Cluster address without port: " + address);
+        }
+        return new InetSocketAddress(address.substring(0, separator),
+                Integer.parseInt(address.substring(separator + 1)));
+    }
+
+    @Override
+    public void start(String node, Receiver receiver, TaskExecutor executor) throws IOException {
+
+        InetSocketAddress address = members.get(node);
+        if (address == null) {
+            throw new IOException("Node " + node + " has no address");
+        }
+        this.node = node;
+        this.receiver = receiver;
+        this.executor = executor;
+        serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+        executor.startService(this::accept);
+    }
+
+    private void accept() {
+
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (!isMemberAddress(socket.getInetAddress())) {
+                    System.err.println("Cluster connection from " + socket.getRemoteSocketAddress()
+                            + " refused, not a member address");
+                    socket.close();
+                    continue;
+                }
+                socket.setTcpNoDelay(true);
+                executor.startService(() -> receive(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Cluster connection not accepted: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean isMemberAddress(InetAddress address) {
+
+        for (InetSocketAddress member : members.values()) {
+            if (matches(member, address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the connection can come from the member, any address
+     *         can when the member listens on all of its interfaces.
+     */
+    private static boolean matches(InetSocketAddress member, InetAddress address) {
+
+        InetAddress memberAddress = member.getAddress();
+        return memberAddress == null || memberAddress.isAnyLocalAddress() || memberAddress.equals(address);
+    }
+
+    /**
+     * Hands the messages of one incoming connection to the receiver until it
+     * ends, once the connecting node has proved its name. The node is down
+     * when the connection ends or stays silent too long.
+     */
+    private void receive(Socket socket) {
+
+        String sender = null;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            sender = authenticate(socket, input);
+            if (sender == null) {
+                System.err.println("Cluster connection from " + socket.getRemoteSocketAddress()
+                        + " refused, wrong proof of the secret");
+                return;
+            }
+            socket.setSoTimeout(PEER_TIMEOUT_MILLIS);
+            while (!closed) {
+                ClusterMessage message = ClusterMessage.readFrom(input, sender);
+                if (message.getType() == ClusterMessage.Type.PING) {
+                    continue;
+                }
+                try {
+                    receiver.received(message);
+                } catch (RuntimeException e) {
+                    System.err.println("Cluster message " + message + " failed: " + e);
+                }
+            }
+        } catch (EOFException e) {
+            // the other node has closed the connection
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Cluster connection from " + socket.getRemoteSocketAddress() + " lost: "
+                        + e.getMessage());
+            }
+        }
+        if (sender != null && !closed) {
+            peerFailed(sender);
+        }
+    }
+
+    /**
+     * Drops the messages queued for a node whose connection has failed, so
+     * they are not taken for the messages of a new connection, and tells the
+     * receiver.
+     */
+    private void peerFailed(String node) {
+
+        Peer peer = peers.get(node);
+        if (peer != null) {
+            peer.reset();
+        }
+        receiver.peerDown(node);
+    }
+
+    /**
+     * Challenges the node that has opened the connection.
+     *
+     * @return the name of the node, null if it is not a member connecting
+     *         from its address or does not know the secret.
+     */
+    private String authenticate(Socket socket, DataInputStream input) throws IOException {
+
+        byte[] challenge = new byte[CHALLENGE_LENGTH];
+        RANDOM.nextBytes(challenge);
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+        output.write(challenge);
+        output.flush();
+        String sender = input.readUTF();
+        byte[] proof = new byte[input.readUnsignedByte()];
+        input.readFully(proof);
+        socket.setSoTimeout(0);
+        InetSocketAddress address = members.get(sender);
+        if (address == null || !matches(address, socket.getInetAddress())
+                || !MessageDigest.isEqual(proof, proof(challenge, sender, node))) {
+            return null;
+        }
+        return sender;
+    }
+
+    /**
+     * @return the HMAC with the secret of the challenge sent to the receiver
+     *         and of both names.
+     */
+    private byte[] proof(byte[] challenge, String sender, String receiver) {
+
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(challenge);
+            mac.update(sender.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(receiver.getBytes(StandardCharsets.UTF_8));
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            // every Java platform has HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void send(String node, ClusterMessage message) {
+
+        InetSocketAddress address = members.get(node);
+        if (address == null || closed) {
+            DROPPED.increment();
+            return;
+        }
+        Peer peer = peers.get(node);
+        if (peer == null) {
+            peer = peers.computeIfAbsent(node, name -> {
+                Peer started = new Peer(name, address);
+                executor.startService(started::write);
+                return started;
+            });
+        }
+        if (peer.queue.size() >= MAX_QUEUED) {
+            // the receiver is told on a thread of the transport, not the one of the sender
+            System.err.println("Too many cluster messages wait for node " + node + ", taken as down");
+            DROPPED.increment();
+            peer.reset();
+            executor.startService(() -> receiver.peerDown(node));
+            return;
+        }
+        peer.queue.add(message);
+    }
+
+    @Override
+    public void close() {
+
+        closed = true;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Cluster socket can not be closed: " + e.getMessage());
+        }
+        for (Peer peer : peers.values()) {
+            peer.queue.add(CLOSED);
+        }
+    }
+
+    /**
+     * The outgoing connection to one node.
+     */
+    private class Peer {
+
+        private final String name;
+        private final InetSocketAddress address;
+        private final BlockingQueue<ClusterMessage> queue = new LinkedBlockingQueue<>();
+        /** the open connection, null while it is being opened or after a reset */
+        private Socket connection;
+
+        Peer(String name, InetSocketAddress address) {
+            this.name = name;
+            this.address = address;
+        }
+
+        /**
+         * Writes the queued messages until the transport is closed, opening
+         * the connection again when it breaks. The node is down when a write
+         * fails, unless the connection has been reset for that already.
+         */
+        void write() {
+
+            while (!closed) {
+                Socket socket;
+                try {
+                    socket = connect();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (socket == null) {
+                    return;
+                }
+                try (socket) {
+                    DataOutputStream output = new DataOutputStream(
+                            new BufferedOutputStream(socket.getOutputStream()));
+                    while (true) {
+                        ClusterMessage message = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                        if (message == CLOSED || closed) {
+                            return;
+                        }
+                        (message == null ? PING : message).writeTo(output);
+                        if (queue.isEmpty()) {
+                            output.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    if (!closed && release(socket)) {
+                        System.err.println("Cluster connection to " + address + " lost: " + e.getMessage());
+                        peerFailed(name);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Drops the queued messages and closes the connection, the writing
+         * thread opens a new one.
+         */
+        void reset() {
+
+            Socket socket;
+            synchronized (this) {
+                socket = connection;
+                connection = null;
+                DROPPED.add(queue.size());
+                queue.clear();
+            }
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // the writing thread fails on it anyway
+                }
+            }
+        }
+
+        /**
+         * @return false if the connection has been reset meanwhile.
+         */
+        private synchronized boolean release(Socket socket) {
+
+            if (connection != socket) {
+                return false;
+            }
+            connection = null;
+            return true;
+        }
+
+        /**
+         * @return the connection, with the name of this node proved, null if
+         *         the transport has been closed before it could be opened.
+         */
+        private Socket connect() throws InterruptedException {
+
+            while (!closed) {
+                Socket socket = new Socket();
+                try {
+                    // from the address the other nodes know this one by
+                    InetAddress own = members.get(node).getAddress();
+                    if (own != null && !own.isAnyLocalAddress()) {
+                        socket.bind(new InetSocketAddress(own, 0));
+                    }
+                    socket.connect(address);
+                    socket.setTcpNoDelay(true);
+                    prove(socket);
+                    synchronized (this) {
+                        connection = socket;
+                    }
+                    return socket;
+                } catch (IOException e) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                        // it was never open
+                    }
+                    Thread.sleep(RECONNECT_MILLIS);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Answers the challenge of the other node.
+         */
+        private void prove(Socket socket) throws IOException {
+
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            byte[] challenge = new byte[CHALLENGE_LENGTH];
+            new DataInputStream(socket.getInputStream()).readFully(challenge);
+            socket.setSoTimeout(0);
+            byte[] proof = proof(challenge, node, name);
+            DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+            output.writeUTF(node);
+            output.writeByte(proof.length);
+            output.write(proof);
+            output.flush();
+        }
+    }
+}
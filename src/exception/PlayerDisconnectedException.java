@@ -0,0 +1,24 @@
+package exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the connection of a player has ended, the client has closed it
+ * or it has failed. The player is gone for good, his streams are already
+ * closed when this is thrown.
+ */
+public class PlayerDisconnectedException extends IOException {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L;
+
+    public PlayerDisconnectedException(String message) {
+        super(message);
+    }
+
+    public PlayerDisconnectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,37 @@
+package exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a player does not answer in the time he has, see
+ * {@link thread.Timeouts}. It is an {@link IOException}, so the code that
+ * handles a lost connection handles a player who is gone the same way.
+ */
+public class PlayerTimeoutException extends IOException {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L;
+
+    private final boolean disconnected;
+
+    /**
+     * @param message
+     *            what the player did not answer
+     * @param disconnected
+     *            true if the connection of the player had to be closed to stop
+     *            waiting for him
+     */
+    public PlayerTimeoutException(String message, boolean disconnected) {
+        super(message);
+        this.disconnected = disconnected;
+    }
+
+    /**
+     * @return true if the connection of the player has been closed.
+     */
+    public boolean isDisconnected() {
+        return disconnected;
+    }
+}
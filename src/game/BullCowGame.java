@@ -1,19 +1,29 @@
 package game;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import bot.ComputerPlayer;
+import exception.PlayerTimeoutException;
+import history.GameRecord;
+import journal.GameJournal;
+import journal.RecoveredGame;
+import journal.ResumeCodes;
+import metrics.Metrics;
 import player.Player;
 import player.PlayersHolder;
-import thread.PlayerWrapperThread;
+import protocol.Prompt;
 
 /**
- * This class represents a game of bulls and cows.
+ * This class represents a game of bulls and cows. The game is a state
+ * machine: the players choose their numbers, then guess in turns until one of
+ * them guesses or forfeits, and every move is an event given to it. It is
+ * driven either by a thread of its own, see {@link #run()}, or by the input
+ * of the players as it arrives, see {@link session.GameActor}.
  */
 public class BullCowGame implements Runnable {
 
-    private static final int END_GAME_MESSAGE_TIME_TO_SEE = 10000;
-
     private Player player1;// the player that starts first
     private Player player2;// the player that is second
     AtomicBoolean isOver = new AtomicBoolean(false);
@@ -23,10 +33,40 @@ public class BullCowGame implements Runnable {
      * NewPlayerThread
      */
     private PlayersHolder holder;
+    /**
+     * where the moves are recorded, so the game survives a crash of the
+     * server.
+     */
+    private GameJournal journal;
+    /** the rules of the numbers of the game */
+    private final Variant variant;
+    private long gameId;
+    /** whose number the game waits for, 0 for player1, 1 for player2 */
+    private int expectedSlot;
+    /** true while the players choose their starting numbers */
+    private boolean choosingNumbers = true;
+    private int questionNumber;
+    /** when the open question was asked, see {@link System#nanoTime()} */
+    private long askedAt;
+    /**
+     * the state of the game before the crash, null for a new game.
+     */
+    private RecoveredGame recovered;
+    /**
+     * the guesses made so far, kept for the history of the games.
+     */
+    private long[] guesses = new long[16];
+    private int guessCount;
+    /**
+     * what the scoring needs of the secret numbers besides the numbers, by
+     * slot, see {@link Variant#secretDigits(long)}.
+     */
+    private final int[] secretDigits = new int[2];
 
     /**
      * general purpose constructor, initializes data. Two players and a holder
-     * to return the players after the game has ended.
+     * to return the players after the game has ended. The game is played with
+     * the variant of the server, see {@link PlayersHolder#getVariant()}.
      * 
      * @param player1
      *            the player that was asked to play
@@ -37,145 +77,325 @@ public class BullCowGame implements Runnable {
      *            to NewPlayerThread
      */
     public BullCowGame(Player player1, Player player2, PlayersHolder holder) {
+        this(player1, player2, holder, holder.getVariant());
+    }
+
+    /**
+     * Constructor for a game with its own variant.
+     * 
+     * @param player1
+     *            the player that was asked to play
+     * @param player2
+     *            the player that started the game
+     * @param holder
+     *            the holder , because when the game ends, player must be given
+     *            to NewPlayerThread
+     * @param variant
+     *            the rules of the numbers of the game
+     */
+    public BullCowGame(Player player1, Player player2, PlayersHolder holder, Variant variant) {
         this.player1 = player1;
         this.player2 = player2;
         this.holder = holder;
+        this.journal = holder.getJournal();
+        this.variant = variant;
+    }
+
+    /**
+     * Constructor for a game interrupted by a crash of the server. The game
+     * continues from the last move recorded in the journal.
+     * 
+     * @param player1
+     *            the player in the first slot of the recovered game
+     * @param player2
+     *            the player in the second slot of the recovered game
+     * @param holder
+     *            the holder , because when the game ends, player must be given
+     *            to NewPlayerThread
+     * @param recovered
+     *            the game as rebuilt from the journal
+     */
+    public BullCowGame(Player player1, Player player2, PlayersHolder holder, RecoveredGame recovered) {
+        this(player1, player2, holder, recovered.getVariant());
+        this.recovered = recovered;
+        this.gameId = recovered.getGameId();
     }
 
     /**
-     * The start of the game. Asks each player about his starting number and run
-     * the game. see @StartGame().
-     *
+     * Runs the whole game on the current thread: reads the answer the game
+     * waits for, hands it to the game and does so until the game is over. A
+     * player who does not play in time or disconnects loses the game.
      */
     public void run() {
-        startGameMessage();
-        try {
-            readStartingNumber(player1);
-            readStartingNumber(player2);
-        } catch (IOException e1) {
-            e1.printStackTrace();
-            return;
+
+        start();
+        while (!isOver.get()) {
+            int slot = expectedSlot;
+            Player asked = getPlayer(slot);
+            long code;
+            try {
+                code = choosingNumbers ? asked.readStartingNumber(variant) : asked.readGuess(variant);
+            } catch (PlayerTimeoutException e) {
+                onTimeout(slot, e.getMessage());
+                continue;
+            } catch (IOException e) {
+                onLeft(slot, e);
+                continue;
+            }
+            onCode(slot, code);
         }
-        try {
-            startGame();
-        } catch (IOException e) {
-            e.printStackTrace();
-            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Starts the game and asks its first question. The game then moves on
+     * only by the events given to it: {@link #onCode(int, long)},
+     * {@link #onTimeout(int, String)} and {@link #onLeft(int, IOException)}.
+     * The computer is not waited for, its answers are taken as soon as it is
+     * asked. The game is not thread safe, its events have to come one at a
+     * time.
+     */
+    public void start() {
+
+        Metrics.GAMES_STARTED.mark();
+        long[] resumeCodes = { ResumeCodes.NONE, ResumeCodes.NONE };
+        if (recovered == null) {
+            boolean secondIsComputer = player2 instanceof ComputerPlayer;
+            if (journal != GameJournal.DISABLED) {
+                resumeCodes[0] = ResumeCodes.next();
+                resumeCodes[1] = secondIsComputer ? ResumeCodes.NONE : ResumeCodes.next();
+            }
+            gameId = journal.gameStarted(player1.getName(), player2.getName(), secondIsComputer, variant,
+                    resumeCodes[0], resumeCodes[1]);
         }
+        // left from the last game of the same players
+        player1.setPlayerNumber(Code.INVALID);
+        player2.setPlayerNumber(Code.INVALID);
+        startGameMessage(resumeCodes);
+        askNext();
     }
 
     /**
-     * Method for reading the asked player number with which he will play this
-     * game.
+     * A number from a player: his starting number while the players choose
+     * them, a guess after that. An invalid number is refused and the player
+     * is asked again.
      * 
-     * @throws IOException
-     *             if problem with IO of the player.
+     * @param slot
+     *            0 for the first player, 1 for the second
+     * @param code
+     *            the packed number, {@link Code#INVALID} if it was not one
+     * @return false if the game does not wait for a number from this player,
+     *         the number is not used.
      */
-    public void readStartingNumber(Player currentPlayer) throws IOException {
+    public boolean onCode(int slot, long code) {
 
-        currentPlayer.write("Please insert your starting number: ");
-        currentPlayer.setPlayerNumber(currentPlayer.readFourDigits());
+        if (isOver.get() || slot != expectedSlot) {
+            return false;
+        }
+        if (code == Code.INVALID) {
+            getPlayer(slot).write("Invalid or incorrect number.");
+            return true;
+        }
+        accept(code);
+        askNext();
+        return true;
     }
 
     /**
-     * The game method. Base logic of the game here.
+     * The player the game waits for has not answered in time, he loses the
+     * game. Ignored if the game does not wait for this player any more.
      * 
-     * @throws IOException
+     * @param slot
+     *            0 for the first player, 1 for the second
+     * @param reason
+     *            what the player has not answered
      */
-    public void startGame() throws IOException {
-        Player playerOnTurn = player1;
-        Player playerOffTurn = player2;
-        while (!isOver.get()) {
-            // asking player is first
-            String playerOnTurnGuess = getPlayerGuess(playerOnTurn);
-            String playerOffTurnNumber = playerOffTurn.getPlayerNumber();
-            int playerOnTurnCows = calculateCows(playerOnTurnGuess, playerOffTurnNumber);
-            int playerOnTurnBulls = calculateBulls(playerOnTurnGuess, playerOffTurnNumber);
-
-            System.out.println(
-                    playerOnTurn.getName() + "guessed " + playerOnTurnCows + " cows " + playerOnTurnBulls + " bulls.");
-            String guessString = " --> " + playerOnTurnCows + " cows, " + playerOnTurnBulls + " bulls.";
-
-            playerOnTurn.write(guessString);
-            playerOffTurn.write("\t" + playerOnTurn.getName() + "'s Guess: "
-                    + playerOnTurnGuess + System.lineSeparator() + guessString);
-
-            if (checkForWinner(playerOnTurnBulls)) {
-                endGameMessage(playerOnTurn, playerOffTurn);
-                isOver.set(true);
-            } else {
-                Player temp = playerOnTurn;
-                playerOnTurn = playerOffTurn;
-                playerOffTurn = temp;
-            }
-        }
-        try {
-            Thread.sleep(END_GAME_MESSAGE_TIME_TO_SEE);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    public void onTimeout(int slot, String reason) {
+
+        if (isOver.get() || slot != expectedSlot) {
             return;
         }
-        // TODO new Thread
-        askPlayersForNewGame(player1);
-        askPlayersForNewGame(player2);
+        forfeitByTimeout(getPlayer(slot), reason);
     }
 
     /**
-     * Gets the player guessed digits and returns them as String.
+     * A player has disconnected, he loses the game, whether it is his turn or
+     * not.
      * 
-     * @param currentPlayerOnTurn
-     *            the player that has to make a move.
-     * @throws IOException
-     *             if there is IO problem with the player.
+     * @param slot
+     *            0 for the first player, 1 for the second
+     * @param cause
+     *            how the connection has ended
      */
-    public String getPlayerGuess(Player currentPlayerOnTurn) throws IOException {
+    public void onLeft(int slot, IOException cause) {
 
-        currentPlayerOnTurn.write("Please make your guess: ");
-        return currentPlayerOnTurn.readFourDigits();
+        if (isOver.get()) {
+            return;
+        }
+        forfeitByDisconnect(getPlayer(slot), cause);
     }
 
     /**
-     * counts the number of bulls for the current guess of the player.
-     * 
-     * @param number
-     *            the number of the player, with which he plays the game.
-     * @param guess
-     *            the other player`s guess number.
-     * @return cows return integer how many cows the player who guessed has.
-     */
-    private int calculateBulls(String number, String guess) {
-
-        int result = 0;
-        for (int i = 0; i < number.length(); i++) {
-            for (int j = 0; j < guess.length(); j++) {
-                if (guess.charAt(j) == number.charAt(i) && i == j) {
-                    result++;
+     * @param slot
+     *            0 for the first player, 1 for the second
+     * @return the player
+     */
+    public Player getPlayer(int slot) {
+        return slot == 0 ? player1 : player2;
+    }
+
+    /**
+     * @return the slot of the player whose number the game waits for, -1 if
+     *         the game is over.
+     */
+    public int getExpectedSlot() {
+        return isOver.get() ? -1 : expectedSlot;
+    }
+
+    /**
+     * @return how many questions the game has asked, so a deadline can tell
+     *         whether the question it was set for is still open.
+     */
+    public int getQuestionNumber() {
+        return questionNumber;
+    }
+
+    public boolean isOver() {
+        return isOver.get();
+    }
+
+    /**
+     * @return the rules of the numbers of the game.
+     */
+    public Variant getVariant() {
+        return variant;
+    }
+
+    /**
+     * Asks the question the game waits an answer for. Answers the questions
+     * of the computer and takes the numbers recorded before a crash, until
+     * the question is for a person or the game is over.
+     */
+    private void askNext() {
+
+        while (!isOver.get()) {
+            Player asked = getPlayer(expectedSlot);
+            if (choosingNumbers) {
+                if (recovered != null && recovered.getSecret(expectedSlot) != Code.INVALID) {
+                    // a resumed game keeps the number recorded before the crash
+                    asked.setPlayerNumber(recovered.getSecret(expectedSlot));
+                    secretDigits[expectedSlot] = variant.secretDigits(asked.getPlayerNumber());
+                    if (recovered.getResumeCode(expectedSlot) != ResumeCodes.NONE) {
+                        // the seat was taken with its code, it is the same player
+                        asked.write("Your starting number is " + variant.toString(asked.getPlayerNumber()) + ".");
+                    }
+                    numberChosen();
+                    continue;
                 }
+                asked.prompt(Prompt.STARTING_NUMBER, "Please insert your starting number: ");
+            } else {
+                asked.prompt(Prompt.GUESS, "Please make your guess: ");
+            }
+            questionNumber++;
+            askedAt = System.nanoTime();
+            if (!(asked instanceof ComputerPlayer)) {
+                return;
             }
+            ComputerPlayer computer = (ComputerPlayer) asked;
+            accept(choosingNumbers ? computer.readStartingNumber(variant) : computer.readGuess(variant));
+        }
+    }
+
+    private void accept(long code) {
+
+        if (choosingNumbers) {
+            getPlayer(expectedSlot).setPlayerNumber(code);
+            secretDigits[expectedSlot] = variant.secretDigits(code);
+            journal.secretCommitted(gameId, expectedSlot, code);
+            numberChosen();
+        } else {
+            Metrics.TURN_LATENCY.recordSince(askedAt);
+            scoreGuess(code);
         }
-        return result;
     }
 
     /**
-     * counts the number of cows for the current guess of the player.
-     * 
-     * @param number
-     *            the number of the player, with which he plays the game.
-     * @param guess
-     *            the other player`s guess number.
-     * @return cows return integer how many cows the player who guessed has.
-     */
-    private int calculateCows(String number, String guess) {
-
-        int result = 0;
-        for (int i = 0; i < number.length(); i++) {
-            for (int j = 0; j < guess.length(); j++) {
-                if (guess.charAt(j) == number.charAt(i) && i != j) {
-                    result++;
-                }
-            }
+     * The second player chooses after the first, then the first guesses
+     * first. A resumed game goes on from the turn after its last guess.
+     */
+    private void numberChosen() {
+
+        if (expectedSlot == 0) {
+            expectedSlot = 1;
+            return;
+        }
+        choosingNumbers = false;
+        expectedSlot = 0;
+        if (recovered != null) {
+            replayRecoveredGuesses();
+            expectedSlot = recovered.getGuessCount() % 2;
+        }
+    }
+
+    /**
+     * Scores the guess of the player on turn and ends the game if he has
+     * guessed, otherwise the turn passes to his opponent.
+     */
+    private void scoreGuess(long guess) {
+
+        int slotOnTurn = expectedSlot;
+        Player playerOnTurn = getPlayer(slotOnTurn);
+        Player playerOffTurn = getPlayer(1 - slotOnTurn);
+        int score = variant.score(guess, playerOffTurn.getPlayerNumber(), secretDigits[1 - slotOnTurn]);
+        int playerOnTurnBulls = ScoreTable.bulls(score);
+        playerOnTurn.onGuessScored(guess, score);
+        playerOnTurn.appendScore(guess, score);
+        playerOnTurn.flush();
+        // goes out with the next message to this player, his guess prompt
+        // or the end of the game
+        playerOffTurn.appendOpponentGuess(playerOnTurn.getName(), variant, guess, score);
+        journal.guessScored(gameId, slotOnTurn, guess, score);
+        addGuess(guess);
+
+        if (checkForWinner(playerOnTurnBulls)) {
+            journal.gameEnded(gameId, slotOnTurn);
+            holder.getHistory().gameFinished(new GameRecord(player1.getName(), player2.getName(), variant,
+                    player1.getPlayerNumber(), player2.getPlayerNumber(), guesses, guessCount, slotOnTurn));
+            // the first player guesses in the even turns, the second in the odd
+            endGameMessage(playerOnTurn, playerOffTurn, (guessCount + 1 - slotOnTurn) / 2);
+            // the players answer in their own sessions
+            new Rematch(player1, player2, holder, variant).offer();
+        } else {
+            expectedSlot = 1 - slotOnTurn;
+        }
+    }
+
+    /**
+     * Shows both players the guesses made before the crash. The computer
+     * learns again from its own guesses.
+     */
+    private void replayRecoveredGuesses() {
+
+        Player[] players = { player1, player2 };
+        for (int i = 0; i < recovered.getGuessCount(); i++) {
+            Player guesser = players[recovered.getGuessSlot(i)];
+            Player other = players[1 - recovered.getGuessSlot(i)];
+            long guess = recovered.getGuess(i);
+            int score = recovered.getScore(i);
+            guesser.onGuessScored(guess, score);
+            guesser.appendScore(guess, score);
+            other.appendOpponentGuess(guesser.getName(), variant, guess, score);
+            addGuess(guess);
         }
-        return result;
+        player1.flush();
+        player2.flush();
+    }
+
+    private void addGuess(long guess) {
+
+        if (guessCount == guesses.length) {
+            guesses = Arrays.copyOf(guesses, guessCount * 2);
+        }
+        guesses[guessCount++] = guess;
     }
 
     /**
@@ -188,7 +408,7 @@ public class BullCowGame implements Runnable {
      */
     private boolean checkForWinner(int currentPlayerBulls) {
 
-        if (currentPlayerBulls == 4) {
+        if (currentPlayerBulls == variant.getLength()) {
             isOver.set(true);
         }
         return isOver.get();
@@ -196,47 +416,106 @@ public class BullCowGame implements Runnable {
 
     /**
      * Prints the message that is printed to both players at the start of the
-     * game.
+     * game, with the rules of its numbers unless they are the classic ones,
+     * and the code of each player to resume the game after a restart.
      */
-    private void startGameMessage() {
+    private void startGameMessage(long[] resumeCodes) {
 
         String gameTitle = player1.getName() + " vs " + player2.getName() + " Game started.";
-        player1.write(gameTitle);
-        player2.write(gameTitle);
+        // player1 gets it with the prompt for his starting number
+        player1.append(gameTitle);
+        player2.append(gameTitle);
+        if (variant != Variant.CLASSIC) {
+            player1.appendVariant(variant);
+            player2.appendVariant(variant);
+        }
+        Player[] players = { player1, player2 };
+        for (int slot = 0; slot < players.length; slot++) {
+            if (resumeCodes[slot] != ResumeCodes.NONE) {
+                players[slot].append("If the server stops, come back with your name and the code "
+                        + ResumeCodes.toString(resumeCodes[slot]) + " to resume the game.");
+            }
+        }
+        player2.flush();
     }
 
     /**
      * Prints the message that is printed to both players at the end of the
-     * game. Including who wins and who loses.
+     * game. Including who wins and who loses. Counts the result in the
+     * ratings and the statistics of the players.
+     * 
+     * @param winnerGuesses
+     *            how many guesses the winner needed
      */
-    private void endGameMessage(Player winner, Player loser) {
+    private void endGameMessage(Player winner, Player loser, int winnerGuesses) {
 
-        winner.write("Game end. You Win!");
-        loser.write("Game end. You lost!. Winner - " + player1.getName());
+        if (winner.isRated() && loser.isRated()) {
+            holder.getRatings().recordResult(winner.getName(), loser.getName());
+        }
+        holder.getStatistics().recordResult(winner.isRated() ? winner.getName() : null, winnerGuesses,
+                loser.isRated() ? loser.getName() : null);
+        winner.appendGameOver(true, winner.getName());
+        winner.flush();
+        loser.appendGameOver(false, player1.getName());
+        loser.flush();
     }
 
-    private void askPlayersForNewGame(Player currentlyAskedPlayer) {
+    /**
+     * Ends the game when a player has not played in the time of his turn. He
+     * loses the game and his connection is closed, the other player wins.
+     * 
+     * @param late
+     *            the player who has not played in time
+     * @param reason
+     *            what he has not answered
+     */
+    private void forfeitByTimeout(Player late, String reason) {
 
-        currentlyAskedPlayer.write("Do you want to play more.");
-        String answer = null;
-        do {
-            try {
-                answer = currentlyAskedPlayer.readLineFromPlayer().toLowerCase();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            if (!"no".equals(answer) && !"yes".equals(answer)) {
-                answer = null;
-                System.out.println("Wrong Answer. yes or no !");
-            }
-        } while (answer == null);
-        if ("yes".equals(answer)) {
-            new Thread(new PlayerWrapperThread(currentlyAskedPlayer, holder)).start();
-            // TODO start new thread to ask them so their choice to be
-            // Independent(lambda).
-        } else {
-            currentlyAskedPlayer.closeStreams();
+        System.out.println(reason + ", the game is forfeited.");
+        Metrics.TURN_TIMEOUTS.increment();
+        late.write("Your time is over. Game end. You lost!");
+        forfeit(late, late.getName() + " has not played in time. Game end. You Win!");
+    }
+
+    /**
+     * Ends the game when a player has disconnected. He loses the game, the
+     * other player wins.
+     * 
+     * @param gone
+     *            the player who has disconnected
+     * @param cause
+     *            the failure of his read
+     */
+    private void forfeitByDisconnect(Player gone, IOException cause) {
+
+        System.out.println(cause.getMessage() + ", the game is forfeited.");
+        Metrics.GAMES_ABANDONED.increment();
+        forfeit(gone, gone.getName() + " has left the game. Game end. You Win!");
+    }
+
+    /**
+     * Records the game as won by the opponent of the loser, closes the
+     * connection of the loser and asks the winner about a new game, see
+     * {@link Rematch}.
+     */
+    private void forfeit(Player loser, String winnerMessage) {
+
+        isOver.set(true);
+        int loserSlot = loser == player1 ? 0 : 1;
+        Player winner = loserSlot == 0 ? player2 : player1;
+        journal.gameEnded(gameId, 1 - loserSlot);
+        if (player1.getPlayerNumber() != Code.INVALID && player2.getPlayerNumber() != Code.INVALID) {
+            holder.getHistory().gameFinished(new GameRecord(player1.getName(), player2.getName(), variant,
+                    player1.getPlayerNumber(), player2.getPlayerNumber(), guesses, guessCount, 1 - loserSlot));
+        }
+        if (winner.isRated() && loser.isRated()) {
+            holder.getRatings().recordResult(winner.getName(), loser.getName());
         }
+        holder.getStatistics().recordForfeit(winner.isRated() ? winner.getName() : null,
+                loser.isRated() ? loser.getName() : null);
+        loser.closeStreams();
+        winner.write(winnerMessage);
+        new Rematch(player1, player2, holder, variant).offerToWinner(1 - loserSlot);
     }
 
 }
\ No newline at end of file
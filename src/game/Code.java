@@ -0,0 +1,181 @@
+package game;
+
+import java.util.Arrays;
+
+/**
+ * Compact representation of the numbers the players play with. A number of
+ * {@link #LENGTH} different decimal digits is packed in an int, one digit per
+ * four bits with the first digit in the highest ones, so "1234" is 0x1234.
+ * Every valid number has also an index between 0 and {@link #COUNT} - 1, used
+ * to address tables and bitsets.
+ */
+public final class Code {
+
+    /** number of digits in a number */
+    public static final int LENGTH = 4;
+    /** number of valid numbers, 10 * 9 * 8 * 7 */
+    public static final int COUNT = 5040;
+    /** returned by the methods when the input is not a valid number */
+    public static final int INVALID = -1;
+
+    private static final int BITS_PER_DIGIT = 4;
+    private static final int DIGIT_MASK = 0xF;
+
+    private static final int[] PACKED_BY_INDEX = new int[COUNT];
+    private static final short[] INDEX_BY_PACKED = new short[1 << (LENGTH * BITS_PER_DIGIT)];
+    private static final short[] DIGITS_BY_INDEX = new short[COUNT];
+
+    static {
+        Arrays.fill(INDEX_BY_PACKED, (short) INVALID);
+        int index = 0;
+        for (int packed = 0; packed < INDEX_BY_PACKED.length; packed++) {
+            int digits = computeDigitMask(packed);
+            if (digits != INVALID && Integer.bitCount(digits) == LENGTH) {
+                PACKED_BY_INDEX[index] = packed;
+                INDEX_BY_PACKED[packed] = (short) index;
+                DIGITS_BY_INDEX[index] = (short) digits;
+                index++;
+            }
+        }
+    }
+
+    private Code() {
+    }
+
+    /**
+     * Packs a String of {@link #LENGTH} different digits.
+     * 
+     * @param number
+     *            the number as text
+     * @return the packed number or {@link #INVALID} if the text is not a valid
+     *         number.
+     */
+    public static int fromString(String number) {
+
+        if (number == null || number.length() != LENGTH) {
+            return INVALID;
+        }
+        int packed = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            int digit = number.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            packed = (packed << BITS_PER_DIGIT) | digit;
+        }
+        return isValid(packed) ? packed : INVALID;
+    }
+
+    /**
+     * Reads a number from a line typed by a player in a single pass, without
+     * allocation. Symbols that are not letters, digits or '_' are skipped, the
+     * rest of the line must be {@link #LENGTH} different digits.
+     * 
+     * @param line
+     *            the line as typed by the player
+     * @return the packed number or {@link #INVALID} if the line does not
+     *         contain a valid number.
+     */
+    public static int parse(CharSequence line) {
+
+        if (line == null) {
+            return INVALID;
+        }
+        int packed = 0;
+        int digits = 0;
+        int count = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char current = line.charAt(i);
+            if (current >= '0' && current <= '9') {
+                int digitBit = 1 << (current - '0');
+                if (count == LENGTH || (digits & digitBit) != 0) {
+                    return INVALID;
+                }
+                digits |= digitBit;
+                packed = (packed << BITS_PER_DIGIT) | (current - '0');
+                count++;
+            } else if (isWordSymbol(current)) {
+                return INVALID;
+            }
+        }
+        return count == LENGTH ? packed : INVALID;
+    }
+
+    /**
+     * @return true for the symbols kept in the input of the players: latin
+     *         letters, digits and '_'.
+     */
+    public static boolean isWordSymbol(char symbol) {
+        return (symbol >= 'a' && symbol <= 'z') || (symbol >= 'A' && symbol <= 'Z')
+                || (symbol >= '0' && symbol <= '9') || symbol == '_';
+    }
+
+    /**
+     * @param packed
+     *            valid packed number
+     * @return the number as text, the inverse of {@link #fromString(String)}.
+     */
+    public static String toString(int packed) {
+
+        char[] digits = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + (packed & DIGIT_MASK));
+            packed >>>= BITS_PER_DIGIT;
+        }
+        return new String(digits);
+    }
+
+    /**
+     * @return true if the value is a packed number of different digits.
+     */
+    public static boolean isValid(int packed) {
+        return packed >= 0 && packed < INDEX_BY_PACKED.length && INDEX_BY_PACKED[packed] != INVALID;
+    }
+
+    /**
+     * @return the index of a packed number or {@link #INVALID} if the number is
+     *         not valid.
+     */
+    public static int index(int packed) {
+        return packed >= 0 && packed < INDEX_BY_PACKED.length ? INDEX_BY_PACKED[packed] : INVALID;
+    }
+
+    /**
+     * @return the packed number with the given index.
+     */
+    public static int fromIndex(int index) {
+        return PACKED_BY_INDEX[index];
+    }
+
+    /**
+     * @return bitmask with bit d set for every digit d of the number with the
+     *         given index.
+     */
+    public static int digitMaskOfIndex(int index) {
+        return DIGITS_BY_INDEX[index];
+    }
+
+    /**
+     * @return bitmask with bit d set for every digit d of the packed number, or
+     *         {@link #INVALID} if a digit is bigger than 9.
+     */
+    public static int digitMask(int packed) {
+
+        int index = index(packed);
+        return index != INVALID ? DIGITS_BY_INDEX[index] : computeDigitMask(packed);
+    }
+
+    private static int computeDigitMask(int packed) {
+
+        int mask = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            int digit = packed & DIGIT_MASK;
+            if (digit > 9) {
+                return INVALID;
+            }
+            mask |= 1 << digit;
+            packed >>>= BITS_PER_DIGIT;
+        }
+        return mask;
+    }
+}
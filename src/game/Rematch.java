@@ -0,0 +1,198 @@
+package game;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import bot.ComputerPlayer;
+import metrics.Metrics;
+import player.Player;
+import player.PlayersHolder;
+import protocol.Prompt;
+import thread.SessionDriver;
+
+/**
+ * The end of a finished game. Both players are asked at the same time whether
+ * they want to play more, see {@link SessionDriver#askForRematch(Rematch, int)},
+ * so neither waits for the other to answer and no thread waits for them. A
+ * player may go back to the menu, leave, or ask for a rematch. When both ask
+ * for it, the next game between them starts right away, without going through
+ * the rooms of the {@link PlayersHolder}. The computer always wants a rematch.
+ */
+public class Rematch {
+
+    private static final String PLAY_AGAIN_MESSAGE = "Do you want to play more? yes, no or rematch";
+
+    private enum Answer {
+        /** back to the menu */
+        YES,
+        NO,
+        REMATCH,
+        /** disconnected or has not answered in time */
+        GONE
+    }
+
+    private final Player[] players;
+    private final PlayersHolder holder;
+    private final Variant variant;
+    private final AtomicReferenceArray<Answer> answers = new AtomicReferenceArray<>(2);
+    private final AtomicInteger answered = new AtomicInteger();
+
+    /**
+     * @param first
+     *            the player who started the finished game
+     * @param second
+     *            his opponent
+     * @param holder
+     *            where the players go when there is no rematch
+     * @param variant
+     *            the variant of the finished game, the rematch has the same
+     */
+    Rematch(Player first, Player second, PlayersHolder holder, Variant variant) {
+        this.players = new Player[] { first, second };
+        this.holder = holder;
+        this.variant = variant;
+    }
+
+    /**
+     * Asks both players. Returns at once, the answers come from the
+     * {@link SessionDriver}.
+     */
+    void offer() {
+
+        for (int slot = 0; slot < 2; slot++) {
+            if (players[slot] instanceof ComputerPlayer) {
+                record(slot, Answer.REMATCH);
+            } else {
+                holder.getSessionDriver().askForRematch(this, slot);
+            }
+        }
+    }
+
+    /**
+     * Asks only the winner of a game whose loser is gone, he can not have a
+     * rematch.
+     *
+     * @param winnerSlot
+     *            0 for the first player, 1 for the second
+     */
+    void offerToWinner(int winnerSlot) {
+
+        if (players[winnerSlot] instanceof ComputerPlayer) {
+            return;
+        }
+        record(1 - winnerSlot, Answer.GONE);
+        holder.getSessionDriver().askForRematch(this, winnerSlot);
+    }
+
+    /**
+     * @param slot
+     *            0 for the first player of the game, 1 for the second
+     * @return the player
+     */
+    public Player getPlayer(int slot) {
+        return players[slot];
+    }
+
+    /**
+     * Sends the question to the player.
+     *
+     * @param slot
+     *            0 for the first player of the game, 1 for the second
+     */
+    public void prompt(int slot) {
+        players[slot].prompt(Prompt.PLAY_AGAIN, PLAY_AGAIN_MESSAGE);
+    }
+
+    /**
+     * Takes the answer of a player. A player who wants to play more goes to
+     * the start of a new session, one who does not is disconnected, one who
+     * wants a rematch waits for the answer of his opponent.
+     *
+     * @param slot
+     *            0 for the first player of the game, 1 for the second
+     * @param line
+     *            what the player has answered
+     * @return false if the answer is not one of the choices, the player has to
+     *         answer again.
+     */
+    public boolean answer(int slot, String line) {
+
+        Answer answer;
+        switch (line.toLowerCase()) {
+        case "yes":
+            answer = Answer.YES;
+            break;
+        case "no":
+            answer = Answer.NO;
+            break;
+        case "rematch":
+            answer = Answer.REMATCH;
+            break;
+        default:
+            return false;
+        }
+        Player asked = players[slot];
+        if (answer == Answer.REMATCH && answers.get(1 - slot) == null) {
+            asked.write("Waiting for " + players[1 - slot].getName() + " to answer.");
+        }
+        record(slot, answer);
+        if (answer == Answer.YES) {
+            holder.getSessionDriver().startSession(asked);
+        } else if (answer == Answer.NO) {
+            asked.closeStreams();
+        }
+        return true;
+    }
+
+    /**
+     * The player has disconnected or has not answered in time.
+     *
+     * @param slot
+     *            0 for the first player of the game, 1 for the second
+     */
+    public void gone(int slot) {
+        record(slot, Answer.GONE);
+    }
+
+    /**
+     * Records the answer of one player. The second answer decides whether
+     * there is a rematch, on the thread that gave it.
+     */
+    private void record(int slot, Answer answer) {
+
+        answers.set(slot, answer);
+        if (answered.incrementAndGet() < 2) {
+            return;
+        }
+        if (answers.get(0) == Answer.REMATCH && answers.get(1) == Answer.REMATCH) {
+            startRematch();
+            return;
+        }
+        for (int i = 0; i < 2; i++) {
+            if (answers.get(i) == Answer.REMATCH && !(players[i] instanceof ComputerPlayer)) {
+                Player waiting = players[i];
+                Player other = players[1 - i];
+                waiting.write(other.getName() + (answers.get(1 - i) == Answer.GONE ? " has left."
+                        : " does not want a rematch."));
+                holder.getSessionDriver().startSession(waiting);
+            }
+        }
+    }
+
+    /**
+     * The players change who starts, except that the computer is always
+     * second.
+     */
+    private void startRematch() {
+
+        Metrics.REMATCHES.increment();
+        Player first = players[1];
+        Player second = players[0];
+        if (first instanceof ComputerPlayer) {
+            first = players[0];
+            second = players[1];
+        }
+        holder.getSessionDriver().startGame(new BullCowGame(first, second, holder, variant));
+        System.out.println("Rematch starting. " + first.getName() + " vs " + second.getName());
+    }
+}
@@ -0,0 +1,114 @@
+package game;
+
+/**
+ * Scores guesses against secret numbers. The score of a guess is packed in one
+ * byte, the bulls in the high four bits and the cows in the low four bits.
+ * Scores of all pairs of valid numbers are computed once in a
+ * {@link Code#COUNT} x {@link Code#COUNT} table, so scoring a guess is a single
+ * array load. Numbers without index are scored with digit bitmasks.
+ */
+public final class ScoreTable {
+
+    private static final int BULLS_SHIFT = 4;
+    private static final int COWS_MASK = 0xF;
+
+    private ScoreTable() {
+    }
+
+    /**
+     * The table is built on first use, it takes about 25MB.
+     */
+    private static final class Holder {
+
+        static final byte[] SCORES = new byte[Code.COUNT * Code.COUNT];
+
+        static {
+            for (int guess = 0; guess < Code.COUNT; guess++) {
+                int row = guess * Code.COUNT;
+                int guessPacked = Code.fromIndex(guess);
+                int guessDigits = Code.digitMaskOfIndex(guess);
+                for (int secret = 0; secret < Code.COUNT; secret++) {
+                    SCORES[row + secret] = (byte) compute(guessPacked, guessDigits, Code.fromIndex(secret),
+                            Code.digitMaskOfIndex(secret));
+                }
+            }
+        }
+    }
+
+    /**
+     * Scores a guess against a secret number.
+     * 
+     * @param guess
+     *            packed guess, see {@link Code}
+     * @param secret
+     *            packed secret number
+     * @return the packed score
+     */
+    public static int score(int guess, int secret) {
+
+        int guessIndex = Code.index(guess);
+        int secretIndex = Code.index(secret);
+        if (guessIndex != Code.INVALID && secretIndex != Code.INVALID) {
+            return Holder.SCORES[guessIndex * Code.COUNT + secretIndex];
+        }
+        return computeScore(guess, secret);
+    }
+
+    /**
+     * Scores a guess against a secret number, both given by index.
+     * 
+     * @return the packed score
+     */
+    public static int scoreOfIndexes(int guessIndex, int secretIndex) {
+        return Holder.SCORES[guessIndex * Code.COUNT + secretIndex];
+    }
+
+    /**
+     * Scores a guess against a secret number with digit bitmasks, without the
+     * table. Both numbers must have different digits.
+     * 
+     * @return the packed score
+     */
+    public static int computeScore(int guess, int secret) {
+        return compute(guess, Code.digitMask(guess), secret, Code.digitMask(secret));
+    }
+
+    private static int compute(int guess, int guessDigits, int secret, int secretDigits) {
+
+        // a digit is a bull when its four bits are equal in both numbers
+        int difference = guess ^ secret;
+        difference |= difference >>> 1;
+        difference |= difference >>> 2;
+        int bulls = Code.LENGTH - Integer.bitCount(difference & 0x1111);
+        int cows = Integer.bitCount(guessDigits & secretDigits) - bulls;
+        return pack(bulls, cows);
+    }
+
+    /**
+     * @return the score with the given bulls and cows.
+     */
+    public static int pack(int bulls, int cows) {
+        return (bulls << BULLS_SHIFT) | cows;
+    }
+
+    /**
+     * @return the bulls of a packed score.
+     */
+    public static int bulls(int score) {
+        return score >>> BULLS_SHIFT;
+    }
+
+    /**
+     * @return the cows of a packed score.
+     */
+    public static int cows(int score) {
+        return score & COWS_MASK;
+    }
+
+    /**
+     * @return true if the score means the number has been guessed.
+     */
+    public static boolean isSolved(int score) {
+        return bulls(score) == Code.LENGTH;
+    }
+}
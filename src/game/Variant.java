@@ -0,0 +1,442 @@
+package game;
+
+import java.util.Random;
+
+/**
+ * The rules about the numbers of a game: how many digits they have, whether
+ * the digits are decimal or hexadecimal and whether a digit may repeat. A
+ * number is packed in a long like in {@link Code}, one digit per four bits
+ * with the first digit in the highest ones, so the numbers of the classic
+ * variant have the same value as in {@link Code} and are scored with its
+ * table. The numbers of the other variants are scored with digit bitmasks,
+ * see {@link #score(long, long)}.
+ *
+ * There is one instance per variant, they can be compared with ==.
+ */
+public final class Variant {
+
+    public static final int MIN_LENGTH = 3;
+    public static final int MAX_LENGTH = 10;
+    private static final int DECIMAL = 10;
+    private static final int HEXADECIMAL = 16;
+    private static final int BITS_PER_DIGIT = 4;
+    private static final int DIGIT_MASK = 0xF;
+    private static final long LOW_BITS_OF_DIGITS = 0x1111111111L;
+
+    private static final int HEX_FLAG = 0x10;
+    private static final int REPEATS_FLAG = 0x20;
+    private static final Variant[] BY_ID = new Variant[(REPEATS_FLAG | HEX_FLAG | MAX_LENGTH) + 1];
+
+    static {
+        for (int length = MIN_LENGTH; length <= MAX_LENGTH; length++) {
+            for (int flags = 0; flags <= (HEX_FLAG | REPEATS_FLAG); flags += HEX_FLAG) {
+                BY_ID[flags | length] = new Variant(length, (flags & HEX_FLAG) != 0, (flags & REPEATS_FLAG) != 0);
+            }
+        }
+    }
+
+    /** four different decimal digits, the game as it has always been */
+    public static final Variant CLASSIC = of(4, false, false);
+
+    private final int length;
+    private final int base;
+    private final boolean repeats;
+    /** the lowest bit of every digit of a packed number */
+    private final long digitsLowBits;
+    private final long count;
+
+    private Variant(int length, boolean hex, boolean repeats) {
+        this.length = length;
+        this.base = hex ? HEXADECIMAL : DECIMAL;
+        this.repeats = repeats;
+        this.digitsLowBits = LOW_BITS_OF_DIGITS >>> (BITS_PER_DIGIT * (MAX_LENGTH - length));
+        long numbers = 1;
+        for (int i = 0; i < length; i++) {
+            numbers *= repeats ? base : base - i;
+        }
+        this.count = numbers;
+    }
+
+    /**
+     * @param length
+     *            number of digits, from {@link #MIN_LENGTH} to
+     *            {@link #MAX_LENGTH}
+     * @param hex
+     *            true for hexadecimal digits, false for decimal ones
+     * @param repeats
+     *            true if a digit may be used more than once
+     * @return the variant
+     * @throws IllegalArgumentException
+     *             if the length is out of range.
+     */
+    public static Variant of(int length, boolean hex, boolean repeats) {
+
+        if (length < MIN_LENGTH || length > MAX_LENGTH) {
+            throw new IllegalArgumentException(
+                    "The numbers have from " + MIN_LENGTH + " to " + MAX_LENGTH + " digits, not " + length);
+        }
+        return BY_ID[length | (hex ? HEX_FLAG : 0) | (repeats ? REPEATS_FLAG : 0)];
+    }
+
+    /**
+     * @param id
+     *            the id of a variant, see {@link #getId()}
+     * @return the variant
+     * @throws IllegalArgumentException
+     *             if there is no variant with this id.
+     */
+    public static Variant fromId(int id) {
+
+        Variant variant = id >= 0 && id < BY_ID.length ? BY_ID[id] : null;
+        if (variant == null) {
+            throw new IllegalArgumentException("Unknown variant " + id);
+        }
+        return variant;
+    }
+
+    /**
+     * Finds a variant by its name, see {@link #getName()}. The words after the
+     * length may come in any order, in any case and with any separators, so
+     * what a player types is understood too, like "6 Hex" or "5repeats".
+     *
+     * @param name
+     *            the length, then "hex" for hexadecimal digits and "repeats"
+     *            if a digit may repeat, like "6-hex-repeats"
+     * @return the variant, null if the name is not one.
+     */
+    public static Variant byName(String name) {
+
+        if (name == null) {
+            return null;
+        }
+        String rest = name.trim().toLowerCase();
+        int digits = 0;
+        while (digits < rest.length() && Character.isDigit(rest.charAt(digits))) {
+            digits++;
+        }
+        if (digits == 0 || digits > 2) {
+            return null;
+        }
+        int length = Integer.parseInt(rest.substring(0, digits));
+        rest = rest.substring(digits);
+        boolean hex = rest.contains("hex");
+        boolean repeats = rest.contains("repeats");
+        rest = rest.replace("hex", "").replace("repeats", "");
+        for (int i = 0; i < rest.length(); i++) {
+            if (Code.isWordSymbol(rest.charAt(i)) && rest.charAt(i) != '_') {
+                return null;
+            }
+        }
+        if (length < MIN_LENGTH || length > MAX_LENGTH) {
+            return null;
+        }
+        return of(length, hex, repeats);
+    }
+
+    /**
+     * @return the name of the variant, like "4" for the classic one or
+     *         "6-hex-repeats", see {@link #byName(String)}.
+     */
+    public String getName() {
+        return length + (isHex() ? "-hex" : "") + (repeats ? "-repeats" : "");
+    }
+
+    /**
+     * @return the rules as told to the players, like "numbers of 6 different
+     *         hexadecimal digits".
+     */
+    public String describe() {
+        return "numbers of " + length + (repeats ? "" : " different") + (isHex() ? " hexadecimal" : "")
+                + " digits" + (repeats ? ", a digit may repeat" : "");
+    }
+
+    /**
+     * @return a number from 0 to 63 that stands for the variant in the
+     *         journal, the history and the protocols, see
+     *         {@link #fromId(int)}.
+     */
+    public int getId() {
+        return length | (isHex() ? HEX_FLAG : 0) | (repeats ? REPEATS_FLAG : 0);
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isHex() {
+        return base == HEXADECIMAL;
+    }
+
+    public boolean allowsRepeats() {
+        return repeats;
+    }
+
+    /**
+     * @return number of the different digits.
+     */
+    public int getBase() {
+        return base;
+    }
+
+    /**
+     * @return how many valid numbers there are, up to 16^10.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Reads a number from a line typed by a player in a single pass, without
+     * allocation, like {@link Code#parse(CharSequence)}. Symbols that are not
+     * letters, digits or '_' are skipped, the rest of the line must be a
+     * valid number. Hexadecimal digits may be in any case.
+     *
+     * @param line
+     *            the line as typed by the player
+     * @return the packed number or {@link Code#INVALID} if the line does not
+     *         contain a valid number.
+     */
+    public long parse(CharSequence line) {
+
+        if (line == null) {
+            return Code.INVALID;
+        }
+        long packed = 0;
+        int digits = 0;
+        int count = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char current = line.charAt(i);
+            int digit = digitOf(current);
+            if (digit >= 0) {
+                int digitBit = 1 << digit;
+                if (count == length || (!repeats && (digits & digitBit) != 0)) {
+                    return Code.INVALID;
+                }
+                digits |= digitBit;
+                packed = (packed << BITS_PER_DIGIT) | digit;
+                count++;
+            } else if (Code.isWordSymbol(current)) {
+                return Code.INVALID;
+            }
+        }
+        return count == length ? packed : Code.INVALID;
+    }
+
+    /**
+     * @return the value of a latin digit of the variant, -1 for any other
+     *         symbol.
+     */
+    private int digitOf(char symbol) {
+
+        int digit;
+        if (symbol >= '0' && symbol <= '9') {
+            digit = symbol - '0';
+        } else if (symbol >= 'a' && symbol <= 'f') {
+            digit = symbol - 'a' + DECIMAL;
+        } else if (symbol >= 'A' && symbol <= 'F') {
+            digit = symbol - 'A' + DECIMAL;
+        } else {
+            return -1;
+        }
+        return digit < base ? digit : -1;
+    }
+
+    /**
+     * @param packed
+     *            valid packed number
+     * @return the number as text, hexadecimal digits in lower case.
+     */
+    public String toString(long packed) {
+
+        char[] digits = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            digits[i] = Character.forDigit((int) (packed & DIGIT_MASK), base);
+            packed >>>= BITS_PER_DIGIT;
+        }
+        return new String(digits);
+    }
+
+    /**
+     * @return true if the value is a packed number of this variant.
+     */
+    public boolean isValid(long packed) {
+
+        if (packed < 0 || packed >>> (BITS_PER_DIGIT * length) != 0) {
+            return false;
+        }
+        int digits = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = (int) (packed & DIGIT_MASK);
+            if (digit >= base || (!repeats && (digits & (1 << digit)) != 0)) {
+                return false;
+            }
+            digits |= 1 << digit;
+            packed >>>= BITS_PER_DIGIT;
+        }
+        return true;
+    }
+
+    /**
+     * @param packed
+     *            valid packed number
+     * @return the digit at the position, 0 for the first digit.
+     */
+    public int digitAt(long packed, int position) {
+        return (int) (packed >>> (BITS_PER_DIGIT * (length - 1 - position))) & DIGIT_MASK;
+    }
+
+    /**
+     * @param packed
+     *            valid packed number
+     * @return bitmask with bit d set for every digit d of the number.
+     */
+    public int digitMask(long packed) {
+
+        int mask = 0;
+        for (int i = 0; i < length; i++) {
+            mask |= 1 << (packed & DIGIT_MASK);
+            packed >>>= BITS_PER_DIGIT;
+        }
+        return mask;
+    }
+
+    /**
+     * Scores a guess against a secret number. A secret scored more than once
+     * is better scored with {@link #score(long, long, int)}, its digit
+     * bitmask computed once.
+     *
+     * @param guess
+     *            valid packed guess
+     * @param secret
+     *            valid packed secret number
+     * @return the packed score, see {@link ScoreTable}
+     */
+    public int score(long guess, long secret) {
+        return score(guess, secret, secretDigits(secret));
+    }
+
+    /**
+     * @param secret
+     *            valid packed secret number
+     * @return what {@link #score(long, long, int)} needs to know of the
+     *         secret besides the number: its digit bitmask, or 0 when the
+     *         bitmask is not used, for the classic numbers and the ones whose
+     *         digits may repeat.
+     */
+    public int secretDigits(long secret) {
+        return this == CLASSIC || repeats ? 0 : digitMask(secret);
+    }
+
+    /**
+     * Scores a guess against a secret number. The classic numbers are scored
+     * with the table of {@link ScoreTable}. The numbers of different digits
+     * are scored with {@link #score(long, int, long, int)}; only the bitmask
+     * of the guess is built, in one pass over its digits. The numbers whose
+     * digits may repeat are scored by counting the digits.
+     *
+     * @param guess
+     *            valid packed guess
+     * @param secret
+     *            valid packed secret number
+     * @param secretDigits
+     *            {@link #secretDigits(long)} of the secret
+     * @return the packed score, see {@link ScoreTable}
+     */
+    public int score(long guess, long secret, int secretDigits) {
+
+        if (this == CLASSIC) {
+            return ScoreTable.score((int) guess, (int) secret);
+        }
+        if (!repeats) {
+            return score(guess, digitMask(guess), secret, secretDigits);
+        }
+        int bulls = bulls(guess, secret);
+        return ScoreTable.pack(bulls, common(guess, secret) - bulls);
+    }
+
+    /**
+     * Scores a guess against a secret number of different digits with their
+     * digit bitmasks, see {@link #digitMask(long)}, in constant time whatever
+     * the length: the bulls are the digits equal in both packed numbers, the
+     * cows the digits both masks have, less the bulls.
+     *
+     * @return the packed score
+     */
+    public int score(long guess, int guessDigits, long secret, int secretDigits) {
+
+        int bulls = bulls(guess, secret);
+        return ScoreTable.pack(bulls, Integer.bitCount(guessDigits & secretDigits) - bulls);
+    }
+
+    /**
+     * @return how many digits are equal and in the same place in both
+     *         numbers.
+     */
+    public int bulls(long guess, long secret) {
+
+        // a digit is a bull when its four bits are equal in both numbers
+        long difference = guess ^ secret;
+        difference |= difference >>> 1;
+        difference |= difference >>> 2;
+        return length - Long.bitCount(difference & digitsLowBits);
+    }
+
+    /**
+     * @return how many digits both numbers have, counting a repeated digit as
+     *         often as it is in both, bulls included.
+     */
+    private int common(long guess, long secret) {
+
+        // how often every digit is in the guess, four bits per digit
+        long counts = 0;
+        for (int i = 0; i < length; i++) {
+            counts += 1L << (BITS_PER_DIGIT * (guess & DIGIT_MASK));
+            guess >>>= BITS_PER_DIGIT;
+        }
+        int common = 0;
+        for (int i = 0; i < length; i++) {
+            int shift = (int) (BITS_PER_DIGIT * (secret & DIGIT_MASK));
+            if ((counts >>> shift & DIGIT_MASK) != 0) {
+                counts -= 1L << shift;
+                common++;
+            }
+            secret >>>= BITS_PER_DIGIT;
+        }
+        return common;
+    }
+
+    /**
+     * @return true if the score means the number has been guessed.
+     */
+    public boolean isSolved(int score) {
+        return ScoreTable.bulls(score) == length;
+    }
+
+    /**
+     * @param random
+     *            source of the digits
+     * @return a random valid number, every number equally likely.
+     */
+    public long random(Random random) {
+
+        if (this == CLASSIC) {
+            return Code.fromIndex(random.nextInt(Code.COUNT));
+        }
+        long packed = 0;
+        int digits = 0;
+        for (int i = 0; i < length; i++) {
+            int digit;
+            do {
+                digit = random.nextInt(base);
+            } while (!repeats && (digits & (1 << digit)) != 0);
+            digits |= 1 << digit;
+            packed = (packed << BITS_PER_DIGIT) | digit;
+        }
+        return packed;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
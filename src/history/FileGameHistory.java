@@ -0,0 +1,398 @@
+package history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import game.Code;
+import game.Variant;
+import metrics.LatencyHistogram;
+import metrics.Meter;
+import metrics.Metrics;
+
+/**
+ * History kept in one append-only file. The game threads only queue the
+ * finished games, a background thread writes whatever has been queued with
+ * one write and then makes the games visible in the indexes. The indexes are
+ * kept in memory and rebuilt from the file when it is opened:
+ * <ul>
+ * <li>game id -> place of the game in the file</li>
+ * <li>player name -> ids of his games</li>
+ * <li>millisecond -> id of the first game stored in it, the ids grow with the
+ * time, so a time range is a range of ids</li>
+ * </ul>
+ * so a game, the last games of a player and the games of a time range are
+ * all found in O(log n).
+ *
+ * Record: [int length][long id][long time][byte winner][short secret index]
+ * [short secret index][short turns][short guess index per turn][short name
+ * length][name][short name length][name][int crc], the length and the crc
+ * cover everything between them. A record cut by a crash fails the crc, the
+ * file is truncated before it. The numbers of a classic game are stored by
+ * their index, see {@link Code#index(int)}; a game of another variant has
+ * {@link #WIDE_MARK} in place of the first secret index, then [byte variant
+ * id][long secret][long secret][short turns][long guess per turn] and the
+ * names.
+ */
+public class FileGameHistory implements GameHistory, Runnable {
+
+    private static final int MAX_BATCH = 4096;
+    private static final int MAX_NAME_BYTES = 1024;
+    private static final int MAX_TURNS = 0xFFFF;
+    private static final int FIXED_SIZE = Long.BYTES + Long.BYTES + 1 + 3 * Short.BYTES + 2 * Short.BYTES;
+    private static final int CRC_SIZE = Integer.BYTES;
+    /** first secret index of a game whose numbers are stored packed */
+    private static final short WIDE_MARK = -2;
+    private static final int WIDE_SIZE = FIXED_SIZE + 1 + 2 * Long.BYTES - Short.BYTES;
+    private static final int READ_CHUNK = 1 << 20;
+
+    private static final LatencyHistogram WRITE_TIME = Metrics.REGISTRY.histogram("history.writeTime");
+    private static final Meter GAMES_STORED = Metrics.REGISTRY.meter("history.gamesStored");
+
+    private final Path file;
+    private final FileChannel channel;
+    private final BlockingQueue<GameRecord> pending = new LinkedBlockingQueue<>();
+    private final ConcurrentSkipListMap<Long, Long> offsets = new ConcurrentSkipListMap<>();
+    private final Map<String, NavigableSet<Long>> gamesByPlayer = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Long> firstGameAt = new ConcurrentSkipListMap<>();
+
+    // used only by the writing thread after the file is opened
+    private long nextGameId = 1;
+    private long lastTime;
+    private long writePosition;
+    private ByteBuffer batchBuffer = ByteBuffer.allocate(64 * 1024);
+
+    /**
+     * Opens the history file and rebuilds the indexes from it.
+     *
+     * @param file
+     *            the history file, created if missing
+     * @throws IOException
+     *             if the file can not be read or created.
+     */
+    public FileGameHistory(Path file) throws IOException {
+
+        this.file = file;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        load();
+        if (!offsets.isEmpty()) {
+            System.out.println("History: " + offsets.size() + " games loaded from " + file);
+        }
+        Metrics.REGISTRY.gauge("history.queueDepth", () -> pending.size());
+        Metrics.REGISTRY.gauge("history.games", () -> offsets.size());
+    }
+
+    @Override
+    public void gameFinished(GameRecord game) {
+        pending.add(game);
+    }
+
+    @Override
+    public GameRecord find(long gameId) {
+
+        Long offset = offsets.get(gameId);
+        return offset == null ? null : read(offset);
+    }
+
+    @Override
+    public List<GameRecord> lastGames(String playerName, int count) {
+
+        List<GameRecord> games = new ArrayList<>();
+        NavigableSet<Long> gameIds = gamesByPlayer.get(playerName);
+        if (gameIds == null) {
+            return games;
+        }
+        Iterator<Long> newestFirst = gameIds.descendingIterator();
+        while (games.size() < count && newestFirst.hasNext()) {
+            GameRecord game = find(newestFirst.next());
+            if (game != null) {
+                games.add(game);
+            }
+        }
+        return games;
+    }
+
+    @Override
+    public List<GameRecord> gamesBetween(long fromMillis, long toMillis, int limit) {
+
+        List<GameRecord> games = new ArrayList<>();
+        Map.Entry<Long, Long> first = firstGameAt.ceilingEntry(fromMillis);
+        if (first == null || fromMillis >= toMillis) {
+            return games;
+        }
+        Map.Entry<Long, Long> end = firstGameAt.ceilingEntry(toMillis);
+        long endId = end == null ? Long.MAX_VALUE : end.getValue();
+        for (long offset : offsets.subMap(first.getValue(), endId).values()) {
+            if (games.size() == limit) {
+                break;
+            }
+            games.add(read(offset));
+        }
+        return games;
+    }
+
+    /**
+     * Writes the queued games until the thread is interrupted.
+     */
+    public void run() {
+
+        List<GameRecord> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                pending.drainTo(batch);
+                write(batch);
+                return;
+            }
+            pending.drainTo(batch, MAX_BATCH - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes the games with one write and adds them to the indexes.
+     */
+    private void write(List<GameRecord> batch) {
+
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        // the time never goes back, so that the ids and the times grow together
+        long time = Math.max(lastTime, System.currentTimeMillis());
+        long[] gameIds = new long[batch.size()];
+        long[] gameOffsets = new long[batch.size()];
+        batchBuffer.clear();
+        for (int i = 0; i < batch.size(); i++) {
+            gameIds[i] = nextGameId++;
+            gameOffsets[i] = writePosition + batchBuffer.position();
+            encode(gameIds[i], time, batch.get(i));
+        }
+        batchBuffer.flip();
+        try {
+            long position = writePosition;
+            while (batchBuffer.hasRemaining()) {
+                position += channel.write(batchBuffer, position);
+            }
+            writePosition = position;
+        } catch (IOException e) {
+            System.err.println("History: " + batch.size() + " games can not be written to " + file + ": "
+                    + e.getMessage());
+            return;
+        }
+        lastTime = time;
+        for (int i = 0; i < batch.size(); i++) {
+            index(gameIds[i], time, gameOffsets[i], batch.get(i).getName(0), batch.get(i).getName(1));
+        }
+        WRITE_TIME.recordSince(start);
+        GAMES_STORED.mark(batch.size());
+    }
+
+    private void encode(long gameId, long time, GameRecord game) {
+
+        byte[] first = nameBytes(game.getName(0));
+        byte[] second = nameBytes(game.getName(1));
+        int turns = Math.min(game.getTurnCount(), MAX_TURNS);
+        Variant variant = game.getVariant();
+        boolean classic = variant == Variant.CLASSIC;
+        int length = classic ? FIXED_SIZE + turns * Short.BYTES : WIDE_SIZE + turns * Long.BYTES;
+        length += first.length + second.length + CRC_SIZE;
+        if (batchBuffer.remaining() < Integer.BYTES + length) {
+            int capacity = Math.max(batchBuffer.capacity() * 2, batchBuffer.position() + Integer.BYTES + length);
+            ByteBuffer larger = ByteBuffer.allocate(capacity);
+            batchBuffer.flip();
+            larger.put(batchBuffer);
+            batchBuffer = larger;
+        }
+        int recordStart = batchBuffer.position();
+        batchBuffer.putInt(length);
+        batchBuffer.putLong(gameId).putLong(time).put((byte) game.getWinnerSlot());
+        if (classic) {
+            batchBuffer.putShort((short) Code.index((int) game.getSecret(0)));
+            batchBuffer.putShort((short) Code.index((int) game.getSecret(1)));
+            batchBuffer.putShort((short) turns);
+            for (int turn = 0; turn < turns; turn++) {
+                batchBuffer.putShort((short) Code.index((int) game.getGuess(turn)));
+            }
+        } else {
+            batchBuffer.putShort(WIDE_MARK).put((byte) variant.getId());
+            batchBuffer.putLong(game.getSecret(0)).putLong(game.getSecret(1));
+            batchBuffer.putShort((short) turns);
+            for (int turn = 0; turn < turns; turn++) {
+                batchBuffer.putLong(game.getGuess(turn));
+            }
+        }
+        batchBuffer.putShort((short) first.length).put(first);
+        batchBuffer.putShort((short) second.length).put(second);
+        CRC32 crc = new CRC32();
+        crc.update(batchBuffer.array(), recordStart + Integer.BYTES, length - CRC_SIZE);
+        batchBuffer.putInt((int) crc.getValue());
+    }
+
+    private static byte[] nameBytes(String name) {
+
+        byte[] bytes = String.valueOf(name).getBytes(StandardCharsets.UTF_8);
+        return bytes.length <= MAX_NAME_BYTES ? bytes : Arrays.copyOf(bytes, MAX_NAME_BYTES);
+    }
+
+    private void index(long gameId, long time, long offset, String firstName, String secondName) {
+
+        offsets.put(gameId, offset);
+        gamesByPlayer.computeIfAbsent(firstName, name -> new ConcurrentSkipListSet<>()).add(gameId);
+        gamesByPlayer.computeIfAbsent(secondName, name -> new ConcurrentSkipListSet<>()).add(gameId);
+        firstGameAt.putIfAbsent(time, gameId);
+    }
+
+    /**
+     * Reads the game at the offset, the offset comes from the index so the
+     * record is complete.
+     */
+    private GameRecord read(long offset) {
+
+        try {
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+            readFully(lengthBuffer, offset);
+            ByteBuffer record = ByteBuffer.allocate(lengthBuffer.getInt(0));
+            readFully(record, offset + Integer.BYTES);
+            record.flip();
+            return decode(record);
+        } catch (IOException e) {
+            throw new IllegalStateException("History can not be read from " + file, e);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the history file");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Decodes a record without its length. The crc has been checked when the
+     * file was loaded or the record was written.
+     */
+    private static GameRecord decode(ByteBuffer record) {
+
+        long gameId = record.getLong();
+        long time = record.getLong();
+        int winnerSlot = record.get();
+        short firstIndex = record.getShort();
+        Variant variant = Variant.CLASSIC;
+        long firstSecret;
+        long secondSecret;
+        long[] turns;
+        if (firstIndex == WIDE_MARK) {
+            variant = Variant.fromId(record.get());
+            firstSecret = record.getLong();
+            secondSecret = record.getLong();
+            turns = new long[record.getShort() & 0xFFFF];
+            for (int turn = 0; turn < turns.length; turn++) {
+                turns[turn] = record.getLong();
+            }
+        } else {
+            firstSecret = Code.fromIndex(firstIndex);
+            secondSecret = Code.fromIndex(record.getShort());
+            turns = new long[record.getShort() & 0xFFFF];
+            for (int turn = 0; turn < turns.length; turn++) {
+                turns[turn] = Code.fromIndex(record.getShort());
+            }
+        }
+        String firstName = readName(record);
+        String secondName = readName(record);
+        return new GameRecord(gameId, time, firstName, secondName, variant, firstSecret, secondSecret, turns,
+                winnerSlot);
+    }
+
+    private static String readName(ByteBuffer record) {
+
+        byte[] name = new byte[record.getShort()];
+        record.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the whole file once, checks every record and indexes it. The file
+     * is cut before the first damaged record.
+     */
+    private void load() throws IOException {
+
+        long size = channel.size();
+        ByteBuffer chunk = ByteBuffer.allocate(READ_CHUNK);
+        chunk.limit(0);
+        long chunkStart = 0;
+        long position = 0;
+        while (position + Integer.BYTES <= size) {
+            if (chunk.limit() - (position - chunkStart) < Integer.BYTES) {
+                chunk = fill(chunk, position, Integer.BYTES, size);
+                chunkStart = position;
+            }
+            int inChunk = (int) (position - chunkStart);
+            int length = chunk.getInt(inChunk);
+            if (length < FIXED_SIZE + CRC_SIZE || position + Integer.BYTES + length > size) {
+                break;
+            }
+            if (chunk.limit() - inChunk < Integer.BYTES + length) {
+                chunk = fill(chunk, position, Integer.BYTES + length, size);
+                chunkStart = position;
+                inChunk = 0;
+            }
+            int recordStart = inChunk + Integer.BYTES;
+            CRC32 crc = new CRC32();
+            crc.update(chunk.array(), recordStart, length - CRC_SIZE);
+            if ((int) crc.getValue() != chunk.getInt(recordStart + length - CRC_SIZE)) {
+                break;
+            }
+            GameRecord game = decode(ByteBuffer.wrap(chunk.array(), recordStart, length - CRC_SIZE));
+            index(game.getGameId(), game.getEndedAt(), position, game.getName(0), game.getName(1));
+            nextGameId = Math.max(nextGameId, game.getGameId() + 1);
+            lastTime = Math.max(lastTime, game.getEndedAt());
+            position += Integer.BYTES + length;
+        }
+        if (position < size) {
+            System.err.println("History " + file + " is damaged at " + position + ", the rest is dropped");
+            channel.truncate(position);
+        }
+        writePosition = position;
+    }
+
+    /**
+     * Reads the file from the position to the chunk, at least the needed
+     * bytes, which are known to be in the file.
+     */
+    private ByteBuffer fill(ByteBuffer chunk, long position, int needed, long size) throws IOException {
+
+        ByteBuffer filled = needed > chunk.capacity() ? ByteBuffer.allocate(needed) : chunk;
+        filled.clear();
+        filled.limit((int) Math.min(filled.capacity(), size - position));
+        readFully(filled, position);
+        filled.flip();
+        return filled;
+    }
+}
@@ -0,0 +1,72 @@
+package history;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the finished games, so that they can be listed by player or by time
+ * and replayed. {@link #gameFinished(GameRecord)} is called by the game
+ * threads and must return quickly, it never waits for the disk.
+ */
+public interface GameHistory {
+
+    /** the history of a server that keeps no history */
+    GameHistory DISABLED = new GameHistory() {
+
+        @Override
+        public void gameFinished(GameRecord game) {
+        }
+
+        @Override
+        public GameRecord find(long gameId) {
+            return null;
+        }
+
+        @Override
+        public List<GameRecord> lastGames(String playerName, int count) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<GameRecord> gamesBetween(long fromMillis, long toMillis, int limit) {
+            return Collections.emptyList();
+        }
+    };
+
+    /**
+     * Stores a finished game. The game gets its id and time when it is
+     * stored.
+     *
+     * @param game
+     *            the finished game
+     */
+    void gameFinished(GameRecord game);
+
+    /**
+     * @param gameId
+     *            id of a stored game
+     * @return the game, null if there is no game with this id.
+     */
+    GameRecord find(long gameId);
+
+    /**
+     * @param playerName
+     *            name of the player
+     * @param count
+     *            how many games at most
+     * @return the last games of the player, the newest first.
+     */
+    List<GameRecord> lastGames(String playerName, int count);
+
+    /**
+     * @param fromMillis
+     *            start of the time range, inclusive, in milliseconds since the
+     *            epoch
+     * @param toMillis
+     *            end of the time range, exclusive
+     * @param limit
+     *            how many games at most
+     * @return the games stored in the time range, the oldest first.
+     */
+    List<GameRecord> gamesBetween(long fromMillis, long toMillis, int limit);
+}
@@ -0,0 +1,177 @@
+package history;
+
+import java.time.Instant;
+
+import java.util.Arrays;
+
+import game.ScoreTable;
+import game.Variant;
+
+/**
+ * A finished game as kept in the history. A turn is stored as the packed
+ * guess only, see {@link Variant}. The players take turns starting with the
+ * first one, and the score of a guess follows from the secret of the other
+ * player, so neither is stored.
+ */
+public class GameRecord {
+
+    /** winner of a game that ended without one */
+    public static final int NO_WINNER = -1;
+
+    private final long gameId;
+    private final long endedAt;
+    private final String[] names;
+    private final Variant variant;
+    private final long[] secrets;
+    /** see {@link Variant#secretDigits(long)} */
+    private final int[] secretDigits;
+    private final long[] turns;
+    private final int winnerSlot;
+
+    /**
+     * Record of a game that has just finished, the history gives it its id
+     * and time.
+     *
+     * @param firstName
+     *            name of the player who guessed first, slot 0
+     * @param secondName
+     *            name of the other player, slot 1
+     * @param variant
+     *            the rules of the numbers of the game
+     * @param firstSecret
+     *            packed secret of the first player
+     * @param secondSecret
+     *            packed secret of the second player
+     * @param guesses
+     *            the packed guesses in the order they were made
+     * @param guessCount
+     *            how many of the guesses were made
+     * @param winnerSlot
+     *            slot of the winner, or {@link #NO_WINNER}
+     */
+    public GameRecord(String firstName, String secondName, Variant variant, long firstSecret, long secondSecret,
+            long[] guesses, int guessCount, int winnerSlot) {
+        this(0, 0, firstName, secondName, variant, firstSecret, secondSecret, Arrays.copyOf(guesses, guessCount),
+                winnerSlot);
+    }
+
+    GameRecord(long gameId, long endedAt, String firstName, String secondName, Variant variant, long firstSecret,
+            long secondSecret, long[] turns, int winnerSlot) {
+        this.gameId = gameId;
+        this.endedAt = endedAt;
+        this.names = new String[] { firstName, secondName };
+        this.variant = variant;
+        this.secrets = new long[] { firstSecret, secondSecret };
+        this.secretDigits = new int[] { variant.secretDigits(firstSecret), variant.secretDigits(secondSecret) };
+        this.turns = turns;
+        this.winnerSlot = winnerSlot;
+    }
+
+    /**
+     * @return id of the game in the history, 0 before it is stored.
+     */
+    public long getGameId() {
+        return gameId;
+    }
+
+    /**
+     * @return when the game was stored, in milliseconds since the epoch.
+     */
+    public long getEndedAt() {
+        return endedAt;
+    }
+
+    /**
+     * @param slot
+     *            0 for the player who guessed first, 1 for the other one
+     * @return name of the player in the slot
+     */
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * @return the rules of the numbers of the game.
+     */
+    public Variant getVariant() {
+        return variant;
+    }
+
+    /**
+     * @param slot
+     *            slot of the player
+     * @return packed secret of the player
+     */
+    public long getSecret(int slot) {
+        return secrets[slot];
+    }
+
+    public int getWinnerSlot() {
+        return winnerSlot;
+    }
+
+    public int getTurnCount() {
+        return turns.length;
+    }
+
+    /**
+     * @param turn
+     *            number of the turn, from 0
+     * @return slot of the player who guessed in the turn
+     */
+    public int getGuessSlot(int turn) {
+        return turn & 1;
+    }
+
+    /**
+     * @param turn
+     *            number of the turn, from 0
+     * @return the packed guess of the turn
+     */
+    public long getGuess(int turn) {
+        return turns[turn];
+    }
+
+    /**
+     * @param turn
+     *            number of the turn, from 0
+     * @return the packed score of the guess, see {@link ScoreTable}
+     */
+    public int getScore(int turn) {
+        int secretSlot = 1 - getGuessSlot(turn);
+        return variant.score(getGuess(turn), secrets[secretSlot], secretDigits[secretSlot]);
+    }
+
+    /**
+     * @return one line about the game, like "Game 12 at 2026-01-01T10:00:00Z:
+     *         Alice vs Bob, Alice won in 9 turns.", with the variant after the
+     *         names if it is not the classic one.
+     */
+    public String summary() {
+
+        String result = winnerSlot == NO_WINNER ? "no winner" : names[winnerSlot] + " won";
+        String rules = variant == Variant.CLASSIC ? "" : " (" + variant.getName() + ")";
+        return "Game " + gameId + " at " + Instant.ofEpochMilli(endedAt) + ": " + names[0] + " vs " + names[1]
+                + rules + ", " + result + " in " + turns.length + " turns.";
+    }
+
+    /**
+     * @return the summary, the secrets and every turn of the game, a line
+     *         each.
+     */
+    public String replay() {
+
+        String newLine = System.lineSeparator();
+        StringBuilder text = new StringBuilder(64 + turns.length * 40);
+        text.append(summary()).append(newLine);
+        text.append(names[0]).append("'s number: ").append(variant.toString(secrets[0])).append(", ");
+        text.append(names[1]).append("'s number: ").append(variant.toString(secrets[1])).append(newLine);
+        for (int turn = 0; turn < turns.length; turn++) {
+            int score = getScore(turn);
+            text.append(turn + 1).append(". ").append(names[getGuessSlot(turn)]).append(' ');
+            text.append(variant.toString(getGuess(turn))).append(" --> ").append(ScoreTable.cows(score));
+            text.append(" cows, ").append(ScoreTable.bulls(score)).append(" bulls.").append(newLine);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,86 @@
+package journal;
+
+import game.Variant;
+
+/**
+ * Records what happens in the games, so that the games in progress can be
+ * rebuilt after the server has stopped unexpectedly. The methods are called
+ * by the game threads and must return quickly, they never wait for the disk.
+ */
+public interface GameJournal {
+
+    /** winner of a game that ended without one, like after a disconnect */
+    int NO_WINNER = -1;
+
+    /** the journal of a server that keeps no journal */
+    GameJournal DISABLED = new GameJournal() {
+
+        @Override
+        public long gameStarted(String firstName, String secondName, boolean secondIsComputer, Variant variant,
+                long firstResumeCode, long secondResumeCode) {
+            return 0;
+        }
+
+        @Override
+        public void secretCommitted(long gameId, int slot, long code) {
+        }
+
+        @Override
+        public void guessScored(long gameId, int slot, long guess, int score) {
+        }
+
+        @Override
+        public void gameEnded(long gameId, int winnerSlot) {
+        }
+    };
+
+    /**
+     * @param firstName
+     *            name of the player who guesses first, slot 0
+     * @param secondName
+     *            name of the other player, slot 1
+     * @param secondIsComputer
+     *            true if the second player is the computer
+     * @param variant
+     *            the rules of the numbers of the game
+     * @param firstResumeCode
+     *            the code of the first player to take his seat back after a
+     *            restart, see {@link ResumeCodes}
+     * @param secondResumeCode
+     *            the code of the second player, {@link ResumeCodes#NONE} for
+     *            the computer
+     * @return id of the new game
+     */
+    long gameStarted(String firstName, String secondName, boolean secondIsComputer, Variant variant,
+            long firstResumeCode, long secondResumeCode);
+
+    /**
+     * @param gameId
+     *            id of the game
+     * @param slot
+     *            0 for the first player, 1 for the second
+     * @param code
+     *            the packed secret number of the player
+     */
+    void secretCommitted(long gameId, int slot, long code);
+
+    /**
+     * @param gameId
+     *            id of the game
+     * @param slot
+     *            slot of the player who guessed
+     * @param guess
+     *            the packed guess
+     * @param score
+     *            its packed score
+     */
+    void guessScored(long gameId, int slot, long guess, int score);
+
+    /**
+     * @param gameId
+     *            id of the game
+     * @param winnerSlot
+     *            slot of the winner, or {@link #NO_WINNER}
+     */
+    void gameEnded(long gameId, int winnerSlot);
+}
@@ -0,0 +1,429 @@
+package journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import game.Code;
+import game.Variant;
+import metrics.LatencyHistogram;
+import metrics.Meter;
+import metrics.Metrics;
+
+/**
+ * Journal kept in memory-mapped segment files. An event is appended by
+ * reserving its place in the current segment with one atomic add and copying
+ * the record there, so the game threads never lock and never wait for the
+ * disk. What is in the mapping survives a crash of the JVM. A background
+ * thread forces the changed segments to the disk every
+ * {@link #FORCE_EVERY_MILLIS}, all the records appended meanwhile are made
+ * durable together, so a crash of the machine loses at most that much.
+ *
+ * Record: [int length][byte type][long game id][payload][int crc], the crc
+ * covers everything between the length and itself. A code is written in two
+ * bytes when it fits, in the wide records when it does not, see
+ * {@link Variant}. A start ends with the variant and the resume codes of the
+ * players, see {@link ResumeCodes}. A record that was being
+ * written during the crash fails the crc and is skipped, the first zero
+ * length marks the end of a segment. So does a place that had been reserved
+ * but not written yet, the records after it in that segment are lost with it.
+ *
+ * When the journal is opened, the games that had not ended are rebuilt, see
+ * {@link #getRecoveredGames()}, written again to a fresh segment and the old
+ * segments are deleted. While the server runs, a segment is deleted once no
+ * game in progress started in it or before it.
+ */
+public class MappedGameJournal implements GameJournal, Runnable {
+
+    static final int SEGMENT_SIZE = 16 << 20;
+    static final long FORCE_EVERY_MILLIS = 10;
+    private static final int MAX_NAME_BYTES = 1024;
+
+    private static final byte START = 1;
+    private static final byte SECRET = 2;
+    private static final byte GUESS = 3;
+    private static final byte END = 4;
+    private static final byte WIDE_SECRET = 5;
+    private static final byte WIDE_GUESS = 6;
+    private static final long SHORT_CODES = 0xFFFF;
+    /** length, type and game id */
+    private static final int HEADER_SIZE = Integer.BYTES + 1 + Long.BYTES;
+    private static final int CRC_SIZE = Integer.BYTES;
+
+    private static final LatencyHistogram APPEND_TIME = Metrics.REGISTRY.histogram("journal.appendTime");
+    private static final LatencyHistogram FORCE_TIME = Metrics.REGISTRY.histogram("journal.forceTime");
+    private static final Meter FORCES = Metrics.REGISTRY.meter("journal.forces");
+
+    private final Path directory;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private volatile Segment current;
+    private final AtomicLong nextGameId = new AtomicLong(1);
+    /** game id -> number of the segment with its start, for the games in progress */
+    private final Map<Long, Long> startSegments = new ConcurrentHashMap<>();
+    private final Map<Long, RecoveredGame> recoveredGames = new LinkedHashMap<>();
+
+    /**
+     * Opens the journal in the directory, rebuilds the games that were in
+     * progress and starts a fresh segment.
+     *
+     * @param directory
+     *            the directory of the segments, created if missing
+     * @throws IOException
+     *             if the segments can not be read or created.
+     */
+    public MappedGameJournal(Path directory) throws IOException {
+
+        this.directory = directory;
+        Files.createDirectories(directory);
+        List<Path> oldSegments = listSegments();
+        long lastNumber = 0;
+        for (Path segmentFile : oldSegments) {
+            replay(segmentFile);
+            lastNumber = Math.max(lastNumber, segmentNumber(segmentFile));
+        }
+        current = openSegment(lastNumber + 1);
+        for (RecoveredGame game : recoveredGames.values()) {
+            rewrite(game);
+        }
+        current.buffer.force();
+        for (Path segmentFile : oldSegments) {
+            Files.delete(segmentFile);
+        }
+        if (!recoveredGames.isEmpty()) {
+            System.out.println("Journal: " + recoveredGames.size() + " games in progress recovered from "
+                    + directory);
+        }
+        Metrics.REGISTRY.gauge("journal.segments", () -> segments.size());
+    }
+
+    /**
+     * @return the games that were in progress when the journal was opened.
+     */
+    public Collection<RecoveredGame> getRecoveredGames() {
+        return recoveredGames.values();
+    }
+
+    @Override
+    public long gameStarted(String firstName, String secondName, boolean secondIsComputer, Variant variant,
+            long firstResumeCode, long secondResumeCode) {
+
+        long gameId = nextGameId.getAndIncrement();
+        startSegments.put(gameId, current.number);
+        appendStart(gameId, firstName, secondName, secondIsComputer, variant, firstResumeCode, secondResumeCode);
+        return gameId;
+    }
+
+    @Override
+    public void secretCommitted(long gameId, int slot, long code) {
+
+        if (code > SHORT_CODES) {
+            ByteBuffer record = newRecord(WIDE_SECRET, gameId, 1 + Long.BYTES);
+            record.put((byte) slot).putLong(code);
+            append(record);
+            return;
+        }
+        ByteBuffer record = newRecord(SECRET, gameId, 1 + Short.BYTES);
+        record.put((byte) slot).putShort((short) code);
+        append(record);
+    }
+
+    @Override
+    public void guessScored(long gameId, int slot, long guess, int score) {
+
+        if (guess > SHORT_CODES) {
+            ByteBuffer record = newRecord(WIDE_GUESS, gameId, 1 + Long.BYTES + 1);
+            record.put((byte) slot).putLong(guess).put((byte) score);
+            append(record);
+            return;
+        }
+        ByteBuffer record = newRecord(GUESS, gameId, 1 + Short.BYTES + 1);
+        record.put((byte) slot).putShort((short) guess).put((byte) score);
+        append(record);
+    }
+
+    @Override
+    public void gameEnded(long gameId, int winnerSlot) {
+
+        ByteBuffer record = newRecord(END, gameId, 1);
+        record.put((byte) winnerSlot);
+        append(record);
+        startSegments.remove(gameId);
+    }
+
+    /**
+     * Forces the changed segments to the disk every
+     * {@link #FORCE_EVERY_MILLIS} until the thread is interrupted.
+     */
+    public void run() {
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(FORCE_EVERY_MILLIS);
+            } catch (InterruptedException e) {
+                forceChanged();
+                return;
+            }
+            forceChanged();
+        }
+    }
+
+    void forceChanged() {
+
+        for (Segment segment : segments.values()) {
+            if (segment.dirty.getAndSet(false)) {
+                long start = System.nanoTime();
+                segment.buffer.force();
+                FORCE_TIME.recordSince(start);
+                FORCES.mark();
+            }
+        }
+    }
+
+    /**
+     * The variant and the resume codes are last, a start written before there
+     * were variants has none of them.
+     */
+    private void appendStart(long gameId, String firstName, String secondName, boolean secondIsComputer,
+            Variant variant, long firstResumeCode, long secondResumeCode) {
+
+        byte[] first = nameBytes(firstName);
+        byte[] second = nameBytes(secondName);
+        ByteBuffer record = newRecord(START, gameId,
+                1 + Short.BYTES + first.length + Short.BYTES + second.length + 1 + 2 * Long.BYTES);
+        record.put((byte) (secondIsComputer ? 1 : 0));
+        record.putShort((short) first.length).put(first);
+        record.putShort((short) second.length).put(second);
+        record.put((byte) variant.getId());
+        record.putLong(firstResumeCode).putLong(secondResumeCode);
+        append(record);
+    }
+
+    private static byte[] nameBytes(String name) {
+
+        byte[] bytes = String.valueOf(name).getBytes(StandardCharsets.UTF_8);
+        return bytes.length <= MAX_NAME_BYTES ? bytes : Arrays.copyOf(bytes, MAX_NAME_BYTES);
+    }
+
+    private static ByteBuffer newRecord(byte type, long gameId, int payloadSize) {
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payloadSize + CRC_SIZE);
+        record.putInt(record.capacity()).put(type).putLong(gameId);
+        return record;
+    }
+
+    /**
+     * Adds the crc to the record and copies it to its reserved place.
+     */
+    private void append(ByteBuffer record) {
+
+        long start = System.nanoTime();
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), Integer.BYTES, record.position() - Integer.BYTES);
+        record.putInt((int) crc.getValue());
+        int length = record.capacity();
+        while (true) {
+            Segment segment = current;
+            int offset = segment.position.getAndAdd(length);
+            if (offset + length <= SEGMENT_SIZE) {
+                segment.buffer.put(offset, record.array(), 0, length);
+                segment.dirty.set(true);
+                APPEND_TIME.recordSince(start);
+                return;
+            }
+            roll(segment);
+        }
+    }
+
+    /**
+     * Starts the next segment, unless another thread has already done it, and
+     * deletes the segments no game in progress needs.
+     */
+    private synchronized void roll(Segment full) {
+
+        if (current != full) {
+            return;
+        }
+        try {
+            current = openSegment(full.number + 1);
+        } catch (IOException e) {
+            throw new IllegalStateException("Journal segment can not be created", e);
+        }
+        long oldestNeeded = full.number + 1;
+        for (long number : startSegments.values()) {
+            oldestNeeded = Math.min(oldestNeeded, number);
+        }
+        for (Segment old : segments.headMap(oldestNeeded).values()) {
+            if (old.dirty.get()) {
+                old.buffer.force();
+            }
+            segments.remove(old.number);
+            try {
+                Files.deleteIfExists(segmentPath(old.number));
+            } catch (IOException e) {
+                System.err.println("Journal segment " + old.number + " can not be deleted: " + e.getMessage());
+            }
+        }
+    }
+
+    private Segment openSegment(long number) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Segment segment = new Segment(number, channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE));
+            segments.put(number, segment);
+            return segment;
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("journal-%012d.log", number));
+    }
+
+    private static long segmentNumber(Path segmentFile) {
+
+        String fileName = segmentFile.getFileName().toString();
+        return Long.parseLong(fileName.substring("journal-".length(), fileName.length() - ".log".length()));
+    }
+
+    private List<Path> listSegments() throws IOException {
+
+        List<Path> segmentFiles = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path file : files) {
+                segmentFiles.add(file);
+            }
+        }
+        segmentFiles.sort((first, second) -> Long.compare(segmentNumber(first), segmentNumber(second)));
+        return segmentFiles;
+    }
+
+    /**
+     * Applies the valid records of an old segment to the recovered games.
+     */
+    private void replay(Path segmentFile) throws IOException {
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int position = 0;
+        while (position + HEADER_SIZE + CRC_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            if (length < HEADER_SIZE + CRC_SIZE || position + length > buffer.limit()) {
+                System.err.println("Journal " + segmentFile + " is damaged at " + position);
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(position + Integer.BYTES, length - Integer.BYTES - CRC_SIZE));
+            if ((int) crc.getValue() == buffer.getInt(position + length - CRC_SIZE)) {
+                apply(buffer.slice(position + Integer.BYTES, length - Integer.BYTES - CRC_SIZE));
+            }
+            position += length;
+        }
+    }
+
+    private void apply(ByteBuffer record) {
+
+        byte type = record.get();
+        long gameId = record.getLong();
+        nextGameId.set(Math.max(nextGameId.get(), gameId + 1));
+        if (type == START) {
+            boolean secondIsComputer = record.get() == 1;
+            String first = readName(record);
+            String second = readName(record);
+            Variant variant = Variant.fromId(record.get());
+            long firstResumeCode = record.getLong();
+            long secondResumeCode = record.getLong();
+            recoveredGames.put(gameId, new RecoveredGame(gameId, first, second, secondIsComputer, variant,
+                    firstResumeCode, secondResumeCode));
+            return;
+        }
+        RecoveredGame game = recoveredGames.get(gameId);
+        if (game == null) {
+            // its start was in a segment that has been deleted
+            return;
+        }
+        switch (type) {
+        case SECRET:
+            game.setSecret(record.get(), record.getShort() & 0xFFFF);
+            break;
+        case GUESS:
+            game.addGuess(record.get(), record.getShort() & 0xFFFF, record.get() & 0xFF);
+            break;
+        case WIDE_SECRET:
+            game.setSecret(record.get(), record.getLong());
+            break;
+        case WIDE_GUESS:
+            game.addGuess(record.get(), record.getLong(), record.get() & 0xFF);
+            break;
+        case END:
+            recoveredGames.remove(gameId);
+            break;
+        default:
+            System.err.println("Journal: unknown record type " + type);
+        }
+    }
+
+    private static String readName(ByteBuffer record) {
+
+        byte[] name = new byte[record.getShort() & 0xFFFF];
+        record.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a recovered game to the current segment, with the same id.
+     */
+    private void rewrite(RecoveredGame game) {
+
+        long gameId = game.getGameId();
+        startSegments.put(gameId, current.number);
+        appendStart(gameId, game.getName(0), game.getName(1), game.isSecondComputer(), game.getVariant(),
+                game.getResumeCode(0), game.getResumeCode(1));
+        for (int slot = 0; slot < 2; slot++) {
+            if (game.getSecret(slot) != Code.INVALID) {
+                secretCommitted(gameId, slot, game.getSecret(slot));
+            }
+        }
+        for (int i = 0; i < game.getGuessCount(); i++) {
+            guessScored(gameId, game.getGuessSlot(i), game.getGuess(i), game.getScore(i));
+        }
+    }
+
+    /**
+     * One mapped segment file.
+     */
+    private static class Segment {
+
+        private final long number;
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger position = new AtomicInteger();
+        private final AtomicBoolean dirty = new AtomicBoolean();
+
+        Segment(long number, MappedByteBuffer buffer) {
+            this.number = number;
+            this.buffer = buffer;
+        }
+    }
+}
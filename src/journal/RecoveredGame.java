@@ -0,0 +1,106 @@
+package journal;
+
+import java.util.Arrays;
+
+import game.Code;
+import game.Variant;
+
+/**
+ * A game that was in progress when the server stopped, as rebuilt from the
+ * journal.
+ */
+public class RecoveredGame {
+
+    private final long gameId;
+    private final String[] names;
+    private final boolean secondIsComputer;
+    private final Variant variant;
+    private final long[] resumeCodes;
+    private final long[] secrets = { Code.INVALID, Code.INVALID };
+    /** slot << 48 | guess << 8 | score, one per guess */
+    private long[] guesses = new long[16];
+    private int guessCount;
+
+    RecoveredGame(long gameId, String firstName, String secondName, boolean secondIsComputer, Variant variant,
+            long firstResumeCode, long secondResumeCode) {
+        this.gameId = gameId;
+        this.names = new String[] { firstName, secondName };
+        this.secondIsComputer = secondIsComputer;
+        this.variant = variant;
+        this.resumeCodes = new long[] { firstResumeCode, secondResumeCode };
+    }
+
+    void setSecret(int slot, long code) {
+        secrets[slot] = code;
+    }
+
+    void addGuess(int slot, long guess, int score) {
+
+        if (guessCount == guesses.length) {
+            guesses = Arrays.copyOf(guesses, guessCount * 2);
+        }
+        guesses[guessCount++] = (long) slot << 48 | guess << 8 | score;
+    }
+
+    public long getGameId() {
+        return gameId;
+    }
+
+    /**
+     * @param slot
+     *            0 for the player who guesses first, 1 for the other one
+     * @return name of the player in the slot
+     */
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    public boolean isSecondComputer() {
+        return secondIsComputer;
+    }
+
+    public Variant getVariant() {
+        return variant;
+    }
+
+    /**
+     * @param slot
+     *            slot of the player
+     * @return the code with which the player takes his seat back,
+     *         {@link ResumeCodes#NONE} for the computer.
+     */
+    public long getResumeCode(int slot) {
+        return resumeCodes[slot];
+    }
+
+    /**
+     * @param slot
+     *            slot of the player
+     * @return packed secret of the player, {@link Code#INVALID} if he had not
+     *         chosen it yet.
+     */
+    public long getSecret(int slot) {
+        return secrets[slot];
+    }
+
+    public int getGuessCount() {
+        return guessCount;
+    }
+
+    /**
+     * @param index
+     *            number of the guess in the game, from 0
+     * @return slot of the player who made the guess
+     */
+    public int getGuessSlot(int index) {
+        return (int) (guesses[index] >>> 48);
+    }
+
+    public long getGuess(int index) {
+        return guesses[index] >>> 8 & 0xFFFFFFFFFFL;
+    }
+
+    public int getScore(int index) {
+        return (int) guesses[index] & 0xFF;
+    }
+}
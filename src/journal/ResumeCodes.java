@@ -0,0 +1,59 @@
+package journal;
+
+import java.security.SecureRandom;
+
+/**
+ * The codes with which the players of a game take their seats back after the
+ * server has stopped. A player is told his code when the game starts and the
+ * journal keeps it with the game, so knowing the name of a player is not
+ * enough to take his seat.
+ */
+public final class ResumeCodes {
+
+    /**
+     * the code of a seat that has none: the seat of the computer, or of a
+     * game journaled before there were codes
+     */
+    public static final long NONE = 0;
+    private static final long MASK = (1L << 40) - 1;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private ResumeCodes() {
+    }
+
+    /**
+     * @return a new code, never {@link #NONE}.
+     */
+    public static long next() {
+
+        long code;
+        do {
+            code = RANDOM.nextLong() & MASK;
+        } while (code == NONE);
+        return code;
+    }
+
+    /**
+     * @param code
+     *            a code
+     * @return the code as the player types it, letters and digits.
+     */
+    public static String toString(long code) {
+        return Long.toString(code, Character.MAX_RADIX);
+    }
+
+    /**
+     * @param text
+     *            what the player has typed
+     * @return the code, {@link #NONE} if the text is not a code.
+     */
+    public static long parse(String text) {
+
+        try {
+            long code = Long.parseLong(text.trim(), Character.MAX_RADIX);
+            return code > 0 && code <= MASK ? code : NONE;
+        } catch (NumberFormatException e) {
+            return NONE;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import bot.GuessStrategy;
+import metrics.Metrics;
+import server.Server;
+import server.ServerConfig;
+
+/**
+ * Drives many scripted clients against the server over loopback and reports
+ * latencies and throughput at a fixed interval. Profiles:
+ * <ul>
+ * <li>steady - all clients from the start, for the whole duration</li>
+ * <li>ramp - adds a step of clients every interval until all have joined, to
+ * find where the latency starts to grow</li>
+ * <li>soak - like steady, for long runs; also reports the growth of threads
+ * and heap since the first interval, to catch leaks</li>
+ * </ul>
+ * With --embedded the server runs in the same JVM, so its threads and heap
+ * can be reported. For a remote server on the same machine the thread count is
+ * read from its admin endpoint when --admin-port is given. With --embedded and
+ * --cluster-nodes=N a cluster of N nodes runs in the JVM on N ports from
+ * --port, joined by the loopback transport; the clients are spread over the
+ * nodes and the pairing latency across nodes is reported.
+ */
+public class LoadGenerator {
+
+    private enum Profile {
+        STEADY, RAMP, SOAK
+    }
+
+    private static final long CLIENT_STACK_SIZE = 256 * 1024;
+
+    private String host = "127.0.0.1";
+    private int port = 3008;
+    private int clients = 100;
+    private Profile profile = Profile.STEADY;
+    private int durationSeconds = 60;
+    private int intervalSeconds = 5;
+    private int rampStep = 50;
+    private boolean embedded;
+    private int clusterNodes = 1;
+    private boolean binary;
+    private int adminPort;
+    private List<String> serverArgs = new ArrayList<>();
+
+    private final PrintStream console = System.out;
+    private final LoadStats stats = new LoadStats();
+    private final List<ScriptedClient> started = new ArrayList<>();
+
+    /**
+     * Entry point.
+     * 
+     * @param args
+     *            --host, --port, --clients, --profile=steady|ramp|soak,
+     *            --duration-s, --interval-s, --ramp-step, --admin-port,
+     *            --protocol=text|binary, --embedded, --cluster-nodes and
+     *            --server-option=name=value passed to the embedded server
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public static void main(String[] args) throws InterruptedException {
+
+        LoadGenerator generator = new LoadGenerator();
+        for (String arg : args) {
+            generator.setOption(arg);
+        }
+        generator.run();
+    }
+
+    private void setOption(String arg) {
+
+        if ("--embedded".equals(arg)) {
+            embedded = true;
+            return;
+        }
+        int separator = arg.indexOf('=');
+        if (!arg.startsWith("--") || separator < 0) {
+            throw new IllegalArgumentException("Invalid option: " + arg);
+        }
+        String value = arg.substring(separator + 1);
+        switch (arg.substring(2, separator)) {
+        case "host":
+            host = value;
+            break;
+        case "port":
+            port = Integer.parseInt(value);
+            break;
+        case "clients":
+            clients = Integer.parseInt(value);
+            break;
+        case "profile":
+            profile = Profile.valueOf(value.toUpperCase());
+            break;
+        case "duration-s":
+            durationSeconds = Integer.parseInt(value);
+            break;
+        case "interval-s":
+            intervalSeconds = Integer.parseInt(value);
+            break;
+        case "ramp-step":
+            rampStep = Integer.parseInt(value);
+            break;
+        case "admin-port":
+            adminPort = Integer.parseInt(value);
+            break;
+        case "protocol":
+            if (!"text".equals(value) && !"binary".equals(value)) {
+                throw new IllegalArgumentException("Unknown protocol: " + value);
+            }
+            binary = "binary".equals(value);
+            break;
+        case "cluster-nodes":
+            clusterNodes = Integer.parseInt(value);
+            if (clusterNodes < 1) {
+                throw new IllegalArgumentException("cluster-nodes must be positive");
+            }
+            break;
+        case "server-option":
+            serverArgs.add("--" + value);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+    }
+
+    private void run() throws InterruptedException {
+
+        if (embedded) {
+            startEmbeddedServers();
+        }
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        console.println("Load profile " + profile + ": " + clients + " clients against " + address + " for "
+                + durationSeconds + " s.");
+
+        long start = System.nanoTime();
+        long end = start + durationSeconds * 1_000_000_000L;
+        long windowStart = start;
+        int firstThreads = -1;
+        long firstHeap = -1;
+        while (System.nanoTime() < end) {
+            int target = profile == Profile.RAMP
+                    ? Math.min(clients, rampStep * (1 + (int) ((System.nanoTime() - start) / 1_000_000_000L
+                            / intervalSeconds)))
+                    : clients;
+            while (started.size() < target) {
+                startClient(new InetSocketAddress(host, port + started.size() % clusterNodes));
+            }
+            Thread.sleep(intervalSeconds * 1000L);
+
+            long now = System.nanoTime();
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("[%4ds] ", (now - start) / 1_000_000_000L));
+            report.append(stats.reportAndReset(now - windowStart));
+            windowStart = now;
+            if (embedded) {
+                // all threads of the JVM minus the client threads
+                int serverThreads = threads.getThreadCount() - stats.connectedClients.get();
+                long heap = memory.getHeapMemoryUsage().getUsed();
+                report.append(String.format("%n  server threads=%d heap=%dMB", serverThreads, heap >> 20));
+                if (profile == Profile.SOAK) {
+                    if (firstThreads < 0) {
+                        firstThreads = serverThreads;
+                        firstHeap = heap;
+                    }
+                    report.append(String.format(" (since first interval: threads %+d, heap %+dMB)",
+                            serverThreads - firstThreads, (heap - firstHeap) >> 20));
+                }
+            } else if (adminPort > 0) {
+                report.append(String.format("%n  server threads=%s", readRemoteMetric("jvm.threads")));
+            } else {
+                report.append(String.format("%n  server threads=n/a (remote server)"));
+            }
+            if (clusterNodes > 1) {
+                report.append(String.format("%n  cluster pairs=%d pairing %s",
+                        Metrics.REGISTRY.counter("cluster.remotePairs").get(),
+                        Metrics.CLUSTER_PAIRING_LATENCY.summary()));
+            }
+            console.println(report);
+        }
+        for (ScriptedClient client : started) {
+            client.stop();
+        }
+        console.println("Load finished, clients leave after their current game.");
+        System.exit(0);
+    }
+
+    /**
+     * Reads one metric from the admin endpoint of the server.
+     * 
+     * @return the value as text, or n/a if it can not be read.
+     */
+    private String readRemoteMetric(String name) {
+
+        try (Socket socket = new Socket(host, adminPort);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            new PrintWriter(socket.getOutputStream(), true).println("quit");
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(name + " ")) {
+                    return line.substring(name.length() + 1);
+                }
+            }
+        } catch (IOException e) {
+            // reported as n/a
+        }
+        return "n/a";
+    }
+
+    private void startClient(InetSocketAddress address) {
+
+        ScriptedClient client = new ScriptedClient(address, "load" + started.size(), stats,
+                GuessStrategy.byName("random"), binary);
+        Thread clientThread = new Thread(null, client, "load-client-" + started.size(), CLIENT_STACK_SIZE);
+        clientThread.setDaemon(true);
+        clientThread.start();
+        started.add(client);
+    }
+
+    /**
+     * Starts the embedded server, or the nodes of the embedded cluster.
+     */
+    private void startEmbeddedServers() throws InterruptedException {
+
+        // the server logs every event, keep the console for the reports
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        StringBuilder members = new StringBuilder();
+        for (int node = 0; node < clusterNodes; node++) {
+            members.append(node == 0 ? "" : ",").append("node").append(node);
+        }
+        for (int node = 0; node < clusterNodes; node++) {
+            List<String> nodeArgs = new ArrayList<>(serverArgs);
+            nodeArgs.add("--port=" + (port + node));
+            if (clusterNodes > 1) {
+                nodeArgs.add("--cluster-node=node" + node);
+                nodeArgs.add("--cluster-members=" + members);
+                nodeArgs.add("--cluster-transport=loopback");
+                if (node > 0) {
+                    // one admin endpoint is enough, the metrics are shared
+                    nodeArgs.add("--admin-port=0");
+                }
+            }
+            startEmbeddedServer(nodeArgs, "embedded-server-" + node);
+        }
+        // give the servers time to bind
+        Thread.sleep(500);
+    }
+
+    private void startEmbeddedServer(List<String> args, String threadName) {
+
+        Server server = new Server(ServerConfig.fromArgs(args.toArray(new String[0])));
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                System.err.println("Embedded server failed to start: " + e.getMessage());
+            }
+        }, threadName);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+}
@@ -0,0 +1,50 @@
+package loadtest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import metrics.LatencyHistogram;
+
+/**
+ * Counters shared by all scripted clients. The histograms and the game counter
+ * are for the current report window and are reset after each report.
+ */
+public class LoadStats {
+
+    final LatencyHistogram connectLatency = new LatencyHistogram();
+    final LatencyHistogram turnLatency = new LatencyHistogram();
+    final LongAdder gamesFinished = new LongAdder();
+    final LongAdder totalGamesFinished = new LongAdder();
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder protocolErrors = new LongAdder();
+    final AtomicInteger connectedClients = new AtomicInteger();
+
+    /**
+     * Called by a client when one of its games has ended.
+     */
+    void gameFinished() {
+
+        gamesFinished.increment();
+        totalGamesFinished.increment();
+    }
+
+    /**
+     * Formats the window and starts a new one.
+     * 
+     * @param windowNanos
+     *            length of the window
+     * @return one report line
+     */
+    String reportAndReset(long windowNanos) {
+
+        long games = gamesFinished.sumThenReset();
+        String report = String.format(
+                "clients=%d games/sec=%.1f totalGames=%d connectFailures=%d protocolErrors=%d%n"
+                        + "  turn latency    %s%n  connect latency %s",
+                connectedClients.get(), games * 1e9 / windowNanos, totalGamesFinished.sum(), connectFailures.sum(),
+                protocolErrors.sum(), turnLatency.summary(), connectLatency.summary());
+        turnLatency.reset();
+        connectLatency.reset();
+        return report;
+    }
+}
@@ -0,0 +1,305 @@
+package loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+import bot.GuessStrategy;
+import bot.Solver;
+import game.ScoreTable;
+import game.Variant;
+import protocol.BinaryProtocol;
+import protocol.Prompt;
+
+/**
+ * A client that plays through the text protocol of the server like a person
+ * would: gives its name, picks the random room, plays the game with a
+ * {@link Solver} and asks for another game until it is told to stop. The same
+ * script can be played through the binary protocol, see
+ * {@link BinaryProtocol}.
+ */
+public class ScriptedClient implements Runnable {
+
+    private static final String SCORE_PREFIX = " --> ";
+    private static final String GAME_STARTED = "Game started.";
+    private static final String VARIANT_PREFIX = "Play with ";
+
+    private final InetSocketAddress address;
+    private final String name;
+    private final LoadStats stats;
+    private final GuessStrategy strategy;
+    private final boolean binary;
+    private volatile boolean stopping;
+
+    private Solver solver;
+    /** the rules of the numbers of the current game */
+    private Variant variant = Variant.CLASSIC;
+    private long lastGuess;
+    private long guessSentAt;
+    private boolean waitingForScore;
+
+    /**
+     * @param address
+     *            address of the server
+     * @param name
+     *            name the client plays with
+     * @param stats
+     *            where the results are counted
+     * @param strategy
+     *            how the client guesses
+     * @param binary
+     *            true to play through the binary protocol
+     */
+    public ScriptedClient(InetSocketAddress address, String name, LoadStats stats, GuessStrategy strategy,
+            boolean binary) {
+        this.address = address;
+        this.name = name;
+        this.stats = stats;
+        this.strategy = strategy;
+        this.binary = binary;
+    }
+
+    /**
+     * Makes the client leave after its current game.
+     */
+    public void stop() {
+        stopping = true;
+    }
+
+    @Override
+    public void run() {
+
+        Socket socket = new Socket();
+        long connectStart = System.nanoTime();
+        try {
+            socket.connect(address);
+        } catch (IOException e) {
+            stats.connectFailures.increment();
+            return;
+        }
+        stats.connectLatency.recordSince(connectStart);
+        stats.connectedClients.incrementAndGet();
+        try (Socket connected = socket) {
+            if (binary) {
+                playBinary(new DataOutputStream(new BufferedOutputStream(connected.getOutputStream())),
+                        new DataInputStream(new BufferedInputStream(connected.getInputStream())));
+            } else {
+                play(new PrintWriter(connected.getOutputStream(), true),
+                        new BufferedReader(new InputStreamReader(connected.getInputStream())));
+            }
+        } catch (IOException e) {
+            if (!stopping) {
+                stats.protocolErrors.increment();
+            }
+        } finally {
+            stats.connectedClients.decrementAndGet();
+        }
+    }
+
+    private void play(PrintWriter out, BufferedReader in) throws IOException {
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("Please enter your name")) {
+                out.println(name);
+            } else if (line.startsWith("Hello:")) {
+                // the menu, the random room is option 0
+                out.println("0");
+            } else if (line.endsWith(GAME_STARTED)) {
+                // the classic numbers, unless the next line tells otherwise
+                variant = Variant.CLASSIC;
+            } else if (line.startsWith(VARIANT_PREFIX)) {
+                variant = variantOf(line);
+            } else if (line.startsWith("Please insert your starting number")) {
+                startGame();
+                out.println(variant.toString(variant.random(ThreadLocalRandom.current())));
+            } else if (line.startsWith("Please make your guess")) {
+                lastGuess = solver.nextGuess();
+                waitingForScore = true;
+                guessSentAt = System.nanoTime();
+                out.println(variant.toString(lastGuess));
+            } else if (line.startsWith(SCORE_PREFIX)) {
+                // the opponent's guesses are scored with the same line, the
+                // first one after our guess is ours
+                if (waitingForScore) {
+                    stats.turnLatency.recordSince(guessSentAt);
+                    waitingForScore = false;
+                    onScore(line);
+                }
+            } else if (line.startsWith("Game end. You Win")) {
+                // only the winner counts the game, so it is counted once
+                stats.gameFinished();
+            } else if (line.startsWith("Do you want to play more")) {
+                out.println(stopping ? "no" : "yes");
+            } else if (line.startsWith("Your game against")) {
+                // a game interrupted by a restart of the server
+                out.println("no");
+            } else if (line.startsWith("Invalid or incorrect number")) {
+                stats.protocolErrors.increment();
+            }
+        }
+    }
+
+    private void playBinary(DataOutputStream out, DataInputStream in) throws IOException {
+
+        // the name prompt is the only text line, the answer switches to frames
+        int current;
+        while ((current = in.read()) != '\n') {
+            if (current < 0) {
+                return;
+            }
+        }
+        out.writeByte(BinaryProtocol.MAGIC);
+        sendLine(out, name);
+        int opcode;
+        while ((opcode = in.read()) >= 0) {
+            switch (opcode) {
+            case BinaryProtocol.TEXT:
+                byte[] text = new byte[in.readUnsignedShort()];
+                in.readFully(text);
+                String line = new String(text, StandardCharsets.UTF_8);
+                if (line.startsWith("Invalid or incorrect number")) {
+                    stats.protocolErrors.increment();
+                } else if (line.endsWith(GAME_STARTED)) {
+                    variant = Variant.CLASSIC;
+                }
+                break;
+            case BinaryProtocol.VARIANT:
+                variant = Variant.fromId(in.readUnsignedByte());
+                break;
+            case BinaryProtocol.PROMPT:
+                onPrompt(Prompt.byCode(in.readUnsignedByte()), out);
+                break;
+            case BinaryProtocol.SCORE:
+                int score = in.readUnsignedByte();
+                stats.turnLatency.recordSince(guessSentAt);
+                if (!variant.isSolved(score)) {
+                    solver.onScore(lastGuess, score);
+                }
+                break;
+            case BinaryProtocol.OPPONENT_GUESS:
+                in.skipBytes(3);
+                break;
+            case BinaryProtocol.WIDE_OPPONENT_GUESS:
+                in.skipBytes(Long.BYTES + 1);
+                break;
+            case BinaryProtocol.LOBBY_ENTRY:
+                in.skipBytes(in.readUnsignedShort());
+                break;
+            case BinaryProtocol.GAME_OVER:
+                // only the winner counts the game, so it is counted once
+                if (in.readUnsignedByte() == 1) {
+                    stats.gameFinished();
+                }
+                break;
+            default:
+                throw new ProtocolException("Unknown opcode " + opcode);
+            }
+        }
+    }
+
+    private void onPrompt(Prompt prompt, DataOutputStream out) throws IOException {
+
+        if (prompt == null) {
+            throw new ProtocolException("Unknown prompt");
+        }
+        switch (prompt) {
+        case NAME:
+            sendLine(out, name);
+            break;
+        case GAME_OPTION:
+        case PLAYER_CHOICE:
+            // the random room, or waiting in the friend room
+            sendLine(out, "0");
+            break;
+        case STARTING_NUMBER:
+            startGame();
+            sendCode(out, variant.random(ThreadLocalRandom.current()));
+            break;
+        case GUESS:
+            lastGuess = solver.nextGuess();
+            guessSentAt = System.nanoTime();
+            sendCode(out, lastGuess);
+            break;
+        case INVITATION:
+        case RESUME:
+            sendLine(out, "no");
+            break;
+        case PLAY_AGAIN:
+            sendLine(out, stopping ? "no" : "yes");
+            break;
+        }
+    }
+
+    private static void sendLine(DataOutputStream out, String line) throws IOException {
+
+        byte[] text = line.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(BinaryProtocol.LINE);
+        out.writeByte(text.length);
+        out.write(text);
+        out.flush();
+    }
+
+    private static void sendCode(DataOutputStream out, long code) throws IOException {
+
+        if (code > 0xFFFF) {
+            out.writeByte(BinaryProtocol.WIDE_GUESS);
+            out.writeLong(code);
+        } else {
+            out.writeByte(BinaryProtocol.GUESS);
+            out.writeShort((int) code);
+        }
+        out.flush();
+    }
+
+    private void startGame() {
+
+        solver = new Solver(strategy, ThreadLocalRandom.current());
+        solver.reset(variant);
+    }
+
+    /**
+     * Reads a line like "Play with numbers of 6 different hexadecimal
+     * digits.", see {@link Variant#describe()}.
+     */
+    private static Variant variantOf(String line) {
+
+        for (int length = Variant.MIN_LENGTH; length <= Variant.MAX_LENGTH; length++) {
+            for (int flags = 0; flags < 4; flags++) {
+                Variant variant = Variant.of(length, (flags & 1) != 0, (flags & 2) != 0);
+                if (line.equals(VARIANT_PREFIX + variant.describe() + ".")) {
+                    return variant;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unknown variant: " + line);
+    }
+
+    /**
+     * Reads a line like " --> 2 cows, 1 bulls."
+     */
+    private void onScore(String line) {
+
+        try {
+            int cowsEnd = line.indexOf(" cows");
+            int cows = Integer.parseInt(line.substring(SCORE_PREFIX.length(), cowsEnd).trim());
+            int bulls = Integer.parseInt(line.substring(cowsEnd + " cows,".length(), line.indexOf(" bulls")).trim());
+            int score = ScoreTable.pack(bulls, cows);
+            if (!variant.isSolved(score)) {
+                solver.onScore(lastGuess, score);
+            }
+        } catch (RuntimeException e) {
+            stats.protocolErrors.increment();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package metrics;
+
+/**
+ * Value that is read from its owner when the metrics are shown, like the size
+ * of a queue.
+ */
+public interface Gauge {
+
+    long get();
+}
@@ -0,0 +1,89 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and their rate per second. The rate is a one minute
+ * exponentially weighted moving average, updated every
+ * {@link #TICK_SECONDS} seconds by the thread that marks or reads the meter
+ * first after the tick is due.
+ */
+public class Meter {
+
+    private static final int TICK_SECONDS = 5;
+    private static final long TICK_NANOS = TICK_SECONDS * 1_000_000_000L;
+    private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder uncounted = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong lastTick = new AtomicLong(startNanos);
+    private volatile double ratePerSecond;
+    private volatile boolean initialized;
+
+    /**
+     * Counts one event.
+     */
+    public void mark() {
+
+        tickIfDue();
+        count.increment();
+        uncounted.increment();
+    }
+
+    /**
+     * Counts several events at once.
+     * 
+     * @param events
+     *            how many events happened
+     */
+    public void mark(long events) {
+
+        tickIfDue();
+        count.add(events);
+        uncounted.add(events);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return events per second, averaged over about the last minute.
+     */
+    public double getOneMinuteRate() {
+
+        tickIfDue();
+        return ratePerSecond;
+    }
+
+    /**
+     * @return events per second since the meter was made.
+     */
+    public double getMeanRate() {
+
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0 : getCount() * 1e9 / elapsed;
+    }
+
+    private void tickIfDue() {
+
+        long last = lastTick.get();
+        long now = System.nanoTime();
+        long ticks = (now - last) / TICK_NANOS;
+        if (ticks > 0 && lastTick.compareAndSet(last, last + ticks * TICK_NANOS)) {
+            synchronized (this) {
+                for (long i = 0; i < ticks; i++) {
+                    double instantRate = (i == 0 ? uncounted.sumThenReset() : 0) / (double) TICK_SECONDS;
+                    if (initialized) {
+                        ratePerSecond += ALPHA * (instantRate - ratePerSecond);
+                    } else {
+                        ratePerSecond = instantRate;
+                        initialized = true;
+                    }
+                }
+            }
+        }
+    }
+}
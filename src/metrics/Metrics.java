@@ -0,0 +1,52 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The metrics registry of the server and the metrics that are updated from
+ * more than one place. Gauges are registered by the objects they read.
+ */
+public final class Metrics {
+
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    /** connections whose streams are not closed yet */
+    public static final Counter ACTIVE_CONNECTIONS = REGISTRY.counter("connections.active");
+    /** connections ended or broken by the client */
+    public static final Counter DISCONNECTS = REGISTRY.counter("connections.disconnects");
+    /** time from joining the random room until getting an opponent */
+    public static final LatencyHistogram RANDOM_ROOM_WAIT = REGISTRY.histogram("randomRoom.waitTime");
+    /** time from the pair of two players of different nodes until their game starts */
+    public static final LatencyHistogram CLUSTER_PAIRING_LATENCY = REGISTRY.histogram("cluster.pairingLatency");
+    /** started games and their rate */
+    public static final Meter GAMES_STARTED = REGISTRY.meter("games.started");
+    /** games started again between the same players right after their game */
+    public static final Counter REMATCHES = REGISTRY.counter("games.rematches");
+    /** time from asking a player for a guess until the guess is read */
+    public static final LatencyHistogram TURN_LATENCY = REGISTRY.histogram("games.turnLatency");
+    public static final Counter INVITES_ACCEPTED = REGISTRY.counter("invites.accepted");
+    public static final Counter INVITES_DECLINED = REGISTRY.counter("invites.declined");
+    /** games forfeited because a player has not played in the time of his turn */
+    public static final Counter TURN_TIMEOUTS = REGISTRY.counter("timeouts.turn");
+    /** games that ended because a player has disconnected */
+    public static final Counter GAMES_ABANDONED = REGISTRY.counter("games.abandoned");
+    /** invitations not answered in time */
+    public static final Counter INVITE_TIMEOUTS = REGISTRY.counter("timeouts.invite");
+    /** connections closed because the player has not answered in time */
+    public static final Counter IDLE_TIMEOUTS = REGISTRY.counter("timeouts.idle");
+    /** characters of the text protocol and bytes of the binary one sent to the players */
+    public static final Counter OUTBOUND_CHARS = REGISTRY.counter("outbound.chars");
+    /** flushes of the player output and their rate */
+    public static final Meter OUTBOUND_FLUSHES = REGISTRY.meter("outbound.flushes");
+
+    static {
+        REGISTRY.gauge("jvm.threads", () -> ManagementFactory.getThreadMXBean().getThreadCount());
+        REGISTRY.gauge("outbound.charsPerFlush", () -> {
+            long flushes = OUTBOUND_FLUSHES.getCount();
+            return flushes == 0 ? 0 : OUTBOUND_CHARS.get() / flushes;
+        });
+    }
+
+    private Metrics() {
+    }
+}
@@ -0,0 +1,137 @@
+package metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * Shows every metric of a registry as read-only JMX attributes. Counters and
+ * gauges are one attribute each, meters and histograms several attributes with
+ * the name of the metric as prefix.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    private static final String[] HISTOGRAM_ATTRIBUTES = { "count", "meanMicros", "p50Micros", "p99Micros",
+            "p999Micros", "maxMicros" };
+    private static final String[] METER_ATTRIBUTES = { "count", "oneMinuteRate", "meanRate" };
+
+    private final MetricsRegistry registry;
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+
+        Map<String, Object> metrics = registry.getMetrics();
+        Object metric = metrics.get(attribute);
+        if (metric instanceof Counter) {
+            return ((Counter) metric).get();
+        }
+        if (metric instanceof Gauge) {
+            return ((Gauge) metric).get();
+        }
+        int separator = attribute.lastIndexOf('.');
+        if (separator > 0) {
+            metric = metrics.get(attribute.substring(0, separator));
+            String part = attribute.substring(separator + 1);
+            if (metric instanceof Meter) {
+                Meter meter = (Meter) metric;
+                switch (part) {
+                case "count":
+                    return meter.getCount();
+                case "oneMinuteRate":
+                    return meter.getOneMinuteRate();
+                case "meanRate":
+                    return meter.getMeanRate();
+                default:
+                    break;
+                }
+            }
+            if (metric instanceof LatencyHistogram) {
+                LatencyHistogram histogram = (LatencyHistogram) metric;
+                switch (part) {
+                case "count":
+                    return histogram.getCount();
+                case "meanMicros":
+                    return histogram.getMeanNanos() / 1e3;
+                case "p50Micros":
+                    return histogram.getPercentileNanos(50) / 1e3;
+                case "p99Micros":
+                    return histogram.getPercentileNanos(99) / 1e3;
+                case "p999Micros":
+                    return histogram.getPercentileNanos(99.9) / 1e3;
+                case "maxMicros":
+                    return histogram.getMaxNanos() / 1e3;
+                default:
+                    break;
+                }
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+
+        AttributeList values = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                values.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // left out, as the interface asks
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : registry.getMetrics().entrySet()) {
+            Object metric = entry.getValue();
+            if (metric instanceof Meter) {
+                for (String part : METER_ATTRIBUTES) {
+                    attributes.add(attribute(entry.getKey() + "." + part, "count".equals(part)));
+                }
+            } else if (metric instanceof LatencyHistogram) {
+                for (String part : HISTOGRAM_ATTRIBUTES) {
+                    attributes.add(attribute(entry.getKey() + "." + part, "count".equals(part)));
+                }
+            } else {
+                attributes.add(attribute(entry.getKey(), true));
+            }
+        }
+        return new MBeanInfo(getClass().getName(), "Bulls and cows server metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+
+    private static MBeanAttributeInfo attribute(String name, boolean isLong) {
+        return new MBeanAttributeInfo(name, isLong ? "long" : "double", name, true, false, false);
+    }
+}
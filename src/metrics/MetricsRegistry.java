@@ -0,0 +1,93 @@
+package metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Named metrics of the server. Metrics are made on first request and shared by
+ * name afterwards; gauges are registered by their owners.
+ */
+public class MetricsRegistry {
+
+    private final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+    public Counter counter(String name) {
+        return get(name, Counter.class);
+    }
+
+    public Meter meter(String name) {
+        return get(name, Meter.class);
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return get(name, LatencyHistogram.class);
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge with the same name.
+     */
+    public void gauge(String name, Gauge gauge) {
+
+        metrics.put(name, gauge);
+    }
+
+    /**
+     * @return all metrics by name, sorted by name.
+     */
+    public Map<String, Object> getMetrics() {
+        return metrics;
+    }
+
+    private <T> T get(String name, Class<T> type) {
+
+        Object metric = metrics.get(name);
+        if (metric == null) {
+            try {
+                metric = type.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+            Object existing = metrics.putIfAbsent(name, metric);
+            if (existing != null) {
+                metric = existing;
+            }
+        }
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is not a " + type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * Formats all metrics as plain text, one metric per line: the name
+     * followed by its values.
+     * 
+     * @return the metrics as text
+     */
+    public String format() {
+
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            text.append(entry.getKey()).append(' ').append(formatValue(entry.getValue()))
+                    .append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+    private static String formatValue(Object metric) {
+
+        if (metric instanceof Counter) {
+            return Long.toString(((Counter) metric).get());
+        }
+        if (metric instanceof Gauge) {
+            return Long.toString(((Gauge) metric).get());
+        }
+        if (metric instanceof Meter) {
+            Meter meter = (Meter) metric;
+            return String.format("count=%d rate1m=%.2f/s mean=%.2f/s", meter.getCount(), meter.getOneMinuteRate(),
+                    meter.getMeanRate());
+        }
+        return ((LatencyHistogram) metric).summary();
+    }
+}
@@ -0,0 +1,61 @@
+package player;
+
+/**
+ * What the rooms of a {@link PlayersHolder} tell the other nodes of a cluster,
+ * so that the players waiting on one node can be paired with or invited by
+ * the players of another, see cluster.ClusterNode. The methods are called by
+ * the threads of the players and must return quickly, they never wait for
+ * another node.
+ */
+public interface ClusterLink {
+
+    /** the link of a server that is not in a cluster */
+    ClusterLink NONE = new ClusterLink() {
+
+        @Override
+        public void friendRoomJoined(int index, Player player) {
+        }
+
+        @Override
+        public void friendRoomLeft(Player player) {
+        }
+
+        @Override
+        public void randomRoomWaiting(Player player) {
+        }
+
+        @Override
+        public void randomRoomLeft(Player player) {
+        }
+    };
+
+    /**
+     * @param index
+     *            index of the player in the friend room
+     * @param player
+     *            a player of this node who has joined the friend room
+     */
+    void friendRoomJoined(int index, Player player);
+
+    /**
+     * @param player
+     *            a player who has left the friend room of this node, picked
+     *            for a game or gone. He may be a player of another node who
+     *            has been picked here.
+     */
+    void friendRoomLeft(Player player);
+
+    /**
+     * @param player
+     *            a player who waits in the random room of this node, nobody
+     *            on this node could be paired with him
+     */
+    void randomRoomWaiting(Player player);
+
+    /**
+     * @param player
+     *            a player who does not wait in the random room any more,
+     *            paired or gone
+     */
+    void randomRoomLeft(Player player);
+}
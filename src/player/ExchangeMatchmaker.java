@@ -0,0 +1,161 @@
+package player;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free matchmaker. Waiting players sit in a small array of slots, about
+ * one per core. An arriving player takes a waiting one out of a slot with a
+ * single compare-and-set and the pair is started on the arriving thread, so
+ * there is no matchmaker thread to wake up and pairing runs on as many cores
+ * as there are arrivals. Arrivals start at a random slot, which spreads the
+ * compare-and-sets over the array.
+ * <p>
+ * A player that finds nobody parks in an empty slot and then looks once more.
+ * Of two players that park at the same time at least the later one sees the
+ * other, un-parks and takes him, so no two players are left waiting for each
+ * other.
+ */
+public class ExchangeMatchmaker implements Matchmaker {
+
+    private final AtomicReferenceArray<Player> slots;
+    private final int mask;
+    private final PairingListener listener;
+
+    /**
+     * @param listener
+     *            receives the pairs
+     */
+    public ExchangeMatchmaker(PairingListener listener) {
+        this(Runtime.getRuntime().availableProcessors(), listener);
+    }
+
+    /**
+     * @param parallelism
+     *            expected number of threads that offer players at the same time
+     * @param listener
+     *            receives the pairs
+     */
+    public ExchangeMatchmaker(int parallelism, PairingListener listener) {
+        // the next power of two, at least 2
+        int size = Integer.highestOneBit((Math.max(2, parallelism) - 1) << 1);
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.listener = listener;
+    }
+
+    @Override
+    public void offer(Player player) {
+
+        while (true) {
+            int start = ThreadLocalRandom.current().nextInt(slots.length());
+            Player opponent = takeWaiting(start, player);
+            if (opponent != null) {
+                listener.paired(opponent, player);
+                return;
+            }
+            int parked = park(start, player);
+            if (parked < 0) {
+                // every slot got taken meanwhile, look again
+                continue;
+            }
+            if (!lookAgainAfterParking(start, parked, player)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Looks for a player that parked at the same time as this one.
+     * 
+     * @return true if the player has to be offered again, false if he stays
+     *         parked or has been paired.
+     */
+    private boolean lookAgainAfterParking(int start, int parked, Player player) {
+
+        for (int i = 0; i < slots.length(); i++) {
+            int index = (start + i) & mask;
+            Player opponent = slots.get(index);
+            if (index == parked || opponent == null || opponent == player) {
+                continue;
+            }
+            if (!slots.compareAndSet(parked, player, null)) {
+                // somebody took this player meanwhile, he is paired
+                return false;
+            }
+            if (slots.compareAndSet(index, opponent, null)) {
+                listener.paired(opponent, player);
+                return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private Player takeWaiting(int start, Player player) {
+
+        for (int i = 0; i < slots.length(); i++) {
+            int index = (start + i) & mask;
+            Player waiting = slots.get(index);
+            if (waiting != null && waiting != player && slots.compareAndSet(index, waiting, null)) {
+                return waiting;
+            }
+        }
+        return null;
+    }
+
+    private int park(int start, Player player) {
+
+        for (int i = 0; i < slots.length(); i++) {
+            int index = (start + i) & mask;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, player)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Takes any waiting player out of the room, for another room to pair him,
+     * see {@link ShardedMatchmaker}.
+     * 
+     * @return the player, null if nobody waits.
+     */
+    Player poll() {
+        return takeWaiting(ThreadLocalRandom.current().nextInt(slots.length()), null);
+    }
+
+    @Override
+    public boolean remove(Player player) {
+
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) == player && slots.compareAndSet(i, player, null)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isWaiting(Player player) {
+
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) == player) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getWaitingCount() {
+
+        int waiting = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) {
+                waiting++;
+            }
+        }
+        return waiting;
+    }
+}
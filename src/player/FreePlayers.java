@@ -1,66 +1,276 @@
 package player;
 
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import exception.InvalidPlayerException;
 
 /**
  * Class that holds the players that wants to play with their friends. Each
  * player has unique index.
- * 
+ *
+ * The room is kept sorted by index and by name, and every add or remove bumps
+ * its version. The line shown for a player is rendered once when he joins, a
+ * listing only joins the lines of the players on the requested page, and the
+ * first page and the full listing are cached until the version changes. This
+ * way the cost of showing the room depends on the page size and not on the
+ * number of waiting players.
+ *
+ * The room can be split into shards, each with its own maps and version, so
+ * players joining and leaving on different cores do not contend. A player
+ * joins the shard his hash points to, see
+ * {@link ShardedMatchmaker#shardOf(Player, int)}. The indexes stay unique in
+ * the whole room: a shard gives only the indexes whose remainder by the number
+ * of shards is its own number, so the shard of an index is known without a
+ * lookup. Pages and searches merge the shards in index or name order.
+ *
+ * In a cluster every node gives only the indexes whose remainder by the
+ * number of nodes is its own number, so an index means the same player on
+ * every node. The players waiting on the other nodes are listed under the
+ * indexes their nodes gave them, see {@link #addRemotePlayer(int, Player)}.
  */
 public class FreePlayers {
 
-    private AtomicInteger lastPlayerIndex = new AtomicInteger(1);
-    private Map<Integer, Player> freePlayers;
+    private static final Comparator<LobbyEntry> BY_INDEX = Comparator.comparingInt(entry -> entry.index);
+    private static final Comparator<LobbyEntry> BY_NAME = Comparator.comparing(entry -> entry.nameKey);
+
+    private final Shard[] shards;
+    private final int nodeNumber;
+    private final int nodeCount;
+
+    private volatile LobbyNotifier notifier;
+    private volatile LobbyPage cachedFirstPage;
+    private volatile LobbyPage cachedListing;
 
     /**
-     * default constructor to initialize the collection.
+     * default constructor to initialize the collection, in one shard.
      */
     public FreePlayers() {
-        freePlayers = new ConcurrentHashMap<>();
+        this(1);
     }
 
     /**
-     * Construct String containing info for all players currently waiting for a
-     * game.
+     * @param shardCount
+     *            number of shards the room is split into
+     */
+    public FreePlayers(int shardCount) {
+        this(shardCount, 0, 1);
+    }
+
+    /**
+     * @param shardCount
+     *            number of shards the room is split into
+     * @param nodeNumber
+     *            number of this node in the cluster, from 0
+     * @param nodeCount
+     *            number of nodes in the cluster, 1 without a cluster
+     */
+    public FreePlayers(int shardCount, int nodeNumber, int nodeCount) {
+
+        this.nodeNumber = nodeNumber;
+        this.nodeCount = nodeCount;
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    /**
+     * Sets who is told about the players joining and leaving the room. The
+     * players waiting in the room are subscribed to it while they wait.
      * 
+     * @param notifier
+     *            the notifier, null for none
+     */
+    public void setNotifier(LobbyNotifier notifier) {
+        this.notifier = notifier;
+    }
+
+    /**
+     * Construct String containing info for all players currently waiting for a
+     * game. The text is rendered again only after the room has changed.
+     *
      * @return String info for the players.
      */
     public String printFreePlayersIndexes() {
 
-        StringBuffer sbf = new StringBuffer();
-        // TODO synchronization
-        for (Entry<Integer, Player> currentPlayerEntry : freePlayers.entrySet()) {
-            sbf.append(currentPlayerEntry.getKey() + " : for " + currentPlayerEntry.getValue().getName());
-            sbf.append(System.lineSeparator());
+        LobbyPage listing = cachedListing;
+        if (listing == null || listing.getVersion() != getVersion()) {
+            listing = render(inIndexOrder(0), Integer.MAX_VALUE);
+            cachedListing = listing;
         }
-        return sbf.toString();
+        return listing.getText();
+    }
+
+    /**
+     * Returns one page of the room in index order.
+     *
+     * @param afterIndex
+     *            the page starts with the first player with bigger index, 0
+     *            for the first page.
+     * @param pageSize
+     *            maximum number of players on the page.
+     * @return the page
+     */
+    public LobbyPage getPage(int afterIndex, int pageSize) {
+
+        if (afterIndex > 0) {
+            return render(inIndexOrder(afterIndex), pageSize);
+        }
+        LobbyPage firstPage = cachedFirstPage;
+        if (firstPage == null || firstPage.getVersion() != getVersion()
+                || firstPage.getPageSize() != pageSize) {
+            firstPage = render(inIndexOrder(0), pageSize);
+            cachedFirstPage = firstPage;
+        }
+        return firstPage;
+    }
+
+    /**
+     * Returns the players whose name starts with the given prefix, ignoring
+     * the case, sorted by name.
+     *
+     * @param namePrefix
+     *            the beginning of the name
+     * @param pageSize
+     *            maximum number of players returned.
+     * @return the page with the matching players
+     */
+    public LobbyPage findByName(String namePrefix, int pageSize) {
+
+        String from = namePrefix.toLowerCase(Locale.ROOT);
+        if (shards.length == 1) {
+            return render(shards[0].withName(from), pageSize);
+        }
+        List<Iterator<LobbyEntry>> matching = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            matching.add(shard.withName(from));
+        }
+        return render(new MergingIterator(matching, BY_NAME), pageSize);
+    }
+
+    /**
+     * The players with bigger index than the given one, in index order.
+     */
+    private Iterator<LobbyEntry> inIndexOrder(int afterIndex) {
+
+        if (shards.length == 1) {
+            return shards[0].after(afterIndex);
+        }
+        List<Iterator<LobbyEntry>> after = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            after.add(shard.after(afterIndex));
+        }
+        return new MergingIterator(after, BY_INDEX);
+    }
+
+    /**
+     * @return version of the room, changes on every add and remove. It is
+     *         the sum of the versions of the shards, which only grow.
+     */
+    public long getVersion() {
+
+        long version = 0;
+        for (Shard shard : shards) {
+            version += shard.version.get();
+        }
+        return version;
+    }
+
+    /**
+     * @return number of players waiting in the room.
+     */
+    public int size() {
+
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.byIndex.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return number of shards the room is split into.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    private Shard shardOfIndex(int index) {
+        return shards[Math.floorMod(index / nodeCount, shards.length)];
     }
 
     /**
      * By the given player add him to the collection of the free players, if he
      * is not in it already. The player receives unique index with which he will
      * be stored and picked for a game.
-     * 
+     *
      * @param currentPlayerToBeAdded
      *            player who wants to join the room.
+     * @return the index of the player
      */
-    public void addPlayerToFriendRoom(Player currentPlayerToBeAdded) {
+    public int addPlayerToFriendRoom(Player currentPlayerToBeAdded) {
 
+        Shard shard = shards[ShardedMatchmaker.shardOf(currentPlayerToBeAdded, shards.length)];
         int currentAvailableIndex;
-        currentAvailableIndex = lastPlayerIndex.getAndIncrement();
-        freePlayers.put(currentAvailableIndex, currentPlayerToBeAdded);
-        System.out.println(freePlayers.get(currentAvailableIndex).getName());
+        currentAvailableIndex = (shard.lastPlayerIndex.getAndIncrement() * shards.length + shard.number) * nodeCount
+                + nodeNumber;
+        LobbyEntry entry = new LobbyEntry(currentAvailableIndex, currentPlayerToBeAdded);
+        currentPlayerToBeAdded.setFriendRoomEntry(entry);
+        shard.byIndex.put(currentAvailableIndex, entry);
+        shard.byName.put(entry.nameKey, entry);
+        shard.version.incrementAndGet();
+        LobbyNotifier currentNotifier = notifier;
+        if (currentNotifier != null) {
+            currentNotifier.playerJoined(currentAvailableIndex, entry.label);
+            currentNotifier.subscribe(currentPlayerToBeAdded);
+        }
+        System.out.println(currentPlayerToBeAdded.getName());
+        return currentAvailableIndex;
+    }
+
+    /**
+     * Lists a player who waits in the friend room of another node of the
+     * cluster. He is not subscribed to the changes of this room, his own node
+     * sends them to him.
+     *
+     * @param index
+     *            the index his node has given him
+     * @param remotePlayer
+     *            the player, his messages go to his node
+     * @return false if somebody is listed under the index already.
+     */
+    public boolean addRemotePlayer(int index, Player remotePlayer) {
+
+        Shard shard = shardOfIndex(index);
+        LobbyEntry entry = new LobbyEntry(index, remotePlayer);
+        if (shard.byIndex.putIfAbsent(index, entry) != null) {
+            return false;
+        }
+        remotePlayer.setFriendRoomEntry(entry);
+        shard.byName.put(entry.nameKey, entry);
+        shard.version.incrementAndGet();
+        LobbyNotifier currentNotifier = notifier;
+        if (currentNotifier != null) {
+            currentNotifier.playerJoined(index, entry.label);
+        }
+        return true;
     }
 
     /**
      * By the given index check does this index exist as key. Returns the player
      * with this index. Otherwise throws {@link InvalidPlayerException}
-     * 
+     *
      * @param indexOfPlayer
      *            index of the requested player.
      * @return
@@ -69,26 +279,198 @@ public class FreePlayers {
      */
     public Player getPlayer(int indexOfPlayer) throws InvalidPlayerException {
 
-        if (freePlayers.containsKey(indexOfPlayer)) {
-            return freePlayers.get(indexOfPlayer);
+        LobbyEntry entry = shardOfIndex(indexOfPlayer).byIndex.get(indexOfPlayer);
+        if (entry == null) {
+            throw new InvalidPlayerException();
         }
-        throw new InvalidPlayerException();
+        return entry.player;
     }
 
     /**
      * Remove the Player with the current Index, if exist. Otherwise throws
      * {@link InvalidPlayerException}.
-     * 
+     *
      * @param indexOfplayerToBeRemoved
      *            index of the player whom we want to remove.
+     * @return the removed player
      * @throws InvalidPlayerException
      *             if there is no such index.
      */
-    public void removePlayer(int indexOfplayerToBeRemoved) throws InvalidPlayerException {
+    public Player removePlayer(int indexOfplayerToBeRemoved) throws InvalidPlayerException {
+
+        LobbyEntry entry = shardOfIndex(indexOfplayerToBeRemoved).byIndex.remove(indexOfplayerToBeRemoved);
+        if (entry == null) {
+            throw new InvalidPlayerException();
+        }
+        forget(entry);
+        return entry.player;
+    }
+
+    /**
+     * Removes the given player if he is still in the room, like when he has
+     * disconnected while waiting. Another thread may have picked him at the
+     * same time, only one of them removes him.
+     *
+     * @param playerToBeRemoved
+     *            the player
+     * @return true if the player was in the room.
+     */
+    public boolean removePlayer(Player playerToBeRemoved) {
+
+        LobbyEntry entry = (LobbyEntry) playerToBeRemoved.getFriendRoomEntry();
+        if (entry == null || entry.player != playerToBeRemoved
+                || !shardOfIndex(entry.index).byIndex.remove(entry.index, entry)) {
+            return false;
+        }
+        forget(entry);
+        return true;
+    }
+
+    private void forget(LobbyEntry entry) {
+
+        if (entry.player.getFriendRoomEntry() == entry) {
+            entry.player.setFriendRoomEntry(null);
+        }
+        Shard shard = shardOfIndex(entry.index);
+        shard.byName.remove(entry.nameKey);
+        shard.version.incrementAndGet();
+        LobbyNotifier currentNotifier = notifier;
+        if (currentNotifier != null) {
+            currentNotifier.unsubscribe(entry.player);
+            currentNotifier.playerLeft(entry.index);
+        }
+    }
+
+    /**
+     * Joins the pre-rendered lines of at most pageSize entries. The version is
+     * read before the entries, so a page that raced with a change is stale
+     * right away and rendered again on the next request.
+     */
+    private LobbyPage render(Iterator<LobbyEntry> entries, int pageSize) {
+
+        long renderedVersion = getVersion();
+        StringBuilder text = new StringBuilder();
+        int[] indexes = new int[Math.min(pageSize, 16)];
+        String[] names = new String[indexes.length];
+        int count = 0;
+        while (count < pageSize && entries.hasNext()) {
+            LobbyEntry entry = entries.next();
+            if (count == indexes.length) {
+                indexes = Arrays.copyOf(indexes, count * 2);
+                names = Arrays.copyOf(names, count * 2);
+            }
+            indexes[count] = entry.index;
+            names[count] = entry.name;
+            text.append(entry.line);
+            count++;
+        }
+        return new LobbyPage(renderedVersion, text.toString(), indexes, names, count, entries.hasNext(),
+                pageSize);
+    }
+
+    /**
+     * One part of the room. Its indexes are its number plus a multiple of the
+     * number of shards.
+     */
+    private static class Shard {
+
+        private final int number;
+        private final AtomicInteger lastPlayerIndex = new AtomicInteger(1);
+        private final ConcurrentSkipListMap<Integer, LobbyEntry> byIndex = new ConcurrentSkipListMap<>();
+        /** lower case name + separator + index, so equal names do not collide */
+        private final ConcurrentSkipListMap<String, LobbyEntry> byName = new ConcurrentSkipListMap<>();
+        private final AtomicLong version = new AtomicLong();
+
+        Shard(int number) {
+            this.number = number;
+        }
+
+        Iterator<LobbyEntry> after(int afterIndex) {
+            return afterIndex > 0 ? byIndex.tailMap(afterIndex, false).values().iterator()
+                    : byIndex.values().iterator();
+        }
+
+        Iterator<LobbyEntry> withName(String from) {
+
+            ConcurrentNavigableMap<String, LobbyEntry> matching = byName.subMap(from, true,
+                    from + Character.MAX_VALUE, false);
+            return matching.values().iterator();
+        }
+    }
+
+    /**
+     * Merges the sorted entries of the shards. Takes one entry from a shard
+     * only when the entry before it has been used, so a page costs about its
+     * size times the log of the number of shards.
+     */
+    private static class MergingIterator implements Iterator<LobbyEntry> {
+
+        private final PriorityQueue<Head> heads;
+
+        MergingIterator(List<Iterator<LobbyEntry>> sorted, Comparator<LobbyEntry> order) {
+
+            heads = new PriorityQueue<>(Math.max(1, sorted.size()), (a, b) -> order.compare(a.entry, b.entry));
+            for (Iterator<LobbyEntry> entries : sorted) {
+                if (entries.hasNext()) {
+                    heads.add(new Head(entries.next(), entries));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public LobbyEntry next() {
+
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            LobbyEntry entry = head.entry;
+            if (head.rest.hasNext()) {
+                head.entry = head.rest.next();
+                heads.add(head);
+            }
+            return entry;
+        }
+
+        /**
+         * The next entry of one shard and the entries after it.
+         */
+        private static class Head {
+
+            private LobbyEntry entry;
+            private final Iterator<LobbyEntry> rest;
+
+            Head(LobbyEntry entry, Iterator<LobbyEntry> rest) {
+                this.entry = entry;
+                this.rest = rest;
+            }
+        }
+    }
+
+    /**
+     * A waiting player with the line that lists him.
+     */
+    private static class LobbyEntry {
+
+        private final int index;
+        private final Player player;
+        private final String name;
+        private final String nameKey;
+        private final String label;
+        private final String line;
 
-        if (freePlayers.containsKey(indexOfplayerToBeRemoved)) {
-            freePlayers.remove(indexOfplayerToBeRemoved);
+        LobbyEntry(int index, Player player) {
+            this.index = index;
+            this.player = player;
+            this.name = String.valueOf(player.getName());
+            this.nameKey = name.toLowerCase(Locale.ROOT) + '\0' + index;
+            this.label = index + " : for " + name;
+            this.line = label + System.lineSeparator();
         }
-        throw new InvalidPlayerException();
     }
 }
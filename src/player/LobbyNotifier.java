@@ -0,0 +1,293 @@
+package player;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import metrics.Meter;
+import metrics.Metrics;
+import thread.TaskExecutor;
+
+/**
+ * Pushes the changes of the friend room to the players who watch it: the
+ * players waiting there to be invited and the players choosing whom to
+ * invite. Joins and leaves are collected per index, a player who joins and
+ * leaves between two ticks is never announced, and on every tick the changes
+ * are rendered once into a single message for all subscribers. Nothing is
+ * sent in a tick without changes.
+ *
+ * The message is not written by the tick thread. Every subscriber has a short
+ * queue of messages that one of a few delivery threads sends to him when his
+ * output is idle, see {@link Player#writeIfIdle(List)}, so a player whose
+ * connection does not take more does not hold up the tick. When his queue is
+ * full, what it holds is replaced by a note that the room has changed. The
+ * delivery threads are services of the {@link TaskExecutor} of the server and
+ * end with the tick thread.
+ */
+public class LobbyNotifier implements Runnable {
+
+    static final long TICK_MILLIS = 500;
+    /** messages kept for a subscriber before they are replaced by a note */
+    static final int MAX_QUEUED_DELTAS = 8;
+    static final int DELIVERY_THREADS = 4;
+    static final String TOO_MANY_CHANGES = "Friend room changes: too many to show, look at the room again.";
+    private static final Meter DELTAS_SENT = Metrics.REGISTRY.meter("lobby.deltasSent");
+    private static final Meter DELTAS_COALESCED = Metrics.REGISTRY.meter("lobby.deltasCoalesced");
+
+    /** index -> line of the joined player, or LEFT */
+    private final Map<Integer, String> pendingChanges = new ConcurrentSkipListMap<>();
+    private final Map<Player, Subscription> subscribers = new ConcurrentHashMap<>();
+    /** subscribers whose output was busy, their messages are sent on the next tick */
+    private final Queue<Subscription> retries = new ConcurrentLinkedQueue<>();
+    /** subscribers with messages to send, taken by the delivery threads */
+    private final BlockingQueue<Subscription> deliveries = new LinkedBlockingQueue<>();
+    /** tells a delivery thread to end */
+    private final Subscription stopDelivery = new Subscription(null);
+    /** marker of a player that left, compared by reference */
+    private static final String LEFT = new String();
+
+    /**
+     * Records that a player has joined the friend room.
+     *
+     * @param index
+     *            index of the player in the room
+     * @param line
+     *            line that lists the player
+     */
+    void playerJoined(int index, String line) {
+        pendingChanges.put(index, line);
+    }
+
+    /**
+     * Records that a player has left the friend room. If the join has not
+     * been announced yet, neither is the leave.
+     *
+     * @param index
+     *            index of the player in the room
+     */
+    void playerLeft(int index) {
+        pendingChanges.compute(index, (key, pending) -> pending == null ? LEFT : null);
+    }
+
+    /**
+     * Starts sending the changes of the room to the player.
+     *
+     * @param player
+     *            the player watching the room
+     */
+    public void subscribe(Player player) {
+        subscribers.computeIfAbsent(player, Subscription::new);
+    }
+
+    /**
+     * Stops sending the changes of the room to the player.
+     *
+     * @param player
+     *            the player who is no longer watching the room
+     */
+    public void unsubscribe(Player player) {
+        subscribers.remove(player);
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Starts the tick thread and the delivery threads.
+     *
+     * @param executor
+     *            runs them as services
+     */
+    public void start(TaskExecutor executor) {
+
+        for (int i = 0; i < DELIVERY_THREADS; i++) {
+            executor.startService(this::deliver);
+        }
+        executor.startService(this);
+    }
+
+    /**
+     * Publishes the collected changes every {@link #TICK_MILLIS} until the
+     * thread is interrupted, then ends the delivery threads.
+     */
+    public void run() {
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(TICK_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                publish();
+            }
+        } finally {
+            for (int i = 0; i < DELIVERY_THREADS; i++) {
+                deliveries.add(stopDelivery);
+            }
+        }
+    }
+
+    /**
+     * Sends their messages to the subscribers handed to the delivery threads
+     * until it is told to end.
+     */
+    private void deliver() {
+
+        while (true) {
+            Subscription subscription;
+            try {
+                subscription = deliveries.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (subscription == stopDelivery) {
+                return;
+            }
+            try {
+                subscription.deliver();
+            } catch (RuntimeException e) {
+                System.err.println("Friend room changes not delivered: " + e);
+            }
+        }
+    }
+
+    /**
+     * Takes the changes collected since the last tick and queues them for
+     * every subscriber, and sends again what could not be sent on the last
+     * tick.
+     */
+    void publish() {
+
+        Subscription retry;
+        List<Subscription> busy = new ArrayList<>();
+        while ((retry = retries.poll()) != null) {
+            busy.add(retry);
+        }
+        for (Subscription subscription : busy) {
+            subscription.schedule();
+        }
+        String message = takeDelta();
+        if (message == null) {
+            return;
+        }
+        for (Subscription subscription : subscribers.values()) {
+            subscription.offer(message);
+        }
+    }
+
+    /**
+     * @return the changes collected since the last tick as one message, null
+     *         if there are none.
+     */
+    private String takeDelta() {
+
+        if (pendingChanges.isEmpty()) {
+            return null;
+        }
+        StringBuilder delta = new StringBuilder("Friend room changes:");
+        int changeCount = 0;
+        Iterator<Map.Entry<Integer, String>> changes = pendingChanges.entrySet().iterator();
+        while (changes.hasNext()) {
+            Map.Entry<Integer, String> change = changes.next();
+            // remove the entry only if it was not changed again meanwhile
+            if (!pendingChanges.remove(change.getKey(), change.getValue())) {
+                continue;
+            }
+            delta.append(System.lineSeparator());
+            if (change.getValue() == LEFT) {
+                delta.append("- ").append(change.getKey()).append(" has left");
+            } else {
+                delta.append("+ ").append(change.getValue());
+            }
+            changeCount++;
+        }
+        return changeCount == 0 ? null : delta.toString();
+    }
+
+    /**
+     * The messages waiting for one subscriber. At most one delivery of them
+     * runs at a time.
+     */
+    private final class Subscription {
+
+        private final Player player;
+        private final List<String> queued = new ArrayList<>();
+        private boolean scheduled;
+
+        Subscription(Player player) {
+            this.player = player;
+        }
+
+        void offer(String message) {
+
+            synchronized (this) {
+                if (!queued.isEmpty() && queued.get(queued.size() - 1) == TOO_MANY_CHANGES) {
+                    // the note already tells about this change too
+                    DELTAS_COALESCED.mark();
+                } else {
+                    queued.add(message);
+                    coalesce();
+                }
+            }
+            schedule();
+        }
+
+        /**
+         * Replaces the queued messages by the note when there are too many.
+         */
+        private void coalesce() {
+
+            if (queued.size() > MAX_QUEUED_DELTAS) {
+                DELTAS_COALESCED.mark(queued.size());
+                queued.clear();
+                queued.add(TOO_MANY_CHANGES);
+            }
+        }
+
+        void schedule() {
+
+            synchronized (this) {
+                if (scheduled || queued.isEmpty()) {
+                    return;
+                }
+                scheduled = true;
+            }
+            deliveries.add(this);
+        }
+
+        void deliver() {
+
+            List<String> messages;
+            synchronized (this) {
+                messages = new ArrayList<>(queued);
+                queued.clear();
+            }
+            if (subscribers.get(player) != this) {
+                // unsubscribed meanwhile
+                return;
+            }
+            boolean sent = player.writeIfIdle(messages);
+            synchronized (this) {
+                scheduled = false;
+                if (!sent) {
+                    // before what was offered meanwhile
+                    queued.addAll(0, messages);
+                    coalesce();
+                    retries.add(this);
+                    return;
+                }
+            }
+            DELTAS_SENT.mark(messages.size());
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package player;
+
+/**
+ * One page of the friend room as it is shown to a player. The text is already
+ * rendered, one line per waiting player, so the same page can be handed to
+ * every viewer of the same version of the room. The indexes and names are
+ * kept as well, for the clients of the binary protocol.
+ */
+public class LobbyPage {
+
+    private final long version;
+    private final String text;
+    private final int[] indexes;
+    private final String[] names;
+    private final int count;
+    private final boolean hasMore;
+    private final int pageSize;
+
+    /**
+     * @param version
+     *            version of the room the page was rendered from
+     * @param text
+     *            the rendered lines
+     * @param indexes
+     *            indexes of the players, the first count are used
+     * @param names
+     *            names of the players, the first count are used
+     * @param count
+     *            number of players on the page
+     * @param hasMore
+     *            true if there are more players after the page
+     * @param pageSize
+     *            maximum number of players the page was asked for
+     */
+    public LobbyPage(long version, String text, int[] indexes, String[] names, int count, boolean hasMore,
+            int pageSize) {
+        this.version = version;
+        this.text = text;
+        this.indexes = indexes;
+        this.names = names;
+        this.count = count;
+        this.hasMore = hasMore;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return version of the room the page was rendered from, see
+     *         {@link FreePlayers#getVersion()}.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the rendered lines of the page, empty if there is nobody on it.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return index of the first player on the page, 0 if the page is empty.
+     */
+    public int getFirstIndex() {
+        return count == 0 ? 0 : indexes[0];
+    }
+
+    /**
+     * @return index of the last player on the page, the next page starts
+     *         after it. 0 if the page is empty.
+     */
+    public int getLastIndex() {
+        return count == 0 ? 0 : indexes[count - 1];
+    }
+
+    /**
+     * @return number of players on the page.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param position
+     *            position on the page, from 0 to {@link #getCount()} - 1
+     * @return index of the player at the position
+     */
+    public int getIndex(int position) {
+        return indexes[position];
+    }
+
+    /**
+     * @param position
+     *            position on the page, from 0 to {@link #getCount()} - 1
+     * @return name of the player at the position
+     */
+    public String getName(int position) {
+        return names[position];
+    }
+
+    /**
+     * @return true if there are more players after this page.
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * @return maximum number of players the page was asked for.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+}
@@ -0,0 +1,54 @@
+package player;
+
+/**
+ * Pairs the players of the random room. When two players are paired the
+ * matchmaker hands them to its {@link PairingListener}.
+ */
+public interface Matchmaker {
+
+    /**
+     * Receives the pairs made by a matchmaker.
+     */
+    interface PairingListener {
+
+        /**
+         * @param waitingPlayer
+         *            the player who waited longer
+         * @param arrivingPlayer
+         *            the player whose arrival made the pair
+         */
+        void paired(Player waitingPlayer, Player arrivingPlayer);
+    }
+
+    /**
+     * Adds a player to the random room. The player is paired right away if
+     * there is an opponent, otherwise he waits for one.
+     * 
+     * @param player
+     *            the player to pair
+     */
+    void offer(Player player);
+
+    /**
+     * Takes a waiting player out of the random room.
+     * 
+     * @param player
+     *            the player to remove
+     * @return true if the player was waiting, false if he has been paired
+     *         already or was never offered.
+     */
+    boolean remove(Player player);
+
+    /**
+     * @param player
+     *            a player offered to the room
+     * @return true if the player is waiting for an opponent, false if he has
+     *         been paired or removed.
+     */
+    boolean isWaiting(Player player);
+
+    /**
+     * @return number of players waiting for an opponent.
+     */
+    int getWaitingCount();
+}
@@ -1,19 +1,54 @@
 package player;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import exception.PlayerDisconnectedException;
+import exception.PlayerTimeoutException;
+import game.Code;
+import game.Variant;
+import metrics.Metrics;
+import protocol.Codec;
+import protocol.DiscardingCodec;
+import protocol.Prompt;
+import protocol.TextCodec;
+import session.Session;
+import thread.HashedWheelTimer;
+import thread.Timeouts;
 
 public class Player {
 
     private static final String WRONG_NAME_INPUT_MESSAGE = "Name is Too short";
-    private static final String REGEX_REMOVING_INVALID_SYMBOLS_FROM_CONSOLE = "[^\\w]";
-    private static final String REGEX_FOR_CORECT_NUMBER = "^\\d{4}$";
 
     private String name;
-    private PrintWriter playerWriter;
-    private BufferedReader playerReader;
-    private String playerNumber;
+    /** how messages are sent to the player, replaced once the protocol is known */
+    private volatile Codec codec;
+    /** taken to add to the output and to send it */
+    private final Object outputLock = new Object();
+    /** something has been added to the output and not sent yet */
+    private boolean composing;
+    private long playerNumber = Code.INVALID;
+    /** the variant of the games the player starts, null for the one of the server */
+    private volatile Variant variant;
+    /** when the player joined the random room, see {@link System#nanoTime()} */
+    private long waitingSince;
+    private final AtomicBoolean streamsClosed = new AtomicBoolean();
+    private final AtomicBoolean disconnected = new AtomicBoolean();
+    /** what else has to forget the player when he disconnects */
+    private volatile Runnable disconnectHandler;
+    /** set by the matchmaker while the player waits in the random room */
+    private volatile Object matchmakingTicket;
+    /** set by the friend room while the player waits in it */
+    private volatile Object friendRoomEntry;
+    /** how long the player has for his answers */
+    private volatile Timeouts timeouts = Timeouts.NONE;
+    /** the event driven session of the player, null if it has a thread */
+    private volatile Session session;
 
     /**
      * general purpose constructor, initializes member variables /@param name
@@ -27,8 +62,29 @@ public class Player {
     public Player(PrintWriter clientWriter, BufferedReader clientReader) {
         if ((clientWriter == null) || (clientReader == null))
             throw new NullPointerException("Player: null data supplied");
-        this.setPlayerWriter(clientWriter);
-        this.setPlayerReader(clientReader);
+        this.codec = new TextCodec(clientWriter, clientReader);
+        this.codec.setDisconnectListener(this::onDisconnected);
+    }
+
+    /**
+     * Constructor for a player whose connection has its own protocol.
+     * 
+     * @param codec
+     *            how the messages are put on the connection
+     */
+    public Player(Codec codec) {
+        if (codec == null)
+            throw new NullPointerException("Player: null data supplied");
+        this.codec = codec;
+        this.codec.setDisconnectListener(this::onDisconnected);
+    }
+
+    /**
+     * Constructor for players that are not behind a connection, like the
+     * computer opponent.
+     */
+    protected Player() {
+        this.codec = new DiscardingCodec();
     }
 
     /**
@@ -39,20 +95,19 @@ public class Player {
      */
     public String askForName() {
 
-        write("Please enter your name: ");
+        promptForName();
         try {
-            String inputName = null;
+            // the first answer tells the protocol of the client
+            codec = read(timeouts.getIdleMillis(), true, "his name", Codec::negotiate);
+            codec.setDisconnectListener(this::onDisconnected);
+            String inputName;
             do {
                 inputName = readLineFromPlayer();
-                if (inputName != null) {
-                    inputName = inputName.trim().replaceAll(REGEX_REMOVING_INVALID_SYMBOLS_FROM_CONSOLE, "");
-                    if (inputName.length() < 3) {
-                        write(WRONG_NAME_INPUT_MESSAGE);
-                        inputName = null;
-                    }
-                }
-            } while (inputName == null);
+            } while (!checkName(inputName));
             return inputName;
+        } catch (PlayerDisconnectedException e) {
+            // left before telling his name
+            return null;
         } catch (IOException e) {
             e.printStackTrace();
             return null;
@@ -60,98 +115,582 @@ public class Player {
     }
 
     /**
-     * Reads a line containing four digits. Validate them and returns them as
-     * String. Removes any non letter/digit symbols.
+     * Asks the player for his name.
+     */
+    public void promptForName() {
+        prompt(Prompt.NAME, "Please enter your name: ");
+    }
+
+    /**
+     * Checks a name given by the player, he is told if it is too short.
      * 
-     * @return String four-digit number with different digits.
-     * @throws IOException
-     *             if the inputStream is closed or there is IO problem
+     * @param inputName
+     *            the name
+     * @return true if the name has at least three letters.
      */
-    public String readFourDigits() throws IOException {
+    public boolean checkName(String inputName) {
 
-        String result = null;
-        do {
-            result = playerReader.readLine();
-            if (result != null) {
-                result = result.replaceAll(REGEX_REMOVING_INVALID_SYMBOLS_FROM_CONSOLE, "");
-            }
-            if (!isValidInput(result)) {
-                result = null;
-                write("Invalid or incorrect number.");
-            }
-        } while (result == null);
-        return result;
+        if (inputName.length() < 3) {
+            write(WRONG_NAME_INPUT_MESSAGE);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Chooses the protocol from the first message of the connection, like
+     * {@link #askForName()} does, for a session that reads only the messages
+     * that have arrived, see {@link server.NioConnection.InboundListener}.
+     * 
+     * @return true if the first message only chose the protocol and has been
+     *         read, false if it is still to be read.
+     * @throws PlayerDisconnectedException
+     *             if the player has disconnected.
+     */
+    public boolean negotiate() throws IOException {
+
+        Codec negotiated = readArrived(Codec::negotiate);
+        boolean switched = negotiated != codec;
+        codec = negotiated;
+        codec.setDisconnectListener(this::onDisconnected);
+        return switched;
     }
 
     /**
-     * Check if the input(@param result) is a valid four digit number with
-     * different digits.
+     * Reads a line that has already arrived, without a deadline.
      * 
-     * @param result
-     *            line that has been read from player`s console.
-     * @return true if the input matches the conditions. False otherwise or if
-     *         the input is null.
+     * @return the line, with only letters, digits and '_'.
+     * @throws PlayerDisconnectedException
+     *             if the player has disconnected.
      */
-    private boolean isValidInput(String result) {
+    public String readArrivedLine() throws IOException {
 
-        // if the String is not null trim it and check with regular expression
-        if (result != null && (result = result.trim()).matches(REGEX_FOR_CORECT_NUMBER)) {
-            // Checks for duplicate digits.
-            // If there is a digit found more than one time returns false
-            if (result.chars().mapToObj(code -> (char) code).distinct().count() == 4) {
-                return true;
+        flush();
+        return readArrived(input -> {
+            String line = input.readLine();
+            if (line == null) {
+                throw new EOFException("Client disconnected");
             }
+            return removeInvalidSymbols(line);
+        });
+    }
+
+    /**
+     * Reads a number that has already arrived, without a deadline.
+     * 
+     * @param variant
+     *            the variant of the game
+     * @return the packed number, {@link Code#INVALID} if it is not valid.
+     * @throws PlayerDisconnectedException
+     *             if the player has disconnected.
+     */
+    public long readArrivedCode(Variant variant) throws IOException {
+
+        flush();
+        return readArrived(input -> input.readCode(variant));
+    }
+
+    /**
+     * Reads a message that has already arrived. Any failure of the read means
+     * that the player is gone, see {@link #onDisconnected()}.
+     */
+    private <T> T readArrived(CodecRead<T> read) throws IOException {
+
+        if (disconnected.get()) {
+            throw new PlayerDisconnectedException(name + " has disconnected");
         }
-        return false;
+        try {
+            return read.readFrom(codec);
+        } catch (IOException e) {
+            onDisconnected();
+            throw new PlayerDisconnectedException(name + " has disconnected", e);
+        }
+    }
+
+    /**
+     * Reads a line containing a number of the variant. Validate it and
+     * returns it packed, see {@link Variant#parse(CharSequence)}. Any non
+     * letter/digit symbols are skipped.
+     * 
+     * The player has the time of a turn for a valid number, see
+     * {@link Timeouts#getTurnMillis()}.
+     * 
+     * @param variant
+     *            the variant of the game
+     * @return packed number of the variant.
+     * @throws PlayerTimeoutException
+     *             if the time for the turn is over.
+     * @throws PlayerDisconnectedException
+     *             if the player has disconnected.
+     * @throws IOException
+     *             if the inputStream is closed or there is IO problem
+     */
+    public long readNumber(Variant variant) throws IOException {
+
+        flush();
+        return read(timeouts.getTurnMillis(), false, "his number", input -> {
+            long result;
+            do {
+                result = input.readCode(variant);
+                if (result == Code.INVALID) {
+                    write("Invalid or incorrect number.");
+                }
+            } while (result == Code.INVALID);
+            return result;
+        });
     }
 
     /**
-     * writes a string to the player output. Write
+     * Reads the number with which the player will play the game.
+     * 
+     * @param variant
+     *            the variant of the game
+     * @return packed number of the variant.
+     * @throws IOException
+     *             if the inputStream is closed or there is IO problem
+     */
+    public long readStartingNumber(Variant variant) throws IOException {
+        return readNumber(variant);
+    }
+
+    /**
+     * Reads the next guess of the player.
+     * 
+     * @param variant
+     *            the variant of the game
+     * @return packed number of the variant.
+     * @throws IOException
+     *             if the inputStream is closed or there is IO problem
+     */
+    public long readGuess(Variant variant) throws IOException {
+        return readNumber(variant);
+    }
+
+    /**
+     * Called after a guess of the player has been scored. Players behind a
+     * connection are sent the score, see {@link #appendScore(long, int)}, so
+     * there is nothing to do here.
+     * 
+     * @param guess
+     *            the packed guess
+     * @param score
+     *            the packed score, see {@link game.ScoreTable}
+     */
+    public void onGuessScored(long guess, int score) {
+    }
+
+    /**
+     * @return true if the games of the player change the ratings.
+     */
+    public boolean isRated() {
+        return true;
+    }
+
+    /**
+     * writes a string to the player output and sends it together with
+     * everything appended before, see {@link #append(String)}.
      * 
      * @param stringToBeWrittenToPlayerConsole
      *            the string to write
      */
     public void write(String stringToBeWrittenToPlayerConsole) {
 
-        playerWriter.println(stringToBeWrittenToPlayerConsole);
-        playerWriter.flush();
+        append(stringToBeWrittenToPlayerConsole);
+        flush();
     }
 
     /**
-     * Read line from Player`s input stream.
+     * Adds a line to the player output without sending it. Everything
+     * appended goes out at the next {@link #flush()}, {@link #write(String)}
+     * or read from the player, so the messages of one turn or event cost a
+     * single send.
+     * 
+     * @param line
+     *            the line to add
+     */
+    public void append(String line) {
+
+        synchronized (outputLock) {
+            composing = true;
+            codec.appendText(line);
+        }
+    }
+
+    /**
+     * Asks the player a question and sends it together with everything
+     * appended before.
+     * 
+     * @param prompt
+     *            the question
+     * @param text
+     *            the question as shown in a terminal
+     */
+    public void prompt(Prompt prompt, String text) {
+
+        synchronized (outputLock) {
+            codec.appendPrompt(prompt, text);
+            flush();
+        }
+    }
+
+    /**
+     * Adds the rules of the numbers of the game that starts to the output.
+     * 
+     * @param variant
+     *            the variant of the game
+     */
+    public void appendVariant(Variant variant) {
+
+        synchronized (outputLock) {
+            composing = true;
+            codec.appendVariant(variant);
+        }
+    }
+
+    /**
+     * Adds the score of the last guess of the player to the output.
+     * 
+     * @param guess
+     *            the packed guess
+     * @param score
+     *            the packed score, see {@link game.ScoreTable}
+     */
+    public void appendScore(long guess, int score) {
+
+        synchronized (outputLock) {
+            composing = true;
+            codec.appendScore(guess, score);
+        }
+    }
+
+    /**
+     * Adds a guess of the opponent and its score to the output.
+     * 
+     * @param opponentName
+     *            name of the opponent
+     * @param variant
+     *            the variant of the game
+     * @param guess
+     *            the packed guess
+     * @param score
+     *            the packed score
+     */
+    public void appendOpponentGuess(String opponentName, Variant variant, long guess, int score) {
+
+        synchronized (outputLock) {
+            composing = true;
+            codec.appendOpponentGuess(opponentName, variant, guess, score);
+        }
+    }
+
+    /**
+     * Adds the result of the game to the output.
+     * 
+     * @param won
+     *            true if this player has won
+     * @param winnerName
+     *            name shown as the winner
+     */
+    public void appendGameOver(boolean won, String winnerName) {
+
+        synchronized (outputLock) {
+            composing = true;
+            codec.appendGameOver(won, winnerName);
+        }
+    }
+
+    /**
+     * Adds a page of the friend room to the output.
+     * 
+     * @param page
+     *            the page to show
+     */
+    public void appendLobby(LobbyPage page) {
+
+        synchronized (outputLock) {
+            composing = true;
+            codec.appendLobby(page);
+        }
+    }
+
+    /**
+     * Sends everything appended to the player output. Does nothing if there
+     * is nothing to send.
+     */
+    public void flush() {
+
+        int flushed;
+        synchronized (outputLock) {
+            composing = false;
+            flushed = codec.flush();
+        }
+        if (flushed == 0) {
+            return;
+        }
+        Metrics.OUTBOUND_CHARS.add(flushed);
+        Metrics.OUTBOUND_FLUSHES.mark();
+    }
+
+    /**
+     * Sends lines to the player unless some thread is putting together a
+     * message for him, appended and not sent yet. Lets a thread that does
+     * not run the session of the player write to him without splitting the
+     * output of the session.
+     * 
+     * @param lines
+     *            the lines to send
+     * @return true if the lines have been sent, false if they have to be
+     *         sent later.
+     */
+    public boolean writeIfIdle(List<String> lines) {
+
+        synchronized (outputLock) {
+            if (composing) {
+                return false;
+            }
+            for (String line : lines) {
+                codec.appendText(line);
+            }
+            flush();
+            return true;
+        }
+    }
+
+    /**
+     * Read line from Player`s input stream. The player has the idle time for
+     * it, see {@link Timeouts#getIdleMillis()}.
      * 
      * @return String the line read.
+     * @throws PlayerTimeoutException
+     *             if the player has not answered in time.
      * @throws IOException
      *             socket closed or some other I/O error.
      */
     public String readLineFromPlayer() throws IOException {
+        return readLine(timeouts.getIdleMillis(), true);
+    }
 
-        String line = null;
-        do {
-            line = playerReader.readLine();
-            if (line != null) {
-                line = line.replaceAll(REGEX_REMOVING_INVALID_SYMBOLS_FROM_CONSOLE, "");
+    /**
+     * Read line from Player`s input stream.
+     * 
+     * @param timeoutMillis
+     *            time the player has for the answer, 0 for no limit
+     * @return String the line read.
+     * @throws PlayerTimeoutException
+     *             if the player has not answered in time.
+     * @throws PlayerDisconnectedException
+     *             if the player has disconnected.
+     * @throws IOException
+     *             socket closed or some other I/O error.
+     */
+    public String readLineFromPlayer(long timeoutMillis) throws IOException {
+        return readLine(timeoutMillis, false);
+    }
+
+    private String readLine(long timeoutMillis, boolean idle) throws IOException {
+
+        flush();
+        return read(timeoutMillis, idle, "his answer", input -> {
+            String line = input.readLine();
+            if (line == null) {
+                throw new EOFException("Client disconnected");
+            }
+            return removeInvalidSymbols(line);
+        });
+    }
+
+    /**
+     * Reads from the codec with a deadline. A connection that can keep the
+     * deadline by itself does so, see {@link Codec#setReadTimeout(long)},
+     * unless the player is idle: his connection is closed when the time is
+     * over. Otherwise the deadline is kept by the timer of the
+     * {@link Timeouts} and when it passes, the read is cancelled, see
+     * {@link Codec#cancelRead()}. Any other failure of the read means that the
+     * player is gone, see {@link #onDisconnected()}.
+     */
+    private <T> T read(long timeoutMillis, boolean idle, String expected, CodecRead<T> read) throws IOException {
+
+        if (disconnected.get()) {
+            throw new PlayerDisconnectedException(name + " has disconnected");
+        }
+        ReadDeadline deadline = new ReadDeadline();
+        HashedWheelTimer.Timeout timeout = null;
+        Codec timed = !idle && timeoutMillis > 0 && codec.setReadTimeout(timeoutMillis) ? codec : null;
+        if (timeoutMillis > 0 && timed == null) {
+            timeout = timeouts.getTimer().schedule(() -> {
+                synchronized (deadline) {
+                    deadline.passed = true;
+                    deadline.disconnected = !codec.cancelRead();
+                }
+            }, timeoutMillis);
+        }
+        try {
+            while (true) {
+                try {
+                    T value = read.readFrom(codec);
+                    if (deadline.passed) {
+                        // the answer came after the deadline
+                        throw timeoutException(expected, deadline);
+                    }
+                    return value;
+                } catch (PlayerTimeoutException e) {
+                    throw e;
+                } catch (InterruptedIOException e) {
+                    if (deadline.passed || timed != null) {
+                        throw timeoutException(expected, deadline);
+                    }
+                    // left by a deadline that passed after its read had ended
+                } catch (IOException e) {
+                    if (deadline.passed) {
+                        throw timeoutException(expected, deadline);
+                    }
+                    onDisconnected();
+                    throw new PlayerDisconnectedException(name + " has disconnected", e);
+                }
+            }
+        } finally {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            if (timed != null) {
+                timed.setReadTimeout(0);
             }
-        } while (line == null);
-        return line;
+        }
+    }
 
+    private PlayerTimeoutException timeoutException(String expected, ReadDeadline deadline) {
+
+        synchronized (deadline) {
+            // waits for the timer to finish with the connection
+            return new PlayerTimeoutException(name + " has not sent " + expected + " in time",
+                    deadline.disconnected);
+        }
     }
 
     /**
-     * closes player streams
+     * What the timer has done to one read.
+     */
+    private static class ReadDeadline {
+
+        volatile boolean passed;
+        /** the connection had to be closed to end the read */
+        boolean disconnected;
+    }
+
+    /**
+     * One read from the codec, which may read several times.
+     */
+    private interface CodecRead<T> {
+
+        T readFrom(Codec input) throws IOException;
+    }
+
+    /**
+     * Removes all symbols except letters, digits and '_' from a line. Returns
+     * the same line when there is nothing to remove.
+     * 
+     * @param line
+     *            the line read from the player
+     * @return the cleaned line
+     */
+    private static String removeInvalidSymbols(String line) {
+
+        int firstInvalid = 0;
+        while (firstInvalid < line.length() && Code.isWordSymbol(line.charAt(firstInvalid))) {
+            firstInvalid++;
+        }
+        if (firstInvalid == line.length()) {
+            return line;
+        }
+        StringBuilder cleaned = new StringBuilder(line.length());
+        cleaned.append(line, 0, firstInvalid);
+        for (int i = firstInvalid + 1; i < line.length(); i++) {
+            char current = line.charAt(i);
+            if (Code.isWordSymbol(current)) {
+                cleaned.append(current);
+            }
+        }
+        return cleaned.toString();
+    }
+
+    /**
+     * Called once the connection of the player has ended without the server
+     * closing it: by the session that has read the end of the stream, or by
+     * the connection itself when it notices it first, like a non-blocking
+     * connection does while nobody reads. Runs the disconnect handler and
+     * closes the streams, the next read throws
+     * {@link PlayerDisconnectedException} without waiting. Does nothing the
+     * second time or after {@link #closeStreams()}.
+     */
+    public void onDisconnected() {
+
+        if (streamsClosed.get() || !disconnected.compareAndSet(false, true)) {
+            return;
+        }
+        Metrics.DISCONNECTS.increment();
+        Runnable handler = disconnectHandler;
+        if (handler != null) {
+            handler.run();
+        }
+        closeStreams();
+    }
+
+    /**
+     * @return true if the player has disconnected, see
+     *         {@link #onDisconnected()}.
+     */
+    public boolean isDisconnected() {
+        return disconnected.get();
+    }
+
+    /**
+     * @param disconnectHandler
+     *            called once when the player disconnects, like removing him
+     *            from the rooms. It may run on an I/O thread, it must be short
+     *            and must not block.
+     */
+    public void setDisconnectHandler(Runnable disconnectHandler) {
+        this.disconnectHandler = disconnectHandler;
+    }
+
+    /**
+     * closes player streams. Does nothing if they are already closed.
      */
     public void closeStreams() {
 
-        try {
-            playerReader.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (!streamsClosed.compareAndSet(false, true)) {
+            return;
         }
-        playerWriter.close();
+        Metrics.ACTIVE_CONNECTIONS.decrement();
+        codec.close();
     }
 
     public Player(String playerNumber) {
-        this.playerNumber = playerNumber;
+        this.playerNumber = Variant.CLASSIC.parse(playerNumber);
+    }
+
+    public long getWaitingSince() {
+        return waitingSince;
+    }
+
+    public void setWaitingSince(long waitingSince) {
+        this.waitingSince = waitingSince;
+    }
+
+    Object getMatchmakingTicket() {
+        return matchmakingTicket;
+    }
+
+    void setMatchmakingTicket(Object matchmakingTicket) {
+        this.matchmakingTicket = matchmakingTicket;
+    }
+
+    Object getFriendRoomEntry() {
+        return friendRoomEntry;
+    }
+
+    void setFriendRoomEntry(Object friendRoomEntry) {
+        this.friendRoomEntry = friendRoomEntry;
     }
 
     public String getName() {
@@ -162,58 +701,43 @@ public class Player {
         this.name = name;
     }
 
-    public PrintWriter getPlayerWriter() {
-        return playerWriter;
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public Session getSession() {
+        return session;
     }
 
-    public void setPlayerWriter(PrintWriter playerWriter) {
-        this.playerWriter = playerWriter;
+    public void setSession(Session session) {
+        this.session = session;
     }
 
-    public BufferedReader getPlayerReader() {
-        return playerReader;
+    public Timeouts getTimeouts() {
+        return timeouts;
     }
 
-    public void setPlayerReader(BufferedReader playerReader) {
-        this.playerReader = playerReader;
+    public void setTimeouts(Timeouts timeouts) {
+        this.timeouts = timeouts;
     }
 
-    public String getPlayerNumber() {
+    public long getPlayerNumber() {
         return playerNumber;
     }
 
-    public void setPlayerNumber(String playerNumber) {
+    public void setPlayerNumber(long playerNumber) {
         this.playerNumber = playerNumber;
     }
 
-    @Override
-    public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((playerReader == null) ? 0 : playerReader.hashCode());
-        result = prime * result + ((playerWriter == null) ? 0 : playerWriter.hashCode());
-        return result;
+    /**
+     * @return the variant of the games the player starts, null if he has not
+     *         chosen one and plays the variant of the server.
+     */
+    public Variant getVariant() {
+        return variant;
     }
 
-    @Override
-    public boolean equals(Object obj) {
-        if (this == obj)
-            return true;
-        if (obj == null)
-            return false;
-        if (getClass() != obj.getClass())
-            return false;
-        Player other = (Player) obj;
-        if (playerReader == null) {
-            if (other.playerReader != null)
-                return false;
-        } else if (!playerReader.equals(other.playerReader))
-            return false;
-        if (playerWriter == null) {
-            if (other.playerWriter != null)
-                return false;
-        } else if (!playerWriter.equals(other.playerWriter))
-            return false;
-        return true;
+    public void setVariant(Variant variant) {
+        this.variant = variant;
     }
-}
\ No newline at end of file
+}
@@ -1,72 +1,535 @@
 package player;
 
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import bot.ComputerPlayer;
+import bot.GuessStrategy;
 import exception.InvalidPlayerException;
 import game.BullCowGame;
+import game.Variant;
+import history.GameHistory;
+import journal.GameJournal;
+import journal.RecoveredGame;
+import journal.ResumeCodes;
+import metrics.Metrics;
+import protocol.Prompt;
+import stats.StatisticsStore;
+import thread.HashedWheelTimer;
+import thread.SessionDriver;
+import thread.TaskExecutor;
+import thread.ThreadSessionDriver;
 
 /**
  * this inner class is used as a closure(implements Holder), because we do not
  * want to give reference to the whole BCServer class. It holds the
- * waitingClients and adds or gives their list it is made as a thread so the
+ * waitingClients and adds or gives their list. The random room is paired by a
+ * lock-free {@link Matchmaker} on the threads of the arriving players, so the
  * BCServer does not have to wait this class's operations
  */
-public class PlayersHolder implements Runnable {
+public class PlayersHolder {
 
-    private Queue<Player> randomRoomPlayers;
+    /**
+     * pairs the players of the random room.
+     */
+    private Matchmaker randomRoomPlayers;
     /**
      * Class that encapsulate different room of players.
      */
     private FreePlayers freePlayersRoom;
+    private final LobbyNotifier lobbyNotifier = new LobbyNotifier();
+    /**
+     * runs the services of the holder.
+     */
+    private TaskExecutor executor;
+    /**
+     * runs the games and the sessions of the players.
+     */
+    private volatile SessionDriver sessionDriver;
+    /**
+     * how the computer opponents guess.
+     */
+    private GuessStrategy computerStrategy;
+    /**
+     * ratings of the players, by name.
+     */
+    private RatingStore ratings = new RatingStore();
+    /**
+     * wins, losses and streaks of the players, and the leaderboard.
+     */
+    private final StatisticsStore statistics = new StatisticsStore();
+    /**
+     * records the games so they can be rebuilt after a crash.
+     */
+    private GameJournal journal = GameJournal.DISABLED;
+    /**
+     * keeps the finished games.
+     */
+    private GameHistory history = GameHistory.DISABLED;
+    /**
+     * the variant of the games in the random room and of the players who
+     * have not chosen one.
+     */
+    private volatile Variant variant = Variant.CLASSIC;
+    /**
+     * tells the other nodes of the cluster about the rooms.
+     */
+    private volatile ClusterLink cluster = ClusterLink.NONE;
+    /**
+     * games interrupted by the last stop of the server, by the names of their
+     * players.
+     */
+    private final Map<String, ResumableGame> resumableGames = new ConcurrentHashMap<>();
 
     /**
-     * default constructor. Initializes the collection and the new room.
+     * general purpose constructor. Initializes the collection and the new
+     * room. The random room pairs whoever comes first.
+     * 
+     * @param executor
+     *            runs the games and the sessions of the players
+     * @param computerStrategy
+     *            how the computer opponents guess
      */
-    public PlayersHolder() {
-        randomRoomPlayers = new LinkedBlockingQueue<>();
-        freePlayersRoom = new FreePlayers();
+    public PlayersHolder(TaskExecutor executor, GuessStrategy computerStrategy) {
+        this(executor, computerStrategy, false);
     }
 
     /**
-     * initializes data starts the thread. The purpose of the thread is when
-     * awakened by notify() to check, if there are enough players to start game
-     * and initiate game until there are no more players and wait.
+     * general purpose constructor. Initializes the collection and the new
+     * room, in one shard.
+     * 
+     * @param executor
+     *            runs the games and the sessions of the players
+     * @param computerStrategy
+     *            how the computer opponents guess
+     * @param ratedMatchmaking
+     *            true to pair the random room by rating, see
+     *            {@link SkillMatchmaker}, false to pair whoever comes first
      */
-    public void run() {
+    public PlayersHolder(TaskExecutor executor, GuessStrategy computerStrategy, boolean ratedMatchmaking) {
+        this(executor, computerStrategy, ratedMatchmaking, 1);
+    }
 
-        while (!Thread.interrupted()) {
-            while (randomRoomPlayers.size() > 1) {
-                Player firstPlayer = randomRoomPlayers.poll();
-                Player secondPlayer = randomRoomPlayers.poll();
-                Thread newGameThread = new Thread(new BullCowGame(firstPlayer, secondPlayer, this));
-                newGameThread.start();
-                System.out.println("Game initiated by PlayersHolder.");
-            }
-            synchronized (this) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    return;
-                }
-            }
+    /**
+     * general purpose constructor. Initializes the collection and the new
+     * room.
+     * 
+     * @param executor
+     *            runs the games and the sessions of the players
+     * @param computerStrategy
+     *            how the computer opponents guess
+     * @param ratedMatchmaking
+     *            true to pair the random room by rating, see
+     *            {@link SkillMatchmaker}, false to pair whoever comes first
+     * @param shards
+     *            number of shards of the friend room and of the random room
+     *            that pairs whoever comes first, see {@link ShardedMatchmaker}.
+     *            The rating buckets of the {@link SkillMatchmaker} are its
+     *            shards already.
+     */
+    public PlayersHolder(TaskExecutor executor, GuessStrategy computerStrategy, boolean ratedMatchmaking,
+            int shards) {
+        if (ratedMatchmaking) {
+            SkillMatchmaker skillMatchmaker = new SkillMatchmaker(ratings, this::startRandomRoomGame);
+            executor.startService(skillMatchmaker);
+            randomRoomPlayers = skillMatchmaker;
+        } else if (shards > 1) {
+            ShardedMatchmaker shardedMatchmaker = new ShardedMatchmaker(shards, this::startRandomRoomGame);
+            executor.startService(shardedMatchmaker);
+            randomRoomPlayers = shardedMatchmaker;
+        } else {
+            randomRoomPlayers = new ExchangeMatchmaker(this::startRandomRoomGame);
         }
+        freePlayersRoom = new FreePlayers(shards);
+        freePlayersRoom.setNotifier(lobbyNotifier);
+        lobbyNotifier.start(executor);
+        executor.startService(statistics);
+        this.executor = executor;
+        this.sessionDriver = new ThreadSessionDriver(executor, this);
+        this.computerStrategy = computerStrategy;
+        Metrics.REGISTRY.gauge("randomRoom.depth", () -> randomRoomPlayers.getWaitingCount());
+        Metrics.REGISTRY.gauge("friendRoom.size", () -> freePlayersRoom.size());
+        Metrics.REGISTRY.gauge("lobby.subscribers", () -> lobbyNotifier.getSubscriberCount());
+        Metrics.REGISTRY.gauge("games.inProgress", () -> sessionDriver.getLiveGames());
+        Metrics.REGISTRY.gauge("sessions.live", () -> sessionDriver.getLiveSessions());
     }
 
     /**
-     * Add player to the playersHolder. Does it synchronizing on the players
-     * linkedBlockingQueue is concurrent.
+     * Add player to the playersHolder. The player is paired right away if
+     * somebody is waiting, see {@link ExchangeMatchmaker}.
      * 
      * @param player
      *            The player to be added to waiting players
      */
     public void addPlayerToRandomRoom(Player player) {
 
-        randomRoomPlayers.add(player);
-        synchronized (this) {
-            notify();
+        player.setWaitingSince(System.nanoTime());
+        offerToRandomRoom(player);
+    }
+
+    /**
+     * Offers the player to the random room. In a cluster, a player left
+     * waiting is offered to the other nodes as well.
+     */
+    private void offerToRandomRoom(Player player) {
+
+        player.setDisconnectHandler(() -> removeDisconnected(player));
+        randomRoomPlayers.offer(player);
+        if (player.isDisconnected()) {
+            // gone before the handler was set
+            removeDisconnected(player);
+        } else if (cluster != ClusterLink.NONE && randomRoomPlayers.isWaiting(player)) {
+            cluster.randomRoomWaiting(player);
+        }
+    }
+
+    /**
+     * Removes a player who has disconnected while waiting from the rooms, so
+     * nobody is paired with him. Runs on the thread that noticed the
+     * disconnect, see {@link Player#setDisconnectHandler(Runnable)}.
+     */
+    private void removeDisconnected(Player player) {
+
+        boolean removed = false;
+        if (randomRoomPlayers.remove(player)) {
+            cluster.randomRoomLeft(player);
+            removed = true;
         }
+        if (freePlayersRoom.removePlayer(player)) {
+            cluster.friendRoomLeft(player);
+            removed = true;
+        }
+        if (removed) {
+            System.out.println(player.getName() + " has disconnected while waiting.");
+        }
+    }
+
+    /**
+     * Starts the game of a pair made in the random room.
+     */
+    private void startRandomRoomGame(Player firstPlayer, Player secondPlayer) {
+
+        Metrics.RANDOM_ROOM_WAIT.recordSince(firstPlayer.getWaitingSince());
+        Metrics.RANDOM_ROOM_WAIT.recordSince(secondPlayer.getWaitingSince());
+        cluster.randomRoomLeft(firstPlayer);
+        cluster.randomRoomLeft(secondPlayer);
+        sessionDriver.startGame(new BullCowGame(firstPlayer, secondPlayer, this, variant));
+        System.out.println("Game initiated by PlayersHolder.");
+    }
+
+    /**
+     * Joins the rooms to a cluster. The friend room starts again empty, with
+     * the indexes of this node, see {@link FreePlayers#FreePlayers(int, int, int)},
+     * so it must be called before any player joins.
+     * 
+     * @param link
+     *            tells the other nodes about the rooms
+     * @param nodeNumber
+     *            number of this node in the cluster, from 0
+     * @param nodeCount
+     *            number of nodes in the cluster
+     */
+    public void joinCluster(ClusterLink link, int nodeNumber, int nodeCount) {
+
+        FreePlayers room = new FreePlayers(freePlayersRoom.getShardCount(), nodeNumber, nodeCount);
+        room.setNotifier(lobbyNotifier);
+        freePlayersRoom = room;
+        cluster = link;
+    }
+
+    /**
+     * Takes a player out of the random room for a game with a player of
+     * another node of the cluster.
+     * 
+     * @param player
+     *            a player of this node
+     * @return true if he was waiting, false if he has been paired or is gone.
+     */
+    public boolean takeFromRandomRoom(Player player) {
+        return randomRoomPlayers.remove(player);
+    }
+
+    /**
+     * Puts back a player taken out of the random room whose opponent of
+     * another node could not be had. He keeps his time of waiting.
+     * 
+     * @param player
+     *            a player taken by {@link #takeFromRandomRoom(Player)}
+     */
+    public void returnToRandomRoom(Player player) {
+        offerToRandomRoom(player);
+    }
+
+    /**
+     * Starts the game of a pair made across the nodes of a cluster, this node
+     * hosts it.
+     * 
+     * @param waitingPlayer
+     *            the player of this node
+     * @param remotePlayer
+     *            the player of the other node
+     */
+    public void startClusterGame(Player waitingPlayer, Player remotePlayer) {
+
+        Metrics.RANDOM_ROOM_WAIT.recordSince(waitingPlayer.getWaitingSince());
+        sessionDriver.startGame(new BullCowGame(waitingPlayer, remotePlayer, this, variant));
+        System.out.println("Game initiated across nodes. " + waitingPlayer.getName() + " vs "
+                + remotePlayer.getName());
+    }
+
+    /**
+     * Starts a game of the player against a computer opponent. The player
+     * guesses first.
+     * 
+     * @param player
+     *            the player who wants to play against the computer
+     */
+    public void startGameWithComputer(Player player) {
+
+        sessionDriver.startGame(new BullCowGame(player, new ComputerPlayer(computerStrategy), this, variantOf(player)));
+        System.out.println("Game initiated by PlayersHolder. " + player.getName() + " vs Computer");
+    }
+
+    public RatingStore getRatings() {
+        return ratings;
+    }
+
+    public StatisticsStore getStatistics() {
+        return statistics;
+    }
+
+    public GameJournal getJournal() {
+        return journal;
+    }
+
+    public GameHistory getHistory() {
+        return history;
+    }
+
+    public void setHistory(GameHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * @return the variant of the games of the random room and of the players
+     *         who have not chosen one.
+     */
+    public Variant getVariant() {
+        return variant;
+    }
+
+    public void setVariant(Variant variant) {
+        this.variant = variant;
+    }
+
+    /**
+     * @param player
+     *            a player who starts a game
+     * @return the variant he has chosen, the one of the server if none.
+     */
+    public Variant variantOf(Player player) {
+
+        Variant chosen = player.getVariant();
+        return chosen != null ? chosen : variant;
+    }
+
+    /**
+     * Sets the journal of the games. The games recovered from it wait for
+     * their players to come back, see {@link #resumeInterruptedGame(Player)},
+     * until the resume time is over. Then they end without a winner, so the
+     * journal can let go of them.
+     * 
+     * @param journal
+     *            the journal
+     * @param recoveredGames
+     *            the games that were in progress when the server stopped
+     * @param timer
+     *            keeps the resume deadlines
+     * @param resumeMillis
+     *            how long the games wait for their players, 0 for no limit
+     */
+    public void setJournal(GameJournal journal, Collection<RecoveredGame> recoveredGames, HashedWheelTimer timer,
+            long resumeMillis) {
+
+        this.journal = journal;
+        for (RecoveredGame recovered : recoveredGames) {
+            ResumableGame game = new ResumableGame(recovered);
+            resumableGames.put(recovered.getName(0), game);
+            if (!recovered.isSecondComputer()) {
+                resumableGames.put(recovered.getName(1), game);
+            }
+            if (resumeMillis > 0) {
+                game.deadline = timer.schedule(() -> expireResumableGame(game), resumeMillis);
+            }
+        }
+    }
+
+    /**
+     * If the player had a game in progress when the server stopped, asks him
+     * for his code to resume it. The game starts again when all its players
+     * have come back.
+     * 
+     * @param player
+     *            player who has just given his name
+     * @return true if the player has resumed a game, he is either playing it
+     *         or waiting for his opponent.
+     * @throws IOException
+     *             if the connection to the player is lost.
+     */
+    public boolean resumeInterruptedGame(Player player) throws IOException {
+
+        String question = getResumeQuestion(player);
+        if (question == null) {
+            return false;
+        }
+        player.prompt(Prompt.RESUME, question);
+        return answerResume(player, player.readLineFromPlayer().toLowerCase());
+    }
+
+    /**
+     * @param player
+     *            player who has just given his name
+     * @return the question whether to resume his interrupted game, null if he
+     *         has none.
+     */
+    public String getResumeQuestion(Player player) {
+
+        ResumableGame game = resumableGames.get(player.getName());
+        if (game == null) {
+            return null;
+        }
+        RecoveredGame recovered = game.recovered;
+        int slot = player.getName().equals(recovered.getName(0)) ? 0 : 1;
+        return "Your game against " + recovered.getName(1 - slot) + " was interrupted."
+                + " Type your code to resume it, or no.";
+    }
+
+    /**
+     * Takes the answer to {@link #getResumeQuestion(Player)}. The player gets
+     * the free seat with his name whose code he gives. The game starts again when all its players
+     * have come back, see {@link SessionDriver#startGame(BullCowGame)}. A
+     * player who does not resume leaves the game to its deadline, only the
+     * player of a seat could end it earlier and he has not shown he is.
+     * 
+     * @param player
+     *            player who was asked
+     * @param answer
+     *            his answer: his code or no
+     * @return true if the game is resumed, the player is either playing it or
+     *         waiting for his opponent.
+     */
+    public boolean answerResume(Player player, String answer) {
+
+        ResumableGame game = resumableGames.get(player.getName());
+        if (game == null) {
+            // over meanwhile
+            player.write("The game can not be resumed any more.");
+            return false;
+        }
+        if ("no".equals(answer)) {
+            return false;
+        }
+        RecoveredGame recovered = game.recovered;
+        Player[] players;
+        synchronized (game) {
+            if (game.over) {
+                player.write("The game can not be resumed any more.");
+                return false;
+            }
+            int slot = game.seatOf(player.getName(), answer);
+            if (slot < 0) {
+                player.write("That is not the code of a free seat of the game.");
+                return false;
+            }
+            game.seats[slot] = player;
+            if (recovered.isSecondComputer()) {
+                game.seats[1] = new ComputerPlayer(computerStrategy);
+            }
+            if (game.seats[1 - slot] == null) {
+                player.write("Waiting for " + recovered.getName(1 - slot) + " to come back.");
+                player.setDisconnectHandler(() -> leaveSeat(game, slot, player));
+                if (player.isDisconnected()) {
+                    game.seats[slot] = null;
+                }
+                return true;
+            }
+            forgetResumableGame(game);
+            players = game.seats;
+        }
+        sessionDriver.startGame(new BullCowGame(players[0], players[1], this, recovered));
+        System.out.println("Interrupted game resumed. " + recovered.getName(0) + " vs " + recovered.getName(1));
+        return true;
+    }
+
+    /**
+     * Frees the seat of a player who has disconnected while waiting for his
+     * opponent to resume their game.
+     */
+    private void leaveSeat(ResumableGame game, int slot, Player player) {
+
+        synchronized (game) {
+            if (game.seats[slot] == player) {
+                game.seats[slot] = null;
+            }
+        }
+    }
+
+    /**
+     * Ends an interrupted game whose players have not come back in time. A
+     * player who was waiting for his opponent goes back to the menu.
+     */
+    private void expireResumableGame(ResumableGame game) {
+
+        Player[] seats;
+        synchronized (game) {
+            if (game.over) {
+                return;
+            }
+            forgetResumableGame(game);
+            seats = game.seats.clone();
+        }
+        journal.gameEnded(game.recovered.getGameId(), GameJournal.NO_WINNER);
+        for (Player waiting : seats) {
+            if (waiting != null && !(waiting instanceof ComputerPlayer)) {
+                waiting.write("Your opponent has not come back in time, the game is over.");
+                sessionDriver.startSession(waiting);
+            }
+        }
+        System.out.println("Interrupted game expired. " + game.recovered.getName(0) + " vs "
+                + game.recovered.getName(1));
+    }
+
+    /**
+     * Stops offering an interrupted game to its players. Called with the lock
+     * of the game.
+     */
+    private void forgetResumableGame(ResumableGame game) {
+
+        game.over = true;
+        if (game.deadline != null) {
+            game.deadline.cancel();
+        }
+        resumableGames.remove(game.recovered.getName(0), game);
+        resumableGames.remove(game.recovered.getName(1), game);
+    }
+
+    public TaskExecutor getExecutor() {
+        return executor;
+    }
+
+    public SessionDriver getSessionDriver() {
+        return sessionDriver;
+    }
+
+    /**
+     * @param sessionDriver
+     *            runs the games and the sessions of the players, a
+     *            {@link ThreadSessionDriver} unless it is set
+     */
+    public void setSessionDriver(SessionDriver sessionDriver) {
+        this.sessionDriver = sessionDriver;
     }
 
     /**
@@ -77,7 +540,56 @@ public class PlayersHolder implements Runnable {
      *            current player to be added.
      */
     public void addplayer(Player player) {
-        freePlayersRoom.addPlayerToFriendRoom(player);
+
+        player.setDisconnectHandler(() -> removeDisconnected(player));
+        int index = freePlayersRoom.addPlayerToFriendRoom(player);
+        cluster.friendRoomJoined(index, player);
+        if (player.isDisconnected()) {
+            removeDisconnected(player);
+        }
+    }
+
+    /**
+     * Lists a player who waits in the friend room of another node of the
+     * cluster, see {@link FreePlayers#addRemotePlayer(int, Player)}.
+     * 
+     * @param index
+     *            the index his node has given him
+     * @param remotePlayer
+     *            the player
+     * @return false if somebody is listed under the index already.
+     */
+    public boolean addRemoteToFriendRoom(int index, Player remotePlayer) {
+        return freePlayersRoom.addRemotePlayer(index, remotePlayer);
+    }
+
+    /**
+     * Stops listing a player of another node, who has left the friend room
+     * there.
+     * 
+     * @param remotePlayer
+     *            the player
+     * @return true if he was listed.
+     */
+    public boolean removeRemoteFromFriendRoom(Player remotePlayer) {
+        return freePlayersRoom.removePlayer(remotePlayer);
+    }
+
+    /**
+     * Takes a player of this node out of the friend room, he has accepted
+     * the invitation of a player of another node of the cluster.
+     * 
+     * @param player
+     *            the player
+     * @return true if he was waiting, false if somebody else has picked him.
+     */
+    public boolean takeFromFriendRoom(Player player) {
+
+        if (!freePlayersRoom.removePlayer(player)) {
+            return false;
+        }
+        cluster.friendRoomLeft(player);
+        return true;
     }
 
     /**
@@ -90,6 +602,40 @@ public class PlayersHolder implements Runnable {
         return freePlayersRoom.printFreePlayersIndexes();
     }
 
+    /**
+     * @return notifier that pushes the changes of the friend room to the
+     *         players watching it.
+     */
+    public LobbyNotifier getLobbyNotifier() {
+        return lobbyNotifier;
+    }
+
+    /**
+     * Delegate method of {@link FreePlayers#getPage(int, int)}.
+     * 
+     * @param afterIndex
+     *            the page starts after this index, 0 for the first page.
+     * @param pageSize
+     *            maximum number of players on the page
+     * @return the page of the friend room
+     */
+    public LobbyPage getFriendRoomPage(int afterIndex, int pageSize) {
+        return freePlayersRoom.getPage(afterIndex, pageSize);
+    }
+
+    /**
+     * Delegate method of {@link FreePlayers#findByName(String, int)}.
+     * 
+     * @param namePrefix
+     *            beginning of the searched name
+     * @param pageSize
+     *            maximum number of players returned
+     * @return the matching players of the friend room
+     */
+    public LobbyPage findInFriendRoom(String namePrefix, int pageSize) {
+        return freePlayersRoom.findByName(namePrefix, pageSize);
+    }
+
     /**
      * Delegate method of {@link FreePlayers#getPlayer(int)}
      * 
@@ -115,7 +661,48 @@ public class PlayersHolder implements Runnable {
      *             index.
      */
     public void removePlayerByIndex(int indexOfPlayerToBeRemoved) throws InvalidPlayerException {
-        freePlayersRoom.removePlayer(indexOfPlayerToBeRemoved);
+
+        Player removed = freePlayersRoom.removePlayer(indexOfPlayerToBeRemoved);
+        cluster.friendRoomLeft(removed);
     }
 
-}
\ No newline at end of file
+
+    /**
+     * An interrupted game and the players who have come back to resume it.
+     */
+    private static class ResumableGame {
+
+        private final RecoveredGame recovered;
+        private final Player[] seats = new Player[2];
+        /** ends the game if its players do not come back, null for no limit */
+        private HashedWheelTimer.Timeout deadline;
+        /** resumed or ended, the fields are guarded by the lock of the game */
+        private boolean over;
+
+        ResumableGame(RecoveredGame recovered) {
+            this.recovered = recovered;
+        }
+
+        /**
+         * @param name
+         *            name of the player who answers
+         * @param answer
+         *            his answer
+         * @return the free seat the answer is for, -1 if none.
+         */
+        int seatOf(String name, String answer) {
+
+            long code = ResumeCodes.parse(answer);
+            for (int slot = 0; slot < seats.length; slot++) {
+                if (seats[slot] != null || !recovered.getName(slot).equals(name)
+                        || (slot == 1 && recovered.isSecondComputer())) {
+                    continue;
+                }
+                if (code != ResumeCodes.NONE && recovered.getResumeCode(slot) == code) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+    }
+}
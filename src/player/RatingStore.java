@@ -0,0 +1,44 @@
+package player;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Elo ratings of the players, kept by player name for as long as the server
+ * runs. New players start at {@link #INITIAL_RATING}.
+ */
+public class RatingStore {
+
+    public static final int INITIAL_RATING = 1200;
+    private static final double K_FACTOR = 32;
+
+    private final Map<String, Integer> ratings = new ConcurrentHashMap<>();
+
+    /**
+     * @param playerName
+     *            name of the player
+     * @return rating of the player
+     */
+    public int getRating(String playerName) {
+        return ratings.getOrDefault(playerName, INITIAL_RATING);
+    }
+
+    /**
+     * Moves both ratings by the result of a game. The two updates together are
+     * not atomic, a game that ends at the same time may see one of them only.
+     * 
+     * @param winnerName
+     *            name of the winner
+     * @param loserName
+     *            name of the loser
+     */
+    public void recordResult(String winnerName, String loserName) {
+
+        int winnerRating = getRating(winnerName);
+        int loserRating = getRating(loserName);
+        double expectedWin = 1 / (1 + Math.pow(10, (loserRating - winnerRating) / 400.0));
+        int change = (int) Math.round(K_FACTOR * (1 - expectedWin));
+        ratings.merge(winnerName, INITIAL_RATING + change, (old, unused) -> old + change);
+        ratings.merge(loserName, INITIAL_RATING - change, (old, unused) -> old - change);
+    }
+}
@@ -0,0 +1,154 @@
+package player;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+/**
+ * Random room split into shards, about one per core, each an
+ * {@link ExchangeMatchmaker} of its own. A player is offered to the shard his
+ * hash points to, see {@link #shardOf(Player, int)}, so arrivals on different
+ * cores touch different slots and counters.
+ * <p>
+ * A shard that has a waiting player steals one from another shard that has
+ * one too, so nobody is left waiting while somebody waits in a different
+ * shard. The players only ever move to the shard with the lower number: two
+ * arrivals that steal at the same time can not move players back and forth,
+ * and of two players that park at the same time in different shards the
+ * later one sees the other. The {@link #run()} loop pairs whatever the
+ * arrivals have missed.
+ */
+public class ShardedMatchmaker implements Matchmaker, Runnable {
+
+    private static final long SWEEP_EVERY_MILLIS = 250;
+
+    private final ExchangeMatchmaker[] shards;
+    private final Counter steals = Metrics.REGISTRY.counter("randomRoom.steals");
+
+    /**
+     * @param shardCount
+     *            number of shards
+     * @param listener
+     *            receives the pairs
+     */
+    public ShardedMatchmaker(int shardCount, PairingListener listener) {
+
+        shards = new ExchangeMatchmaker[shardCount];
+        int parallelism = Math.max(2, Runtime.getRuntime().availableProcessors() / shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new ExchangeMatchmaker(parallelism, listener);
+        }
+    }
+
+    /**
+     * @param player
+     *            a player
+     * @param shardCount
+     *            number of shards
+     * @return the shard of the player, the same for as long as he is
+     *         connected.
+     */
+    static int shardOf(Player player, int shardCount) {
+
+        int hash = System.identityHashCode(player);
+        // spreads the bits the identity hash leaves alike
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, shardCount);
+    }
+
+    @Override
+    public void offer(Player player) {
+
+        int home = shardOf(player, shards.length);
+        shards[home].offer(player);
+        for (int other = 0; other < shards.length; other++) {
+            if (other != home) {
+                balance(Math.max(home, other), Math.min(home, other));
+            }
+        }
+    }
+
+    /**
+     * Moves waiting players from one shard to a lower one that has a player
+     * waiting, where they are paired.
+     */
+    private void balance(int from, int to) {
+
+        while (shards[from].getWaitingCount() > 0 && shards[to].getWaitingCount() > 0) {
+            Player moved = shards[from].poll();
+            if (moved == null) {
+                return;
+            }
+            steals.increment();
+            shards[to].offer(moved);
+            if (moved.isDisconnected()) {
+                // gone while he was moved, not removed from either shard
+                shards[to].remove(moved);
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(Player player) {
+
+        int home = shardOf(player, shards.length);
+        if (shards[home].remove(player)) {
+            return true;
+        }
+        // he may have been moved to a lower shard
+        for (int i = 0; i < home; i++) {
+            if (shards[i].remove(player)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isWaiting(Player player) {
+
+        int home = shardOf(player, shards.length);
+        for (int i = 0; i <= home; i++) {
+            if (shards[i].isWaiting(player)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getWaitingCount() {
+
+        int waiting = 0;
+        for (ExchangeMatchmaker shard : shards) {
+            waiting += shard.getWaitingCount();
+        }
+        return waiting;
+    }
+
+    /**
+     * Pairs the players left waiting in different shards until the thread is
+     * interrupted.
+     */
+    public void run() {
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(SWEEP_EVERY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            sweep();
+        }
+    }
+
+    void sweep() {
+
+        for (int to = 0; to < shards.length; to++) {
+            for (int from = to + 1; from < shards.length; from++) {
+                balance(from, to);
+            }
+        }
+    }
+}
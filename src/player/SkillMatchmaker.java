@@ -0,0 +1,206 @@
+package player;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Matchmaker that pairs players of similar rating. Waiting players are kept in
+ * buckets of {@link #BUCKET_WIDTH} rating points, each bucket with its own
+ * lock, so arrivals in different rating ranges do not contend. An arrival
+ * looks only in its own bucket and the neighbouring ones, which costs the same
+ * no matter how many players wait.
+ * <p>
+ * The longer a player waits, the wider the range of ratings he accepts: the
+ * {@link #run()} loop widens the window of the oldest player of every bucket
+ * by one bucket every {@link #WIDEN_EVERY_MILLIS} and pairs him if it finds an
+ * opponent. The same loop pairs the players that arrived at the same time in
+ * neighbouring buckets and missed each other.
+ */
+public class SkillMatchmaker implements Matchmaker, Runnable {
+
+    private static final int BUCKET_WIDTH = 50;
+    private static final int MAX_RATING = 3000;
+    private static final int BUCKETS = MAX_RATING / BUCKET_WIDTH + 1;
+    /** buckets on each side an arrival looks at */
+    private static final int INITIAL_WINDOW = 1;
+    private static final long WIDEN_EVERY_MILLIS = 2000;
+    private static final long SWEEP_EVERY_MILLIS = 250;
+
+    /**
+     * A waiting player. Whoever sets {@link #taken} first owns him.
+     */
+    private static class Entry {
+
+        final Player player;
+        final int bucket;
+        final long since = System.currentTimeMillis();
+        final AtomicBoolean taken = new AtomicBoolean();
+
+        Entry(Player player, int bucket) {
+            this.player = player;
+            this.bucket = bucket;
+        }
+    }
+
+    /**
+     * Waiting players of one rating range, oldest first. Entries taken by
+     * {@link SkillMatchmaker#remove(Player)} stay until they reach the head.
+     */
+    private static class Bucket {
+
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+        synchronized void add(Entry entry) {
+            entries.addLast(entry);
+        }
+
+        synchronized void putBack(Entry entry) {
+            entries.addFirst(entry);
+        }
+
+        /**
+         * @return the oldest entry that nobody has taken, now taken by the
+         *         caller, or null.
+         */
+        synchronized Entry take() {
+
+            Entry entry;
+            while ((entry = entries.pollFirst()) != null) {
+                if (entry.taken.compareAndSet(false, true)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Bucket[] buckets = new Bucket[BUCKETS];
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final RatingStore ratings;
+    private final PairingListener listener;
+
+    /**
+     * @param ratings
+     *            the ratings of the players
+     * @param listener
+     *            receives the pairs
+     */
+    public SkillMatchmaker(RatingStore ratings, PairingListener listener) {
+        this.ratings = ratings;
+        this.listener = listener;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    @Override
+    public void offer(Player player) {
+
+        int bucket = bucketOf(ratings.getRating(player.getName()));
+        Entry opponent = takeNearest(bucket, INITIAL_WINDOW);
+        if (opponent != null) {
+            waitingCount.decrementAndGet();
+            listener.paired(opponent.player, player);
+            return;
+        }
+        Entry entry = new Entry(player, bucket);
+        player.setMatchmakingTicket(entry);
+        waitingCount.incrementAndGet();
+        buckets[bucket].add(entry);
+    }
+
+    @Override
+    public boolean remove(Player player) {
+
+        Object ticket = player.getMatchmakingTicket();
+        player.setMatchmakingTicket(null);
+        if (ticket instanceof Entry && ((Entry) ticket).taken.compareAndSet(false, true)) {
+            waitingCount.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isWaiting(Player player) {
+
+        Object ticket = player.getMatchmakingTicket();
+        return ticket instanceof Entry && !((Entry) ticket).taken.get();
+    }
+
+    @Override
+    public int getWaitingCount() {
+        return waitingCount.get();
+    }
+
+    /**
+     * Widens the windows of the waiting players until the thread is
+     * interrupted.
+     */
+    public void run() {
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(SWEEP_EVERY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            sweep();
+        }
+    }
+
+    /**
+     * Pairs the oldest player of every bucket with the nearest opponent in
+     * his current window, as long as there are such pairs.
+     */
+    void sweep() {
+
+        long now = System.currentTimeMillis();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            Entry oldest;
+            while ((oldest = buckets[bucket].take()) != null) {
+                int window = INITIAL_WINDOW + (int) ((now - oldest.since) / WIDEN_EVERY_MILLIS);
+                Entry opponent = takeNearest(bucket, Math.min(window, BUCKETS));
+                if (opponent == null) {
+                    oldest.taken.set(false);
+                    buckets[bucket].putBack(oldest);
+                    if (oldest.player.getMatchmakingTicket() != oldest && oldest.taken.compareAndSet(false, true)) {
+                        // removed while the sweep held him
+                        waitingCount.decrementAndGet();
+                    }
+                    break;
+                }
+                waitingCount.addAndGet(-2);
+                listener.paired(oldest.player, opponent.player);
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest player of the nearest bucket, looking at most window
+     * buckets away on each side.
+     */
+    private Entry takeNearest(int bucket, int window) {
+
+        for (int distance = 0; distance <= window; distance++) {
+            if (bucket - distance >= 0) {
+                Entry entry = buckets[bucket - distance].take();
+                if (entry != null) {
+                    return entry;
+                }
+            }
+            if (distance > 0 && bucket + distance < BUCKETS) {
+                Entry entry = buckets[bucket + distance].take();
+                if (entry != null) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int bucketOf(int rating) {
+        return Math.max(0, Math.min(BUCKETS - 1, rating / BUCKET_WIDTH));
+    }
+}
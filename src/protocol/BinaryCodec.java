@@ -0,0 +1,238 @@
+package protocol;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+import game.Code;
+import game.Variant;
+import player.LobbyPage;
+
+/**
+ * The binary protocol, see {@link BinaryProtocol}. Frames are built in a
+ * buffer and written to the connection with one write per flush. The methods
+ * that append are synchronized, since messages like the changes of the friend
+ * room are written by other threads than the session of the player.
+ */
+public class BinaryCodec implements Codec {
+
+    private final DataInputStream input;
+    private final InputStream connectionInput;
+    private final OutputStream output;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(256);
+    private final DataOutputStream frames = new DataOutputStream(pending);
+    private boolean failed;
+    private volatile Runnable disconnectListener;
+
+    /**
+     * @param input
+     *            bytes from the client, after the magic byte
+     * @param output
+     *            bytes to the client
+     */
+    public BinaryCodec(InputStream input, OutputStream output) {
+        this(input, output, input);
+    }
+
+    /**
+     * @param input
+     *            bytes from the client, after the magic byte
+     * @param output
+     *            bytes to the client
+     * @param connectionInput
+     *            the input of the connection under the input, used to cancel
+     *            a read, see {@link CancellableInput}
+     */
+    public BinaryCodec(InputStream input, OutputStream output, InputStream connectionInput) {
+        this.input = new DataInputStream(new BufferedInputStream(input));
+        this.output = output;
+        this.connectionInput = connectionInput;
+    }
+
+    @Override
+    public synchronized void appendText(String line) {
+
+        byte[] text = line.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(text.length, 0xFFFF);
+        try {
+            frames.writeByte(BinaryProtocol.TEXT);
+            frames.writeShort(length);
+            frames.write(text, 0, length);
+        } catch (IOException e) {
+            // writes to memory do not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized void appendPrompt(Prompt prompt, String text) {
+
+        pending.write(BinaryProtocol.PROMPT);
+        pending.write(prompt.getCode());
+    }
+
+    @Override
+    public synchronized void appendVariant(Variant variant) {
+
+        pending.write(BinaryProtocol.VARIANT);
+        pending.write(variant.getId());
+    }
+
+    @Override
+    public synchronized void appendScore(long guess, int score) {
+
+        pending.write(BinaryProtocol.SCORE);
+        pending.write(score);
+    }
+
+    @Override
+    public synchronized void appendOpponentGuess(String opponentName, Variant variant, long guess, int score) {
+
+        if (guess > 0xFFFF) {
+            try {
+                frames.writeByte(BinaryProtocol.WIDE_OPPONENT_GUESS);
+                frames.writeLong(guess);
+                frames.writeByte(score);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return;
+        }
+        pending.write(BinaryProtocol.OPPONENT_GUESS);
+        pending.write((int) (guess >>> 8));
+        pending.write((int) guess);
+        pending.write(score);
+    }
+
+    @Override
+    public synchronized void appendGameOver(boolean won, String winnerName) {
+
+        pending.write(BinaryProtocol.GAME_OVER);
+        pending.write(won ? 1 : 0);
+    }
+
+    @Override
+    public synchronized void appendLobby(LobbyPage page) {
+
+        try {
+            for (int i = 0; i < page.getCount(); i++) {
+                byte[] name = page.getName(i).getBytes(StandardCharsets.UTF_8);
+                int length = Math.min(name.length, 0xFFFF - Integer.BYTES);
+                frames.writeByte(BinaryProtocol.LOBBY_ENTRY);
+                frames.writeShort(Integer.BYTES + length);
+                frames.writeInt(page.getIndex(i));
+                frames.write(name, 0, length);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized int flush() {
+
+        int size = pending.size();
+        if (size == 0) {
+            return 0;
+        }
+        try {
+            if (!failed) {
+                pending.writeTo(output);
+                output.flush();
+            }
+        } catch (IOException e) {
+            // like PrintWriter, a broken connection shows up on the next read
+            failed = true;
+            Runnable listener = disconnectListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+        pending.reset();
+        return size;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+
+        int opcode = input.read();
+        if (opcode < 0) {
+            return null;
+        }
+        if (opcode == BinaryProtocol.GUESS) {
+            return Code.toString(input.readUnsignedShort());
+        }
+        if (opcode == BinaryProtocol.WIDE_GUESS) {
+            return Long.toHexString(input.readLong());
+        }
+        if (opcode == BinaryProtocol.LINE) {
+            return readLinePayload();
+        }
+        throw new ProtocolException("Unknown opcode " + opcode);
+    }
+
+    @Override
+    public long readCode(Variant variant) throws IOException {
+
+        int opcode = input.read();
+        if (opcode < 0) {
+            throw new EOFException("Client disconnected");
+        }
+        if (opcode == BinaryProtocol.GUESS || opcode == BinaryProtocol.WIDE_GUESS) {
+            long code = opcode == BinaryProtocol.GUESS ? input.readUnsignedShort() : input.readLong();
+            return variant.isValid(code) ? code : Code.INVALID;
+        }
+        if (opcode == BinaryProtocol.LINE) {
+            return variant.parse(readLinePayload());
+        }
+        throw new ProtocolException("Unknown opcode " + opcode);
+    }
+
+    private String readLinePayload() throws IOException {
+
+        byte[] text = new byte[input.readUnsignedByte()];
+        input.readFully(text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean cancelRead() {
+        return CancellableInput.cancelOrClose(connectionInput);
+    }
+
+    @Override
+    public boolean setReadTimeout(long timeoutMillis) {
+        return TimedInput.setReadTimeout(connectionInput, timeoutMillis);
+    }
+
+    @Override
+    public void setDisconnectListener(Runnable listener) {
+
+        disconnectListener = listener;
+        if (connectionInput instanceof DisconnectAwareInput) {
+            ((DisconnectAwareInput) connectionInput).setDisconnectListener(listener);
+        }
+    }
+
+    @Override
+    public void close() {
+
+        try {
+            input.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            output.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package protocol;
+
+import java.net.ProtocolException;
+
+/**
+ * The binary protocol for bots and load tests. A client chooses it by sending
+ * {@link #MAGIC} as its very first byte, in answer to the name prompt which is
+ * always sent as a text line. After that both sides send frames: an opcode
+ * byte followed by a payload whose size is fixed by the opcode or given by a
+ * length prefix. Numbers are big endian, text is UTF-8, codes are packed one
+ * digit per nibble like {@link game.Variant}, scores like
+ * {@link game.ScoreTable}. A code that does not fit in 16 bits, of a variant
+ * with more than four digits, goes in the wide frames.
+ */
+public final class BinaryProtocol {
+
+    /** first byte of a binary client, can not be typed in a terminal */
+    public static final byte MAGIC = (byte) 0xBC;
+
+    // server to client
+    /** [u16 length][text] a message for the player */
+    public static final byte TEXT = 0x01;
+    /** [u8 prompt] the server waits for an answer, see {@link Prompt} */
+    public static final byte PROMPT = 0x02;
+    /** [u8 score] the score of the last guess of the player */
+    public static final byte SCORE = 0x03;
+    /** [u16 code][u8 score] a guess of the opponent and its score */
+    public static final byte OPPONENT_GUESS = 0x04;
+    /** [u16 length][i32 index][name] a player waiting in the friend room */
+    public static final byte LOBBY_ENTRY = 0x05;
+    /** [u8 1 if won, 0 if lost] the game is over */
+    public static final byte GAME_OVER = 0x06;
+    /** [u8 variant id] the rules of the game that starts, see {@link game.Variant#getId()} */
+    public static final byte VARIANT = 0x07;
+    /** [i64 code][u8 score] a guess of the opponent that does not fit in 16 bits */
+    public static final byte WIDE_OPPONENT_GUESS = 0x08;
+
+    // client to server
+    /** [u16 code] a guess or a starting number */
+    public static final byte GUESS = 0x10;
+    /** [u8 length][text] any other answer: name, option, yes or no */
+    public static final byte LINE = 0x11;
+    /** [i64 code] a guess or a starting number that does not fit in 16 bits */
+    public static final byte WIDE_GUESS = 0x12;
+
+    public static final int MAX_LINE_LENGTH = 0xFF;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Tells how long the client frame that starts at the beginning of the
+     * array is.
+     *
+     * @param frame
+     *            the bytes received so far
+     * @param length
+     *            how many bytes of the array have been received
+     * @return the length of the whole frame, or -1 if not enough bytes have
+     *         been received to tell it.
+     * @throws ProtocolException
+     *             if the opcode is not a client opcode.
+     */
+    public static int clientFrameLength(byte[] frame, int length) throws ProtocolException {
+
+        if (length < 1) {
+            return -1;
+        }
+        switch (frame[0]) {
+        case GUESS:
+            return 3;
+        case WIDE_GUESS:
+            return 1 + Long.BYTES;
+        case LINE:
+            return length < 2 ? -1 : 2 + (frame[1] & 0xFF);
+        default:
+            throw new ProtocolException("Unknown opcode " + (frame[0] & 0xFF));
+        }
+    }
+}
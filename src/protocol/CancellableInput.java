@@ -0,0 +1,43 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * An input stream whose blocked read can be ended without closing the
+ * connection, like the input of a non-blocking connection.
+ */
+public interface CancellableInput {
+
+    /**
+     * Makes the read that is blocked now, or the next one if none is,
+     * throw {@link InterruptedIOException}.
+     */
+    void cancelRead();
+
+    /**
+     * Ends a read blocked on the stream. A stream that can not cancel a read
+     * from another thread, like the input of a blocking socket, is closed;
+     * such a stream can end its reads by itself at a deadline instead, see
+     * {@link TimedInput}.
+     *
+     * @param input
+     *            the input of the connection
+     * @return true if the read has been cancelled, false if the stream has
+     *         been closed.
+     */
+    static boolean cancelOrClose(InputStream input) {
+
+        if (input instanceof CancellableInput) {
+            ((CancellableInput) input).cancelRead();
+            return true;
+        }
+        try {
+            input.close();
+        } catch (IOException e) {
+            System.err.println("Input can not be closed: " + e.getMessage());
+        }
+        return false;
+    }
+}
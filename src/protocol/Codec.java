@@ -0,0 +1,155 @@
+package protocol;
+
+import java.io.IOException;
+
+import game.Variant;
+import player.LobbyPage;
+
+/**
+ * How the messages of the game are put on the wire of one player, and how
+ * his answers are read from it. The sessions and the games only talk to the
+ * player through this interface, so they are the same for every protocol.
+ *
+ * Everything appended is buffered until {@link #flush()}.
+ */
+public interface Codec {
+
+    /**
+     * @param line
+     *            message for the player
+     */
+    void appendText(String line);
+
+    /**
+     * @param prompt
+     *            the question
+     * @param text
+     *            the question as shown to a person
+     */
+    void appendPrompt(Prompt prompt, String text);
+
+    /**
+     * Tells the rules of the numbers of the game that starts. Sent only for
+     * the variants other than {@link Variant#CLASSIC}.
+     *
+     * @param variant
+     *            the variant of the game
+     */
+    void appendVariant(Variant variant);
+
+    /**
+     * @param guess
+     *            packed guess of the player
+     * @param score
+     *            its packed score
+     */
+    void appendScore(long guess, int score);
+
+    /**
+     * @param opponentName
+     *            name of the opponent
+     * @param variant
+     *            the variant of the game
+     * @param guess
+     *            packed guess of the opponent
+     * @param score
+     *            its packed score
+     */
+    void appendOpponentGuess(String opponentName, Variant variant, long guess, int score);
+
+    /**
+     * @param won
+     *            true if the player has won
+     * @param winnerName
+     *            name of the winner
+     */
+    void appendGameOver(boolean won, String winnerName);
+
+    /**
+     * @param page
+     *            the players of the friend room to show
+     */
+    void appendLobby(LobbyPage page);
+
+    /**
+     * Sends everything appended.
+     *
+     * @return how many bytes or characters have been sent, 0 if there was
+     *         nothing to send.
+     */
+    int flush();
+
+    /**
+     * @return the next answer of the player as text, null if he has
+     *         disconnected.
+     * @throws IOException
+     *             if reading failed.
+     */
+    String readLine() throws IOException;
+
+    /**
+     * @param variant
+     *            the variant of the game
+     * @return the next answer of the player as a packed code,
+     *         {@link game.Code#INVALID} if it is not a valid code of the
+     *         variant.
+     * @throws java.io.EOFException
+     *             if the player has disconnected.
+     * @throws IOException
+     *             if reading failed.
+     */
+    long readCode(Variant variant) throws IOException;
+
+    /**
+     * Called before the first answer of the player is read. A codec that can
+     * tell the protocol of the client from its first bytes returns the codec
+     * for that protocol.
+     *
+     * @return the codec to use from now on
+     * @throws IOException
+     *             if reading failed.
+     */
+    default Codec negotiate() throws IOException {
+        return this;
+    }
+
+    /**
+     * Ends a read that is blocked on the input of the player, it throws
+     * {@link java.io.InterruptedIOException}. If the connection can not
+     * cancel a read, it is closed and the read fails like on a lost
+     * connection.
+     *
+     * @return true if the connection is still open.
+     */
+    boolean cancelRead();
+
+    /**
+     * Lets the connection end the next reads by itself when the time is over,
+     * they throw {@link java.io.InterruptedIOException} and the connection
+     * stays open. A connection that can do it can not cancel a read without
+     * closing, see {@link #cancelRead()}.
+     *
+     * @param timeoutMillis
+     *            time from now the reads may wait, 0 to wait again without
+     *            end
+     * @return false if the connection can not keep the time, nothing is
+     *         changed then.
+     */
+    default boolean setReadTimeout(long timeoutMillis) {
+        return false;
+    }
+
+    /**
+     * @param listener
+     *            called when the codec notices that the client has
+     *            disconnected without a read, like when sending to him
+     *            fails. Called at least once, maybe more, on any thread, it
+     *            must not block.
+     */
+    void setDisconnectListener(Runnable listener);
+
+    /**
+     * Closes the streams of the player.
+     */
+    void close();
+}
@@ -0,0 +1,71 @@
+package protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import game.Variant;
+import player.LobbyPage;
+
+/**
+ * Codec of a player that is not behind a connection, like the computer
+ * opponent. Everything sent to it is dropped and it has nothing to read.
+ */
+public class DiscardingCodec implements Codec {
+
+    @Override
+    public void appendText(String line) {
+    }
+
+    @Override
+    public void appendPrompt(Prompt prompt, String text) {
+    }
+
+    @Override
+    public void appendVariant(Variant variant) {
+    }
+
+    @Override
+    public void appendScore(long guess, int score) {
+    }
+
+    @Override
+    public void appendOpponentGuess(String opponentName, Variant variant, long guess, int score) {
+    }
+
+    @Override
+    public void appendGameOver(boolean won, String winnerName) {
+    }
+
+    @Override
+    public void appendLobby(LobbyPage page) {
+    }
+
+    @Override
+    public int flush() {
+        return 0;
+    }
+
+    @Override
+    public String readLine() {
+        return null;
+    }
+
+    @Override
+    public long readCode(Variant variant) throws IOException {
+        throw new EOFException("Nothing to read");
+    }
+
+    @Override
+    public boolean cancelRead() {
+        return true;
+    }
+
+    @Override
+    public void setDisconnectListener(Runnable listener) {
+        // never disconnects
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,15 @@
+package protocol;
+
+/**
+ * An input stream that tells when the client has disconnected, also while
+ * nobody reads from it, like the input of a non-blocking connection.
+ */
+public interface DisconnectAwareInput {
+
+    /**
+     * @param listener
+     *            called once when the client has disconnected, on the thread
+     *            that noticed it. It must be short and must not block.
+     */
+    void setDisconnectListener(Runnable listener);
+}
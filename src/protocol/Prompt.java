@@ -0,0 +1,50 @@
+package protocol;
+
+/**
+ * The questions the server asks a player. Text clients see the question
+ * itself, binary clients only its code.
+ */
+public enum Prompt {
+
+    NAME(1),
+    GAME_OPTION(2),
+    PLAYER_CHOICE(3),
+    STARTING_NUMBER(4),
+    GUESS(5),
+    /** another player invites this one, the answer is yes or no */
+    INVITATION(6),
+    /** the game is over, the answer is yes, no or rematch */
+    PLAY_AGAIN(7),
+    /** a game of this player was interrupted, the answer is yes or no */
+    RESUME(8),
+    /** the rules of the numbers of the games of this player, see {@link game.Variant#byName(String)} */
+    VARIANT(9);
+
+    private final int code;
+
+    Prompt(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return the code sent in the {@link BinaryProtocol#PROMPT} frame.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @param code
+     *            code of a prompt
+     * @return the prompt with this code, null if there is none.
+     */
+    public static Prompt byCode(int code) {
+
+        for (Prompt prompt : values()) {
+            if (prompt.code == code) {
+                return prompt;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,212 @@
+package protocol;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.PushbackInputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import game.ScoreTable;
+import game.Variant;
+import player.LobbyPage;
+
+/**
+ * The line based text protocol, the one a person in a terminal uses. Every
+ * message is a line, every answer is read as a line.
+ */
+public class TextCodec implements Codec {
+
+    private static final int LINE_SEPARATOR_LENGTH = System.lineSeparator().length();
+
+    private final PrintWriter writer;
+    private BufferedReader reader;
+    /** the raw input while the protocol is not known yet */
+    private final PushbackInputStream input;
+    /** the input of the connection, as given */
+    private final InputStream connectionInput;
+    private final OutputStream output;
+    /** characters appended since the last flush */
+    private final AtomicInteger pendingChars = new AtomicInteger();
+    private volatile Runnable disconnectListener;
+
+    /**
+     * Text codec over streams that are already text.
+     *
+     * @param writer
+     *            player text output
+     * @param reader
+     *            player text input
+     */
+    public TextCodec(PrintWriter writer, BufferedReader reader) {
+        this.writer = writer;
+        this.reader = reader;
+        this.input = null;
+        this.connectionInput = null;
+        this.output = null;
+    }
+
+    /**
+     * Text codec over the streams of a new connection. Switches to the
+     * {@link BinaryCodec} in {@link #negotiate()} if the client asks for it.
+     *
+     * @param input
+     *            bytes from the client
+     * @param output
+     *            bytes to the client
+     */
+    public TextCodec(InputStream input, OutputStream output) {
+        this.input = new PushbackInputStream(input, 1);
+        this.connectionInput = input;
+        this.output = output;
+        this.writer = new PrintWriter(output);
+    }
+
+    @Override
+    public Codec negotiate() throws IOException {
+
+        if (reader != null) {
+            return this;
+        }
+        int first = input.read();
+        if (first == (BinaryProtocol.MAGIC & 0xFF)) {
+            // the name prompt is the last text the client gets
+            flush();
+            BinaryCodec binary = new BinaryCodec(input, output, connectionInput);
+            binary.setDisconnectListener(disconnectListener);
+            return binary;
+        }
+        if (first >= 0) {
+            input.unread(first);
+        }
+        createReader();
+        return this;
+    }
+
+    @Override
+    public void appendText(String line) {
+
+        writer.println(line);
+        pendingChars.addAndGet(line.length() + LINE_SEPARATOR_LENGTH);
+    }
+
+    @Override
+    public void appendPrompt(Prompt prompt, String text) {
+        appendText(text);
+    }
+
+    @Override
+    public void appendVariant(Variant variant) {
+        appendText("Play with " + variant.describe() + ".");
+    }
+
+    @Override
+    public void appendScore(long guess, int score) {
+        appendText(scoreLine(score));
+    }
+
+    @Override
+    public void appendOpponentGuess(String opponentName, Variant variant, long guess, int score) {
+        appendText("\t" + opponentName + "'s Guess: " + variant.toString(guess) + System.lineSeparator()
+                + scoreLine(score));
+    }
+
+    @Override
+    public void appendGameOver(boolean won, String winnerName) {
+        appendText(won ? "Game end. You Win!" : "Game end. You lost!. Winner - " + winnerName);
+    }
+
+    @Override
+    public void appendLobby(LobbyPage page) {
+        appendText(page.getText());
+    }
+
+    private static String scoreLine(int score) {
+        return " --> " + ScoreTable.cows(score) + " cows, " + ScoreTable.bulls(score) + " bulls.";
+    }
+
+    @Override
+    public int flush() {
+
+        int flushedChars = pendingChars.getAndSet(0);
+        if (flushedChars > 0) {
+            writer.flush();
+            // the PrintWriter keeps the failures to itself
+            Runnable listener = disconnectListener;
+            if (listener != null && writer.checkError()) {
+                listener.run();
+            }
+        }
+        return flushedChars;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+
+        createReader();
+        return reader.readLine();
+    }
+
+    @Override
+    public long readCode(Variant variant) throws IOException {
+
+        String line = readLine();
+        if (line == null) {
+            throw new EOFException("Client disconnected");
+        }
+        return variant.parse(line);
+    }
+
+    private void createReader() {
+
+        if (reader == null) {
+            reader = new BufferedReader(new InputStreamReader(input));
+        }
+    }
+
+    /**
+     * A codec over a {@link BufferedReader} can not cancel a read, the reader
+     * would wait for the read to end before closing.
+     */
+    @Override
+    public boolean cancelRead() {
+
+        if (connectionInput == null) {
+            return false;
+        }
+        return CancellableInput.cancelOrClose(connectionInput);
+    }
+
+    @Override
+    public boolean setReadTimeout(long timeoutMillis) {
+        return TimedInput.setReadTimeout(connectionInput, timeoutMillis);
+    }
+
+    @Override
+    public void setDisconnectListener(Runnable listener) {
+
+        disconnectListener = listener;
+        if (connectionInput instanceof DisconnectAwareInput) {
+            ((DisconnectAwareInput) connectionInput).setDisconnectListener(listener);
+        }
+    }
+
+    @Override
+    public void close() {
+
+        try {
+            // not the reader, closing it would wait for a blocked read
+            if (input != null) {
+                input.close();
+            } else {
+                reader.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        writer.close();
+    }
+}
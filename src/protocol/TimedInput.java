@@ -0,0 +1,38 @@
+package protocol;
+
+import java.io.InputStream;
+
+/**
+ * An input stream whose reads end by themselves at a deadline, like the
+ * input of a blocking socket, whose reads can not be cancelled from another
+ * thread. A read that waits past the deadline throws
+ * {@link java.net.SocketTimeoutException}, an
+ * {@link java.io.InterruptedIOException}, and the stream stays open.
+ */
+public interface TimedInput {
+
+    /**
+     * @param timeoutMillis
+     *            time from now the reads may wait, altogether, 0 for no
+     *            deadline
+     */
+    void setReadTimeout(long timeoutMillis);
+
+    /**
+     * Sets the deadline of the reads of a stream that can keep it.
+     *
+     * @param input
+     *            the input of the connection, may be null
+     * @param timeoutMillis
+     *            time from now, 0 for no deadline
+     * @return true if the stream keeps the deadline, false if it can not.
+     */
+    static boolean setReadTimeout(InputStream input, long timeoutMillis) {
+
+        if (input instanceof TimedInput) {
+            ((TimedInput) input).setReadTimeout(timeoutMillis);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,104 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import metrics.MetricsRegistry;
+import thread.TaskExecutor;
+
+/**
+ * Plain text admin port, bound to the loopback address only. Shows the metrics
+ * as soon as a client connects, then answers one command per line until the
+ * client sends "quit" or disconnects. Other parts of the server add their
+ * commands with {@link #registerCommand(String, Function)}.
+ */
+public class AdminEndpoint implements Runnable {
+
+    private final int port;
+    private final TaskExecutor executor;
+    private final Map<String, Function<String, String>> commands = new ConcurrentHashMap<>();
+
+    /**
+     * @param port
+     *            the port to listen to on the loopback address
+     * @param registry
+     *            the metrics to show
+     * @param executor
+     *            runs the connections of the admins
+     */
+    public AdminEndpoint(int port, MetricsRegistry registry, TaskExecutor executor) {
+        this.port = port;
+        this.executor = executor;
+        registerCommand("metrics", arguments -> registry.format());
+    }
+
+    /**
+     * Adds a command.
+     * 
+     * @param name
+     *            first word of the command line
+     * @param command
+     *            gets the rest of the line and returns the answer
+     */
+    public void registerCommand(String name, Function<String, String> command) {
+        commands.put(name, command);
+    }
+
+    /**
+     * Accepts admin connections until the thread is interrupted.
+     */
+    public void run() {
+
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println("Admin endpoint listening on " + serverSocket.getLocalSocketAddress());
+            while (!Thread.currentThread().isInterrupted()) {
+                Socket adminSocket = serverSocket.accept();
+                executor.startService(() -> serve(adminSocket));
+            }
+        } catch (IOException e) {
+            System.err.println("Admin endpoint failed: " + e.getMessage());
+        }
+    }
+
+    private void serve(Socket adminSocket) {
+
+        try (Socket socket = adminSocket;
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.print(execute("metrics"));
+            out.flush();
+            String line;
+            while ((line = in.readLine()) != null && !"quit".equals(line.trim())) {
+                out.print(execute(line.trim()));
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Admin connection failed: " + e.getMessage());
+        }
+    }
+
+    private String execute(String line) {
+
+        int separator = line.indexOf(' ');
+        String name = separator < 0 ? line : line.substring(0, separator);
+        String arguments = separator < 0 ? "" : line.substring(separator + 1).trim();
+        Function<String, String> command = commands.get(name);
+        if (command == null) {
+            return "Unknown command: " + name + ". Commands: " + commands.keySet() + ", quit"
+                    + System.lineSeparator();
+        }
+        try {
+            return command.apply(arguments);
+        } catch (RuntimeException e) {
+            return "Command failed: " + e + System.lineSeparator();
+        }
+    }
+}
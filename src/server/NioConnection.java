@@ -0,0 +1,397 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import protocol.BinaryProtocol;
+import protocol.CancellableInput;
+import protocol.DisconnectAwareInput;
+
+/**
+ * One player connection in the non-blocking mode. The I/O thread of the
+ * {@link NioEventLoop} splits the incoming bytes to complete messages and
+ * queues them, the player session reads them through
+ * {@link #getInputStream()}, waiting for them or when told by its
+ * {@link InboundListener}. A client that starts with
+ * {@link BinaryProtocol#MAGIC} is split to binary frames, any other to lines.
+ * Everything the session writes through {@link #getOutputStream()} is queued
+ * and written by the I/O thread when the channel is writable.
+ */
+public class NioConnection {
+
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_GATHERED_BUFFERS = 16;
+    /** marker put in the inbound queue when the client has disconnected */
+    private static final byte[] END_OF_STREAM = new byte[0];
+    /** marker put in the inbound queue to wake up a read that is cancelled */
+    private static final byte[] WAKE_UP = new byte[0];
+
+    /**
+     * Told by the I/O thread about the input of the connection, so a session
+     * that has no thread of its own reads only what has arrived. Must not
+     * block.
+     */
+    public interface InboundListener {
+
+        /**
+         * A complete line or frame has been queued, reading it from
+         * {@link NioConnection#getInputStream()} does not wait.
+         */
+        void messageReceived();
+
+        /**
+         * The connection has ended, after the last message.
+         */
+        void closed();
+    }
+
+    private static final int UNDECIDED = 0;
+    private static final int LINES = 1;
+    private static final int FRAMES = 2;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private SelectionKey key;
+
+    // used only by the I/O thread
+    private int mode = UNDECIDED;
+    private byte[] messageBytes = new byte[128];
+    private int messageLength;
+    private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_BUFFERS];
+
+    private final BlockingQueue<byte[]> inboundMessages = new LinkedBlockingQueue<>();
+    private final Queue<ByteBuffer> outboundBuffers = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+    private volatile Runnable disconnectListener;
+    private InboundListener inboundListener;
+    private volatile boolean closeRequested;
+
+    private final InputStream inputStream = new InboundStream();
+    private final OutputStream outputStream = new OutboundStream();
+
+    NioConnection(SocketChannel channel, NioEventLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    /**
+     * @return the bytes sent by the client, a complete line or frame at a
+     *         time.
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * @return stream whose content is sent to the client on every flush.
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * @param inboundListener
+     *            told about every message, set before the connection is
+     *            registered to its loop, see
+     *            {@link NioEventLoop#register(NioConnection)}
+     */
+    public void setInboundListener(InboundListener inboundListener) {
+        this.inboundListener = inboundListener;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Called by the I/O thread with the bytes read from the channel. Splits
+     * them to lines or frames and hands every complete one to the session.
+     *
+     * @throws IOException
+     *             if the client sent a line longer than allowed or a frame
+     *             with unknown opcode.
+     */
+    void onBytesRead(ByteBuffer buffer) throws IOException {
+
+        if (mode == UNDECIDED && buffer.hasRemaining()) {
+            if (buffer.get(buffer.position()) == BinaryProtocol.MAGIC) {
+                // the session negotiates the protocol from the same byte
+                queueMessage(new byte[] { buffer.get() });
+                mode = FRAMES;
+            } else {
+                mode = LINES;
+            }
+        }
+        while (buffer.hasRemaining()) {
+            byte current = buffer.get();
+            if (messageLength == MAX_LINE_LENGTH) {
+                throw new IOException("Line too long");
+            }
+            if (messageLength == messageBytes.length) {
+                messageBytes = Arrays.copyOf(messageBytes, Math.min(messageLength * 2, MAX_LINE_LENGTH));
+            }
+            messageBytes[messageLength++] = current;
+            boolean complete = mode == LINES ? current == '\n'
+                    : BinaryProtocol.clientFrameLength(messageBytes, messageLength) == messageLength;
+            if (complete) {
+                queueMessage(Arrays.copyOf(messageBytes, messageLength));
+                messageLength = 0;
+            }
+        }
+    }
+
+    private void queueMessage(byte[] message) {
+
+        inboundMessages.add(message);
+        if (inboundListener != null) {
+            inboundListener.messageReceived();
+        }
+    }
+
+    /**
+     * Called by the I/O thread. Writes as much of the queued output as the
+     * channel accepts. Up to {@link #MAX_GATHERED_BUFFERS} queued buffers go
+     * out with one gathering write.
+     *
+     * @return true if all the queued output has been written.
+     * @throws IOException
+     *             if writing to the channel failed.
+     */
+    boolean writeQueued() throws IOException {
+
+        while (!outboundBuffers.isEmpty()) {
+            int count = 0;
+            for (ByteBuffer buffer : outboundBuffers) {
+                gathered[count++] = buffer;
+                if (count == MAX_GATHERED_BUFFERS) {
+                    break;
+                }
+            }
+            channel.write(gathered, 0, count);
+            for (int i = 0; i < count; i++) {
+                if (gathered[i].hasRemaining()) {
+                    Arrays.fill(gathered, 0, count, null);
+                    return false;
+                }
+                outboundBuffers.poll();
+            }
+            Arrays.fill(gathered, 0, count, null);
+        }
+        return true;
+    }
+
+    /**
+     * Called by the I/O thread when the channel is closed. Wakes up the session
+     * waiting for input.
+     */
+    void onClosed() {
+
+        if (mode == LINES && messageLength > 0) {
+            queueMessage(Arrays.copyOf(messageBytes, messageLength));
+            messageLength = 0;
+        }
+        closed = true;
+        inboundMessages.add(END_OF_STREAM);
+        Runnable listener = disconnectListener;
+        if (listener != null) {
+            listener.run();
+        }
+        if (inboundListener != null) {
+            inboundListener.closed();
+        }
+    }
+
+    SelectionKey getKey() {
+        return key;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean isCloseRequested() {
+        return closeRequested;
+    }
+
+    /**
+     * Asks the I/O thread to close the channel once the queued output has
+     * been written.
+     */
+    void requestClose() {
+
+        closeRequested = true;
+        loop.requestWrite(this);
+    }
+
+    /**
+     * The reading side seen by the session. Blocks until the I/O thread has
+     * split a complete message, so a session that reads it holds its thread
+     * while the player thinks; only the event driven sessions avoid that by
+     * reading when told by the {@link InboundListener}. A blocked read can be
+     * cancelled, see {@link CancellableInput}, and the end of the connection
+     * is told without a read, see {@link DisconnectAwareInput}.
+     */
+    private class InboundStream extends InputStream implements CancellableInput, DisconnectAwareInput {
+
+        private byte[] current = new byte[0];
+        private int position;
+        private final AtomicBoolean readCancelled = new AtomicBoolean();
+
+        @Override
+        public void cancelRead() {
+
+            readCancelled.set(true);
+            inboundMessages.add(WAKE_UP);
+        }
+
+        @Override
+        public void setDisconnectListener(Runnable listener) {
+
+            disconnectListener = listener;
+            if (listener != null && closed) {
+                listener.run();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            if (!nextMessage()) {
+                return -1;
+            }
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextMessage()) {
+                return -1;
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        /**
+         * Waits for the next message if the current one has been read.
+         *
+         * @return false at the end of the stream.
+         */
+        private boolean nextMessage() throws IOException {
+
+            while (position == current.length) {
+                if (current == END_OF_STREAM) {
+                    return false;
+                }
+                // a wake up without a cancel is left from a read that had
+                // ended anyway, it only makes the loop wait again
+                if (readCancelled.getAndSet(false)) {
+                    throw new InterruptedIOException("Read cancelled");
+                }
+                try {
+                    current = inboundMessages.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for input", e);
+                }
+                position = 0;
+                if (current == END_OF_STREAM) {
+                    inboundMessages.add(END_OF_STREAM);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int available() {
+
+            if (position < current.length) {
+                return current.length - position;
+            }
+            byte[] next = inboundMessages.peek();
+            return next == null ? 0 : next.length;
+        }
+
+        @Override
+        public void close() {
+            requestClose();
+        }
+    }
+
+    /**
+     * The writing side seen by the session. Collects the bytes and queues them
+     * for the I/O thread on flush.
+     */
+    private class OutboundStream extends OutputStream {
+
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            pending.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            pending.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                outboundBuffers.add(ByteBuffer.wrap(pending.toByteArray()));
+                pending.reset();
+            }
+            loop.requestWrite(NioConnection.this);
+        }
+
+        @Override
+        public void close() {
+
+            synchronized (this) {
+                if (!closed && pending.size() > 0) {
+                    outboundBuffers.add(ByteBuffer.wrap(pending.toByteArray()));
+                    pending.reset();
+                }
+            }
+            requestClose();
+        }
+    }
+}
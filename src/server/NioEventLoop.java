@@ -0,0 +1,182 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One I/O thread of the non-blocking server. Owns a selector and serves all
+ * the connections registered to it: reads and decodes the input and writes
+ * the queued output. Connections are registered and their output is requested
+ * from other threads through queues, the selector is woken up after each of
+ * them.
+ */
+public class NioEventLoop implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final Queue<NioConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @throws IOException
+     *             if the selector can not be opened.
+     */
+    public NioEventLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Wraps a newly accepted channel for this loop. Nothing is read from it
+     * until it is registered, see {@link #register(NioConnection)}.
+     *
+     * @param channel
+     *            the accepted channel
+     * @return the connection that wraps the channel
+     * @throws IOException
+     *             if the channel can not be switched to non-blocking mode.
+     */
+    public NioConnection connect(SocketChannel channel) throws IOException {
+
+        channel.configureBlocking(false);
+        return new NioConnection(channel, this);
+    }
+
+    /**
+     * Hands a connection made by {@link #connect(SocketChannel)} to the I/O
+     * thread, which starts reading it.
+     *
+     * @param connection
+     *            the connection
+     */
+    public void register(NioConnection connection) {
+
+        pendingRegistrations.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the I/O thread to write the queued output of the connection.
+     */
+    void requestWrite(NioConnection connection) {
+
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Selects and serves the ready connections until the thread is interrupted.
+     */
+    public void run() {
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            registerPending();
+            processPendingWrites();
+            Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+            while (selectedKeys.hasNext()) {
+                SelectionKey key = selectedKeys.next();
+                selectedKeys.remove();
+                NioConnection connection = (NioConnection) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(connection);
+                    }
+                } catch (IOException e) {
+                    closeNow(connection);
+                }
+            }
+        }
+    }
+
+    private void registerPending() {
+
+        NioConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            try {
+                connection.setKey(connection.getChannel().register(selector, SelectionKey.OP_READ, connection));
+            } catch (ClosedChannelException e) {
+                connection.onClosed();
+            }
+        }
+    }
+
+    private void processPendingWrites() {
+
+        NioConnection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            if (connection.isClosed()) {
+                continue;
+            }
+            if (connection.getKey() == null) {
+                // not registered yet, the output stays queued until it is
+                pendingWrites.add(connection);
+                return;
+            }
+            if (connection.getKey().isValid()) {
+                try {
+                    write(connection);
+                } catch (IOException e) {
+                    closeNow(connection);
+                }
+            }
+        }
+    }
+
+    private void read(NioConnection connection) throws IOException {
+
+        readBuffer.clear();
+        int bytesRead = connection.getChannel().read(readBuffer);
+        if (bytesRead < 0) {
+            closeNow(connection);
+            return;
+        }
+        readBuffer.flip();
+        connection.onBytesRead(readBuffer);
+    }
+
+    private void write(NioConnection connection) throws IOException {
+
+        SelectionKey key = connection.getKey();
+        if (connection.writeQueued()) {
+            key.interestOps(SelectionKey.OP_READ);
+            if (connection.isCloseRequested()) {
+                closeNow(connection);
+            }
+        } else {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void closeNow(NioConnection connection) {
+
+        if (connection.isClosed()) {
+            return;
+        }
+        if (connection.getKey() != null) {
+            connection.getKey().cancel();
+        }
+        try {
+            connection.getChannel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        connection.onClosed();
+    }
+}
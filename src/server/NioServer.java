@@ -0,0 +1,94 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Selector-based server mode. One thread accepts the connections and hands
+ * them round robin to a fixed set of {@link NioEventLoop} I/O threads, which
+ * do all the reading and writing of the sockets. Only the I/O is
+ * non-blocking: with {@link ServerConfig.SessionMode#THREADS} every session
+ * and every game still has a thread of its own, waiting on the messages
+ * queued by its {@link NioConnection}. The sessions and games hold no
+ * thread only with {@link ServerConfig.SessionMode#EVENTS}.
+ */
+public class NioServer {
+
+    /**
+     * Receives every accepted connection, same as the blocking mode does with
+     * the socket streams. Called before anything is read from the
+     * connection, so it can set its {@link NioConnection.InboundListener}.
+     */
+    public interface SessionStarter {
+        void startSession(NioConnection connection);
+    }
+
+    private final int port;
+    private final NioEventLoop[] loops;
+    private final SessionStarter sessionStarter;
+    private final boolean sessionsHoldThreads;
+
+    /**
+     * @param port
+     *            the port to listen to
+     * @param ioThreads
+     *            number of I/O threads
+     * @param sessionStarter
+     *            starts the session of each accepted player
+     * @param sessionsHoldThreads
+     *            whether each started session waits for its input on a
+     *            thread of its own, only told in the startup message
+     * @throws IOException
+     *             if the selectors can not be opened.
+     */
+    public NioServer(int port, int ioThreads, SessionStarter sessionStarter, boolean sessionsHoldThreads)
+            throws IOException {
+
+        this.port = port;
+        this.sessionStarter = sessionStarter;
+        this.sessionsHoldThreads = sessionsHoldThreads;
+        loops = new NioEventLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new NioEventLoop();
+        }
+    }
+
+    /**
+     * Starts the I/O threads and accepts connections until the current thread
+     * is interrupted.
+     *
+     * @throws IOException
+     *             if the server socket can not be opened.
+     */
+    public void start() throws IOException {
+
+        for (int i = 0; i < loops.length; i++) {
+            Thread ioThread = new Thread(loops[i], "nio-io-" + i);
+            ioThread.setDaemon(true);
+            ioThread.start();
+        }
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("Non-blocking server listening on " + port + " with " + loops.length
+                    + " I/O threads" + (sessionsHoldThreads ? ", each session still runs on a thread of its own."
+                            : " and event driven sessions."));
+            int nextLoop = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                SocketChannel channel = serverChannel.accept();
+                NioConnection connection;
+                try {
+                    connection = loops[nextLoop].connect(channel);
+                } catch (IOException e) {
+                    System.err.println("Failed to register new client: " + e.getMessage());
+                    channel.close();
+                    continue;
+                }
+                sessionStarter.startSession(connection);
+                loops[nextLoop].register(connection);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+        }
+    }
+}
@@ -1,38 +1,305 @@
 package server;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import cluster.ClusterNode;
+import cluster.ClusterTransport;
+import cluster.LoopbackTransport;
+import cluster.TcpTransport;
+import history.FileGameHistory;
+import history.GameHistory;
+import history.GameRecord;
+import journal.MappedGameJournal;
+import metrics.Metrics;
+import metrics.MetricsMBean;
 import player.Player;
 import player.PlayersHolder;
+import protocol.TextCodec;
+import session.EventSessionDriver;
+import session.Session;
+import session.WorkerPool;
+import stats.PlayerStats;
+import stats.StatisticsStore;
+import thread.HashedWheelTimer;
 import thread.PlayerWrapperThread;
+import thread.TaskExecutor;
+import thread.ThreadPerTaskExecutor;
+import thread.Timeouts;
 
 /**
  * Starts TCP Server
  */
 public class Server {
 
-    private static final int PORT = 3008;
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_WHEEL_SIZE = 512;
 
+    private ServerConfig config;
+    private TaskExecutor executor;
     private PlayersHolder waitingPlayers;
     private ServerSocket serverSocket;
+    private AdminEndpoint adminEndpoint;
+    private GameHistory history = GameHistory.DISABLED;
+    private Timeouts timeouts;
+    /** runs the sessions in the {@link ServerConfig.SessionMode#EVENTS} mode, null in the other */
+    private EventSessionDriver eventDriver;
+    /** this server as a node of a cluster, null if it is not in one */
+    private ClusterNode clusterNode;
 
     /**
      * default constructor
      */
     public Server() {
-        waitingPlayers = new PlayersHolder();
-        new Thread(waitingPlayers).start();
+        this(new ServerConfig());
+    }
+
+    /**
+     * Constructor with the startup options of the server.
+     * 
+     * @param config
+     *            the server options
+     */
+    public Server(ServerConfig config) {
+        this.config = config;
+        if (config.getThreadMode() == ServerConfig.ThreadMode.VIRTUAL) {
+            executor = ThreadPerTaskExecutor.virtualThreads();
+        } else {
+            executor = ThreadPerTaskExecutor.platformThreads();
+        }
+        waitingPlayers = new PlayersHolder(executor, config.getComputerStrategy(), config.isRatedMatchmaking(),
+                config.getShards());
+        waitingPlayers.setVariant(config.getVariant());
+        if (config.getSessionMode() == ServerConfig.SessionMode.EVENTS) {
+            eventDriver = new EventSessionDriver(new WorkerPool(executor, config.getWorkers()), waitingPlayers);
+            waitingPlayers.setSessionDriver(eventDriver);
+        }
+        startTimer();
+        if (config.getClusterNode() != null) {
+            joinCluster();
+        }
+        if (config.getJournalDirectory() != null) {
+            openJournal(Paths.get(config.getJournalDirectory()));
+        }
+        if (config.getHistoryFile() != null) {
+            openHistory(Paths.get(config.getHistoryFile()));
+        }
+        registerMetricsMBean();
+        if (config.getAdminPort() > 0) {
+            adminEndpoint = new AdminEndpoint(config.getAdminPort(), Metrics.REGISTRY, executor);
+            registerHistoryCommands();
+            registerStatisticsCommands();
+            executor.startService(adminEndpoint);
+        }
+    }
+
+    /**
+     * Starts the timer that keeps the deadlines of the answers of all players.
+     */
+    private void startTimer() {
+
+        HashedWheelTimer timer = new HashedWheelTimer(TIMER_TICK_MILLIS, TIMER_WHEEL_SIZE);
+        executor.startService(timer);
+        timeouts = new Timeouts(timer, config.getTurnTimeoutSeconds() * 1000L,
+                config.getInviteTimeoutSeconds() * 1000L, config.getIdleTimeoutSeconds() * 1000L);
+        Metrics.REGISTRY.gauge("timer.pending", () -> timer.getPendingCount());
+    }
+
+    /**
+     * Joins the cluster of the configuration, so the rooms are shared with
+     * its other nodes.
+     * 
+     * @throws UncheckedIOException
+     *             if the node can not be reached by the others or the secret
+     *             of the cluster can not be read.
+     */
+    private void joinCluster() {
+
+        ClusterTransport transport;
+        if (config.getClusterTransport() == ServerConfig.ClusterTransportMode.LOOPBACK) {
+            transport = new LoopbackTransport();
+        } else {
+            Map<String, InetSocketAddress> addresses = new HashMap<>();
+            for (String member : config.getClusterMembers()) {
+                int separator = member.indexOf('@');
+                addresses.put(member.substring(0, separator), TcpTransport.addressOf(member.substring(separator + 1)));
+            }
+            byte[] secret;
+            try {
+                secret = Files.readString(Paths.get(config.getClusterSecretFile())).strip()
+                        .getBytes(StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cluster secret can not be read", e);
+            }
+            if (secret.length == 0) {
+                throw new IllegalArgumentException("Cluster secret file is empty: " + config.getClusterSecretFile());
+            }
+            transport = new TcpTransport(addresses, secret);
+        }
+        clusterNode = new ClusterNode(config.getClusterNode(), config.getClusterMemberNames(), transport,
+                waitingPlayers, timeouts);
+        try {
+            clusterNode.start(executor);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cluster node " + config.getClusterNode() + " can not start", e);
+        }
+    }
+
+    /**
+     * Opens the history of the finished games and hands it to the players
+     * holder.
+     * 
+     * @throws UncheckedIOException
+     *             if the history can not be opened.
+     */
+    private void openHistory(Path file) {
+
+        FileGameHistory fileHistory;
+        try {
+            fileHistory = new FileGameHistory(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Game history can not be opened in " + file, e);
+        }
+        executor.startService(fileHistory);
+        history = fileHistory;
+        waitingPlayers.setHistory(history);
+    }
+
+    /**
+     * Adds the admin commands that query the history:
+     * <ul>
+     * <li>games &lt;player&gt; [count] - the last games of the player</li>
+     * <li>replay &lt;game id&gt; - every turn of the game</li>
+     * <li>games-between &lt;from&gt; &lt;to&gt; [limit] - the games stored in the
+     * time range, given like 2026-01-01T10:00:00Z</li>
+     * </ul>
+     */
+    private void registerHistoryCommands() {
+
+        adminEndpoint.registerCommand("games", arguments -> {
+            String[] words = arguments.split("\\s+");
+            int count = words.length > 1 ? Integer.parseInt(words[1]) : 10;
+            return summaries(history.lastGames(words[0], count));
+        });
+        adminEndpoint.registerCommand("replay", arguments -> {
+            GameRecord game = history.find(Long.parseLong(arguments));
+            return game == null ? "No game " + arguments + System.lineSeparator() : game.replay();
+        });
+        adminEndpoint.registerCommand("games-between", arguments -> {
+            String[] words = arguments.split("\\s+");
+            int limit = words.length > 2 ? Integer.parseInt(words[2]) : 100;
+            return summaries(history.gamesBetween(Instant.parse(words[0]).toEpochMilli(),
+                    Instant.parse(words[1]).toEpochMilli(), limit));
+        });
+    }
+
+    /**
+     * Adds the admin commands of the statistics:
+     * <ul>
+     * <li>top [count] - the players with most wins</li>
+     * <li>stats &lt;player&gt; - the statistics of the player</li>
+     * </ul>
+     */
+    private void registerStatisticsCommands() {
+
+        StatisticsStore statistics = waitingPlayers.getStatistics();
+        adminEndpoint.registerCommand("top", arguments -> {
+            int count = arguments.isEmpty() ? 10 : Integer.parseInt(arguments);
+            StringBuilder text = new StringBuilder();
+            int place = 1;
+            for (PlayerStats player : statistics.top(count)) {
+                text.append(place++).append(". ").append(player.format()).append(System.lineSeparator());
+            }
+            return text.length() == 0 ? "No games" + System.lineSeparator() : text.toString();
+        });
+        adminEndpoint.registerCommand("stats", arguments -> {
+            PlayerStats player = statistics.get(arguments);
+            return (player == null ? "No games of " + arguments : player.format()) + System.lineSeparator();
+        });
+    }
+
+    private static String summaries(List<GameRecord> games) {
+
+        StringBuilder text = new StringBuilder();
+        for (GameRecord game : games) {
+            text.append(game.summary()).append(System.lineSeparator());
+        }
+        if (games.isEmpty()) {
+            text.append("No games").append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Opens the game journal, so that the games in progress survive a crash,
+     * and hands the games recovered from it to the players holder.
+     * 
+     * @throws UncheckedIOException
+     *             if the journal can not be opened.
+     */
+    private void openJournal(Path directory) {
+
+        MappedGameJournal journal;
+        try {
+            journal = new MappedGameJournal(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Game journal can not be opened in " + directory, e);
+        }
+        executor.startService(journal);
+        waitingPlayers.setJournal(journal, journal.getRecoveredGames(), timeouts.getTimer(),
+                config.getResumeTimeoutSeconds() * 1000L);
+    }
+
+    /**
+     * Shows the metrics through JMX. The server works without it, so a
+     * failure is only logged.
+     */
+    private void registerMetricsMBean() {
+
+        try {
+            ObjectName name = new ObjectName("bullsandcows:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(Metrics.REGISTRY), name);
+            }
+        } catch (JMException e) {
+            System.err.println("Metrics are not available through JMX: " + e.getMessage());
+        }
 
     }
 
+    /**
+     * Starts the server in the I/O mode from the configuration. Does not return
+     * until the server stops.
+     * 
+     * @throws IOException
+     *             if the server socket can not be opened.
+     */
     public void start() throws IOException {
 
-        serverSocket = new ServerSocket(PORT);
+        if (config.getIoMode() == ServerConfig.IoMode.NIO) {
+            NioServer.SessionStarter starter = eventDriver != null ? this::startEventSession
+                    : connection -> startSession(connection.getInputStream(), connection.getOutputStream());
+            new NioServer(config.getPort(), config.getIoThreads(), starter, eventDriver == null).start();
+            return;
+        }
+        serverSocket = new ServerSocket(config.getPort());
         while (!Thread.currentThread().isInterrupted()) {
             System.out.println("Waiting for new client...");
             Socket newClientSocket = serverSocket.accept();
@@ -45,10 +312,24 @@ public class Server {
      * Entry point for java program that will initialize TCP Server
      * 
      * @param args
+     *            options in the form --name=value, see {@link ServerConfig}
      */
     public static void main(String[] args) {
 
-        Server tcpServer = new Server();
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        Server tcpServer;
+        try {
+            tcpServer = new Server(config);
+        } catch (UnsupportedOperationException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
         try {
             tcpServer.start();
         } catch (IOException e) {
@@ -62,13 +343,45 @@ public class Server {
      */
     private void startNewPlayerThread(Socket newClientSocket) throws IOException {
 
-        PrintWriter playerWriter = new PrintWriter(newClientSocket.getOutputStream());
-        BufferedReader playerReader = new BufferedReader(
-                new InputStreamReader(newClientSocket.getInputStream()));
-        Player newPlayer = new Player(playerWriter, playerReader);
+        startSession(new TimedSocketInput(newClientSocket), newClientSocket.getOutputStream());
+    }
+
+    /**
+     * Creates the player for a new connection and starts his session. The
+     * player starts with the text protocol and switches to the binary one if
+     * the client asks for it, see {@link TextCodec#negotiate()}.
+     * 
+     * @param playerInput
+     *            bytes from the player
+     * @param playerOutput
+     *            bytes to the player
+     */
+    private void startSession(InputStream playerInput, OutputStream playerOutput) {
+
+        Player newPlayer = new Player(new TextCodec(playerInput, playerOutput));
+        newPlayer.setTimeouts(timeouts);
+        Metrics.ACTIVE_CONNECTIONS.increment();
         PlayerWrapperThread newPlayerThread = new PlayerWrapperThread(newPlayer, waitingPlayers);
-        System.out.println("New client arrived. ClientThread starts");
-        new Thread(newPlayerThread).start();
+        System.out.println("New client arrived. ClientThread starts. Live sessions: "
+                + executor.getLiveSessions() + ", live games: " + executor.getLiveGames());
+        executor.startSession(newPlayerThread);
+    }
+
+    /**
+     * Creates the player for a new connection and starts his event driven
+     * session, which reads the messages of the player as they arrive.
+     * 
+     * @param connection
+     *            the connection, not registered to its I/O thread yet
+     */
+    private void startEventSession(NioConnection connection) {
+
+        Player newPlayer = new Player(new TextCodec(connection.getInputStream(), connection.getOutputStream()));
+        newPlayer.setTimeouts(timeouts);
+        Metrics.ACTIVE_CONNECTIONS.increment();
+        Session session = eventDriver.openSession(newPlayer);
+        connection.setInboundListener(session);
+        session.start();
     }
 
    
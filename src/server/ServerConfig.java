@@ -0,0 +1,392 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bot.GuessStrategy;
+import game.Variant;
+
+/**
+ * Startup options of the server. Every option is given on the command line in
+ * the form --name=value, options that are not given keep their default value.
+ */
+public class ServerConfig {
+
+    /**
+     * How the server handles the sockets of the players.
+     */
+    public enum IoMode {
+        /** one blocking socket per player, the original mode */
+        BLOCKING,
+        /**
+         * non-blocking channels served by a small set of selector threads; the
+         * sessions still keep a thread each, so the server runs without a
+         * thread stack per player only together with --sessions=events, see
+         * {@link SessionMode#EVENTS}
+         */
+        NIO
+    }
+
+    /**
+     * What kind of threads run the sessions, games and services.
+     */
+    public enum ThreadMode {
+        /** a platform thread per task */
+        PLATFORM,
+        /** a virtual thread per task, needs Java 21 or newer */
+        VIRTUAL
+    }
+
+    /**
+     * How the sessions and games of the players are run.
+     */
+    public enum SessionMode {
+        /** a task of its own per session and per game, waiting for the players */
+        THREADS,
+        /** state machines run by a small pool of workers, needs the NIO mode */
+        EVENTS
+    }
+
+    /**
+     * How the nodes of a cluster talk to each other.
+     */
+    public enum ClusterTransportMode {
+        /** a TCP connection between every two nodes */
+        TCP,
+        /** all nodes in the same JVM, for tests on one machine */
+        LOOPBACK
+    }
+
+    private static final int DEFAULT_PORT = 3008;
+    private static final int DEFAULT_ADMIN_PORT = 3009;
+    private static final int DEFAULT_TURN_TIMEOUT_SECONDS = 120;
+    private static final int DEFAULT_INVITE_TIMEOUT_SECONDS = 30;
+    private static final int DEFAULT_IDLE_TIMEOUT_SECONDS = 600;
+    private static final int DEFAULT_RESUME_TIMEOUT_SECONDS = 600;
+
+    private int port = DEFAULT_PORT;
+    private int adminPort = DEFAULT_ADMIN_PORT;
+    private IoMode ioMode = IoMode.BLOCKING;
+    private int ioThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+    private SessionMode sessionMode = SessionMode.THREADS;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int shards = Runtime.getRuntime().availableProcessors();
+    private GuessStrategy computerStrategy = GuessStrategy.byName("expected");
+    private Variant variant = Variant.CLASSIC;
+    private boolean ratedMatchmaking;
+    private String journalDirectory;
+    private String historyFile;
+    private int turnTimeoutSeconds = DEFAULT_TURN_TIMEOUT_SECONDS;
+    private int inviteTimeoutSeconds = DEFAULT_INVITE_TIMEOUT_SECONDS;
+    private int idleTimeoutSeconds = DEFAULT_IDLE_TIMEOUT_SECONDS;
+    private int resumeTimeoutSeconds = DEFAULT_RESUME_TIMEOUT_SECONDS;
+    private String clusterNode;
+    private List<String> clusterMembers = new ArrayList<>();
+    private ClusterTransportMode clusterTransport = ClusterTransportMode.TCP;
+    private String clusterSecretFile;
+
+    /**
+     * Parses the command line arguments of the server.
+     *
+     * @param args
+     *            arguments in the form --name=value
+     * @return the configuration
+     * @throws IllegalArgumentException
+     *             if an option is unknown or has invalid value.
+     */
+    public static ServerConfig fromArgs(String[] args) {
+
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+            config.set(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        if (config.sessionMode == SessionMode.EVENTS && config.ioMode != IoMode.NIO) {
+            throw new IllegalArgumentException("sessions=events needs io=nio");
+        }
+        if (config.clusterNode != null) {
+            config.checkCluster();
+        }
+        return config;
+    }
+
+    private void set(String name, String value) {
+
+        switch (name) {
+        case "port":
+            port = Integer.parseInt(value);
+            break;
+        case "admin-port":
+            adminPort = Integer.parseInt(value);
+            break;
+        case "io":
+            ioMode = IoMode.valueOf(value.toUpperCase());
+            break;
+        case "io-threads":
+            ioThreads = Integer.parseInt(value);
+            if (ioThreads < 1) {
+                throw new IllegalArgumentException("io-threads must be positive");
+            }
+            break;
+        case "threads":
+            threadMode = ThreadMode.valueOf(value.toUpperCase());
+            break;
+        case "sessions":
+            sessionMode = SessionMode.valueOf(value.toUpperCase());
+            break;
+        case "workers":
+            workers = Integer.parseInt(value);
+            if (workers < 1) {
+                throw new IllegalArgumentException("workers must be positive");
+            }
+            break;
+        case "shards":
+            shards = Integer.parseInt(value);
+            if (shards < 1) {
+                throw new IllegalArgumentException("shards must be positive");
+            }
+            break;
+        case "matchmaker":
+            if (!"exchange".equals(value) && !"skill".equals(value)) {
+                throw new IllegalArgumentException("Unknown matchmaker: " + value);
+            }
+            ratedMatchmaking = "skill".equals(value);
+            break;
+        case "journal-dir":
+            journalDirectory = value.isEmpty() ? null : value;
+            break;
+        case "history-file":
+            historyFile = value.isEmpty() ? null : value;
+            break;
+        case "turn-timeout-s":
+            turnTimeoutSeconds = parseTimeout(name, value);
+            break;
+        case "invite-timeout-s":
+            inviteTimeoutSeconds = parseTimeout(name, value);
+            break;
+        case "idle-timeout-s":
+            idleTimeoutSeconds = parseTimeout(name, value);
+            break;
+        case "resume-timeout-s":
+            resumeTimeoutSeconds = parseTimeout(name, value);
+            break;
+        case "cluster-node":
+            clusterNode = value.isEmpty() ? null : value;
+            break;
+        case "cluster-members":
+            clusterMembers = new ArrayList<>(Arrays.asList(value.split(",")));
+            break;
+        case "cluster-transport":
+            clusterTransport = ClusterTransportMode.valueOf(value.toUpperCase());
+            break;
+        case "cluster-secret-file":
+            clusterSecretFile = value.isEmpty() ? null : value;
+            break;
+        case "computer-strategy":
+            computerStrategy = GuessStrategy.byName(value);
+            break;
+        case "variant":
+            variant = Variant.byName(value);
+            if (variant == null) {
+                throw new IllegalArgumentException("Unknown variant: " + value);
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    /**
+     * A node of a cluster relays the players of the other nodes through the
+     * threads of its sessions and pairs the random room first come, first
+     * served across the nodes.
+     */
+    private void checkCluster() {
+
+        if (!getClusterMemberNames().contains(clusterNode)) {
+            throw new IllegalArgumentException("cluster-members must contain cluster-node " + clusterNode);
+        }
+        if (sessionMode != SessionMode.THREADS) {
+            throw new IllegalArgumentException("cluster-node needs sessions=threads");
+        }
+        if (ratedMatchmaking) {
+            throw new IllegalArgumentException("cluster-node needs matchmaker=exchange");
+        }
+        if (clusterTransport == ClusterTransportMode.TCP) {
+            for (String member : clusterMembers) {
+                if (member.indexOf('@') < 0) {
+                    throw new IllegalArgumentException("Cluster member without address: " + member);
+                }
+            }
+            if (clusterSecretFile == null) {
+                throw new IllegalArgumentException("cluster-transport=tcp needs cluster-secret-file");
+            }
+        }
+    }
+
+    private static int parseTimeout(String name, String value) {
+
+        int seconds = Integer.parseInt(value);
+        if (seconds < 0) {
+            throw new IllegalArgumentException(name + " must not be negative");
+        }
+        return seconds;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return port of the admin endpoint on the loopback address, 0 if there
+     *         is no admin endpoint.
+     */
+    public int getAdminPort() {
+        return adminPort;
+    }
+
+    public IoMode getIoMode() {
+        return ioMode;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public SessionMode getSessionMode() {
+        return sessionMode;
+    }
+
+    /**
+     * @return number of the threads that run the sessions and games in the
+     *         {@link SessionMode#EVENTS} mode.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return number of shards the waiting rooms are split into, one per
+     *         core unless given.
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    public GuessStrategy getComputerStrategy() {
+        return computerStrategy;
+    }
+
+    /**
+     * @return the rules of the numbers in the random room and for the
+     *         players who have not chosen any, see {@link Variant#byName(String)}.
+     */
+    public Variant getVariant() {
+        return variant;
+    }
+
+    /**
+     * @return true if the random room pairs by rating (--matchmaker=skill),
+     *         false if it pairs whoever comes first (--matchmaker=exchange).
+     */
+    public boolean isRatedMatchmaking() {
+        return ratedMatchmaking;
+    }
+
+    /**
+     * @return directory of the game journal, null if the games are not
+     *         journaled.
+     */
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    /**
+     * @return file of the history of the finished games, null if the finished
+     *         games are not kept.
+     */
+    public String getHistoryFile() {
+        return historyFile;
+    }
+
+    /**
+     * @return seconds a player has for his starting number or guess, 0 for
+     *         no limit.
+     */
+    public int getTurnTimeoutSeconds() {
+        return turnTimeoutSeconds;
+    }
+
+    /**
+     * @return seconds a player has to answer an invitation, 0 for no limit.
+     */
+    public int getInviteTimeoutSeconds() {
+        return inviteTimeoutSeconds;
+    }
+
+    /**
+     * @return seconds a player has for any other answer, 0 for no limit.
+     */
+    public int getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    /**
+     * @return seconds the games interrupted by a restart wait for their
+     *         players, 0 for no limit.
+     */
+    public int getResumeTimeoutSeconds() {
+        return resumeTimeoutSeconds;
+    }
+
+    /**
+     * @return name of this node in the cluster, null if the server is not in
+     *         a cluster.
+     */
+    public String getClusterNode() {
+        return clusterNode;
+    }
+
+    /**
+     * @return the nodes of the cluster as given by --cluster-members, in the
+     *         form name@host:port, or only the name for the loopback
+     *         transport. The first node keeps the random room of the cluster.
+     */
+    public List<String> getClusterMembers() {
+        return clusterMembers;
+    }
+
+    /**
+     * @return names of the nodes of the cluster, in the given order.
+     */
+    public List<String> getClusterMemberNames() {
+
+        List<String> names = new ArrayList<>(clusterMembers.size());
+        for (String member : clusterMembers) {
+            int separator = member.indexOf('@');
+            names.add(separator < 0 ? member : member.substring(0, separator));
+        }
+        return names;
+    }
+
+    public ClusterTransportMode getClusterTransport() {
+        return clusterTransport;
+    }
+
+    /**
+     * @return the file whose content the nodes of a TCP cluster share to
+     *         authenticate each other, null if none is given.
+     */
+    public String getClusterSecretFile() {
+        return clusterSecretFile;
+    }
+}
@@ -0,0 +1,72 @@
+package server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import protocol.TimedInput;
+
+/**
+ * The input of a blocking socket, with the deadline of the reads kept by
+ * {@link Socket#setSoTimeout(int)}. The socket timeout applies to each read,
+ * so it is set to the time left before every one of them.
+ */
+class TimedSocketInput extends FilterInputStream implements TimedInput {
+
+    private final Socket socket;
+    /** see {@link System#nanoTime()}, 0 for no deadline */
+    private volatile long deadline;
+    /** the socket timeout set last, used only by the reading thread */
+    private int soTimeout;
+
+    /**
+     * @param socket
+     *            the connection of the player
+     * @throws IOException
+     *             if the input of the socket can not be opened.
+     */
+    TimedSocketInput(Socket socket) throws IOException {
+        super(socket.getInputStream());
+        this.socket = socket;
+    }
+
+    @Override
+    public void setReadTimeout(long timeoutMillis) {
+
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        deadline = timeoutMillis > 0 ? Math.max(1, until) : 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        applyDeadline();
+        return super.read();
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+
+        applyDeadline();
+        return super.read(bytes, offset, length);
+    }
+
+    private void applyDeadline() throws IOException {
+
+        long until = deadline;
+        int timeout = 0;
+        if (until != 0) {
+            long left = TimeUnit.NANOSECONDS.toMillis(until - System.nanoTime());
+            if (left <= 0) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            timeout = (int) Math.min(Integer.MAX_VALUE, left);
+        }
+        if (timeout != soTimeout) {
+            socket.setSoTimeout(timeout);
+            soTimeout = timeout;
+        }
+    }
+}
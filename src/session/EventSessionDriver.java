@@ -0,0 +1,109 @@
+package session;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import game.BullCowGame;
+import game.Rematch;
+import player.Player;
+import player.PlayersHolder;
+import thread.SessionDriver;
+
+/**
+ * {@link SessionDriver} whose sessions and games are state machines driven by
+ * the messages of the players as they arrive, see {@link Session} and
+ * {@link GameActor}. No thread waits for a player, a small
+ * {@link WorkerPool} runs all of them. Needs connections that tell when a
+ * message has arrived, see {@link server.NioConnection.InboundListener}.
+ */
+public class EventSessionDriver implements SessionDriver {
+
+    private final Executor workers;
+    private final PlayersHolder holder;
+    private final AtomicInteger liveSessions = new AtomicInteger();
+    private final AtomicInteger liveGames = new AtomicInteger();
+
+    /**
+     * @param workers
+     *            runs the events of the sessions and games
+     * @param holder
+     *            the rooms the sessions take the players to
+     */
+    public EventSessionDriver(Executor workers, PlayersHolder holder) {
+        this.workers = workers;
+        this.holder = holder;
+    }
+
+    /**
+     * Creates the session of a new connection. It is started by
+     * {@link Session#start()}, once it is told about the messages of the
+     * connection.
+     * 
+     * @param player
+     *            the player of the connection
+     * @return the session
+     */
+    public Session openSession(Player player) {
+
+        Session session = new Session(player, holder, this, new SerialExecutor(workers));
+        player.setSession(session);
+        liveSessions.incrementAndGet();
+        return session;
+    }
+
+    @Override
+    public void startSession(Player player) {
+
+        Session session = player.getSession();
+        if (session == null) {
+            System.err.println(player.getName() + " has no session, the connection is closed.");
+            player.closeStreams();
+            return;
+        }
+        session.restart();
+    }
+
+    @Override
+    public void startGame(BullCowGame game) {
+
+        GameActor actor = new GameActor(game, new SerialExecutor(workers), this);
+        liveGames.incrementAndGet();
+        // started before the sessions send it any number
+        actor.start();
+        for (int slot = 0; slot < 2; slot++) {
+            Session session = game.getPlayer(slot).getSession();
+            if (session != null) {
+                session.gameStarted(actor, slot);
+            }
+        }
+    }
+
+    @Override
+    public void askForRematch(Rematch rematch, int slot) {
+
+        Session session = rematch.getPlayer(slot).getSession();
+        if (session == null) {
+            rematch.gone(slot);
+            return;
+        }
+        session.rematchOffered(rematch, slot);
+    }
+
+    void sessionClosed() {
+        liveSessions.decrementAndGet();
+    }
+
+    void gameFinished() {
+        liveGames.decrementAndGet();
+    }
+
+    @Override
+    public int getLiveSessions() {
+        return liveSessions.get();
+    }
+
+    @Override
+    public int getLiveGames() {
+        return liveGames.get();
+    }
+}
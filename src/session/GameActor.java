@@ -0,0 +1,157 @@
+package session;
+
+import java.io.EOFException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+import game.BullCowGame;
+import game.Variant;
+import player.Player;
+import thread.HashedWheelTimer;
+
+/**
+ * Drives a {@link BullCowGame} by the numbers of its players as their
+ * sessions read them. The events of the game go through its own mailbox, so
+ * the game sees them one at a time. A number sent before it is the turn of
+ * its player waits for that turn, like it waits in the socket of a player who
+ * has a thread of his own.
+ */
+public class GameActor {
+
+    /** numbers kept for a player before his turn, the rest are dropped */
+    private static final int MAX_EARLY_CODES = 16;
+
+    private final BullCowGame game;
+    private final SerialExecutor mailbox;
+    private final EventSessionDriver driver;
+    private final List<Queue<Long>> earlyCodes = List.of(new ArrayDeque<>(), new ArrayDeque<>());
+    private HashedWheelTimer.Timeout turnDeadline;
+    /** the question the deadline is for, see {@link BullCowGame#getQuestionNumber()} */
+    private int deadlineQuestion = -1;
+    private boolean finished;
+
+    /**
+     * @param game
+     *            the game, not started
+     * @param mailbox
+     *            runs the events of the game
+     * @param driver
+     *            is told when the game is over
+     */
+    GameActor(BullCowGame game, SerialExecutor mailbox, EventSessionDriver driver) {
+        this.game = game;
+        this.mailbox = mailbox;
+        this.driver = driver;
+    }
+
+    /**
+     * Starts the game, it asks its first question.
+     */
+    void start() {
+        mailbox.execute(() -> {
+            game.start();
+            afterEvent();
+        });
+    }
+
+    /**
+     * @param slot
+     *            0 for the first player, 1 for the second
+     * @param code
+     *            a number read from the player, {@link game.Code#INVALID} if
+     *            it was not valid
+     */
+    void codeFrom(int slot, long code) {
+        mailbox.execute(() -> {
+            if (game.getExpectedSlot() == slot) {
+                game.onCode(slot, code);
+            } else if (!game.isOver()) {
+                if (earlyCodes.get(slot).size() < MAX_EARLY_CODES) {
+                    earlyCodes.get(slot).add(code);
+                } else {
+                    System.out.println(game.getPlayer(slot).getName() + " sends too much out of turn, dropped.");
+                }
+            }
+            afterEvent();
+        });
+    }
+
+    /**
+     * @return the rules of the numbers of the game, its numbers are read with
+     *         them.
+     */
+    Variant getVariant() {
+        return game.getVariant();
+    }
+
+    /**
+     * The player has disconnected, he loses the game.
+     *
+     * @param slot
+     *            0 for the first player, 1 for the second
+     */
+    void playerLeft(int slot) {
+        mailbox.execute(() -> {
+            game.onLeft(slot, new EOFException(game.getPlayer(slot).getName() + " has disconnected"));
+            afterEvent();
+        });
+    }
+
+    /**
+     * Takes the numbers sent before their turn, then sets the deadline of
+     * the question the game waits for.
+     */
+    private void afterEvent() {
+
+        while (!game.isOver()) {
+            int slot = game.getExpectedSlot();
+            Long early = earlyCodes.get(slot).poll();
+            if (early == null) {
+                break;
+            }
+            game.onCode(slot, early);
+        }
+        if (game.isOver()) {
+            finish();
+            return;
+        }
+        if (deadlineQuestion != game.getQuestionNumber()) {
+            scheduleTurnDeadline();
+        }
+    }
+
+    private void scheduleTurnDeadline() {
+
+        if (turnDeadline != null) {
+            turnDeadline.cancel();
+            turnDeadline = null;
+        }
+        int slot = game.getExpectedSlot();
+        Player asked = game.getPlayer(slot);
+        int question = game.getQuestionNumber();
+        deadlineQuestion = question;
+        long turnMillis = asked.getTimeouts().getTurnMillis();
+        if (turnMillis <= 0) {
+            return;
+        }
+        turnDeadline = asked.getTimeouts().getTimer().schedule(() -> mailbox.execute(() -> {
+            if (game.getQuestionNumber() == question) {
+                game.onTimeout(slot, asked.getName() + " has not sent his number in time");
+            }
+            afterEvent();
+        }), turnMillis);
+    }
+
+    private void finish() {
+
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (turnDeadline != null) {
+            turnDeadline.cancel();
+        }
+        driver.gameFinished();
+    }
+}
@@ -0,0 +1,103 @@
+package session;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+import player.LobbyPage;
+import player.PlayersHolder;
+
+/**
+ * Where a player is while he looks through the friend room: the page he is
+ * on, the pages before it, or the name he searches for.
+ */
+public class LobbyBrowser {
+
+    public static final int LOBBY_PAGE_SIZE = 20;
+    private static final String NEXT_PAGE_COMMAND = "next";
+    private static final String PREVIOUS_PAGE_COMMAND = "prev";
+    private static final String FIND_COMMAND = "find";
+
+    private final PlayersHolder holder;
+    private final Deque<Integer> previousPageStarts = new ArrayDeque<>();
+    private int pageStart;
+    private String searchedName;
+    private LobbyPage page;
+
+    /**
+     * @param holder
+     *            has the friend room
+     */
+    public LobbyBrowser(PlayersHolder holder) {
+        this.holder = holder;
+    }
+
+    /**
+     * @return the page to show now, read again from the friend room.
+     */
+    public LobbyPage currentPage() {
+
+        page = searchedName == null ? holder.getFriendRoomPage(pageStart, LOBBY_PAGE_SIZE)
+                : holder.findInFriendRoom(searchedName, LOBBY_PAGE_SIZE);
+        return page;
+    }
+
+    /**
+     * @param answer
+     *            an answer of the player, in lower case
+     * @return true if it is a command of the browser: next, prev or find.
+     */
+    public static boolean isCommand(String answer) {
+        return NEXT_PAGE_COMMAND.equals(answer) || PREVIOUS_PAGE_COMMAND.equals(answer)
+                || answer.startsWith(FIND_COMMAND);
+    }
+
+    /**
+     * @param line
+     *            an answer of the player
+     * @return the answer if it is a command or a non negative number, in
+     *         lower case, null if the player has to answer again.
+     */
+    public static String parseChoice(String line) {
+
+        String answer = line.toLowerCase(Locale.ROOT);
+        if (isCommand(answer)) {
+            return answer;
+        }
+        try {
+            if (Integer.parseInt(answer) >= 0) {
+                return answer;
+            }
+        } catch (NumberFormatException nfx) {
+            // asked again
+        }
+        return null;
+    }
+
+    /**
+     * Turns the page or searches, see {@link #isCommand(String)}.
+     * 
+     * @param command
+     *            the command
+     */
+    public void execute(String command) {
+
+        if (NEXT_PAGE_COMMAND.equals(command)) {
+            if (searchedName == null && page != null && page.hasMore()) {
+                previousPageStarts.push(pageStart);
+                pageStart = page.getLastIndex();
+            }
+        } else if (PREVIOUS_PAGE_COMMAND.equals(command)) {
+            if (searchedName != null) {
+                searchedName = null;
+            } else if (!previousPageStarts.isEmpty()) {
+                pageStart = previousPageStarts.pop();
+            }
+        } else {
+            searchedName = command.substring(FIND_COMMAND.length());
+            if (searchedName.isEmpty()) {
+                searchedName = null;
+            }
+        }
+    }
+}
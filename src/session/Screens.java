@@ -0,0 +1,152 @@
+package session;
+
+import java.util.List;
+
+import game.Variant;
+import history.GameRecord;
+import player.LobbyPage;
+import player.Player;
+import player.PlayersHolder;
+import protocol.Prompt;
+import stats.PlayerStats;
+
+/**
+ * What a session shows the player, the same for the sessions that have a
+ * thread of their own and for the event driven ones.
+ */
+public final class Screens {
+
+//@formatter:off
+    private static final String PLAYER_POSSIBLE_GAME_OPTIONS_MESSAGE = "Hello:\n"
+                                                      + "Type 0: for a game with random player.\n"
+                                                      + "Type 1: for a room to pick a friend to play with.\n"
+                                                      + "Type 2: for a game against the computer.\n"
+                                                      + "Type 3: to see your statistics and last games.\n"
+                                                      + "Type 4: to choose the numbers of your games.";
+    private static final String LOBBY_COMMANDS_MESSAGE = "Type next or prev to turn the page, find and the beginning of a name to search.";
+    private static final String VARIANT_QUESTION = "Type how many digits from " + Variant.MIN_LENGTH + " to "
+                                                      + Variant.MAX_LENGTH + ", add hex for hexadecimal digits and repeats if a digit may repeat, like: 6 hex";
+//@formatter:on
+    /** the option of the menu that shows the statistics */
+    public static final int STATISTICS_OPTION = 3;
+    /** the option of the menu that chooses the variant */
+    public static final int VARIANT_OPTION = 4;
+    /** the highest option of the menu */
+    public static final int LAST_OPTION = 4;
+    private static final int SHOWN_LAST_GAMES = 5;
+
+    private Screens() {
+    }
+
+    /**
+     * Asks the player to choose what to play.
+     * 
+     * @param player
+     *            the player
+     */
+    public static void showOptions(Player player) {
+        player.prompt(Prompt.GAME_OPTION, PLAYER_POSSIBLE_GAME_OPTIONS_MESSAGE);
+    }
+
+    /**
+     * Shows a page of the friend room and asks the player to choose.
+     * 
+     * @param player
+     *            the player
+     * @param freePlayers
+     *            the page of the friend room to show
+     */
+    public static void showLobby(Player player, LobbyPage freePlayers) {
+
+        player.append("");
+        player.append("Free Players:");
+        player.append("0) (wait for another player to choose you)");
+        player.appendLobby(freePlayers);
+        player.append(LOBBY_COMMANDS_MESSAGE);
+        player.prompt(Prompt.PLAYER_CHOICE, "Choose player: ");
+    }
+
+    /**
+     * Shows the player his statistics and his last finished games. Sent
+     * together with the next question.
+     * 
+     * @param player
+     *            the player
+     * @param holder
+     *            has the statistics and the history
+     */
+    public static void showLastGames(Player player, PlayersHolder holder) {
+
+        PlayerStats stats = holder.getStatistics().get(player.getName());
+        if (stats != null) {
+            player.append(stats.format());
+        }
+        List<GameRecord> games = holder.getHistory().lastGames(player.getName(), SHOWN_LAST_GAMES);
+        if (games.isEmpty()) {
+            player.append("You have no finished games.");
+        }
+        for (GameRecord game : games) {
+            player.append(game.summary());
+        }
+    }
+
+    /**
+     * Asks the player the rules of the numbers of the games he starts, see
+     * {@link #variantChosen(Player, PlayersHolder, String)}.
+     * 
+     * @param player
+     *            the player
+     * @param holder
+     *            knows the variant of the server
+     */
+    public static void askForVariant(Player player, PlayersHolder holder) {
+
+        player.append("You start your games with " + holder.variantOf(player).describe() + ".");
+        player.prompt(Prompt.VARIANT, VARIANT_QUESTION);
+    }
+
+    /**
+     * Takes the answer to {@link #askForVariant(Player, PlayersHolder)}. The
+     * variant is for the games against the computer and with the friends he
+     * invites, the random room plays the variant of the server. Sent together
+     * with the next question.
+     * 
+     * @param player
+     *            the player
+     * @param holder
+     *            knows the variant of the server
+     * @param answer
+     *            what the player has answered
+     */
+    public static void variantChosen(Player player, PlayersHolder holder, String answer) {
+
+        Variant variant = Variant.byName(answer);
+        if (variant == null) {
+            player.append("Unknown numbers, your games are not changed.");
+            return;
+        }
+        player.setVariant(variant);
+        System.out.println(player.getName() + " chose the variant " + variant);
+        player.append("You start your games with " + variant.describe() + ".");
+        if (variant != holder.getVariant()) {
+            player.append("The random room plays with " + holder.getVariant().describe() + ".");
+        }
+    }
+
+    /**
+     * The question to a player who is invited to a game.
+     * 
+     * @param inviter
+     *            name of the player who invites
+     * @param index
+     *            the index of the invited player in the friend room
+     * @param variant
+     *            the rules of the numbers of the game
+     * @return the question
+     */
+    public static String invitation(String inviter, int index, Variant variant) {
+
+        String rules = variant == Variant.CLASSIC ? "" : " with " + variant.describe() + ", ";
+        return "Do you want to play with " + inviter + " with index " + index + rules + "yes or no!";
+    }
+}
@@ -0,0 +1,57 @@
+package session;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The mailbox of one session or game. Its tasks run one at a time, in the
+ * order they were given, on the threads of a shared {@link Executor}, so the
+ * state they change needs no locks. A mailbox that has nothing to do takes no
+ * thread. A busy one gives its thread back after {@link #MAX_BATCH} tasks, so
+ * it can not starve the others.
+ */
+public class SerialExecutor implements Executor {
+
+    private static final int MAX_BATCH = 64;
+
+    private final Executor workers;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /** tasks given and not run yet, the mailbox is scheduled while positive */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * @param workers
+     *            the threads that run the tasks
+     */
+    public SerialExecutor(Executor workers) {
+        this.workers = workers;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+
+        tasks.add(task);
+        if (pending.getAndIncrement() == 0) {
+            workers.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+
+        for (int i = 0; i < MAX_BATCH; i++) {
+            Runnable task = tasks.poll();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Session task failed: " + e);
+                e.printStackTrace();
+            }
+            if (pending.decrementAndGet() == 0) {
+                return;
+            }
+        }
+        workers.execute(this::drain);
+    }
+}
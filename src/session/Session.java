@@ -0,0 +1,548 @@
+package session;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import exception.InvalidPlayerException;
+import game.BullCowGame;
+import game.Rematch;
+import metrics.Metrics;
+import player.Player;
+import player.PlayersHolder;
+import protocol.Prompt;
+import server.NioConnection;
+import thread.HashedWheelTimer;
+import thread.PlayerWrapperThread;
+
+/**
+ * The session of a player as a state machine: it goes from the name to the
+ * menu, the friend room, the invitations, the game and the rematch by the
+ * messages of the player and by the events of the other sessions and of the
+ * game. It does what {@link PlayerWrapperThread} does, without a thread of
+ * its own. Every event is a task of its mailbox, see {@link SerialExecutor},
+ * and a message is read only when it has arrived, see
+ * {@link NioConnection.InboundListener}, so nothing here ever waits.
+ */
+public class Session implements NioConnection.InboundListener {
+
+    private enum State {
+        /** asked for his name */
+        NAME(true),
+        /** asked whether to resume his interrupted game */
+        RESUME(true),
+        /** asked what to play */
+        MENU(true),
+        /** asked the rules of the numbers of his games */
+        VARIANT(true),
+        /** looks through the friend room */
+        LOBBY(true),
+        /** waits in the friend room to be invited */
+        LOBBY_WAITING(false),
+        /** waits for the answer of the player he has invited */
+        INVITING(false),
+        /** asked whether to accept an invitation */
+        INVITED(true),
+        /** waits for a game or for the answer of his opponent */
+        WAITING(false),
+        /** his messages are his numbers */
+        PLAYING(true),
+        /** asked whether to play more */
+        REMATCH(true),
+        CLOSED(false);
+
+        /** the messages are read in this state, in the others they wait */
+        private final boolean reading;
+
+        State(boolean reading) {
+            this.reading = reading;
+        }
+    }
+
+    private final Player player;
+    private final PlayersHolder holder;
+    private final EventSessionDriver driver;
+    private final SerialExecutor mailbox;
+
+    // used only by the tasks of the mailbox
+    /** until the name is asked */
+    private State state = State.WAITING;
+    private boolean negotiated;
+    /** messages that have arrived and have not been read */
+    private int unread;
+    private HashedWheelTimer.Timeout deadline;
+    /** tells a deadline that passed from one that has been replaced */
+    private int deadlineNumber;
+    private LobbyBrowser browser;
+    /** the session of the player this one has invited */
+    private Session invitee;
+    private int inviteeIndex;
+    /** the session of the player who has invited this one */
+    private Session inviter;
+    private GameActor game;
+    private int gameSlot;
+    private Rematch rematch;
+    private int rematchSlot;
+
+    /**
+     * @param player
+     *            the player, with a connection that has not been read yet
+     * @param holder
+     *            the rooms the session takes the player to
+     * @param driver
+     *            starts the games
+     * @param mailbox
+     *            runs the events of the session
+     */
+    Session(Player player, PlayersHolder holder, EventSessionDriver driver, SerialExecutor mailbox) {
+        this.player = player;
+        this.holder = holder;
+        this.driver = driver;
+        this.mailbox = mailbox;
+    }
+
+    /**
+     * Asks the player for his name.
+     */
+    public void start() {
+        post(this::askName);
+    }
+
+    @Override
+    public void messageReceived() {
+        post(() -> unread++);
+    }
+
+    @Override
+    public void closed() {
+        post(this::leave);
+    }
+
+    /**
+     * Takes the player back to the start, like a new session.
+     */
+    void restart() {
+        post(() -> {
+            if (state != State.CLOSED) {
+                game = null;
+                rematch = null;
+                askName();
+            }
+        });
+    }
+
+    /**
+     * The player plays in the game from now on.
+     *
+     * @param actor
+     *            the game
+     * @param slot
+     *            0 if the player is the first of the game, 1 if the second
+     */
+    void gameStarted(GameActor actor, int slot) {
+        post(() -> {
+            if (state == State.CLOSED) {
+                actor.playerLeft(slot);
+                return;
+            }
+            game = actor;
+            gameSlot = slot;
+            state = State.PLAYING;
+        });
+    }
+
+    /**
+     * The game is over, the player is asked whether to play more.
+     *
+     * @param offered
+     *            the end of the game
+     * @param slot
+     *            0 if the player was the first of the game, 1 if the second
+     */
+    void rematchOffered(Rematch offered, int slot) {
+        post(() -> {
+            if (state == State.CLOSED) {
+                offered.gone(slot);
+                return;
+            }
+            game = null;
+            rematch = offered;
+            rematchSlot = slot;
+            state = State.REMATCH;
+            offered.prompt(slot);
+        });
+    }
+
+    /**
+     * Another player invites this one. Only a player who waits in the friend
+     * room is asked, the others decline at once.
+     */
+    private void invitedBy(Session from, int index) {
+        post(() -> {
+            if (state != State.LOBBY_WAITING) {
+                from.inviteAnswered(false, state == State.CLOSED);
+                return;
+            }
+            state = State.INVITED;
+            inviter = from;
+            player.prompt(Prompt.INVITATION, Screens.invitation(from.player.getName(), index, holder.variantOf(from.player)));
+            System.out.println("question asked does " + player.getName() + " wants to play with "
+                    + from.player.getName());
+        });
+    }
+
+    /**
+     * The answer of the invited player.
+     *
+     * @param left
+     *            true if he has disconnected
+     */
+    private void inviteAnswered(boolean accepted, boolean left) {
+        post(() -> {
+            Session other = invitee;
+            invitee = null;
+            if (state != State.INVITING) {
+                // this player has left meanwhile
+                if (accepted) {
+                    other.inviterLeft(player.getName());
+                }
+                return;
+            }
+            if (!accepted) {
+                player.write(left ? other.player.getName() + " has left." : "The other player refused to play");
+                showLobby();
+                return;
+            }
+            holder.getLobbyNotifier().unsubscribe(player);
+            try {
+                holder.removePlayerByIndex(inviteeIndex);
+            } catch (InvalidPlayerException e) {
+                System.out.println("unexpected failure. Trying to remove player with wrong index.");
+            }
+            state = State.WAITING;
+            driver.startGame(new BullCowGame(other.player, player, holder, holder.variantOf(player)));
+            System.out.println("Game starting. " + player.getName() + " vs " + other.player.getName());
+        });
+    }
+
+    /**
+     * The invitation this player has accepted is void, the inviter has left.
+     * He goes on waiting in the friend room.
+     */
+    private void inviterLeft(String inviterName) {
+        post(() -> {
+            if (state == State.WAITING && game == null) {
+                player.write(inviterName + " has left.");
+                state = State.LOBBY_WAITING;
+            }
+        });
+    }
+
+    /**
+     * Runs an event in the mailbox, then reads the messages that wait, as
+     * long as the state reads them. The deadline of the answer starts again
+     * when the state changes or a message has been read.
+     */
+    private void post(Runnable event) {
+        mailbox.execute(() -> {
+            State before = state;
+            event.run();
+            boolean read = readArrived();
+            if (state != before || read) {
+                scheduleDeadline();
+            }
+        });
+    }
+
+    /**
+     * @return true if a message has been read.
+     */
+    private boolean readArrived() {
+
+        boolean read = false;
+        while (unread > 0 && state.reading) {
+            unread--;
+            read = true;
+            try {
+                onMessage();
+            } catch (IOException e) {
+                System.err.println(player.getName() + " has disconected.");
+                leave();
+            }
+        }
+        return read;
+    }
+
+    private void onMessage() throws IOException {
+
+        switch (state) {
+        case NAME:
+            onName();
+            break;
+        case RESUME:
+            onResumeAnswer(player.readArrivedLine().toLowerCase(Locale.ROOT));
+            break;
+        case MENU:
+            onOption(player.readArrivedLine());
+            break;
+        case VARIANT:
+            Screens.variantChosen(player, holder, player.readArrivedLine());
+            showMenu();
+            break;
+        case LOBBY:
+            onLobbyChoice(LobbyBrowser.parseChoice(player.readArrivedLine()));
+            break;
+        case INVITED:
+            onInvitationAnswer(player.readArrivedLine().toLowerCase(Locale.ROOT));
+            break;
+        case PLAYING:
+            game.codeFrom(gameSlot, player.readArrivedCode(game.getVariant()));
+            break;
+        case REMATCH:
+            if (rematch.answer(rematchSlot, player.readArrivedLine())) {
+                rematch = null;
+                state = State.WAITING;
+            } else {
+                System.out.println("Wrong Answer. yes, no or rematch !");
+            }
+            break;
+        default:
+            throw new IllegalStateException("No message is read in " + state);
+        }
+    }
+
+    private void askName() {
+
+        state = State.NAME;
+        player.promptForName();
+    }
+
+    private void onName() throws IOException {
+
+        // the first message tells the protocol of the client
+        if (!negotiated) {
+            negotiated = true;
+            if (player.negotiate()) {
+                return;
+            }
+        }
+        String name = player.readArrivedLine();
+        if (!player.checkName(name)) {
+            return;
+        }
+        player.setName(name);
+        String question = holder.getResumeQuestion(player);
+        if (question == null) {
+            showMenu();
+            return;
+        }
+        state = State.RESUME;
+        player.prompt(Prompt.RESUME, question);
+    }
+
+    private void onResumeAnswer(String answer) {
+
+        state = State.WAITING;
+        if (!holder.answerResume(player, answer)) {
+            showMenu();
+        }
+    }
+
+    private void showMenu() {
+
+        state = State.MENU;
+        Screens.showOptions(player);
+    }
+
+    private void onOption(String answer) {
+
+        int option;
+        try {
+            option = Integer.parseInt(answer);
+        } catch (NumberFormatException nfx) {
+            return;
+        }
+        if (option < 0 || option > Screens.LAST_OPTION) {
+            return;
+        }
+        System.out.println(player.getName() + " chose option: " + option);
+        switch (option) {
+        case 0:
+            state = State.WAITING;
+            holder.addPlayerToRandomRoom(player);
+            player.write("you chose to play game with random opponent.");
+            break;
+        case 1:
+            browser = new LobbyBrowser(holder);
+            // the changes of the room are pushed while the player looks at it
+            holder.getLobbyNotifier().subscribe(player);
+            showLobby();
+            break;
+        case 2:
+            state = State.WAITING;
+            player.write("you chose to play game against the computer.");
+            holder.startGameWithComputer(player);
+            break;
+        case Screens.VARIANT_OPTION:
+            state = State.VARIANT;
+            Screens.askForVariant(player, holder);
+            break;
+        default:
+            Screens.showLastGames(player, holder);
+            Screens.showOptions(player);
+        }
+    }
+
+    private void showLobby() {
+
+        state = State.LOBBY;
+        Screens.showLobby(player, browser.currentPage());
+    }
+
+    private void onLobbyChoice(String answer) {
+
+        if (answer == null) {
+            return;
+        }
+        if (LobbyBrowser.isCommand(answer)) {
+            browser.execute(answer);
+            showLobby();
+            return;
+        }
+        int choice = Integer.parseInt(answer);
+        if (choice == 0) {
+            // stays subscribed to the room until he is picked
+            state = State.LOBBY_WAITING;
+            holder.addplayer(player);
+            player.write("you chose to wait for friend as opponent.");
+            return;
+        }
+        System.out.println(player.getName() + " chose to play with number : " + choice);
+        Player opponent;
+        try {
+            opponent = holder.getPlayerByIndex(choice);
+        } catch (InvalidPlayerException e) {
+            player.write("Invalid index. Or player already in game.");
+            showLobby();
+            return;
+        }
+        Session other = opponent.getSession();
+        if (opponent == player || other == null) {
+            System.out.println("He is trying to play with himself.");
+            showLobby();
+            return;
+        }
+        opponent.write("");
+        player.write("");
+        state = State.INVITING;
+        invitee = other;
+        inviteeIndex = choice;
+        other.invitedBy(this, choice);
+    }
+
+    private void onInvitationAnswer(String answer) {
+
+        if ("yes".equals(answer)) {
+            Metrics.INVITES_ACCEPTED.increment();
+            answerInvitation(true);
+        } else if ("no".equals(answer)) {
+            Metrics.INVITES_DECLINED.increment();
+            answerInvitation(false);
+        } else {
+            System.out.println("Wrong Answer from " + player.getName() + " : " + answer);
+        }
+    }
+
+    /**
+     * An accepting player waits for the inviter to start the game, a
+     * declining one goes on waiting in the friend room.
+     */
+    private void answerInvitation(boolean accepted) {
+
+        Session from = inviter;
+        inviter = null;
+        state = accepted ? State.WAITING : State.LOBBY_WAITING;
+        from.inviteAnswered(accepted, false);
+    }
+
+    /**
+     * Sets the time the player has for his answer in the current state: the
+     * invitation time for an invitation, none while he plays or waits, the
+     * idle time for the rest.
+     */
+    private void scheduleDeadline() {
+
+        if (deadline != null) {
+            deadline.cancel();
+            deadline = null;
+        }
+        int number = ++deadlineNumber;
+        long millis;
+        if (state == State.INVITED) {
+            millis = player.getTimeouts().getInviteMillis();
+        } else if (state.reading && state != State.PLAYING) {
+            millis = player.getTimeouts().getIdleMillis();
+        } else {
+            return;
+        }
+        if (millis > 0) {
+            deadline = player.getTimeouts().getTimer().schedule(() -> post(() -> deadlinePassed(number)), millis);
+        }
+    }
+
+    private void deadlinePassed(int number) {
+
+        if (number != deadlineNumber || state == State.CLOSED) {
+            return;
+        }
+        deadline = null;
+        if (state == State.INVITED) {
+            System.out.println(player.getName() + " has not sent his answer in time, the invitation is declined.");
+            Metrics.INVITE_TIMEOUTS.increment();
+            Metrics.INVITES_DECLINED.increment();
+            player.write("The invitation of " + inviter.player.getName() + " has expired.");
+            answerInvitation(false);
+            return;
+        }
+        if (state == State.REMATCH) {
+            System.out.println(player.getName() + " has not sent his answer in time, not asked again.");
+            rematch.gone(rematchSlot);
+            rematch = null;
+        } else {
+            System.err.println(player.getName() + " has not sent his answer in time, the connection is closed.");
+            Metrics.IDLE_TIMEOUTS.increment();
+            player.write("You have not answered in time. Bye.");
+        }
+        leave();
+    }
+
+    /**
+     * The connection has ended, or is closed by the session. The game, the
+     * rematch or the invitation the player was in go on without him.
+     */
+    private void leave() {
+
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.CLOSED;
+        if (deadline != null) {
+            deadline.cancel();
+            deadline = null;
+        }
+        holder.getLobbyNotifier().unsubscribe(player);
+        if (game != null) {
+            game.playerLeft(gameSlot);
+            game = null;
+        }
+        if (rematch != null) {
+            rematch.gone(rematchSlot);
+            rematch = null;
+        }
+        if (inviter != null) {
+            inviter.inviteAnswered(false, true);
+            inviter = null;
+        }
+        player.closeStreams();
+        driver.sessionClosed();
+    }
+}
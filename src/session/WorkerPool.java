@@ -0,0 +1,59 @@
+package session;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import metrics.Metrics;
+import thread.TaskExecutor;
+
+/**
+ * A fixed set of threads that run the mailboxes of the event driven sessions
+ * and games, see {@link SerialExecutor}. The threads never wait for a player,
+ * so a few of them serve any number of sessions.
+ */
+public class WorkerPool implements Executor {
+
+    private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * Starts the threads.
+     *
+     * @param executor
+     *            runs every thread as a service
+     * @param workers
+     *            number of threads
+     */
+    public WorkerPool(TaskExecutor executor, int workers) {
+
+        for (int i = 0; i < workers; i++) {
+            executor.startService(this::work);
+        }
+        Metrics.REGISTRY.gauge("workers.queueDepth", () -> queue.size());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        queue.add(task);
+    }
+
+    /**
+     * Runs the queued tasks until the thread is interrupted.
+     */
+    private void work() {
+
+        while (!Thread.currentThread().isInterrupted()) {
+            Runnable task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package simulation;
+
+import java.util.Random;
+
+import bot.GuessStrategy;
+import bot.Solver;
+import game.Code;
+import game.Variant;
+
+/**
+ * Game of bulls and cows between two strategies, without players and I/O. The
+ * rules are the ones of {@link game.BullCowGame}: each side picks a secret
+ * number, the sides guess in turns starting with the first one and the first
+ * side to guess all the digits as bulls wins.
+ */
+public class HeadlessGame {
+
+    /** a game that has not ended after so many turns is stopped as a draw */
+    private static final int MAX_TURNS = 2 * Code.COUNT;
+
+    private final Solver firstSolver;
+    private final Solver secondSolver;
+    private final Random random;
+    private final Variant variant;
+
+    private int winner = -1;
+    private int turns;
+
+    /**
+     * @param first
+     *            strategy of the side that guesses first
+     * @param second
+     *            strategy of the side that guesses second
+     * @param random
+     *            source of the secret numbers and of the guesses
+     */
+    public HeadlessGame(GuessStrategy first, GuessStrategy second, Random random) {
+        this(first, second, random, Variant.CLASSIC);
+    }
+
+    /**
+     * @param first
+     *            strategy of the side that guesses first
+     * @param second
+     *            strategy of the side that guesses second
+     * @param random
+     *            source of the secret numbers and of the guesses
+     * @param variant
+     *            the rules of the numbers, the strategies only pick the
+     *            guesses of the classic ones, see {@link Solver}
+     */
+    public HeadlessGame(GuessStrategy first, GuessStrategy second, Random random, Variant variant) {
+        this.firstSolver = new Solver(first, random);
+        this.secondSolver = new Solver(second, random);
+        this.random = random;
+        this.variant = variant;
+    }
+
+    /**
+     * Plays the game to the end.
+     * 
+     * @return index of the winner, 0 for the first side and 1 for the second,
+     *         or -1 if the game was stopped.
+     */
+    public int play() {
+
+        long[] secrets = { variant.random(random), variant.random(random) };
+        int[] secretDigits = { variant.secretDigits(secrets[0]), variant.secretDigits(secrets[1]) };
+        Solver[] solvers = { firstSolver, secondSolver };
+        firstSolver.reset(variant);
+        secondSolver.reset(variant);
+        int onTurn = 0;
+        while (turns < MAX_TURNS) {
+            turns++;
+            Solver solver = solvers[onTurn];
+            long guess = solver.nextGuess();
+            int score = variant.score(guess, secrets[1 - onTurn], secretDigits[1 - onTurn]);
+            if (variant.isSolved(score)) {
+                winner = onTurn;
+                return winner;
+            }
+            solver.onScore(guess, score);
+            onTurn = 1 - onTurn;
+        }
+        return winner;
+    }
+
+    /**
+     * @return turns played by both sides together.
+     */
+    public int getTurns() {
+        return turns;
+    }
+
+    /**
+     * @return the guesses made by the winner, or 0 if there is no winner.
+     */
+    public int getWinnerGuesses() {
+        return winner < 0 ? 0 : (turns + 1 - winner) / 2;
+    }
+}
@@ -0,0 +1,111 @@
+package simulation;
+
+import java.util.List;
+
+import bot.GuessStrategy;
+
+/**
+ * Results of many simulated games. Each worker thread fills its own report,
+ * the reports are merged at the end, so counting needs no synchronization.
+ */
+public class SimulationReport {
+
+    private static final int MAX_TRACKED_TURNS = 32;
+
+    private final List<GuessStrategy> strategies;
+    private long games;
+    private long draws;
+    private final long[] turnsHistogram = new long[MAX_TRACKED_TURNS + 1];
+    private final long[] played;
+    private final long[] wins;
+    private final long[] winningGuesses;
+
+    /**
+     * @param strategies
+     *            the strategies that play, results are kept per index in this
+     *            list
+     */
+    public SimulationReport(List<GuessStrategy> strategies) {
+        this.strategies = strategies;
+        played = new long[strategies.size()];
+        wins = new long[strategies.size()];
+        winningGuesses = new long[strategies.size()];
+    }
+
+    /**
+     * Counts a finished game.
+     * 
+     * @param first
+     *            index of the strategy that guessed first
+     * @param second
+     *            index of the strategy that guessed second
+     * @param game
+     *            the played game
+     * @param winner
+     *            0 if the first strategy won, 1 if the second, -1 for a draw
+     */
+    public void add(int first, int second, HeadlessGame game, int winner) {
+
+        games++;
+        turnsHistogram[Math.min(game.getTurns(), MAX_TRACKED_TURNS)]++;
+        played[first]++;
+        played[second]++;
+        if (winner < 0) {
+            draws++;
+            return;
+        }
+        int winningStrategy = winner == 0 ? first : second;
+        wins[winningStrategy]++;
+        winningGuesses[winningStrategy] += game.getWinnerGuesses();
+    }
+
+    /**
+     * Adds the counts of another report to this one.
+     */
+    public void merge(SimulationReport other) {
+
+        games += other.games;
+        draws += other.draws;
+        for (int i = 0; i < turnsHistogram.length; i++) {
+            turnsHistogram[i] += other.turnsHistogram[i];
+        }
+        for (int i = 0; i < played.length; i++) {
+            played[i] += other.played[i];
+            wins[i] += other.wins[i];
+            winningGuesses[i] += other.winningGuesses[i];
+        }
+    }
+
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * Formats the report for the console.
+     * 
+     * @param elapsedNanos
+     *            how long the simulation took
+     * @return the report as text
+     */
+    public String format(long elapsedNanos) {
+
+        StringBuilder report = new StringBuilder();
+        double seconds = elapsedNanos / 1e9;
+        report.append(String.format("%d games in %.2f s, %.0f games/sec, %d draws%n", games, seconds,
+                games / seconds, draws));
+        report.append("Turns per game (both sides):").append(System.lineSeparator());
+        for (int turns = 1; turns < turnsHistogram.length; turns++) {
+            if (turnsHistogram[turns] > 0) {
+                report.append(String.format("  %2d%s : %6.2f%%%n", turns, turns == MAX_TRACKED_TURNS ? "+" : " ",
+                        100.0 * turnsHistogram[turns] / games));
+            }
+        }
+        report.append("Strategies:").append(System.lineSeparator());
+        for (int i = 0; i < strategies.size(); i++) {
+            report.append(String.format("  %-10s played %d, win rate %.2f%%, average guesses to win %.3f%n",
+                    strategies.get(i), played[i], played[i] == 0 ? 0.0 : 100.0 * wins[i] / played[i],
+                    wins[i] == 0 ? 0.0 : (double) winningGuesses[i] / wins[i]));
+        }
+        return report.toString();
+    }
+}
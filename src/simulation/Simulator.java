@@ -0,0 +1,91 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.LongStream;
+
+import bot.GuessStrategy;
+import game.Variant;
+
+/**
+ * Plays many headless games between strategies in parallel on all cores and
+ * prints games/sec, the distribution of the game length and the win rates.
+ * Every pair of strategies plays the same number of games, each strategy
+ * guessing first in half of them.
+ */
+public class Simulator {
+
+    private final List<GuessStrategy> strategies;
+    private final Variant variant;
+
+    /**
+     * @param strategies
+     *            the strategies that play against each other
+     * @param variant
+     *            the rules of the numbers of the games
+     */
+    public Simulator(List<GuessStrategy> strategies, Variant variant) {
+        this.strategies = strategies;
+        this.variant = variant;
+    }
+
+    /**
+     * Runs the games on the common fork-join pool.
+     * 
+     * @param games
+     *            number of games to play
+     * @return the merged results
+     */
+    public SimulationReport run(long games) {
+
+        int pairs = strategies.size() * strategies.size();
+        return LongStream.range(0, games).parallel().collect(() -> new SimulationReport(strategies),
+                (report, gameNumber) -> {
+                    int pair = (int) (gameNumber % pairs);
+                    int first = pair / strategies.size();
+                    int second = pair % strategies.size();
+                    HeadlessGame game = new HeadlessGame(strategies.get(first), strategies.get(second),
+                            ThreadLocalRandom.current(), variant);
+                    report.add(first, second, game, game.play());
+                }, SimulationReport::merge);
+    }
+
+    /**
+     * Entry point of the simulator.
+     * 
+     * @param args
+     *            number of games, followed by the names of the strategies, see
+     *            {@link GuessStrategy#byName(String)}, and maybe
+     *            --variant=NAME, see {@link Variant#byName(String)}. Defaults
+     *            to 1000000 classic games of all strategies.
+     */
+    public static void main(String[] args) {
+
+        long games = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000L;
+        List<GuessStrategy> strategies = new ArrayList<>();
+        Variant variant = Variant.CLASSIC;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--variant=")) {
+                variant = Variant.byName(args[i].substring("--variant=".length()));
+                if (variant == null) {
+                    throw new IllegalArgumentException("Unknown variant: " + args[i]);
+                }
+            } else {
+                strategies.add(GuessStrategy.byName(args[i]));
+            }
+        }
+        if (strategies.isEmpty()) {
+            strategies.add(GuessStrategy.byName("random"));
+            strategies.add(GuessStrategy.byName("minimax"));
+            strategies.add(GuessStrategy.byName("expected"));
+        }
+        System.out.println("Simulating " + games + " games of " + strategies + " with " + variant.describe()
+                + " on " + Runtime.getRuntime().availableProcessors() + " cores.");
+        // warm up the score table before the clock starts
+        new HeadlessGame(strategies.get(0), strategies.get(0), ThreadLocalRandom.current(), variant).play();
+        long start = System.nanoTime();
+        SimulationReport report = new Simulator(strategies, variant).run(games);
+        System.out.print(report.format(System.nanoTime() - start));
+    }
+}
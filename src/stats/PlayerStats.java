@@ -0,0 +1,135 @@
+package stats;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Results of one player for as long as the server runs. The counters are
+ * striped, see {@link LongAdder}, so the games of the player that end at the
+ * same time do not contend. The streaks are updated with compare and set.
+ */
+public class PlayerStats {
+
+    /** wins with more guesses than this are counted together */
+    public static final int MAX_TRACKED_GUESSES = 16;
+
+    private final String name;
+    private final LongAdder wins = new LongAdder();
+    private final LongAdder losses = new LongAdder();
+    private final LongAdder winsByForfeit = new LongAdder();
+    private final LongAdder guessesInWins = new LongAdder();
+    /** index is the number of guesses, the last one counts all longer wins */
+    private final LongAdder[] winsByGuesses = new LongAdder[MAX_TRACKED_GUESSES + 1];
+    /** wins in a row if positive, losses in a row if negative */
+    private final AtomicInteger streak = new AtomicInteger();
+    private final AtomicInteger bestWinStreak = new AtomicInteger();
+
+    PlayerStats(String name) {
+        this.name = name;
+        for (int i = 0; i < winsByGuesses.length; i++) {
+            winsByGuesses[i] = new LongAdder();
+        }
+    }
+
+    void recordWin(int guesses) {
+
+        wins.increment();
+        guessesInWins.add(guesses);
+        winsByGuesses[Math.max(0, Math.min(guesses, MAX_TRACKED_GUESSES))].increment();
+        int current = streak.updateAndGet(old -> old > 0 ? old + 1 : 1);
+        bestWinStreak.accumulateAndGet(current, Math::max);
+    }
+
+    void recordWinByForfeit() {
+
+        wins.increment();
+        winsByForfeit.increment();
+        int current = streak.updateAndGet(old -> old > 0 ? old + 1 : 1);
+        bestWinStreak.accumulateAndGet(current, Math::max);
+    }
+
+    void recordLoss() {
+
+        losses.increment();
+        streak.updateAndGet(old -> old < 0 ? old - 1 : -1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getWins() {
+        return wins.sum();
+    }
+
+    public long getLosses() {
+        return losses.sum();
+    }
+
+    /**
+     * @return wins because the opponent has not played in time or has left.
+     */
+    public long getWinsByForfeit() {
+        return winsByForfeit.sum();
+    }
+
+    /**
+     * @return average number of guesses in the games won by guessing, 0 if
+     *         there are none.
+     */
+    public double getAverageGuessesToWin() {
+
+        long forfeits = winsByForfeit.sum();
+        long guessed = wins.sum() - forfeits;
+        return guessed <= 0 ? 0 : (double) guessesInWins.sum() / guessed;
+    }
+
+    /**
+     * @param guesses
+     *            number of guesses, {@link #MAX_TRACKED_GUESSES} for that many
+     *            or more
+     * @return how many games the player won with that many guesses.
+     */
+    public long getWinsWithGuesses(int guesses) {
+        return winsByGuesses[Math.min(guesses, MAX_TRACKED_GUESSES)].sum();
+    }
+
+    /**
+     * @return wins in a row if positive, losses in a row if negative.
+     */
+    public int getCurrentStreak() {
+        return streak.get();
+    }
+
+    public int getBestWinStreak() {
+        return bestWinStreak.get();
+    }
+
+    /**
+     * @return the statistics as text, the guesses to win as "guesses:wins"
+     *         pairs.
+     */
+    public String format() {
+
+        StringBuilder text = new StringBuilder(128);
+        text.append(name).append(": ").append(getWins()).append(" wins");
+        if (getWinsByForfeit() > 0) {
+            text.append(" (").append(getWinsByForfeit()).append(" by forfeit)");
+        }
+        text.append(", ").append(getLosses()).append(" losses");
+        text.append(String.format(", %.2f guesses to win", getAverageGuessesToWin()));
+        int current = getCurrentStreak();
+        text.append(", streak ").append(Math.abs(current)).append(current < 0 ? " losses" : " wins");
+        text.append(", best streak ").append(getBestWinStreak()).append(" wins");
+        String separator = ". Guesses to win ";
+        for (int guesses = 1; guesses <= MAX_TRACKED_GUESSES; guesses++) {
+            long count = getWinsWithGuesses(guesses);
+            if (count > 0) {
+                text.append(separator).append(guesses).append(guesses == MAX_TRACKED_GUESSES ? "+:" : ":")
+                        .append(count);
+                separator = " ";
+            }
+        }
+        return text.append('.').toString();
+    }
+}
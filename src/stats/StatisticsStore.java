@@ -0,0 +1,204 @@
+package stats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import metrics.Metrics;
+
+/**
+ * Statistics of the players, fed by the results of the games, and the
+ * leaderboard of the players with most wins.
+ *
+ * The game threads only update the striped counters of the two players and
+ * queue the winner, see {@link #recordResult(String, int, String)}. A
+ * background thread is the only one that changes the leaderboard: a sorted
+ * set of at most {@link #getLeaderboardSize()} players, so the best players
+ * are read from its head in O(K) and nothing is sorted per query. The wins
+ * only grow, so a player out of the leaderboard only has to be compared with
+ * its last place.
+ */
+public class StatisticsStore implements Runnable {
+
+    public static final int DEFAULT_LEADERBOARD_SIZE = 100;
+    private static final int MAX_BATCH = 1024;
+
+    private final Map<String, PlayerStats> players = new ConcurrentHashMap<>();
+    private final BlockingQueue<PlayerStats> changedWinners = new LinkedBlockingQueue<>();
+    private final int leaderboardSize;
+    private final ConcurrentSkipListSet<Ranked> leaderboard = new ConcurrentSkipListSet<>();
+    /** the places in the leaderboard by name, used only by the background thread */
+    private final Map<String, Ranked> places = new HashMap<>();
+
+    /**
+     * Statistics with a leaderboard of {@link #DEFAULT_LEADERBOARD_SIZE}.
+     */
+    public StatisticsStore() {
+        this(DEFAULT_LEADERBOARD_SIZE);
+    }
+
+    /**
+     * @param leaderboardSize
+     *            how many players the leaderboard keeps
+     */
+    public StatisticsStore(int leaderboardSize) {
+        this.leaderboardSize = leaderboardSize;
+        Metrics.REGISTRY.gauge("stats.players", () -> players.size());
+        Metrics.REGISTRY.gauge("stats.pendingUpdates", () -> changedWinners.size());
+    }
+
+    /**
+     * Counts the result of a game. Does not wait for the leaderboard.
+     *
+     * @param winnerName
+     *            name of the winner, null if his results are not counted, like
+     *            for the computer
+     * @param winnerGuesses
+     *            how many guesses the winner needed
+     * @param loserName
+     *            name of the loser, null if his results are not counted
+     */
+    public void recordResult(String winnerName, int winnerGuesses, String loserName) {
+
+        if (winnerName != null) {
+            PlayerStats winner = statsOf(winnerName);
+            winner.recordWin(winnerGuesses);
+            changedWinners.add(winner);
+        }
+        if (loserName != null) {
+            statsOf(loserName).recordLoss();
+        }
+    }
+
+    /**
+     * Counts a game that the loser has forfeited by not playing in time or by
+     * disconnecting.
+     *
+     * @param winnerName
+     *            name of the winner, null if his results are not counted
+     * @param loserName
+     *            name of the loser, null if his results are not counted
+     */
+    public void recordForfeit(String winnerName, String loserName) {
+
+        if (winnerName != null) {
+            PlayerStats winner = statsOf(winnerName);
+            winner.recordWinByForfeit();
+            changedWinners.add(winner);
+        }
+        if (loserName != null) {
+            statsOf(loserName).recordLoss();
+        }
+    }
+
+    private PlayerStats statsOf(String playerName) {
+        return players.computeIfAbsent(playerName, PlayerStats::new);
+    }
+
+    /**
+     * @param playerName
+     *            name of the player
+     * @return statistics of the player, null if he has not finished a game.
+     */
+    public PlayerStats get(String playerName) {
+        return players.get(playerName);
+    }
+
+    public int getLeaderboardSize() {
+        return leaderboardSize;
+    }
+
+    /**
+     * @param count
+     *            how many players, at most {@link #getLeaderboardSize()}
+     * @return the players with most wins, the best first. Ties are ordered by
+     *         name.
+     */
+    public List<PlayerStats> top(int count) {
+
+        List<PlayerStats> best = new ArrayList<>(Math.min(count, leaderboardSize));
+        for (Ranked place : leaderboard) {
+            if (best.size() == count) {
+                break;
+            }
+            best.add(place.stats);
+        }
+        return best;
+    }
+
+    /**
+     * Moves the winners in the leaderboard until the thread is interrupted.
+     */
+    public void run() {
+
+        List<PlayerStats> batch = new ArrayList<>();
+        Set<PlayerStats> distinct = new LinkedHashSet<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(changedWinners.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            changedWinners.drainTo(batch, MAX_BATCH - 1);
+            distinct.addAll(batch);
+            for (PlayerStats winner : distinct) {
+                updatePlace(winner);
+            }
+            batch.clear();
+            distinct.clear();
+        }
+    }
+
+    private void updatePlace(PlayerStats player) {
+
+        Ranked current = new Ranked(player.getWins(), player);
+        Ranked previous = places.get(player.getName());
+        if (previous != null && previous.wins == current.wins) {
+            return;
+        }
+        if (previous == null && places.size() == leaderboardSize
+                && current.compareTo(leaderboard.last()) > 0) {
+            return;
+        }
+        // added before the old place is removed, so readers never miss him
+        leaderboard.add(current);
+        places.put(player.getName(), current);
+        if (previous != null) {
+            leaderboard.remove(previous);
+        } else if (places.size() > leaderboardSize) {
+            Ranked dropped = leaderboard.pollLast();
+            places.remove(dropped.stats.getName());
+        }
+    }
+
+    /**
+     * A place in the leaderboard. The wins are kept as they were when the
+     * place was taken, so the order never changes while it is in the set.
+     */
+    private static class Ranked implements Comparable<Ranked> {
+
+        private final long wins;
+        private final PlayerStats stats;
+
+        Ranked(long wins, PlayerStats stats) {
+            this.wins = wins;
+            this.stats = stats;
+        }
+
+        @Override
+        public int compareTo(Ranked other) {
+
+            if (wins != other.wins) {
+                return wins > other.wins ? -1 : 1;
+            }
+            return stats.getName().compareTo(other.stats.getName());
+        }
+    }
+}
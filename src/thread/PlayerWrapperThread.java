@@ -3,9 +3,17 @@ package thread;
 import java.io.IOException;
 
 import exception.InvalidPlayerException;
+import exception.PlayerDisconnectedException;
+import exception.PlayerTimeoutException;
 import game.BullCowGame;
+import metrics.Metrics;
+import player.LobbyNotifier;
+import player.LobbyPage;
 import player.Player;
 import player.PlayersHolder;
+import protocol.Prompt;
+import session.LobbyBrowser;
+import session.Screens;
 
 /**
  * this class handles new user. its task is simple: to ask if the user wants to
@@ -13,11 +21,6 @@ import player.PlayersHolder;
  */
 public class PlayerWrapperThread implements Runnable {
 
-//@formatter:off
-    private static final String PLAYER_POSSIBLE_GAME_OPTIONS_MESSAGE = "Hello:\n"
-                                                      + "Type 0: for a game with random player.\n"
-                                                      + "Type 1: for a room to pick a friend to play with.";
-//@formatter:on
     Player player;
     PlayersHolder holder;
 
@@ -40,8 +43,26 @@ public class PlayerWrapperThread implements Runnable {
     public void run() {
 
         player.setName(player.askForName());
+        if (player.getName() == null) {
+            // gone before giving his name
+            player.closeStreams();
+            return;
+        }
         try {
+            if (holder.resumeInterruptedGame(player)) {
+                // the player is back in his game, or waits for his opponent
+                return;
+            }
             int option = chooseGameOption();
+            while (option == Screens.STATISTICS_OPTION || option == Screens.VARIANT_OPTION) {
+                if (option == Screens.STATISTICS_OPTION) {
+                    Screens.showLastGames(player, holder);
+                } else {
+                    Screens.askForVariant(player, holder);
+                    Screens.variantChosen(player, holder, player.readLineFromPlayer());
+                }
+                option = chooseGameOption();
+            }
 
             if (option == 0) {
                 randomOpponentOption();
@@ -51,8 +72,17 @@ public class PlayerWrapperThread implements Runnable {
             if (option == 1) {
                 playWithFriendsOption();
             }
+            if (option == 2) {
+                computerOpponentOption();
+            }
+        } catch (PlayerTimeoutException e) {
+            System.err.println(e.getMessage() + ", the connection is closed.");
+            Metrics.IDLE_TIMEOUTS.increment();
+            player.write("You have not answered in time. Bye.");
+            player.closeStreams();
         } catch (IOException e) {
             System.err.println(player.getName() + " has disconected.");
+            player.closeStreams();
         }
     }
 
@@ -84,6 +114,17 @@ public class PlayerWrapperThread implements Runnable {
         System.out.println(player.getName() + " chose : option RandomPlayerRoom");
     }
 
+    /**
+     * Option for computer opponent. Starts the game right away, see
+     * {@link PlayersHolder#startGameWithComputer(Player)}.
+     */
+    private void computerOpponentOption() {
+
+        player.write("you chose to play game against the computer.");
+        System.out.println(player.getName() + " chose : option Computer");
+        holder.startGameWithComputer(player);
+    }
+
     /**
      * Option for playing with friends. Has additional options. To invite friend
      * or wait to be invited.
@@ -93,25 +134,42 @@ public class PlayerWrapperThread implements Runnable {
      */
     private void playWithFriendsOption() throws IOException {
 
-        int choice;
-        while (!Thread.interrupted()) {
-            String freePlayers = holder.printFreePlayersFromFriendRoom();
-            displayPossibleChoices(freePlayers);
-            choice = getPlayerChoice();
-            // choice to be invited or to wait for players to join
-
-            if (choice == 0) {
-                holder.addplayer(player);
-                player.write("you chose to wait for friend as opponent.");
-                // The thread has done it`s job.
-                return;
-            } else {
-                System.out.println(player.getName() + " chose to play with number : " + choice);
-                if (askPlayerForGame(choice)) {
-                    startNewGame(choice);
+        LobbyBrowser browser = new LobbyBrowser(holder);
+        // the changes of the room are pushed while the player looks at it
+        LobbyNotifier lobbyNotifier = holder.getLobbyNotifier();
+        lobbyNotifier.subscribe(player);
+        boolean waitingInRoom = false;
+        try {
+            while (!Thread.interrupted()) {
+                displayPossibleChoices(browser.currentPage());
+                String answer = getPlayerChoice();
+                if (LobbyBrowser.isCommand(answer)) {
+                    browser.execute(answer);
+                    continue;
+                }
+
+                int choice = Integer.parseInt(answer);
+                // choice to be invited or to wait for players to join
+                if (choice == 0) {
+                    waitingInRoom = true;
+                    holder.addplayer(player);
+                    player.write("you chose to wait for friend as opponent.");
+                    // The thread has done it`s job.
                     return;
+                } else {
+                    System.out.println(player.getName() + " chose to play with number : " + choice);
+                    if (askPlayerForGame(choice)) {
+                        lobbyNotifier.unsubscribe(player);
+                        startNewGame(choice);
+                        return;
+                    }
+                    player.write("The other player refused to play");
                 }
-                player.write("The other player refused to play");
+            }
+        } finally {
+            // a player waiting in the room stays subscribed until he is picked
+            if (!waitingInRoom) {
+                lobbyNotifier.unsubscribe(player);
             }
         }
     }
@@ -140,8 +198,8 @@ public class PlayerWrapperThread implements Runnable {
             System.out.println("unexpected failure. Trying to remove player with wrong index.");
             e.printStackTrace();
         }
-        newGame = new BullCowGame(opponent, player, holder);
-        new Thread(newGame).start();
+        newGame = new BullCowGame(opponent, player, holder, holder.variantOf(player));
+        holder.getSessionDriver().startGame(newGame);
         System.out.println("Game starting. " + player.getName() + " vs " + opponent.getName());
     }
 
@@ -153,7 +211,8 @@ public class PlayerWrapperThread implements Runnable {
      * @param freePlayers
      *            friends`s room
      * @throws IOException
-     *             if there is problem with one of the players.
+     *             if there is problem with the current player. The other
+     *             player disconnecting counts as declining.
      */
     public boolean askPlayerForGame(int choice) throws IOException {
 
@@ -161,7 +220,7 @@ public class PlayerWrapperThread implements Runnable {
         try {
             opponent = holder.getPlayerByIndex(choice);
         } catch (InvalidPlayerException e) {
-            this.player.getPlayerWriter().println("Invalid index. Or player already in game.");
+            this.player.write("Invalid index. Or player already in game.");
             return false;
         }
         if (this.equals(opponent)) {
@@ -177,31 +236,64 @@ public class PlayerWrapperThread implements Runnable {
 
     private boolean getAnswerFromOpponent(Player opponent, int choice) throws IOException {
 
-        opponent.write(
-                "Do you want to play with " + player.getName() + " with index " + choice + "yes or no!");
+        opponent.prompt(Prompt.INVITATION, Screens.invitation(player.getName(), choice, holder.variantOf(player)));
         System.out.println("question asked does " + opponent.getName() + " wants to play with " + player.getName());
 
         String responseFromOpponent = null;
         do {
-            responseFromOpponent = opponent.readLineFromPlayer().toLowerCase();
+            try {
+                responseFromOpponent = opponent.readLineFromPlayer(opponent.getTimeouts().getInviteMillis())
+                        .toLowerCase();
+            } catch (PlayerTimeoutException e) {
+                invitationExpired(opponent, choice, e);
+                return false;
+            } catch (PlayerDisconnectedException e) {
+                // he has already left the friend room, see PlayersHolder
+                System.out.println(e.getMessage() + ", the invitation is declined.");
+                player.write(opponent.getName() + " has left.");
+                return false;
+            }
             if (!"no".equals(responseFromOpponent) && !"yes".equals(responseFromOpponent)) {
-                responseFromOpponent = null;
                 System.out.println("Wrong Answer from " + opponent.getName() + " : " + responseFromOpponent);
+                responseFromOpponent = null;
             }
         } while (responseFromOpponent == null);
         if ("yes".equals(responseFromOpponent)) {
-            System.err.println("after do/while response is " + responseFromOpponent);
+            Metrics.INVITES_ACCEPTED.increment();
             return true;
         }
 
+        Metrics.INVITES_DECLINED.increment();
         return false;
     }
 
+    /**
+     * The invited player has not answered in time, the invitation counts as
+     * declined. If his connection had to be closed to stop waiting, he leaves
+     * the friend room.
+     */
+    private void invitationExpired(Player opponent, int choice, PlayerTimeoutException timeout) {
+
+        System.out.println(timeout.getMessage() + ", the invitation is declined.");
+        Metrics.INVITE_TIMEOUTS.increment();
+        Metrics.INVITES_DECLINED.increment();
+        if (timeout.isDisconnected()) {
+            try {
+                holder.removePlayerByIndex(choice);
+            } catch (InvalidPlayerException e) {
+                // somebody else has already removed him
+            }
+            opponent.closeStreams();
+        } else {
+            opponent.write("The invitation of " + player.getName() + " has expired.");
+        }
+    }
+
     /**
      * Display on the player`s console the options of the game.
      */
     public void displayPossibleOptions() {
-        player.write(PLAYER_POSSIBLE_GAME_OPTIONS_MESSAGE);
+        Screens.showOptions(player);
     }
 
     private int getPlayerOption() throws IOException {
@@ -214,41 +306,35 @@ public class PlayerWrapperThread implements Runnable {
                 choice = -1;
             }
             // TODO to add interface for options
-        } while (choice != 0 && choice != 1);
+        } while (choice < 0 || choice > Screens.LAST_OPTION);
         return choice;
     }
 
     /**
      * displays the possible choices to the default output
+     * 
+     * @param freePlayers
+     *            the page of the friend room to show
      */
-    public void displayPossibleChoices(String freePlayers) {
-
-        player.write("");
-        player.write("Free Players:");
-        player.write("0) (wait for another player to choose you)");
-        player.write(freePlayers);
-        player.write("Choose player: ");
+    public void displayPossibleChoices(LobbyPage freePlayers) {
+        Screens.showLobby(player, freePlayers);
     }
 
     /**
      * Get the player chosen number representing the player index he wants to
-     * play.
+     * play, or one of the commands that browse the friend room.
      * 
-     * @return integer representing the player index
+     * @return a non negative number or a lower case command
      * @throws IOException
      *             if error in reading/writing
      */
-    private int getPlayerChoice() throws IOException {
+    private String getPlayerChoice() throws IOException {
 
-        int choice;
+        String answer;
         do {
-            try {
-                choice = Integer.parseInt(player.readLineFromPlayer());
-            } catch (NumberFormatException nfx) {
-                choice = -1;
-            }
-        } while (choice <= -1);
-        return choice;
+            answer = LobbyBrowser.parseChoice(player.readLineFromPlayer());
+        } while (answer == null);
+        return answer;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package thread;
+
+import game.BullCowGame;
+import game.Rematch;
+import player.Player;
+
+/**
+ * How the sessions of the players and their games are run. The rooms, the
+ * rematches and the resumed games only hand the players over to the driver,
+ * so they work the same whether every session has a thread of its own, see
+ * {@link ThreadSessionDriver}, or the sessions are state machines fed by the
+ * input of the players, see {@link session.EventSessionDriver}.
+ */
+public interface SessionDriver {
+
+    /**
+     * Starts a session of the player from its beginning, like after a game he
+     * has chosen to leave for the menu.
+     * 
+     * @param player
+     *            the player
+     */
+    void startSession(Player player);
+
+    /**
+     * Runs a game between its two players. Neither has a session running
+     * meanwhile.
+     * 
+     * @param game
+     *            the game to run
+     */
+    void startGame(BullCowGame game);
+
+    /**
+     * Asks a player of a finished game whether he wants to play more, and
+     * hands his answer to the rematch, see {@link Rematch#answer(int, String)}.
+     * 
+     * @param rematch
+     *            the end of the game
+     * @param slot
+     *            0 for the first player of the game, 1 for the second
+     */
+    void askForRematch(Rematch rematch, int slot);
+
+    /**
+     * @return number of the player sessions that are running now.
+     */
+    int getLiveSessions();
+
+    /**
+     * @return number of the games that are running now.
+     */
+    int getLiveGames();
+}
@@ -0,0 +1,43 @@
+package thread;
+
+/**
+ * Runs the units of work of the server: the sessions of the players, the
+ * games and the long running services like the matchmaker. Keeps count of the
+ * sessions and games that are currently running.
+ */
+public interface TaskExecutor {
+
+    /**
+     * Runs the session of a player, see {@link PlayerWrapperThread}.
+     * 
+     * @param session
+     *            the session to run
+     */
+    void startSession(Runnable session);
+
+    /**
+     * Runs a game between two players.
+     * 
+     * @param game
+     *            the game to run
+     */
+    void startGame(Runnable game);
+
+    /**
+     * Runs a service that lives as long as the server.
+     * 
+     * @param service
+     *            the service to run
+     */
+    void startService(Runnable service);
+
+    /**
+     * @return number of the player sessions that are running now.
+     */
+    int getLiveSessions();
+
+    /**
+     * @return number of the games that are running now.
+     */
+    int getLiveGames();
+}
@@ -0,0 +1,100 @@
+package thread;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link TaskExecutor} that starts a new thread for every task. The threads
+ * are made by a {@link ThreadFactory}, so the same blocking code runs either on
+ * platform threads or on virtual threads.
+ */
+public class ThreadPerTaskExecutor implements TaskExecutor {
+
+    private final ThreadFactory threadFactory;
+    private final AtomicInteger liveSessions = new AtomicInteger();
+    private final AtomicInteger liveGames = new AtomicInteger();
+
+    /**
+     * @param threadFactory
+     *            makes the thread of every task
+     */
+    public ThreadPerTaskExecutor(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * @return executor that starts a platform thread per task, like the server
+     *         always did.
+     */
+    public static ThreadPerTaskExecutor platformThreads() {
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPerTaskExecutor(task -> new Thread(task, "bc-" + threadNumber.incrementAndGet()));
+    }
+
+    /**
+     * Makes executor that starts a virtual thread per task. Virtual threads are
+     * looked up by reflection, so the server still runs on JVMs that do not
+     * have them.
+     * 
+     * @return the executor
+     * @throws UnsupportedOperationException
+     *             if the JVM does not support virtual threads.
+     */
+    public static ThreadPerTaskExecutor virtualThreads() {
+
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Method name = builderType.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "bc-virtual-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return new ThreadPerTaskExecutor(factory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or newer", e);
+        }
+    }
+
+    @Override
+    public void startSession(Runnable session) {
+        start(session, liveSessions);
+    }
+
+    @Override
+    public void startGame(Runnable game) {
+        start(game, liveGames);
+    }
+
+    @Override
+    public void startService(Runnable service) {
+        threadFactory.newThread(service).start();
+    }
+
+    @Override
+    public int getLiveSessions() {
+        return liveSessions.get();
+    }
+
+    @Override
+    public int getLiveGames() {
+        return liveGames.get();
+    }
+
+    private void start(Runnable task, AtomicInteger liveCounter) {
+
+        liveCounter.incrementAndGet();
+        try {
+            threadFactory.newThread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    liveCounter.decrementAndGet();
+                }
+            }).start();
+        } catch (RuntimeException | Error e) {
+            liveCounter.decrementAndGet();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package thread;
+
+import java.io.IOException;
+
+import game.BullCowGame;
+import game.Rematch;
+import player.Player;
+import player.PlayersHolder;
+
+/**
+ * {@link SessionDriver} that gives every session and every game a task of the
+ * {@link TaskExecutor}. The task reads the answers of its players and waits
+ * for them, see {@link PlayerWrapperThread} and {@link BullCowGame#run()}.
+ */
+public class ThreadSessionDriver implements SessionDriver {
+
+    private final TaskExecutor executor;
+    private final PlayersHolder holder;
+
+    /**
+     * @param executor
+     *            runs the sessions and the games
+     * @param holder
+     *            the rooms the sessions take the players to
+     */
+    public ThreadSessionDriver(TaskExecutor executor, PlayersHolder holder) {
+        this.executor = executor;
+        this.holder = holder;
+    }
+
+    @Override
+    public void startSession(Player player) {
+        executor.startSession(new PlayerWrapperThread(player, holder));
+    }
+
+    @Override
+    public void startGame(BullCowGame game) {
+        executor.startGame(game);
+    }
+
+    @Override
+    public void askForRematch(Rematch rematch, int slot) {
+
+        Player asked = rematch.getPlayer(slot);
+        executor.startSession(() -> {
+            rematch.prompt(slot);
+            try {
+                while (!rematch.answer(slot, asked.readLineFromPlayer())) {
+                    System.out.println("Wrong Answer. yes, no or rematch !");
+                }
+            } catch (IOException e) {
+                // gone, or has not answered in time
+                System.out.println(e.getMessage() + ", not asked again.");
+                asked.closeStreams();
+                rematch.gone(slot);
+            }
+        });
+    }
+
+    @Override
+    public int getLiveSessions() {
+        return executor.getLiveSessions();
+    }
+
+    @Override
+    public int getLiveGames() {
+        return executor.getLiveGames();
+    }
+}
@@ -0,0 +1,55 @@
+package thread;
+
+/**
+ * How long the server waits for the answers of a player, all deadlines are
+ * kept by one {@link HashedWheelTimer}. A timeout of 0 means no timeout.
+ */
+public class Timeouts {
+
+    /** no timeouts at all */
+    public static final Timeouts NONE = new Timeouts(null, 0, 0, 0);
+
+    private final HashedWheelTimer timer;
+    private final long turnMillis;
+    private final long inviteMillis;
+    private final long idleMillis;
+
+    /**
+     * @param timer
+     *            keeps the deadlines, may be null only if all timeouts are 0
+     * @param turnMillis
+     *            time for a starting number or a guess, the player forfeits
+     *            the game when it is over
+     * @param inviteMillis
+     *            time to answer an invitation, it is declined when it is over
+     * @param idleMillis
+     *            time for any other answer, the connection is closed when it is
+     *            over
+     */
+    public Timeouts(HashedWheelTimer timer, long turnMillis, long inviteMillis, long idleMillis) {
+
+        if (timer == null && (turnMillis > 0 || inviteMillis > 0 || idleMillis > 0)) {
+            throw new IllegalArgumentException("Timeouts need a timer");
+        }
+        this.timer = timer;
+        this.turnMillis = turnMillis;
+        this.inviteMillis = inviteMillis;
+        this.idleMillis = idleMillis;
+    }
+
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    public long getTurnMillis() {
+        return turnMillis;
+    }
+
+    public long getInviteMillis() {
+        return inviteMillis;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+}